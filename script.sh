@@ -42,7 +42,7 @@ do
     then
         mkdir $dir
     fi
-    echo "cd '$(PWD)'; java -cp bin -Xmx8g cis5550.kvs.Worker $((8000+$i)) $dir localhost:8000" > kvsworker$i.sh
+    echo "cd '$(PWD)'; java -cp bin -Xmx8g -Dcis5550.webserver.virtualThreads=true cis5550.kvs.Worker $((8000+$i)) $dir localhost:8000" > kvsworker$i.sh
     chmod +x kvsworker$i.sh
     open -a Terminal kvsworker$i.sh
 done
@@ -57,7 +57,7 @@ sleep 2
 # Launch Flame Workers
 for i in `seq 1 $flameWorkers`
 do
-    echo "cd '$(PWD)'; java -cp bin cis5550.flame.Worker $((9000+$i)) localhost:9000" > flameworker$i.sh
+    echo "cd '$(PWD)'; java -cp bin -Dcis5550.webserver.virtualThreads=true cis5550.flame.Worker $((9000+$i)) localhost:9000" > flameworker$i.sh
     chmod +x flameworker$i.sh
     open -a Terminal flameworker$i.sh
 done
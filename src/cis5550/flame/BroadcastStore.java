@@ -0,0 +1,72 @@
+package cis5550.flame;
+
+import cis5550.kvs.BatchCodec;
+import cis5550.kvs.Row;
+import cis5550.tools.Logger;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Small tables that the coordinator has sent to this Flame worker for a broadcast join, held as hash maps from row
+ * key to row until the coordinator releases them. A table arrives once per worker, in the framing of
+ * {@link BatchCodec} with a key, column and value field per cell, and is shared by every partition of the join that
+ * runs here.
+ */
+class BroadcastStore {
+    static final String PATH = "/broadcast";
+    static final String RELEASE_PATH = "/broadcast/release";
+    // the largest encoded table that is broadcast; every worker keeps a decoded copy for the length of the join
+    static final int MAX_BYTES = 16 * 1024 * 1024;
+
+    private static final Logger LOGGER = Logger.getLogger(BroadcastStore.class);
+
+    /**
+     * Body of a broadcast join: the broadcast table, and whether it is the left side of the join.
+     */
+    record JoinTask(String broadcastId, boolean broadcastIsLeft) implements Serializable {
+    }
+
+    private final Map<String, Map<String, Row>> theTables = new ConcurrentHashMap<>();
+
+    void put(String aId, byte[] aCells) throws IOException {
+        Map<String, Row> myRows = new HashMap<>();
+        BatchCodec.Reader myReader = new BatchCodec.Reader(aCells);
+        while (myReader.hasNext()) {
+            String myKey = myReader.readString();
+            myRows.computeIfAbsent(myKey, Row::new).put(myReader.readString(), myReader.readString());
+        }
+        theTables.put(aId, myRows);
+        LOGGER.debug(() -> "Received broadcast " + aId + " with " + myRows.size() + " rows");
+    }
+
+    Map<String, Row> get(String aId) {
+        return theTables.get(aId);
+    }
+
+    void release(String aId) {
+        theTables.remove(aId);
+    }
+
+    /**
+     * Encodes aRows the way put() reads them, as they are read; returns null as soon as the encoding grows past
+     * aMaxBytes.
+     */
+    static byte[] encode(Iterator<Row> aRows, int aMaxBytes) {
+        BatchCodec.Writer myWriter = new BatchCodec.Writer();
+        while (aRows.hasNext()) {
+            Row myRow = aRows.next();
+            for (String myColumn : myRow.columns()) {
+                myWriter.writeString(myRow.key()).writeString(myColumn).writeString(myRow.get(myColumn)).endEntry();
+            }
+            if (myWriter.size() > aMaxBytes) {
+                return null;
+            }
+        }
+        return myWriter.toByteArray();
+    }
+}
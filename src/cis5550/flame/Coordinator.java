@@ -117,7 +117,9 @@ class Coordinator extends cis5550.generic.Coordinator {
             // in which case we'll get an InvocationTargetException. We'll extract the underlying cause and report it
             // back to the user in the HTTP response, to help with debugging.
 
-            FlameContextImpl myFlameContext = new FlameContextImpl(jarName, theKVSCoordinatorIpPort);
+            String myJarHash = JobCache.hashOf(request.bodyAsBytes());
+            FlameContextImpl myFlameContext = new FlameContextImpl(jarName, myJarHash, theKVSCoordinatorIpPort);
+            long myCrossHostBytes = crossHostBytes();
 
             try {
                 Loader.invokeRunMethod(jarFile, className, myFlameContext, argVector);
@@ -135,6 +137,11 @@ class Coordinator extends cis5550.generic.Coordinator {
                 ite.getCause().printStackTrace(new PrintWriter(sw));
                 response.status(500, "Job threw an exception");
                 return sw.toString();
+            } finally {
+                myFlameContext.uncacheAll();
+                endJob(myJarHash);
+                LOGGER.info("Job " + id + " moved " + (crossHostBytes() - myCrossHostBytes)
+                        + " bytes between Flame and KVS workers on different hosts");
             }
 
             return myFlameContext.getOutput();
@@ -145,6 +152,35 @@ class Coordinator extends cis5550.generic.Coordinator {
         });
     }
 
+    // Lets the workers drop the class loader and lambdas they keep for the job's JAR
+    private static void endJob(String aJarHash) {
+        for (String myWorker : getFlameWorkers()) {
+            try {
+                HTTP.doRequest("POST", "http://" + myWorker + JobCache.END_JOB_PATH + "?" + JobCache.JAR_PARAMETER + "=" + aJarHash, null);
+            } catch (IOException e) {
+                LOGGER.error("Failed to end job on " + myWorker, e);
+            }
+        }
+    }
+
+    // Sums the bytes that the Flame workers have exchanged with KVS workers on other hosts so far; jobs that run at
+    // the same time are counted together
+    private static long crossHostBytes() {
+        long myTotal = 0;
+        for (String myWorker : getFlameWorkers()) {
+            try {
+                HTTP.Response myResponse =
+                        HTTP.doRequest("GET", "http://" + myWorker + Worker.CROSS_HOST_BYTES_PATH, null);
+                if (myResponse.statusCode() == 200) {
+                    myTotal += Long.parseLong(new String(myResponse.body()).trim());
+                }
+            } catch (IOException | NumberFormatException e) {
+                LOGGER.error("Failed to get cross-host bytes from " + myWorker, e);
+            }
+        }
+        return myTotal;
+    }
+
     public static Vector<String> getFlameWorkers() {
         return getWorkersList();
     }
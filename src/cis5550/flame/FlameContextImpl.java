@@ -7,10 +7,16 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
-import java.util.concurrent.ConcurrentLinkedDeque;
 
 import static cis5550.flame.Coordinator.getFlameWorkers;
 
@@ -20,14 +26,35 @@ public class FlameContextImpl implements FlameContext, Serializable {
     public static final String COLUMN_NAME = "value";
     public static final long MAX_WAIT_TIME = 10000;
 
+    private static final int ROWS_PER_PARTITION = 10000;
+    private static final int MAX_RANGES_PER_SLOT = 4;
+
     private final StringBuilder theOutputStringBuilder;
     private final String theJarName;
+    // sent with every operation, so workers deserialize its lambdas with this job's classes
+    private final String theJarHash;
     private final String theKVSCoordinatorIpPort;
 
     private int theNextJobId = 1;
 
-    public FlameContextImpl(String aJarName, String aKVSCoordinatorIpPort) {
+    // RDDs whose computation has been deferred; they must run before the table they read is deleted or renamed
+    private final transient List<Deferred> thePendingRDDs = new LinkedList<>();
+
+    // where the partitions of each cached table live; operations on these tables are sent to the same workers
+    private final transient Map<String, Vector<Partitioner.Partition>> theCachedPartitions = new HashMap<>();
+
+    // concurrent partitions per Flame worker, as reported by the worker
+    private final transient Map<String, Integer> theWorkerSlots = new HashMap<>();
+
+    interface Deferred {
+        boolean readsFrom(String aTable);
+
+        void materialize() throws Exception;
+    }
+
+    public FlameContextImpl(String aJarName, String aJarHash, String aKVSCoordinatorIpPort) {
         theJarName = aJarName;
+        theJarHash = aJarHash;
         theKVSCoordinatorIpPort = aKVSCoordinatorIpPort;
         theOutputStringBuilder = new StringBuilder();
     }
@@ -71,6 +98,157 @@ public class FlameContextImpl implements FlameContext, Serializable {
         return new FlamePairRDDImpl(myOutputTable, getKVS(), this);
     }
 
+    void addPendingRDD(Deferred aRDD) {
+        thePendingRDDs.add(aRDD);
+    }
+
+    void removePendingRDD(Deferred aRDD) {
+        thePendingRDDs.remove(aRDD);
+    }
+
+    void materializeReadersOf(String aTable) throws Exception {
+        for (Deferred myRDD : new LinkedList<>(thePendingRDDs)) {
+            if (myRDD.readsFrom(aTable)) {
+                myRDD.materialize();
+            }
+        }
+    }
+
+    /**
+     * Runs aPipeline over aInputTable on the workers and returns the output table.
+     */
+    String runPipeline(String aInputTable, Pipeline aPipeline) throws Exception {
+        LOGGER.debug("Running pipeline of " + aPipeline.numSteps() + " operations on table " + aInputTable);
+        String myOutputTable =
+                invokeOperation(aInputTable, FlameOperation.PIPELINE, Serializer.objectToByteArray(aPipeline));
+        if (myOutputTable == null) {
+            throw new Exception("Failed to run pipeline on table " + aInputTable);
+        }
+        return myOutputTable;
+    }
+
+    /**
+     * Runs aPipeline over aInputTable and folds its output by key through a worker-to-worker shuffle (see Shuffle),
+     * then returns the table with one folded value per key. Both rounds use the same partitions, since the map side
+     * buckets pairs by the partitions' key ranges.
+     */
+    String shuffleFoldByKey(
+            String aInputTable, Pipeline aPipeline, String aZeroElement, FlamePairRDD.TwoStringsToString aLambda)
+            throws Exception {
+        String myShuffleId = getNewTableName();
+        String myOutputTable = getNewTableName();
+        Vector<Partitioner.Partition> myPartitions = partitionsFor(aInputTable);
+
+        List<String> mySplitKeys = new ArrayList<>();
+        for (Partitioner.Partition myPartition : myPartitions) {
+            if (myPartition.fromKey != null) {
+                mySplitKeys.add(myPartition.fromKey);
+            }
+        }
+        Collections.sort(mySplitKeys);
+
+        LOGGER.debug("Shuffling output of " + aPipeline.numSteps() + " operations on table " + aInputTable
+                + " into " + myPartitions.size() + " buckets");
+        // the workers the map tasks ran on; the reduce round may move partitions again, but not the map outputs
+        Set<String> myMapWorkers = null;
+        try {
+            Shuffle.MapTask myMapTask = new Shuffle.MapTask(aPipeline, aLambda, mySplitKeys);
+            boolean myIsMapped = invokeOnPartitions(myPartitions, aInputTable, FlameOperation.SHUFFLE_MAP,
+                    Serializer.objectToByteArray(myMapTask), aZeroElement, myShuffleId);
+            myMapWorkers = workersOf(myPartitions);
+            if (!myIsMapped) {
+                throw new Exception("Failed to run map side of shuffle " + myShuffleId);
+            }
+
+            Shuffle.ReduceTask myReduceTask = new Shuffle.ReduceTask(new ArrayList<>(myMapWorkers), aLambda);
+            if (!invokeOnPartitions(myPartitions, myShuffleId, FlameOperation.SHUFFLE_REDUCE,
+                    Serializer.objectToByteArray(myReduceTask), aZeroElement, myOutputTable)) {
+                throw new Exception("Failed to run reduce side of shuffle " + myShuffleId);
+            }
+        } finally {
+            releaseShuffle(myShuffleId, myMapWorkers != null ? myMapWorkers : workersOf(myPartitions));
+        }
+        return myOutputTable;
+    }
+
+    private void releaseShuffle(String aShuffleId, Set<String> aMapWorkers) {
+        for (String myWorker : aMapWorkers) {
+            try {
+                HTTP.doRequest("POST", "http://" + myWorker + Shuffle.RELEASE_PATH + "?id="
+                        + URLEncoder.encode(aShuffleId, StandardCharsets.UTF_8), null);
+            } catch (IOException e) {
+                LOGGER.error("Failed to release shuffle " + aShuffleId + " on " + myWorker, e);
+            }
+        }
+    }
+
+    /**
+     * Loads each partition of aTable into the memory of the Flame worker it is assigned to, and remembers the
+     * assignment so that later operations on aTable run there.
+     */
+    void cacheTable(String aTable) throws Exception {
+        if (theCachedPartitions.containsKey(aTable)) {
+            return;
+        }
+        Vector<Partitioner.Partition> myPartitions = generatePartitions(aTable);
+        if (!invokeOnPartitions(myPartitions, aTable, FlameOperation.CACHE, new byte[]{}, null, aTable)) {
+            dropCachedPartitions(aTable, myPartitions);
+            throw new Exception("Failed to cache table " + aTable);
+        }
+        theCachedPartitions.put(aTable, myPartitions);
+    }
+
+    void uncacheTable(String aTable) {
+        Vector<Partitioner.Partition> myPartitions = theCachedPartitions.remove(aTable);
+        if (myPartitions != null) {
+            dropCachedPartitions(aTable, myPartitions);
+        }
+    }
+
+    /**
+     * Drops every cached table; called when the job ends.
+     */
+    public void uncacheAll() {
+        for (String myTable : new ArrayList<>(theCachedPartitions.keySet())) {
+            uncacheTable(myTable);
+        }
+    }
+
+    private void dropCachedPartitions(String aTable, Vector<Partitioner.Partition> aPartitions) {
+        for (String myWorker : workersOf(aPartitions)) {
+            try {
+                HTTP.doRequest("POST", "http://" + myWorker + PartitionCache.DROP_PATH + "?table="
+                        + URLEncoder.encode(aTable, StandardCharsets.UTF_8), null);
+            } catch (IOException e) {
+                LOGGER.error("Failed to drop cached partitions of " + aTable + " on " + myWorker, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the partitions for an operation that reads aTables: those of the first of them that is cached, so each
+     * partition runs where its rows are held in memory, or else new ones sized from the rows of the first table.
+     */
+    private Vector<Partitioner.Partition> partitionsFor(String... aTables) {
+        for (String myTable : aTables) {
+            Vector<Partitioner.Partition> myCached = theCachedPartitions.get(myTable);
+            if (myCached != null) {
+                Vector<Partitioner.Partition> myPartitions = new Vector<>();
+                myCached.forEach(myPartition -> myPartitions.add(myPartition.copy()));
+                return myPartitions;
+            }
+        }
+        return generatePartitions(aTables[0]);
+    }
+
+    private static Set<String> workersOf(List<Partitioner.Partition> aPartitions) {
+        Set<String> myWorkers = new LinkedHashSet<>();
+        for (Partitioner.Partition myPartition : aPartitions) {
+            myWorkers.add(myPartition.assignedFlameWorker);
+        }
+        return myWorkers;
+    }
+
     public String getOutput() {
         if (theOutputStringBuilder.isEmpty()) {
             return "No output";
@@ -83,47 +261,118 @@ public class FlameContextImpl implements FlameContext, Serializable {
         LOGGER.debug("Invoking operation " + aFlameOperation + " on table " + aInputTable);
         String myOutputTable = aOutputTable == null ? getNewTableName() : aOutputTable;
 
-        ConcurrentLinkedDeque<HTTP.Response> myResponses = new ConcurrentLinkedDeque<>();
-        List<Thread> myThreads = new LinkedList<>();
-
-        Vector<Partitioner.Partition> myPartitions = generatePartitions();
+        Vector<Partitioner.Partition> myPartitions = partitionsFor(aInputTable);
+        if (!invokeOnPartitions(myPartitions, aInputTable, aFlameOperation, aLambda, aZeroElement, myOutputTable)) {
+            return null;
+        }
+        return myOutputTable;
+    }
 
-        for (Partitioner.Partition myPartition : myPartitions) {
-            Thread myThread = sendOperationToWorker(
-                    aFlameOperation,
-                    aLambda,
-                    aInputTable,
-                    myOutputTable,
-                    myPartition,
-                    aZeroElement,
-                    myResponses);
-            myThreads.add(myThread);
-            myThread.start();
-        }
-
-        for (Thread myThread : myThreads) {
-            try {
-                myThread.join();
-            } catch (InterruptedException e) {
-                LOGGER.error("Failed to join thread", e);
-            }
+    /**
+     * Invokes an operation that scans aInputTable and looks up the same keys in aOtherTable (join, cogroup). Each
+     * partition runs where either table is cached, so the lookups can be served from memory.
+     */
+    public String invokeOperationWithLookups(String aInputTable, FlameOperation aFlameOperation, String aOtherTable) {
+        LOGGER.debug("Invoking operation " + aFlameOperation + " on tables " + aInputTable + " and " + aOtherTable);
+        String myOutputTable = getNewTableName();
+
+        Vector<Partitioner.Partition> myPartitions = partitionsFor(aInputTable, aOtherTable);
+        if (!invokeOnPartitions(myPartitions, aInputTable, aFlameOperation,
+                Serializer.objectToByteArray(aOtherTable), null, myOutputTable)) {
+            return null;
         }
+        return myOutputTable;
+    }
 
-        if (myResponses.size() != myThreads.size()) {
-            LOGGER.error("Failed to send operation to all workers, received responses: " + myResponses.size() + ", expected: " + myThreads.size());
+    /**
+     * Joins aStreamedTable with aBroadcastTable by sending all of aBroadcastTable to every Flame worker once, and then
+     * streaming the partitions of aStreamedTable past it. The output is the same as that of JOIN with the left side
+     * first. Returns null without running the join if aBroadcastTable encodes to more than BroadcastStore.MAX_BYTES;
+     * the scan stops there, so the coordinator never holds more than that.
+     */
+    String invokeBroadcastJoin(String aStreamedTable, String aBroadcastTable, boolean aBroadcastIsLeft)
+            throws Exception {
+        byte[] myCells;
+        try (KVSClient.ParallelKVSIterator myRows = getKVS().parallelScan(aBroadcastTable, false)) {
+            myCells = BroadcastStore.encode(myRows, BroadcastStore.MAX_BYTES);
+        }
+        if (myCells == null) {
+            LOGGER.debug("Table " + aBroadcastTable + " is too large to broadcast");
             return null;
         }
 
-        for (HTTP.Response myResponse : myResponses) {
-            if (myResponse == null || myResponse.statusCode() != 200) {
-                LOGGER.error("Operation failed on at least one worker with status code: " + (myResponse == null ? "response is null" : myResponse.statusCode()));
-                return null;
+        LOGGER.debug("Broadcasting table " + aBroadcastTable + " to join it with table " + aStreamedTable);
+        String myBroadcastId = getNewTableName();
+        String myOutputTable = getNewTableName();
+
+        Vector<Partitioner.Partition> myPartitions = partitionsFor(aStreamedTable);
+        Set<String> myWorkers = new LinkedHashSet<>(getFlameWorkers());
+        try {
+            for (String myWorker : myWorkers) {
+                HTTP.Response myResponse = HTTP.doRequest("POST", "http://" + myWorker + BroadcastStore.PATH + "?id="
+                        + URLEncoder.encode(myBroadcastId, StandardCharsets.UTF_8), myCells);
+                if (myResponse.statusCode() != 200) {
+                    throw new Exception("Failed to broadcast table " + aBroadcastTable + " to " + myWorker);
+                }
             }
-        }
 
+            BroadcastStore.JoinTask myTask = new BroadcastStore.JoinTask(myBroadcastId, aBroadcastIsLeft);
+            if (!invokeOnPartitions(myPartitions, aStreamedTable, FlameOperation.BROADCAST_JOIN,
+                    Serializer.objectToByteArray(myTask), null, myOutputTable)) {
+                throw new Exception("Failed to join table " + aStreamedTable + " with broadcast " + myBroadcastId);
+            }
+        } finally {
+            for (String myWorker : myWorkers) {
+                try {
+                    HTTP.doRequest("POST", "http://" + myWorker + BroadcastStore.RELEASE_PATH + "?id="
+                            + URLEncoder.encode(myBroadcastId, StandardCharsets.UTF_8), null);
+                } catch (IOException e) {
+                    LOGGER.error("Failed to release broadcast " + myBroadcastId + " on " + myWorker, e);
+                }
+            }
+        }
         return myOutputTable;
     }
 
+    boolean isCached(String aTable) {
+        return theCachedPartitions.containsKey(aTable);
+    }
+
+    private boolean invokeOnPartitions(
+            Vector<Partitioner.Partition> aPartitions,
+            String aInputTable,
+            FlameOperation aFlameOperation,
+            byte[] aLambda,
+            String aZeroElement,
+            String aOutputTable) {
+        return runOnPartitions(aPartitions, aInputTable, aFlameOperation, aLambda, aZeroElement, aOutputTable) != null;
+    }
+
+    /**
+     * Sends the operation for each partition to its worker through the PartitionScheduler and returns the responses,
+     * or null if it failed on any partition. Partitions of cached tables stay where their rows are.
+     */
+    private List<HTTP.Response> runOnPartitions(
+            Vector<Partitioner.Partition> aPartitions,
+            String aInputTable,
+            FlameOperation aFlameOperation,
+            byte[] aLambda,
+            String aZeroElement,
+            String aOutputTable) {
+        PartitionScheduler myScheduler = new PartitionScheduler(getWorkerSlots());
+        KVSClient myKVS = getKVS();
+        try {
+            // load the KVS worker list once, before the scheduler's threads share the client
+            myKVS.numWorkers();
+        } catch (IOException e) {
+            LOGGER.error("Failed to get KVS workers", e);
+            return null;
+        }
+        return myScheduler.run(aPartitions, myPartition -> sendOperationToWorker(
+                myKVS, aFlameOperation, aLambda, aInputTable, aOutputTable, myPartition, aZeroElement),
+                !theCachedPartitions.containsKey(aInputTable));
+    }
+
     public String invokeOperation(String aInputTable, FlameOperation aFlameOperation, byte[] aLambda) {
         return invokeOperation(aInputTable, aFlameOperation, aLambda, null);
     }
@@ -138,45 +387,16 @@ public class FlameContextImpl implements FlameContext, Serializable {
     }
 
     public String invokeFold(String aInputTable, FlamePairRDD.TwoStringsToString aLambda, String aZeroElement) {
-        ConcurrentLinkedDeque<HTTP.Response> myResponses = new ConcurrentLinkedDeque<>();
-        List<Thread> myThreads = new LinkedList<>();
-
-        Vector<Partitioner.Partition> myPartitions = generatePartitions();
-
-        for (Partitioner.Partition myPartition : myPartitions) {
-            Thread myThread = sendOperationToWorker(
-                    FlameOperation.FOLD,
-                    Serializer.objectToByteArray(aLambda),
-                    aInputTable,
-                    "",
-                    myPartition,
-                    aZeroElement,
-                    myResponses);
-            myThreads.add(myThread);
-            myThread.start();
-        }
-
-        for (Thread myThread : myThreads) {
-            try {
-                myThread.join();
-            } catch (InterruptedException e) {
-                LOGGER.error("Failed to join thread", e);
-            }
-        }
-
-        if (myResponses.size() != myThreads.size()) {
-            LOGGER.error("Failed to send operation to all workers");
+        Vector<Partitioner.Partition> myPartitions = partitionsFor(aInputTable);
+        List<HTTP.Response> myResponses = runOnPartitions(myPartitions, aInputTable, FlameOperation.FOLD,
+                Serializer.objectToByteArray(aLambda), aZeroElement, "");
+        if (myResponses == null) {
             return null;
         }
 
         List<String> myWorkerResults = new LinkedList<>();
 
         for (HTTP.Response myResponse : myResponses) {
-            if (myResponse == null || myResponse.statusCode() != 200) {
-                LOGGER.error("Operation failed on at least one worker with status code: " + (myResponse == null ? "response is null" : myResponse.statusCode()));
-                return null;
-            }
-
             myWorkerResults.add(new String(myResponse.body()));
         }
 
@@ -185,101 +405,106 @@ public class FlameContextImpl implements FlameContext, Serializable {
 
     public String invokePairRDDFold(String aInputTable, FlamePairRDD.StringPairToString aLambda,
                              FlamePairRDD.TwoStringsToString anothaLambda,String aZeroElement) {
-        ConcurrentLinkedDeque<HTTP.Response> myResponses = new ConcurrentLinkedDeque<>();
-        List<Thread> myThreads = new LinkedList<>();
-
-        Vector<Partitioner.Partition> myPartitions = generatePartitions();
-
-        for (Partitioner.Partition myPartition : myPartitions) {
-            Thread myThread = sendOperationToWorker(
-                    FlameOperation.PAIR_FOLD,
-                    Serializer.objectToByteArray(aLambda),
-                    aInputTable,
-                    "",
-                    myPartition,
-                    aZeroElement,
-                    myResponses);
-            myThreads.add(myThread);
-            myThread.start();
-        }
-
-        for (Thread myThread : myThreads) {
-            try {
-                myThread.join();
-            } catch (InterruptedException e) {
-                LOGGER.error("Failed to join thread", e);
-            }
-        }
-
-        if (myResponses.size() != myThreads.size()) {
-            LOGGER.error("Failed to send operation to all workers");
+        Vector<Partitioner.Partition> myPartitions = partitionsFor(aInputTable);
+        List<HTTP.Response> myResponses = runOnPartitions(myPartitions, aInputTable, FlameOperation.PAIR_FOLD,
+                Serializer.objectToByteArray(aLambda), aZeroElement, "");
+        if (myResponses == null) {
             return null;
         }
 
         List<String> myWorkerResults = new LinkedList<>();
 
         for (HTTP.Response myResponse : myResponses) {
-            if (myResponse == null || myResponse.statusCode() != 200) {
-                LOGGER.error("Operation failed on at least one worker with status code: " + (myResponse == null ? "response is null" : myResponse.statusCode()));
-                return null;
-            }
-
             myWorkerResults.add(new String(myResponse.body()));
         }
 
         return myWorkerResults.stream().reduce(aZeroElement, anothaLambda::op);
     }
 
-    private Thread sendOperationToWorker(
+    private HTTP.Response sendOperationToWorker(
+            KVSClient aKVS,
             FlameOperation aFlameOperation,
             byte[] aLambda,
             String aInputTable,
             String aOutputTable,
             Partitioner.Partition aPartition,
-            String aZeroElement,
-            ConcurrentLinkedDeque<HTTP.Response> myResponses) {
-        return new Thread(() -> {
-            try {
-                StringBuilder myWorkerQuery = new StringBuilder();
-                myWorkerQuery
-                        .append("http://")
-                        .append(aPartition.assignedFlameWorker)
-                        .append(aFlameOperation.getPath());
-                myWorkerQuery.append("?");
-                myWorkerQuery.append("inputTable=").append(URLEncoder.encode(aInputTable, StandardCharsets.UTF_8));
-                myWorkerQuery.append("&");
-                myWorkerQuery.append("outputTable=").append(URLEncoder.encode(aOutputTable, StandardCharsets.UTF_8));
+            String aZeroElement) throws IOException {
+        if (aFlameOperation.getPath() == null) {
+            throw new IllegalArgumentException(aFlameOperation + " can only run as a pipeline step");
+        }
+        StringBuilder myWorkerQuery = new StringBuilder();
+        myWorkerQuery
+                .append("http://")
+                .append(aPartition.assignedFlameWorker)
+                .append(aFlameOperation.getPath());
+        myWorkerQuery.append("?");
+        myWorkerQuery.append("inputTable=").append(URLEncoder.encode(aInputTable, StandardCharsets.UTF_8));
+        myWorkerQuery.append("&");
+        myWorkerQuery.append("outputTable=").append(URLEncoder.encode(aOutputTable, StandardCharsets.UTF_8));
+        myWorkerQuery.append("&");
+        myWorkerQuery
+                .append("kvsCoordinator=")
+                .append(URLEncoder.encode(aKVS.getCoordinator(), StandardCharsets.UTF_8));
+        myWorkerQuery.append("&");
+        myWorkerQuery.append(JobCache.JAR_PARAMETER).append("=").append(theJarHash);
+        if (aPartition.fromKey != null) {
+            myWorkerQuery.append("&");
+            myWorkerQuery
+                    .append("fromKey=")
+                    .append(URLEncoder.encode(aPartition.fromKey, StandardCharsets.UTF_8));
+        }
+        if (aPartition.toKeyExclusive != null) {
+            myWorkerQuery.append("&");
+            myWorkerQuery
+                    .append("toKeyExclusive=")
+                    .append(URLEncoder.encode(aPartition.toKeyExclusive, StandardCharsets.UTF_8));
+        }
+        if (aZeroElement != null) {
+            myWorkerQuery.append("&");
+            myWorkerQuery
+                    .append("zeroElement=")
+                    .append(URLEncoder.encode(aZeroElement, StandardCharsets.UTF_8));
+        }
+        int myLocalKVSWorker = localKVSWorker(aKVS, aPartition);
+        if (myLocalKVSWorker >= 0) {
+            myWorkerQuery.append("&");
+            myWorkerQuery.append("localFromKey=").append(aKVS.getWorkerID(myLocalKVSWorker));
+            if (myLocalKVSWorker < aKVS.numWorkers() - 1) {
                 myWorkerQuery.append("&");
-                myWorkerQuery
-                        .append("kvsCoordinator=")
-                        .append(URLEncoder.encode(getKVS().getCoordinator(), StandardCharsets.UTF_8));
-                if (aPartition.fromKey != null) {
-                    myWorkerQuery.append("&");
-                    myWorkerQuery
-                            .append("fromKey=")
-                            .append(URLEncoder.encode(aPartition.fromKey, StandardCharsets.UTF_8));
-                }
-                if (aPartition.toKeyExclusive != null) {
-                    myWorkerQuery.append("&");
-                    myWorkerQuery
-                            .append("toKeyExclusive=")
-                            .append(URLEncoder.encode(aPartition.toKeyExclusive, StandardCharsets.UTF_8));
+                myWorkerQuery.append("localToKeyExclusive=").append(aKVS.getWorkerID(myLocalKVSWorker + 1));
+            }
+        }
+        return HTTP.doRequest("POST", myWorkerQuery.toString(), aLambda);
+    }
+
+    /**
+     * Returns the index of a KVS worker on the same host as the partition's Flame worker, preferring the one that holds
+     * the partition's keys, or -1 if there is none. New row keys are placed in its range, so outputs are written
+     * locally.
+     */
+    private static int localKVSWorker(KVSClient aKVS, Partitioner.Partition aPartition) throws IOException {
+        int myLocal = -1;
+        for (int i = 0; i < aKVS.numWorkers(); i++) {
+            String myAddress = aKVS.getWorkerAddress(i);
+            if (Partitioner.sameIP(myAddress, aPartition.assignedFlameWorker)) {
+                if (myAddress.equals(aPartition.kvsWorker)) {
+                    return i;
                 }
-                if (aZeroElement != null) {
-                    myWorkerQuery.append("&");
-                    myWorkerQuery
-                            .append("zeroElement=")
-                            .append(URLEncoder.encode(aZeroElement, StandardCharsets.UTF_8));
+                if (myLocal < 0) {
+                    myLocal = i;
                 }
-                myResponses.add(HTTP.doRequest("POST", myWorkerQuery.toString(), aLambda));
-            } catch (IOException e) {
-                LOGGER.error("Failed to send operation to worker", e);
             }
-        });
+        }
+        return myLocal;
     }
 
-    private Vector<Partitioner.Partition> generatePartitions() {
+    /**
+     * Splits the key space into ranges for aTable: one per Flame worker for small tables, and for larger ones about
+     * ROWS_PER_PARTITION rows per range, up to MAX_RANGES_PER_SLOT ranges for each slot of the largest worker.
+     */
+    private Vector<Partitioner.Partition> generatePartitions(String aTable) {
         Partitioner myPartitioner = new Partitioner();
+        myPartitioner.setKeyRangesPerWorker(keyRangesPerWorker(aTable));
 
         List<String> myKVSWorkerIDs = new LinkedList<>();
         List<String> myKVSWorkerAddresses = new LinkedList<>();
@@ -311,6 +536,41 @@ public class FlameContextImpl implements FlameContext, Serializable {
         return myPartitioner.assignPartitions();
     }
 
+    private int keyRangesPerWorker(String aTable) {
+        int myRows;
+        try {
+            myRows = getKVS().count(aTable);
+        } catch (IOException e) {
+            LOGGER.error("Failed to count rows of " + aTable, e);
+            return 1;
+        }
+        int myMaxSlots = getWorkerSlots().values().stream().max(Integer::compare).orElse(1);
+        int myRanges = (int) Math.ceil((double) myRows / ROWS_PER_PARTITION / Math.max(1, getFlameWorkers().size()));
+        return Math.max(1, Math.min(myRanges, myMaxSlots * MAX_RANGES_PER_SLOT));
+    }
+
+    /**
+     * Returns how many partitions each Flame worker runs at the same time, asking workers the first time they are seen.
+     */
+    private Map<String, Integer> getWorkerSlots() {
+        Map<String, Integer> mySlots = new LinkedHashMap<>();
+        for (String myWorker : getFlameWorkers()) {
+            mySlots.put(myWorker, theWorkerSlots.computeIfAbsent(myWorker, k -> {
+                try {
+                    HTTP.Response myResponse =
+                            HTTP.doRequest("GET", "http://" + myWorker + PartitionScheduler.SLOTS_PATH, null);
+                    if (myResponse.statusCode() == 200) {
+                        return Math.max(1, Integer.parseInt(new String(myResponse.body()).trim()));
+                    }
+                } catch (IOException | NumberFormatException e) {
+                    LOGGER.error("Failed to get slots of " + myWorker, e);
+                }
+                return 1;
+            }));
+        }
+        return mySlots;
+    }
+
     private String getNewTableName() {
         return "flame_" + "_" + theJarName + "_" + System.currentTimeMillis() + "_" + theNextJobId++;
     }
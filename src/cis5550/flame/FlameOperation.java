@@ -1,33 +1,47 @@
 package cis5550.flame;
 
 public enum FlameOperation {
-    FLATMAP("/rdd/flatMap"),
-    MAP_TO_PAIR("/rdd/mapToPair"),
     FOLD_BY_KEY("/pairRDD/foldByKey"),
-    GROUP_BY("/rdd/groupBy"),
     SAMPLE("/rdd/sample"),
     INTERSECTION("/rdd/intersection"),
     DISTINCT("/rdd/distinct"),
     FROM_TABLE("/rdd/fromTable"),
-    FLATMAP_TO_PAIR("/rdd/flatMapToPair"),
-    PAIR_FLATMAP("/pairRDD/flatMap"),
-    PAIR_FLATMAP_TO_PAIR("/pairRDD/flatMapToPair"),
     PAIR_FLATMAP_TO_PAIR_TABLE("/pairRDD/flatMapToPairTable"),
     JOIN("/pairRDD/join"),
     FOLD("/rdd/fold"),
-    FILTER("/rdd/filter"),
     MAP_PARTITIONS("/rdd/mapPartitions"),
     COGROUP("/pairRDD/cogroup"),
     PAIR_FROM_TABLE("/pairRDD/pairFromTable"),
-    PAIR_FOLD("/pairRDD/fold")
+    PAIR_FOLD("/pairRDD/fold"),
+    PIPELINE("/rdd/pipeline"),
+    SHUFFLE_MAP("/pairRDD/shuffleMap"),
+    SHUFFLE_REDUCE("/pairRDD/shuffleReduce"),
+    CACHE("/rdd/cache"),
+    BROADCAST_JOIN("/pairRDD/broadcastJoin"),
+
+    // steps of a Pipeline, which workers only run as part of PIPELINE or SHUFFLE_MAP
+    FLATMAP,
+    MAP_TO_PAIR,
+    FLATMAP_TO_PAIR,
+    FILTER,
+    PAIR_FLATMAP,
+    PAIR_FLATMAP_TO_PAIR,
+    PARTITION_BY
     ;
 
     private String thePath;
 
+    FlameOperation() {
+        this(null);
+    }
+
     FlameOperation(String aPath) {
         thePath = aPath;
     }
 
+    /**
+     * Returns the worker route of the operation, or null for a pipeline step, which has none.
+     */
     public String getPath() {
         return thePath;
     }
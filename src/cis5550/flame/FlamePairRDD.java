@@ -84,4 +84,12 @@ public interface FlamePairRDD {
   public FlamePairRDD cogroup(FlamePairRDD other) throws Exception;
 
   public String fold(String zeroElement, FlamePairRDD.StringPairToString lambda, FlamePairRDD.TwoStringsToString lambda2) throws Exception;
+
+  // cache() should keep the partitions of this PairRDD in the memory of the
+  // Flame workers (spilling to local disk if they do not fit), so that later
+  // operations read them from there instead of scanning the key-value store
+  // again. It returns the PairRDD itself. The cache is dropped when the PairRDD is
+  // destroyed or saved, and when the job ends.
+
+  public FlamePairRDD cache() throws Exception;
 }
@@ -8,21 +8,64 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
-public class FlamePairRDDImpl implements FlamePairRDD {
+public class FlamePairRDDImpl implements FlamePairRDD, FlameContextImpl.Deferred {
     private final KVSClient theKVSClient;
     private final FlameContextImpl theFlameContext;
 
     private String theTableName;
 
+    // Set while this RDD has not been computed yet: it is thePipeline applied to thePipelineInput. Narrow
+    // operations extend the pipeline, and anything else runs it first (see FlameRDDImpl)
+    private String thePipelineInput;
+    private Pipeline thePipeline;
+
     public FlamePairRDDImpl(String aTableName, KVSClient aKVSClient, FlameContextImpl aFlameContext) {
         theTableName = aTableName;
         theKVSClient = aKVSClient;
         theFlameContext = aFlameContext;
     }
 
+    static FlamePairRDDImpl deferred(
+            String aInputTable, Pipeline aPipeline, KVSClient aKVSClient, FlameContextImpl aFlameContext) {
+        FlamePairRDDImpl myRDD = new FlamePairRDDImpl(null, aKVSClient, aFlameContext);
+        myRDD.thePipelineInput = aInputTable;
+        myRDD.thePipeline = aPipeline;
+        aFlameContext.addPendingRDD(myRDD);
+        return myRDD;
+    }
+
+    @Override
+    public boolean readsFrom(String aTable) {
+        return thePipeline != null && thePipelineInput.equals(aTable);
+    }
+
+    @Override
+    public void materialize() throws Exception {
+        if (thePipeline == null) {
+            return;
+        }
+        theTableName = theFlameContext.runPipeline(thePipelineInput, thePipeline);
+        thePipeline = null;
+        theFlameContext.removePendingRDD(this);
+    }
+
+    String getTableName() throws Exception {
+        materialize();
+        return theTableName;
+    }
+
+    // A narrow operation on this RDD reads the same input as this RDD's pipeline, or this RDD's table
+    private String pipelineInput() {
+        return thePipeline != null ? thePipelineInput : theTableName;
+    }
+
+    private Pipeline pipeline() {
+        return thePipeline != null ? thePipeline : Pipeline.overPairs();
+    }
+
     @Override
     public List<FlamePair> collect() throws Exception {
-        Iterator<Row> myRows = theKVSClient.scan(theTableName);
+        Iterator<Row> myRows = theKVSClient.scan(getTableName());
 
         List<FlamePair> myResults = new LinkedList<>();
 
@@ -38,8 +81,11 @@ public class FlamePairRDDImpl implements FlamePairRDD {
 
     @Override
     public FlamePairRDD foldByKey(String zeroElement, TwoStringsToString lambda) throws Exception {
+        if (thePipeline != null) {
+            return shuffleAndFoldByKey(zeroElement, lambda);
+        }
         String myOutputTable = theFlameContext.invokeOperation(
-                theTableName,
+                getTableName(),
                 FlameOperation.FOLD_BY_KEY,
                 Serializer.objectToByteArray(lambda),
                 zeroElement);
@@ -49,8 +95,21 @@ public class FlamePairRDDImpl implements FlamePairRDD {
         return new FlamePairRDDImpl(myOutputTable, theKVSClient, theFlameContext);
     }
 
+    /**
+     * Runs the pending pipeline and folds its output by key through a worker-to-worker shuffle, without writing the
+     * pairs to the KVS. This relies on the lambda being associative with zeroElement as its identity, since values
+     * are folded into per-partition partial results first, which are then folded together.
+     */
+    private FlamePairRDD shuffleAndFoldByKey(String aZeroElement, TwoStringsToString aLambda) throws Exception {
+        String myOutputTable = theFlameContext.shuffleFoldByKey(thePipelineInput, thePipeline, aZeroElement, aLambda);
+        return new FlamePairRDDImpl(myOutputTable, theKVSClient, theFlameContext);
+    }
+
     @Override
     public void saveAsTable(String tableNameArg) throws Exception {
+        materialize();
+        theFlameContext.materializeReadersOf(theTableName);
+        theFlameContext.uncacheTable(theTableName);
         if (!theKVSClient.rename(theTableName, tableNameArg)) {
             throw new Exception("Failed to rename table");
         }
@@ -59,37 +118,36 @@ public class FlamePairRDDImpl implements FlamePairRDD {
 
     @Override
     public FlameRDD flatMap(PairToStringIterable lambda) throws Exception {
-        String myOutputTable = theFlameContext.invokeOperation(
-                theTableName,
-                FlameOperation.PAIR_FLATMAP,
-                Serializer.objectToByteArray(lambda));
-        if (myOutputTable == null) {
-            throw new Exception("Failed to invoke flatMap operation");
-        }
-        return new FlameRDDImpl(myOutputTable, theKVSClient, theFlameContext);
+        return FlameRDDImpl.deferred(
+                pipelineInput(), pipeline().then(FlameOperation.PAIR_FLATMAP, lambda), theKVSClient, theFlameContext);
     }
 
     @Override
     public void destroy() throws Exception {
+        if (thePipeline != null) {
+            // never computed, so there is no table to delete
+            thePipeline = null;
+            theFlameContext.removePendingRDD(this);
+            return;
+        }
+        theFlameContext.materializeReadersOf(theTableName);
+        theFlameContext.uncacheTable(theTableName);
         theKVSClient.delete(theTableName);
     }
 
     @Override
     public FlamePairRDD flatMapToPair(PairToPairIterable lambda) throws Exception {
-        String myOutputTable = theFlameContext.invokeOperation(
-                theTableName,
-                FlameOperation.PAIR_FLATMAP_TO_PAIR,
-                Serializer.objectToByteArray(lambda));
-        if (myOutputTable == null) {
-            throw new Exception("Failed to invoke flatMapToPair operation");
-        }
-        return new FlamePairRDDImpl(myOutputTable, theKVSClient, theFlameContext);
+        return deferred(
+                pipelineInput(),
+                pipeline().then(FlameOperation.PAIR_FLATMAP_TO_PAIR, lambda),
+                theKVSClient,
+                theFlameContext);
     }
 
     @Override
     public void flatMapToPairTable(PairToPairIterable lambda, String tableName, String aColumn) throws Exception {
         String myOutputTable = theFlameContext.invokeOperationWithOutputTable(
-                theTableName,
+                getTableName(),
                 FlameOperation.PAIR_FLATMAP_TO_PAIR_TABLE,
                 Serializer.objectToByteArray(lambda),
                 tableName,
@@ -105,10 +163,21 @@ public class FlamePairRDDImpl implements FlamePairRDD {
             throw new Exception("Unsupported RDD type");
         }
         FlamePairRDDImpl myOtherRDD = (FlamePairRDDImpl) other;
-        String myOutputTable = theFlameContext.invokeOperation(
-                theTableName,
-                FlameOperation.JOIN,
-                Serializer.objectToByteArray(myOtherRDD.theTableName));
+        String myTable = getTableName();
+        String myOtherTable = myOtherRDD.getTableName();
+
+        // the side with fewer rows is broadcast to the workers if it is small enough in bytes; a cached side is
+        // always the one streamed, since its partitions are already in the workers' memory
+        boolean myStreamThis = theFlameContext.isCached(myTable) || (!theFlameContext.isCached(myOtherTable)
+                && theKVSClient.count(myTable) >= theKVSClient.count(myOtherTable));
+        String myBroadcastOutput = myStreamThis
+                ? theFlameContext.invokeBroadcastJoin(myTable, myOtherTable, false)
+                : theFlameContext.invokeBroadcastJoin(myOtherTable, myTable, true);
+        if (myBroadcastOutput != null) {
+            return new FlamePairRDDImpl(myBroadcastOutput, theKVSClient, theFlameContext);
+        }
+
+        String myOutputTable = theFlameContext.invokeOperationWithLookups(myTable, FlameOperation.JOIN, myOtherTable);
         if (myOutputTable == null) {
             throw new Exception("Failed to invoke join operation");
         }
@@ -121,10 +190,8 @@ public class FlamePairRDDImpl implements FlamePairRDD {
             throw new Exception("Unsupported RDD type");
         }
         FlamePairRDDImpl myOtherRDD = (FlamePairRDDImpl) other;
-        String myOutputTable = theFlameContext.invokeOperation(
-                theTableName,
-                FlameOperation.COGROUP,
-                Serializer.objectToByteArray(myOtherRDD.theTableName));
+        String myOutputTable = theFlameContext.invokeOperationWithLookups(
+                getTableName(), FlameOperation.COGROUP, myOtherRDD.getTableName());
         if (myOutputTable == null) {
             throw new Exception("Failed to invoke cogroup operation");
         }
@@ -133,6 +200,12 @@ public class FlamePairRDDImpl implements FlamePairRDD {
 
     @Override
     public String fold(String zeroElement, FlamePairRDD.StringPairToString lambda, FlamePairRDD.TwoStringsToString lambda2) throws Exception {
-        return theFlameContext.invokePairRDDFold(theTableName, lambda, lambda2, zeroElement);
+        return theFlameContext.invokePairRDDFold(getTableName(), lambda, lambda2, zeroElement);
+    }
+
+    @Override
+    public FlamePairRDD cache() throws Exception {
+        theFlameContext.cacheTable(getTableName());
+        return this;
     }
 }
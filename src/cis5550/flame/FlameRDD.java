@@ -144,4 +144,18 @@ public interface FlameRDD {
   // extra credit on HW7 and should return 'null' if you did not do this EC.
 
   public FlameRDD mapPartitions(IteratorToIterator lambda) throws Exception;
+
+  // cache() should keep the partitions of this RDD in the memory of the
+  // Flame workers (spilling to local disk if they do not fit), so that later
+  // operations read them from there instead of scanning the key-value store
+  // again. It returns the RDD itself. The cache is dropped when the RDD is
+  // destroyed or saved, and when the job ends.
+
+  public FlameRDD cache() throws Exception;
+
+  // partitionBy() should return an RDD with the same elements, stored so
+  // that all elements for which the lambda returns the same key end up in
+  // the same partition of later operations on the RDD.
+
+  public FlameRDD partitionBy(StringToString lambda) throws Exception;
 }
@@ -4,26 +4,79 @@ import cis5550.kvs.KVSClient;
 import cis5550.kvs.Row;
 import cis5550.tools.Serializer;
 
+import java.io.Serializable;
 import java.util.*;
 
 import static cis5550.flame.FlameContextImpl.COLUMN_NAME;
 import static cis5550.flame.FlameContextImpl.LOGGER;
 
-public class FlameRDDImpl implements FlameRDD {
+public class FlameRDDImpl implements FlameRDD, FlameContextImpl.Deferred {
     private final KVSClient theKVSClient;
     private final FlameContextImpl theFlameContext;
 
     private String theTableName;
 
+    // Set while this RDD has not been computed yet: it is thePipeline applied to thePipelineInput. flatMap, filter,
+    // mapToPair and flatMapToPair only extend the pipeline; every other method computes the table first, so a chain
+    // of narrow operations costs one pass over the input and writes one table
+    private String thePipelineInput;
+    private Pipeline thePipeline;
+
     public FlameRDDImpl(String aTableName, KVSClient aKVSClient, FlameContextImpl aFlameContext) {
         theTableName = aTableName;
         theKVSClient = aKVSClient;
         theFlameContext = aFlameContext;
     }
 
+    static FlameRDDImpl deferred(
+            String aInputTable, Pipeline aPipeline, KVSClient aKVSClient, FlameContextImpl aFlameContext) {
+        FlameRDDImpl myRDD = new FlameRDDImpl(null, aKVSClient, aFlameContext);
+        myRDD.thePipelineInput = aInputTable;
+        myRDD.thePipeline = aPipeline;
+        aFlameContext.addPendingRDD(myRDD);
+        return myRDD;
+    }
+
+    @Override
+    public boolean readsFrom(String aTable) {
+        return thePipeline != null && thePipelineInput.equals(aTable);
+    }
+
+    @Override
+    public void materialize() throws Exception {
+        if (thePipeline == null) {
+            return;
+        }
+        theTableName = theFlameContext.runPipeline(thePipelineInput, thePipeline);
+        thePipeline = null;
+        theFlameContext.removePendingRDD(this);
+    }
+
+    String getTableName() throws Exception {
+        materialize();
+        return theTableName;
+    }
+
+    private FlameRDDImpl thenRDD(FlameOperation aOperation, Serializable aLambda) {
+        return deferred(pipelineInput(), pipeline().then(aOperation, aLambda), theKVSClient, theFlameContext);
+    }
+
+    private FlamePairRDDImpl thenPairs(FlameOperation aOperation, Serializable aLambda) {
+        return FlamePairRDDImpl.deferred(
+                pipelineInput(), pipeline().then(aOperation, aLambda), theKVSClient, theFlameContext);
+    }
+
+    private String pipelineInput() {
+        return thePipeline != null ? thePipelineInput : theTableName;
+    }
+
+    private Pipeline pipeline() {
+        return thePipeline != null ? thePipeline : Pipeline.overRDD();
+    }
+
     @Override
     public List<String> collect() throws Exception {
-        Iterator<Row> myRows = theKVSClient.scan(theTableName);
+        Iterator<Row> myRows = theKVSClient.scan(getTableName());
 
         List<String> myResults = new LinkedList<>();
 
@@ -37,32 +90,17 @@ public class FlameRDDImpl implements FlameRDD {
 
     @Override
     public FlameRDD flatMap(StringToIterable lambda) throws Exception {
-        String myOutputTable = theFlameContext.invokeOperation(
-                theTableName, FlameOperation.FLATMAP, Serializer.objectToByteArray(lambda));
-        if (myOutputTable == null) {
-            throw new Exception("Failed to invoke flatMap operation");
-        }
-        return new FlameRDDImpl(myOutputTable, theKVSClient, theFlameContext);
+        return thenRDD(FlameOperation.FLATMAP, lambda);
     }
 
     @Override
     public FlamePairRDD flatMapToPair(StringToPairIterable lambda) throws Exception {
-        String myOutputTable = theFlameContext.invokeOperation(
-                theTableName, FlameOperation.FLATMAP_TO_PAIR, Serializer.objectToByteArray(lambda));
-        if (myOutputTable == null) {
-            throw new Exception("Failed to invoke flatMapToPair operation");
-        }
-        return new FlamePairRDDImpl(myOutputTable, theKVSClient, theFlameContext);
+        return thenPairs(FlameOperation.FLATMAP_TO_PAIR, lambda);
     }
 
     @Override
     public FlamePairRDD mapToPair(StringToPair lambda) throws Exception {
-        String myOutputTable = theFlameContext.invokeOperation(
-                theTableName, FlameOperation.MAP_TO_PAIR, Serializer.objectToByteArray(lambda));
-        if (myOutputTable == null) {
-            throw new Exception("Failed to invoke mapToPair operation");
-        }
-        return new FlamePairRDDImpl(myOutputTable, theKVSClient, theFlameContext);
+        return thenPairs(FlameOperation.MAP_TO_PAIR, lambda);
     }
 
     @Override
@@ -73,9 +111,9 @@ public class FlameRDDImpl implements FlameRDD {
             FlameRDDImpl myDistinctOther = myOtherRDD.distinct();
 
             String myOutputTable = theFlameContext.invokeOperation(
-                    myDistinctThis.theTableName,
+                    myDistinctThis.getTableName(),
                     FlameOperation.INTERSECTION,
-                    Serializer.objectToByteArray(myDistinctOther.theTableName));
+                    Serializer.objectToByteArray(myDistinctOther.getTableName()));
             if (myOutputTable == null) {
                 throw new Exception("Failed to invoke intersection operation");
             }
@@ -88,7 +126,7 @@ public class FlameRDDImpl implements FlameRDD {
     @Override
     public FlameRDD sample(double f) throws Exception {
         String myOutputTable =
-                theFlameContext.invokeOperation(theTableName, FlameOperation.SAMPLE, Serializer.objectToByteArray(f));
+                theFlameContext.invokeOperation(getTableName(), FlameOperation.SAMPLE, Serializer.objectToByteArray(f));
         if (myOutputTable == null) {
             throw new Exception("Failed to invoke sample operation");
         }
@@ -97,30 +135,27 @@ public class FlameRDDImpl implements FlameRDD {
 
     @Override
     public FlamePairRDD groupBy(StringToString lambda) throws Exception {
-        String myOutputTable = theFlameContext.invokeOperation(
-                theTableName, FlameOperation.GROUP_BY, Serializer.objectToByteArray(lambda));
-        if (myOutputTable == null) {
-            throw new Exception("Failed to invoke groupBy operation");
+        // keyed by the lambda and never materialized: the fold shuffles it straight into the grouped table
+        FlamePairRDDImpl myKeyedRDD = thenPairs(FlameOperation.MAP_TO_PAIR, (StringToPair) s -> {
+            String myKey = lambda.op(s);
+            return myKey == null ? null : new FlamePair(myKey, s);
+        });
+        try {
+            return myKeyedRDD.foldByKey("", (a, b) -> a.isEmpty() ? b : a + "," + b);
+        } finally {
+            myKeyedRDD.destroy();
         }
-
-        FlamePairRDDImpl myFlamePairRDD = new FlamePairRDDImpl(myOutputTable, theKVSClient, theFlameContext);
-        return myFlamePairRDD.foldByKey("", (a, b) -> a.isEmpty() ? b : a + "," + b);
     }
 
     @Override
     public FlameRDD filter(StringToBoolean lambda) throws Exception {
-        String myOutputTable = theFlameContext.invokeOperation(
-                theTableName, FlameOperation.FILTER, Serializer.objectToByteArray(lambda));
-        if (myOutputTable == null) {
-            throw new Exception("Failed to invoke filter operation");
-        }
-        return new FlameRDDImpl(myOutputTable, theKVSClient, theFlameContext);
+        return thenRDD(FlameOperation.FILTER, lambda);
     }
 
     @Override
     public FlameRDD mapPartitions(IteratorToIterator lambda) throws Exception {
         String myOutputTable = theFlameContext.invokeOperation(
-                theTableName, FlameOperation.MAP_PARTITIONS, Serializer.objectToByteArray(lambda));
+                getTableName(), FlameOperation.MAP_PARTITIONS, Serializer.objectToByteArray(lambda));
         if (myOutputTable == null) {
             throw new Exception("Failed to invoke mapPartitions operation");
         }
@@ -129,11 +164,14 @@ public class FlameRDDImpl implements FlameRDD {
 
     @Override
     public int count() throws Exception {
-        return theKVSClient.count(theTableName);
+        return theKVSClient.count(getTableName());
     }
 
     @Override
     public void saveAsTable(String tableNameArg) throws Exception {
+        materialize();
+        theFlameContext.materializeReadersOf(theTableName);
+        theFlameContext.uncacheTable(theTableName);
         if (!theKVSClient.rename(theTableName, tableNameArg)) {
             throw new Exception("Failed to rename table");
         }
@@ -147,7 +185,7 @@ public class FlameRDDImpl implements FlameRDD {
      */
     @Override
     public FlameRDDImpl distinct() throws Exception {
-        String myOutputTable = theFlameContext.invokeOperation(theTableName, FlameOperation.DISTINCT, new byte[]{});
+        String myOutputTable = theFlameContext.invokeOperation(getTableName(), FlameOperation.DISTINCT, new byte[]{});
         if (myOutputTable == null) {
             throw new Exception("Failed to invoke distinct operation");
         }
@@ -156,12 +194,19 @@ public class FlameRDDImpl implements FlameRDD {
 
     @Override
     public void destroy() throws Exception {
+        if (thePipeline != null) {
+            thePipeline = null;
+            theFlameContext.removePendingRDD(this);
+            return;
+        }
+        theFlameContext.materializeReadersOf(theTableName);
+        theFlameContext.uncacheTable(theTableName);
         theKVSClient.delete(theTableName);
     }
 
     @Override
     public Vector<String> take(int num) throws Exception {
-        Iterator<Row> myRows = theKVSClient.scan(theTableName);
+        Iterator<Row> myRows = theKVSClient.scan(getTableName());
         Vector<String> myResults = new Vector<>();
         while (myRows.hasNext() && myResults.size() < num) {
             myResults.add(myRows.next().get(COLUMN_NAME));
@@ -171,6 +216,20 @@ public class FlameRDDImpl implements FlameRDD {
 
     @Override
     public String fold(String zeroElement, FlamePairRDD.TwoStringsToString lambda) throws Exception {
-        return theFlameContext.invokeFold(theTableName, lambda, zeroElement);
+        return theFlameContext.invokeFold(getTableName(), lambda, zeroElement);
+    }
+
+    @Override
+    public FlameRDD cache() throws Exception {
+        theFlameContext.cacheTable(getTableName());
+        return this;
+    }
+
+    @Override
+    public FlameRDD partitionBy(StringToString lambda) throws Exception {
+        // computed right away, so that no later step of a pipeline changes the row keys it chooses
+        FlameRDDImpl myRDD = thenRDD(FlameOperation.PARTITION_BY, lambda);
+        myRDD.materialize();
+        return myRDD;
     }
 }
@@ -0,0 +1,149 @@
+package cis5550.flame;
+
+import cis5550.tools.Logger;
+import cis5550.tools.Serializer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The class loaders and deserialized lambdas of the jobs this Flame worker runs. Each job JAR, identified by the hash
+ * of its content, gets one class loader for as long as a job uses it, so its classes are loaded (and compiled by the
+ * JIT) once instead of once per request. Every operation names the hash of its job's JAR, so jobs that run at the same
+ * time each deserialize their lambdas with their own classes.
+ * <p>
+ * Every partition of an operation carries the same lambda, so deserialized lambdas are kept in a pool per JAR and
+ * request body. A request checks an instance out of the pool and gives it back when it ends, so a lambda is
+ * deserialized once per partition that runs on this worker at the same time, and never used by two partitions at
+ * once. Both are dropped when the coordinator reports the end of the last job that uses the JAR.
+ */
+public class JobCache {
+    static final String END_JOB_PATH = "/endJob";
+    static final String JAR_PARAMETER = "jar";
+
+    private static final Logger LOGGER = Logger.getLogger(JobCache.class);
+    private static final int MAX_LAMBDAS = 1024;
+
+    private final String theFilePrefix;
+    private final Map<String, Job> theJobs = new ConcurrentHashMap<>();
+    // requests run on a thread each, so this holds the lambdas checked out by the request of the current thread
+    private final ThreadLocal<List<Lease>> theLeases = ThreadLocal.withInitial(ArrayList::new);
+
+    public JobCache(String aFilePrefix) {
+        theFilePrefix = aFilePrefix;
+    }
+
+    /**
+     * Loads aJAR for a new job, reusing its class loader if a running job already uploaded it.
+     */
+    public synchronized void useJAR(byte[] aJAR) throws IOException {
+        String myHash = hashOf(aJAR);
+        Job myJob = theJobs.get(myHash);
+        if (myJob == null) {
+            File myFile = new File(theFilePrefix + myHash + ".jar");
+            try (FileOutputStream myOutput = new FileOutputStream(myFile)) {
+                myOutput.write(aJAR);
+            }
+            myJob = new Job(myFile);
+            theJobs.put(myHash, myJob);
+            LOGGER.debug("Loading job JAR " + myHash);
+        }
+        myJob.theUsers++;
+    }
+
+    /**
+     * Drops the class loader and lambdas of the JAR with hash aHash once no other running job uses it.
+     */
+    public synchronized void endJob(String aHash) {
+        Job myJob = theJobs.get(aHash);
+        if (myJob == null || --myJob.theUsers > 0) {
+            return;
+        }
+        theJobs.remove(aHash);
+        try {
+            myJob.theClassLoader.close();
+        } catch (IOException e) {
+            LOGGER.error("Failed to close class loader of job JAR " + aHash, e);
+        }
+        if (!myJob.theFile.delete()) {
+            LOGGER.warn("Failed to delete job JAR " + myJob.theFile);
+        }
+        LOGGER.debug("Released job JAR " + aHash);
+    }
+
+    /**
+     * Returns the object serialized in aBody, with classes from the JAR with hash aJarHash; null if it cannot be
+     * deserialized. The instance belongs to the current request until returnLambdas() is called on its thread.
+     */
+    public Object deserialize(String aJarHash, byte[] aBody) {
+        Job myJob = aJarHash == null ? null : theJobs.get(aJarHash);
+        if (myJob == null) {
+            if (aJarHash != null) {
+                LOGGER.warn("No job JAR with hash " + aJarHash + "; deserializing without it");
+            }
+            return Serializer.byteArrayToObject(aBody, (File) null);
+        }
+        if (myJob.theLambdas.size() >= MAX_LAMBDAS) {
+            myJob.theLambdas.clear();
+        }
+        Queue<Object> myPool = myJob.theLambdas.computeIfAbsent(
+                ByteBuffer.wrap(aBody), k -> new ConcurrentLinkedQueue<>());
+        Object myLambda = myPool.poll();
+        if (myLambda == null) {
+            myLambda = Serializer.byteArrayToObject(aBody, myJob.theClassLoader);
+            if (myLambda == null) {
+                return null;
+            }
+        }
+        theLeases.get().add(new Lease(myPool, myLambda));
+        return myLambda;
+    }
+
+    /**
+     * Gives the lambdas that the request on this thread checked out back to their pools; called when a request ends.
+     */
+    public void returnLambdas() {
+        List<Lease> myLeases = theLeases.get();
+        for (Lease myLease : myLeases) {
+            myLease.pool().add(myLease.lambda());
+        }
+        myLeases.clear();
+    }
+
+    public static String hashOf(byte[] aJAR) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(aJAR));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Lease(Queue<Object> pool, Object lambda) {
+    }
+
+    private static class Job {
+        private final File theFile;
+        private final URLClassLoader theClassLoader;
+        private final Map<ByteBuffer, Queue<Object>> theLambdas = new ConcurrentHashMap<>();
+        private int theUsers = 0;
+
+        private Job(File aFile) throws IOException {
+            theFile = aFile;
+            theClassLoader = new URLClassLoader(new URL[]{aFile.toURI().toURL()},
+                    Thread.currentThread().getContextClassLoader());
+        }
+    }
+}
@@ -1,11 +1,10 @@
 package cis5550.flame;
 
-import cis5550.tools.Serializer;
+import cis5550.tools.Hasher;
 import cis5550.webserver.Request;
 
 import static cis5550.utils.StringUtils.isNullOrEmpty;
 
-import java.io.File;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 
@@ -16,14 +15,19 @@ public record OperationParameters(
         String toKeyExclusive,
         String kvsCoordinator,
         Object lambda,
-        String zeroElement) {
-    public static OperationParameters fromRequest(Request request, File aJarFile) {
+        String zeroElement,
+        String localFromKey,
+        String localToKeyExclusive) {
+    public static OperationParameters fromRequest(Request request, JobCache aJobs) {
         String myInputTable = request.queryParams("inputTable");
         String myOutputTable = request.queryParams("outputTable");
         String myFromKey = request.queryParams("fromKey");
         String myToKeyExclusive = request.queryParams("toKeyExclusive");
         String myKvsCoordinator = request.queryParams("kvsCoordinator");
         String myZeroElement = request.queryParams("zeroElement");
+        String myLocalFromKey = request.queryParams("localFromKey");
+        String myLocalToKeyExclusive = request.queryParams("localToKeyExclusive");
+        String myJarHash = request.queryParams(JobCache.JAR_PARAMETER);
 
         return new OperationParameters(
                 !isNullOrEmpty(myInputTable) ? URLDecoder.decode(myInputTable, StandardCharsets.UTF_8) : null,
@@ -31,7 +35,25 @@ public record OperationParameters(
                 !isNullOrEmpty(myFromKey) ? URLDecoder.decode(myFromKey, StandardCharsets.UTF_8) : null,
                 !isNullOrEmpty(myToKeyExclusive) ? URLDecoder.decode(myToKeyExclusive, StandardCharsets.UTF_8) : null,
                 !isNullOrEmpty(myKvsCoordinator) ? URLDecoder.decode(myKvsCoordinator, StandardCharsets.UTF_8) : null,
-                !isNullOrEmpty(request.bodyAsBytes()) ? Serializer.byteArrayToObject(request.bodyAsBytes(), aJarFile) : null,
-                myZeroElement != null ? URLDecoder.decode(myZeroElement, StandardCharsets.UTF_8) : null);
+                !isNullOrEmpty(request.bodyAsBytes()) ? aJobs.deserialize(myJarHash, request.bodyAsBytes()) : null,
+                myZeroElement != null ? URLDecoder.decode(myZeroElement, StandardCharsets.UTF_8) : null,
+                !isNullOrEmpty(myLocalFromKey) ? URLDecoder.decode(myLocalFromKey, StandardCharsets.UTF_8) : null,
+                !isNullOrEmpty(myLocalToKeyExclusive)
+                        ? URLDecoder.decode(myLocalToKeyExclusive, StandardCharsets.UTF_8) : null);
+    }
+
+    /**
+     * Returns a unique row key for the aI-th output of the row aOriginalRowKey. If the coordinator sent the key range
+     * of a KVS worker on this host, the key falls in that range, spread evenly over it, so the write stays local.
+     */
+    public String uniqueRowKey(String aOriginalRowKey, int aI) {
+        String myHash = Hasher.hash(aOriginalRowKey + "!" + aI);
+        if (localFromKey == null) {
+            return myHash;
+        }
+        long myFrom = Partitioner.keyToNumber(localFromKey);
+        long myTo = localToKeyExclusive == null ? Partitioner.KEY_SPACE : Partitioner.keyToNumber(localToKeyExclusive);
+        long myOffset = Partitioner.keyToNumber(myHash) * (myTo - myFrom) / Partitioner.KEY_SPACE;
+        return Partitioner.numberToKey(myFrom + myOffset) + myHash;
     }
 }
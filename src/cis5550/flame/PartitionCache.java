@@ -0,0 +1,272 @@
+package cis5550.flame;
+
+import cis5550.kvs.Row;
+import cis5550.tools.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Partitions of cached RDDs held by this Flame worker (see FlameRDD.cache()). A partition stays in memory, sorted by
+ * row key, while the cache holds less than MAX_MEMORY_BYTES; beyond that it is written to a local file in the KVS
+ * stream format instead. Operations whose key range falls inside a cached partition read it from here rather than
+ * scanning the KVS. The rows are a snapshot, which is safe because Flame never changes a table after creating it.
+ */
+class PartitionCache {
+    static final String DROP_PATH = "/cache/drop";
+
+    private static final Logger LOGGER = Logger.getLogger(PartitionCache.class);
+    private static final long MAX_MEMORY_BYTES = Runtime.getRuntime().maxMemory() / 4;
+
+    private final File theSpillDirectory;
+    private final Map<String, List<CachedPartition>> thePartitions = new ConcurrentHashMap<>();
+    private final AtomicLong theMemoryBytes = new AtomicLong();
+    private final AtomicInteger theNextSpillId = new AtomicInteger();
+
+    PartitionCache(File aSpillDirectory) {
+        theSpillDirectory = aSpillDirectory;
+    }
+
+    /**
+     * Caches aRows as the partition [aFromKey, aToKeyExclusive) of aTable, replacing any earlier copy of it.
+     */
+    void load(String aTable, String aFromKey, String aToKeyExclusive, Iterator<Row> aRows) throws IOException {
+        TreeMap<String, Row> myRows = new TreeMap<>();
+        long myBytes = 0;
+        File mySpill = null;
+        OutputStream mySpillOutput = null;
+
+        try {
+            while (aRows.hasNext()) {
+                Row myRow = aRows.next();
+                if (mySpillOutput != null) {
+                    writeRow(mySpillOutput, myRow);
+                    continue;
+                }
+
+                myRows.put(myRow.key(), myRow);
+                myBytes += sizeOf(myRow);
+                if (theMemoryBytes.get() + myBytes > MAX_MEMORY_BYTES) {
+                    mySpill = newSpillFile();
+                    mySpillOutput = new BufferedOutputStream(new FileOutputStream(mySpill));
+                    for (Row myBufferedRow : myRows.values()) {
+                        writeRow(mySpillOutput, myBufferedRow);
+                    }
+                    myRows = null;
+                }
+            }
+        } finally {
+            if (mySpillOutput != null) {
+                mySpillOutput.close();
+            }
+        }
+
+        CachedPartition myPartition = mySpill == null
+                ? new CachedPartition(aFromKey, aToKeyExclusive, myRows, myBytes, null)
+                : new CachedPartition(aFromKey, aToKeyExclusive, null, 0, mySpill);
+        theMemoryBytes.addAndGet(myPartition.theBytes);
+
+        List<CachedPartition> myPartitions = thePartitions.computeIfAbsent(aTable, k -> new CopyOnWriteArrayList<>());
+        for (CachedPartition myOld : myPartitions) {
+            if (myOld.hasRange(aFromKey, aToKeyExclusive)) {
+                myPartitions.remove(myOld);
+                release(myOld);
+            }
+        }
+        myPartitions.add(myPartition);
+
+        LOGGER.debug(() -> "Cached " + (myPartition.theRows != null ? myPartition.theRows.size() + " rows" : "a spilled")
+                + " partition of " + aTable + " from " + aFromKey + " to " + aToKeyExclusive);
+    }
+
+    /**
+     * Returns the rows of aTable in [aFromKey, aToKeyExclusive) if a cached partition covers that range, or null.
+     */
+    Iterator<Row> scan(String aTable, String aFromKey, String aToKeyExclusive) throws IOException {
+        CachedPartition myPartition = find(aTable, aFromKey, aToKeyExclusive);
+        if (myPartition == null) {
+            return null;
+        }
+        if (myPartition.theRows != null) {
+            Map<String, Row> myRange = myPartition.theRows;
+            if (aFromKey != null && aToKeyExclusive != null) {
+                myRange = myPartition.theRows.subMap(aFromKey, aToKeyExclusive);
+            } else if (aFromKey != null) {
+                myRange = myPartition.theRows.tailMap(aFromKey);
+            } else if (aToKeyExclusive != null) {
+                myRange = myPartition.theRows.headMap(aToKeyExclusive);
+            }
+            return myRange.values().iterator();
+        }
+        return new SpillIterator(myPartition.theSpill, aFromKey, aToKeyExclusive);
+    }
+
+    /**
+     * Returns true if aKey falls in a partition of aTable that is held in memory, so getRow() can answer for it.
+     */
+    boolean holdsKey(String aTable, String aKey) {
+        return findInMemory(aTable, aKey) != null;
+    }
+
+    Row getRow(String aTable, String aKey) {
+        CachedPartition myPartition = findInMemory(aTable, aKey);
+        return myPartition == null ? null : myPartition.theRows.get(aKey);
+    }
+
+    void drop(String aTable) {
+        List<CachedPartition> myPartitions = thePartitions.remove(aTable);
+        if (myPartitions == null) {
+            return;
+        }
+        for (CachedPartition myPartition : myPartitions) {
+            release(myPartition);
+        }
+        LOGGER.debug("Dropped cached partitions of " + aTable);
+    }
+
+    private CachedPartition find(String aTable, String aFromKey, String aToKeyExclusive) {
+        for (CachedPartition myPartition : thePartitions.getOrDefault(aTable, Collections.emptyList())) {
+            if (myPartition.covers(aFromKey, aToKeyExclusive)) {
+                return myPartition;
+            }
+        }
+        return null;
+    }
+
+    private CachedPartition findInMemory(String aTable, String aKey) {
+        for (CachedPartition myPartition : thePartitions.getOrDefault(aTable, Collections.emptyList())) {
+            if (myPartition.theRows != null && myPartition.contains(aKey)) {
+                return myPartition;
+            }
+        }
+        return null;
+    }
+
+    private void release(CachedPartition aPartition) {
+        theMemoryBytes.addAndGet(-aPartition.theBytes);
+        if (aPartition.theSpill != null && !aPartition.theSpill.delete()) {
+            LOGGER.warn("Failed to delete cache spill " + aPartition.theSpill);
+        }
+    }
+
+    private File newSpillFile() throws IOException {
+        if (!theSpillDirectory.exists() && !theSpillDirectory.mkdirs()) {
+            throw new IOException("Failed to create cache directory " + theSpillDirectory);
+        }
+        return new File(theSpillDirectory, "partition-" + theNextSpillId.getAndIncrement());
+    }
+
+    private static void writeRow(OutputStream aOutput, Row aRow) throws IOException {
+        aOutput.write(aRow.toByteArray());
+        aOutput.write('\n');
+    }
+
+    private static long sizeOf(Row aRow) {
+        long mySize = aRow.key().length();
+        for (String myColumn : aRow.columns()) {
+            mySize += myColumn.length() + aRow.getBytes(myColumn).length;
+        }
+        return mySize;
+    }
+
+    private static class CachedPartition {
+        private final String theFromKey;
+        private final String theToKeyExclusive;
+        private final TreeMap<String, Row> theRows;
+        private final long theBytes;
+        private final File theSpill;
+
+        private CachedPartition(
+                String aFromKey, String aToKeyExclusive, TreeMap<String, Row> aRows, long aBytes, File aSpill) {
+            theFromKey = aFromKey;
+            theToKeyExclusive = aToKeyExclusive;
+            theRows = aRows;
+            theBytes = aBytes;
+            theSpill = aSpill;
+        }
+
+        private boolean hasRange(String aFromKey, String aToKeyExclusive) {
+            return (theFromKey == null ? aFromKey == null : theFromKey.equals(aFromKey))
+                    && (theToKeyExclusive == null ? aToKeyExclusive == null : theToKeyExclusive.equals(aToKeyExclusive));
+        }
+
+        private boolean contains(String aKey) {
+            return (theFromKey == null || theFromKey.compareTo(aKey) <= 0)
+                    && (theToKeyExclusive == null || aKey.compareTo(theToKeyExclusive) < 0);
+        }
+
+        private boolean covers(String aFromKey, String aToKeyExclusive) {
+            boolean myStartCovered = theFromKey == null || (aFromKey != null && theFromKey.compareTo(aFromKey) <= 0);
+            boolean myEndCovered = theToKeyExclusive == null
+                    || (aToKeyExclusive != null && aToKeyExclusive.compareTo(theToKeyExclusive) <= 0);
+            return myStartCovered && myEndCovered;
+        }
+    }
+
+    /**
+     * Reads the rows of a spilled partition that fall in a key range, closing the file at the end.
+     */
+    private static class SpillIterator implements Iterator<Row> {
+        private final InputStream theInput;
+        private final String theFromKey;
+        private final String theToKeyExclusive;
+        private Row theNext;
+
+        private SpillIterator(File aSpill, String aFromKey, String aToKeyExclusive) throws IOException {
+            theInput = new BufferedInputStream(new FileInputStream(aSpill));
+            theFromKey = aFromKey;
+            theToKeyExclusive = aToKeyExclusive;
+            theNext = advance();
+        }
+
+        private Row advance() {
+            try {
+                Row myRow;
+                while ((myRow = Row.readFrom(theInput)) != null) {
+                    if ((theFromKey == null || theFromKey.compareTo(myRow.key()) <= 0)
+                            && (theToKeyExclusive == null || myRow.key().compareTo(theToKeyExclusive) < 0)) {
+                        return myRow;
+                    }
+                }
+                theInput.close();
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (Exception e) {
+                throw new UncheckedIOException(new IOException("Failed to read cached partition", e));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return theNext != null;
+        }
+
+        @Override
+        public Row next() {
+            if (theNext == null) {
+                throw new NoSuchElementException();
+            }
+            Row myRow = theNext;
+            theNext = advance();
+            return myRow;
+        }
+    }
+}
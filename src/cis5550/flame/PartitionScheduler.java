@@ -0,0 +1,150 @@
+package cis5550.flame;
+
+import cis5550.tools.HTTP;
+import cis5550.tools.Logger;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs one operation over its partitions with at most a fixed number of requests in flight per Flame worker (its
+ * slots, one per core), instead of one thread and one request per partition all at once. Each worker works through
+ * its own queue of partitions; a worker whose queue has run dry takes the last queued partition of the worker with
+ * the longest queue, so ranges waiting behind a straggler are reassigned rather than waited for. Ranges that are
+ * already running are not started a second time, since a late duplicate could still be writing to the output table
+ * after it has been renamed or deleted.
+ * <p>
+ * Each partition's assignedFlameWorker is updated to the worker that ran it, because shuffles and cached tables need
+ * to know where the work happened.
+ */
+class PartitionScheduler {
+    static final String SLOTS_PATH = "/slots";
+
+    private static final Logger LOGGER = Logger.getLogger(PartitionScheduler.class);
+
+    // concurrency is bounded by the slots of each run, not by the pool
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(aRunnable -> {
+        Thread myThread = new Thread(aRunnable, "flame-partition");
+        myThread.setDaemon(true);
+        return myThread;
+    });
+
+    interface Task {
+        HTTP.Response run(Partitioner.Partition aPartition) throws IOException;
+    }
+
+    private record Attempt(int index, String worker, HTTP.Response response) {
+    }
+
+    private final Map<String, Integer> theSlots;
+
+    PartitionScheduler(Map<String, Integer> aSlots) {
+        theSlots = aSlots;
+    }
+
+    /**
+     * Runs aTask on every partition and returns the responses in the order of aPartitions, or null if any request
+     * failed. Partitions are only moved between workers if aMayReassign is set.
+     */
+    List<HTTP.Response> run(List<Partitioner.Partition> aPartitions, Task aTask, boolean aMayReassign) {
+        Map<String, Deque<Integer>> myQueues = new LinkedHashMap<>();
+        for (String myWorker : theSlots.keySet()) {
+            myQueues.put(myWorker, new ArrayDeque<>());
+        }
+        for (int i = 0; i < aPartitions.size(); i++) {
+            myQueues.computeIfAbsent(aPartitions.get(i).assignedFlameWorker, k -> new ArrayDeque<>()).add(i);
+        }
+
+        Map<String, Integer> myRunning = new HashMap<>();
+        BlockingQueue<Attempt> myFinished = new LinkedBlockingQueue<>();
+        HTTP.Response[] myResponses = new HTTP.Response[aPartitions.size()];
+        int myInFlight = dispatch(aPartitions, aTask, aMayReassign, myQueues, myRunning, myFinished);
+        boolean myFailed = false;
+
+        while (myInFlight > 0) {
+            Attempt myAttempt;
+            try {
+                myAttempt = myFinished.take();
+            } catch (InterruptedException e) {
+                LOGGER.error("Interrupted while waiting for partitions", e);
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            myInFlight--;
+            myRunning.merge(myAttempt.worker(), -1, Integer::sum);
+
+            if (myAttempt.response() == null || myAttempt.response().statusCode() != 200) {
+                LOGGER.error("Operation failed on " + myAttempt.worker() + " with status code: "
+                        + (myAttempt.response() == null ? "response is null" : myAttempt.response().statusCode()));
+                // let the requests in flight finish, so nothing writes to the output after we return
+                myFailed = true;
+                myQueues.values().forEach(Deque::clear);
+                continue;
+            }
+            myResponses[myAttempt.index()] = myAttempt.response();
+            myInFlight += dispatch(aPartitions, aTask, aMayReassign, myQueues, myRunning, myFinished);
+        }
+
+        return myFailed ? null : Arrays.asList(myResponses);
+    }
+
+    private int dispatch(
+            List<Partitioner.Partition> aPartitions,
+            Task aTask,
+            boolean aMayReassign,
+            Map<String, Deque<Integer>> aQueues,
+            Map<String, Integer> aRunning,
+            BlockingQueue<Attempt> aFinished) {
+        int myStarted = 0;
+        for (boolean myStealing : new boolean[]{false, true}) {
+            if (myStealing && !aMayReassign) {
+                break;
+            }
+            for (String myWorker : aQueues.keySet()) {
+                while (aRunning.getOrDefault(myWorker, 0) < theSlots.getOrDefault(myWorker, 1)) {
+                    Integer myIndex = myStealing ? steal(aQueues) : aQueues.get(myWorker).poll();
+                    if (myIndex == null) {
+                        break;
+                    }
+                    Partitioner.Partition myPartition = aPartitions.get(myIndex);
+                    if (!myWorker.equals(myPartition.assignedFlameWorker)) {
+                        LOGGER.debug(() -> "Reassigning " + myPartition + " to " + myWorker);
+                        myPartition.assignedFlameWorker = myWorker;
+                    }
+                    aRunning.merge(myWorker, 1, Integer::sum);
+                    myStarted++;
+                    EXECUTOR.execute(() -> {
+                        HTTP.Response myResponse = null;
+                        try {
+                            myResponse = aTask.run(myPartition);
+                        } catch (Exception e) {
+                            LOGGER.error("Failed to send operation to worker " + myWorker, e);
+                        }
+                        aFinished.add(new Attempt(myIndex, myWorker, myResponse));
+                    });
+                }
+            }
+        }
+        return myStarted;
+    }
+
+    private static Integer steal(Map<String, Deque<Integer>> aQueues) {
+        Deque<Integer> myLongest = null;
+        for (Deque<Integer> myQueue : aQueues.values()) {
+            if (myLongest == null || myQueue.size() > myLongest.size()) {
+                myLongest = myQueue;
+            }
+        }
+        return myLongest == null ? null : myLongest.pollLast();
+    }
+}
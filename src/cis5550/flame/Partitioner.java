@@ -24,18 +24,25 @@ public class Partitioner {
             assignedFlameWorker = null;
         }
 
+        Partition copy() {
+            return new Partition(kvsWorker, fromKey, toKeyExclusive, assignedFlameWorker);
+        }
+
         public String toString() {
             return "[kvs:" + kvsWorker + ", keys: " + (fromKey == null ? "" : fromKey) + "-"
                     + (toKeyExclusive == null ? "" : toKeyExclusive) + ", flame: " + assignedFlameWorker + "]";
         }
     };
 
-    boolean sameIP(String a, String b) {
+    static boolean sameIP(String a, String b) {
         String aPcs[] = a.split(":");
         String bPcs[] = b.split(":");
         return aPcs[0].equals(bPcs[0]);
     }
 
+    static final int SPLIT_KEY_LENGTH = 5;
+    static final long KEY_SPACE = (long) Math.pow(26, SPLIT_KEY_LENGTH);
+
     Vector<String> flameWorkers;
     Vector<Partition> partitions;
     boolean alreadyAssigned;
@@ -64,8 +71,6 @@ public class Partitioner {
         if (alreadyAssigned || (flameWorkers.size() < 1) || partitions.size() < 1)
             return null;
 
-        Random rand = new Random();
-
         /*
          * let's figure out how many partitions we need based on keyRangesPerWorker and
          * the number of flame workers
@@ -84,43 +89,22 @@ public class Partitioner {
             }
         });
 
-        // create a hashset of current split points to avoid creating empty partitions
-        // (unlikely)
-        HashSet<String> currSplits = new HashSet<>();
-        for (int i = 1; i < partitions.size(); i++) { // assume that first partition has fromKey == null
-            currSplits.add(partitions.elementAt(i).fromKey);
-        }
-
-        int additionalSplitsNeededPerOriginalPartition = (int) Math.ceil(requiredNumberOfPartitions / partitions.size())
-                - 1;
+        int additionalSplitsNeededPerOriginalPartition =
+                (int) Math.ceil((double) requiredNumberOfPartitions / partitions.size()) - 1;
 
         if (additionalSplitsNeededPerOriginalPartition > 0) {
             Vector<Partition> allPartitions = new Vector<>();
 
             for (int i = 0; i < partitions.size(); i++) {
                 Partition p = partitions.get(i);
-                int count = 0;
                 String fromKey = p.fromKey;
                 String toKeyExclusive = p.toKeyExclusive;
-                ArrayList<String> newSplits = new ArrayList<String>();
-
-                while (count < additionalSplitsNeededPerOriginalPartition) {
-                    String split = null;
-
-                    do {
-                        split = rand.ints(97, 123).limit(5)
-                                .collect(StringBuilder::new, StringBuilder::appendCodePoint,
-                                        StringBuilder::append)
-                                .toString();
-                    } while (currSplits.contains(split) && ((fromKey != null &&
-                            split.compareTo(fromKey) < 0)
-                            || (toKeyExclusive != null &&
-                                    split.compareTo(toKeyExclusive) >= 0)));
+                ArrayList<String> newSplits = evenSplits(fromKey, toKeyExclusive,
+                        additionalSplitsNeededPerOriginalPartition);
 
-                    count += 1;
-
-                    currSplits.add(split);
-                    newSplits.add(split);
+                if (newSplits.isEmpty()) {
+                    allPartitions.add(p);
+                    continue;
                 }
 
                 newSplits.sort((e1, e2) -> e1.compareTo(e2));
@@ -138,24 +122,42 @@ public class Partitioner {
 
         /*
          * Now we'll try to evenly assign partitions to workers, giving preference to
-         * workers on the same host
+         * workers on the same host as the KVS worker that holds the partition's keys:
+         * first, each partition goes to the least loaded worker on that host, as long as
+         * it has fewer than its fair share; then the remaining partitions go to whichever
+         * worker is least loaded
          */
 
         int numAssigned[] = new int[flameWorkers.size()];
         for (int i = 0; i < numAssigned.length; i++)
             numAssigned[i] = 0;
+        int fairShare = (int) Math.ceil((double) partitions.size() / flameWorkers.size());
 
         for (int i = 0; i < partitions.size(); i++) {
-            int bestCandidate = 0;
-            int bestWorkload = 9999;
+            int bestCandidate = -1;
             for (int j = 0; j < numAssigned.length; j++) {
-                if ((numAssigned[j] < bestWorkload) || ((numAssigned[j] == bestWorkload)
-                        && sameIP(flameWorkers.elementAt(j), partitions.elementAt(i).kvsWorker))) {
+                if (sameIP(flameWorkers.elementAt(j), partitions.elementAt(i).kvsWorker) && (numAssigned[j] < fairShare)
+                        && ((bestCandidate < 0) || (numAssigned[j] < numAssigned[bestCandidate]))) {
                     bestCandidate = j;
-                    bestWorkload = numAssigned[j];
                 }
             }
 
+            if (bestCandidate >= 0) {
+                numAssigned[bestCandidate]++;
+                partitions.elementAt(i).assignedFlameWorker = flameWorkers.elementAt(bestCandidate);
+            }
+        }
+
+        for (int i = 0; i < partitions.size(); i++) {
+            if (partitions.elementAt(i).assignedFlameWorker != null)
+                continue;
+
+            int bestCandidate = 0;
+            for (int j = 1; j < numAssigned.length; j++) {
+                if (numAssigned[j] < numAssigned[bestCandidate])
+                    bestCandidate = j;
+            }
+
             numAssigned[bestCandidate]++;
             partitions.elementAt(i).assignedFlameWorker = flameWorkers.elementAt(bestCandidate);
         }
@@ -166,6 +168,44 @@ public class Partitioner {
         return partitions;
     }
 
+    /*
+     * Splits [fromKey, toKeyExclusive) into count + 1 ranges of about the same width. Keys are read as numbers in
+     * base 26 over their first SPLIT_KEY_LENGTH letters, since row keys are hashes and KVS worker IDs made of
+     * lowercase letters. Splits are the same every time, unlike random ones, and always fall inside the range.
+     */
+    static ArrayList<String> evenSplits(String fromKey, String toKeyExclusive, int count) {
+        long from = (fromKey == null) ? 0 : keyToNumber(fromKey);
+        long to = (toKeyExclusive == null) ? KEY_SPACE : keyToNumber(toKeyExclusive);
+        ArrayList<String> splits = new ArrayList<String>();
+        for (int i = 1; i <= count; i++) {
+            String split = numberToKey(from + (to - from) * i / (count + 1));
+            if ((fromKey == null || split.compareTo(fromKey) > 0)
+                    && (toKeyExclusive == null || split.compareTo(toKeyExclusive) < 0)
+                    && (splits.isEmpty() || split.compareTo(splits.get(splits.size() - 1)) > 0)) {
+                splits.add(split);
+            }
+        }
+        return splits;
+    }
+
+    static long keyToNumber(String key) {
+        long number = 0;
+        for (int i = 0; i < SPLIT_KEY_LENGTH; i++) {
+            int digit = (i < key.length()) ? key.charAt(i) - 'a' : 0;
+            number = number * 26 + Math.max(0, Math.min(25, digit));
+        }
+        return number;
+    }
+
+    static String numberToKey(long number) {
+        char key[] = new char[SPLIT_KEY_LENGTH];
+        for (int i = SPLIT_KEY_LENGTH - 1; i >= 0; i--) {
+            key[i] = (char) ('a' + number % 26);
+            number /= 26;
+        }
+        return new String(key);
+    }
+
     public static void main(String args[]) {
         Partitioner p = new Partitioner();
         p.setKeyRangesPerWorker(1);
@@ -0,0 +1,177 @@
+package cis5550.flame;
+
+import cis5550.kvs.KVSClient;
+import cis5550.kvs.Row;
+import cis5550.tools.Hasher;
+import cis5550.tools.RowColumnValueTuple;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import static cis5550.flame.FlameContextImpl.COLUMN_NAME;
+
+/**
+ * A chain of narrow operations (flatMap, filter, mapToPair, flatMapToPair, partitionBy) over one input table. A Flame
+ * worker runs the whole chain in a single pass over its partition: each element goes through every step before the
+ * next row is read, and only what comes out of the last step is written, so none of the intermediate RDDs become
+ * tables.
+ * <p>
+ * Elements are Strings or FlamePairs, depending on the step that produced them. The input is read like the existing
+ * operations read it: the value column of an RDD table, or one pair per column of a pair table.
+ */
+class Pipeline implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int BATCH_SIZE = 50000;
+
+    private final boolean theInputIsPairs;
+    private final ArrayList<FlameOperation> theOperations;
+    private final ArrayList<Serializable> theLambdas;
+
+    private Pipeline(boolean aInputIsPairs, ArrayList<FlameOperation> aOperations, ArrayList<Serializable> aLambdas) {
+        theInputIsPairs = aInputIsPairs;
+        theOperations = aOperations;
+        theLambdas = aLambdas;
+    }
+
+    static Pipeline overRDD() {
+        return new Pipeline(false, new ArrayList<>(), new ArrayList<>());
+    }
+
+    static Pipeline overPairs() {
+        return new Pipeline(true, new ArrayList<>(), new ArrayList<>());
+    }
+
+    /**
+     * Returns a new pipeline with aOperation appended; this one is left unchanged, since other RDDs may share it.
+     */
+    Pipeline then(FlameOperation aOperation, Serializable aLambda) {
+        Pipeline myPipeline = new Pipeline(theInputIsPairs, new ArrayList<>(theOperations), new ArrayList<>(theLambdas));
+        myPipeline.theOperations.add(aOperation);
+        myPipeline.theLambdas.add(aLambda);
+        return myPipeline;
+    }
+
+    boolean outputsPairs() {
+        if (theOperations.isEmpty()) {
+            return theInputIsPairs;
+        }
+        FlameOperation myLast = theOperations.getLast();
+        return myLast == FlameOperation.MAP_TO_PAIR
+                || myLast == FlameOperation.FLATMAP_TO_PAIR
+                || myLast == FlameOperation.PAIR_FLATMAP_TO_PAIR;
+    }
+
+    int numSteps() {
+        return theOperations.size();
+    }
+
+    void run(Row aRow, Sink aSink) throws Exception {
+        if (theInputIsPairs) {
+            for (String myColumn : aRow.columns()) {
+                run(new FlamePair(aRow.key(), aRow.get(myColumn)), 0, aRow.key(), aSink);
+            }
+        } else {
+            run(aRow.get(COLUMN_NAME), 0, aRow.key(), aSink);
+        }
+    }
+
+    private void run(Object aElement, int aStep, String aInputKey, Sink aSink) throws Exception {
+        if (aStep == theOperations.size()) {
+            aSink.accept(aInputKey, aElement);
+            return;
+        }
+
+        Serializable myLambda = theLambdas.get(aStep);
+        switch (theOperations.get(aStep)) {
+            case FLATMAP -> runAll(((FlameRDD.StringToIterable) myLambda).op((String) aElement), aStep, aInputKey, aSink);
+            case FLATMAP_TO_PAIR ->
+                    runAll(((FlameRDD.StringToPairIterable) myLambda).op((String) aElement), aStep, aInputKey, aSink);
+            case PAIR_FLATMAP ->
+                    runAll(((FlamePairRDD.PairToStringIterable) myLambda).op((FlamePair) aElement), aStep, aInputKey, aSink);
+            case PAIR_FLATMAP_TO_PAIR ->
+                    runAll(((FlamePairRDD.PairToPairIterable) myLambda).op((FlamePair) aElement), aStep, aInputKey, aSink);
+            case FILTER -> {
+                if (((FlameRDD.StringToBoolean) myLambda).op((String) aElement)) {
+                    run(aElement, aStep + 1, aInputKey, aSink);
+                }
+            }
+            case MAP_TO_PAIR -> {
+                FlamePair myPair = ((FlameRDD.StringToPair) myLambda).op((String) aElement);
+                if (myPair != null) {
+                    run(myPair, aStep + 1, aInputKey, aSink);
+                }
+            }
+            case PARTITION_BY -> {
+                String myShard = ((FlameRDD.StringToString) myLambda).op((String) aElement);
+                run(new Sharded(myShard == null ? "" : myShard, (String) aElement), aStep + 1, aInputKey, aSink);
+            }
+            default -> throw new IllegalStateException(theOperations.get(aStep) + " cannot be part of a pipeline");
+        }
+    }
+
+    private void runAll(Iterable<?> aElements, int aStep, String aInputKey, Sink aSink) throws Exception {
+        if (aElements == null) {
+            return;
+        }
+        for (Object myElement : aElements) {
+            run(myElement, aStep + 1, aInputKey, aSink);
+        }
+    }
+
+    /**
+     * An element of partitionBy(), which is stored under a row key that starts with the hash of its shard, so all
+     * elements of a shard fall in the same key range.
+     */
+    record Sharded(String shard, String value) {
+    }
+
+    interface Sink {
+        void accept(String aInputKey, Object aElement) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    /**
+     * Writes the pipeline's output the way the single operations do: strings under a unique row key in the value
+     * column, and pairs under their key with a unique column. Sharded strings are written under the hash of their
+     * shard followed by a unique hash; partition boundaries are shorter than a hash, so they never split a shard.
+     */
+    static class TableSink implements Sink {
+        private final KVSClient theKVSClient;
+        private final OperationParameters theParams;
+        private final List<RowColumnValueTuple> theRowColValueList = new ArrayList<>();
+        private int theI = 0;
+
+        TableSink(KVSClient aKVSClient, OperationParameters aParams) {
+            theKVSClient = aKVSClient;
+            theParams = aParams;
+        }
+
+        @Override
+        public void accept(String aInputKey, Object aElement) throws IOException {
+            if (aElement instanceof FlamePair myPair) {
+                String myUniqueColumn = Hasher.hash(aInputKey + "!" + theI++);
+                theRowColValueList.add(new RowColumnValueTuple(myPair._1(), myUniqueColumn, myPair._2()));
+            } else if (aElement instanceof Sharded mySharded) {
+                String myShardedKey = Hasher.hash(mySharded.shard()) + Hasher.hash(aInputKey + "!" + theI++);
+                theRowColValueList.add(new RowColumnValueTuple(myShardedKey, COLUMN_NAME, mySharded.value()));
+            } else {
+                String myUniqueKey = theParams.uniqueRowKey(aInputKey, theI++);
+                theRowColValueList.add(new RowColumnValueTuple(myUniqueKey, COLUMN_NAME, (String) aElement));
+            }
+            if (theRowColValueList.size() > BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!theRowColValueList.isEmpty()) {
+                theKVSClient.batchPut(theParams.outputTable(), theRowColValueList);
+                theRowColValueList.clear();
+            }
+        }
+    }
+}
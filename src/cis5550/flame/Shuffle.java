@@ -0,0 +1,264 @@
+package cis5550.flame;
+
+import cis5550.kvs.BatchCodec;
+import cis5550.kvs.KVSClient;
+import cis5550.tools.RowColumnValueTuple;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static cis5550.flame.FlameContextImpl.COLUMN_NAME;
+
+/**
+ * Worker-to-worker shuffle behind foldByKey on a pending pipeline, so the pipeline's output pairs never go through
+ * the KVS. It runs in two rounds over the same partitions:
+ * <ul>
+ *     <li>map: each partition runs the pipeline and folds its output per key into one bucket per partition, in memory
+ *     (see {@link ShuffleStore}). Buckets that outgrow its memory budget are spilled to local files in key order.</li>
+ *     <li>reduce: each partition fetches its bucket from every Flame worker as a stream sorted by key, merges the
+ *     streams, folds each key's partial values and writes the result to the output table.</li>
+ * </ul>
+ * Buckets are the key ranges of the partitions rather than hashes, so each reducer writes to a single KVS key range.
+ * Streams use the framing of {@link BatchCodec}: a key field and a value field per pair.
+ */
+public class Shuffle {
+    static final String BUCKET_PATH = "/shuffle";
+    static final String RELEASE_PATH = "/shuffle/release";
+
+    private static final int BATCH_SIZE = 50000;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Body of a map task. Bucket i holds the keys from splitKeys[i - 1] up to splitKeys[i], the same ranges as the
+     * partitions the tasks run on.
+     */
+    record MapTask(Pipeline pipeline, FlamePairRDD.TwoStringsToString lambda, List<String> splitKeys)
+            implements Serializable {
+    }
+
+    /**
+     * Body of a reduce task: the Flame workers that hold map outputs, and how to fold the partial values.
+     */
+    record ReduceTask(List<String> mapWorkers, FlamePairRDD.TwoStringsToString lambda) implements Serializable {
+    }
+
+    /**
+     * A sequence of pairs in key order.
+     */
+    public interface Run extends Closeable {
+        /**
+         * Moves to the next pair and returns false at the end.
+         */
+        boolean next() throws IOException;
+
+        String key();
+
+        String value();
+
+        @Override
+        default void close() throws IOException {
+        }
+    }
+
+    static class ListRun implements Run {
+        private final List<Map.Entry<String, String>> theEntries;
+        private int theIndex = -1;
+
+        ListRun(List<Map.Entry<String, String>> aEntries) {
+            theEntries = aEntries;
+        }
+
+        @Override
+        public boolean next() {
+            return ++theIndex < theEntries.size();
+        }
+
+        @Override
+        public String key() {
+            return theEntries.get(theIndex).getKey();
+        }
+
+        @Override
+        public String value() {
+            return theEntries.get(theIndex).getValue();
+        }
+    }
+
+    static class StreamRun implements Run {
+        private final InputStream theInput;
+        private final BatchCodec.Reader theReader;
+        private String theKey;
+        private String theValue;
+
+        StreamRun(InputStream aInput) {
+            theInput = aInput;
+            theReader = new BatchCodec.Reader(aInput);
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (!theReader.hasNext()) {
+                return false;
+            }
+            theKey = theReader.readString();
+            theValue = theReader.readString();
+            return true;
+        }
+
+        @Override
+        public String key() {
+            return theKey;
+        }
+
+        @Override
+        public String value() {
+            return theValue;
+        }
+
+        @Override
+        public void close() throws IOException {
+            theInput.close();
+        }
+    }
+
+    /**
+     * Merges runs into one run in key order. Runs may be added until the first call to next(), and all of them are
+     * closed with this one.
+     */
+    static class MergedRun implements Run {
+        private final List<Run> theRuns;
+        private final PriorityQueue<Run> theQueue = new PriorityQueue<>(Comparator.comparing(Run::key));
+        private Run theCurrent = null;
+        private boolean theStarted = false;
+
+        MergedRun(List<Run> aRuns) {
+            theRuns = aRuns;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (!theStarted) {
+                theStarted = true;
+                for (Run myRun : theRuns) {
+                    if (myRun.next()) {
+                        theQueue.add(myRun);
+                    }
+                }
+            } else if (theCurrent != null && theCurrent.next()) {
+                theQueue.add(theCurrent);
+            }
+            theCurrent = theQueue.poll();
+            return theCurrent != null;
+        }
+
+        @Override
+        public String key() {
+            return theCurrent.key();
+        }
+
+        @Override
+        public String value() {
+            return theCurrent.value();
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException myFailure = null;
+            for (Run myRun : theRuns) {
+                try {
+                    myRun.close();
+                } catch (IOException e) {
+                    myFailure = e;
+                }
+            }
+            if (myFailure != null) {
+                throw myFailure;
+            }
+        }
+    }
+
+    interface ChunkWriter {
+        void write(byte[] aChunk) throws Exception;
+    }
+
+    /**
+     * Writes the rest of aRun in chunks of about CHUNK_SIZE bytes.
+     */
+    static void writeRun(Run aRun, ChunkWriter aWriter) throws Exception {
+        BatchCodec.Writer myChunk = new BatchCodec.Writer();
+        while (aRun.next()) {
+            myChunk.writeString(aRun.key()).writeString(aRun.value()).endEntry();
+            if (myChunk.size() >= CHUNK_SIZE) {
+                aWriter.write(myChunk.toByteArray());
+                myChunk = new BatchCodec.Writer();
+            }
+        }
+        if (myChunk.entries() > 0) {
+            aWriter.write(myChunk.toByteArray());
+        }
+    }
+
+    /**
+     * Fetches the bucket for the partition in aParams from every map worker and writes one folded value per key to
+     * the output table.
+     */
+    static void reduce(OperationParameters aParams, ReduceTask aTask, KVSClient aKVSClient) throws IOException {
+        List<Run> myRuns = new ArrayList<>();
+        try (MergedRun myMergedRun = new MergedRun(myRuns)) {
+            for (String myWorker : aTask.mapWorkers()) {
+                myRuns.add(fetchBucket(myWorker, aParams.inputTable(), aParams.fromKey()));
+            }
+
+            List<RowColumnValueTuple> myRowColValueList = new ArrayList<>();
+            String myKey = null;
+            String myAccumulatedValue = null;
+            while (myMergedRun.next()) {
+                if (!myMergedRun.key().equals(myKey)) {
+                    if (myKey != null && myAccumulatedValue != null) {
+                        myRowColValueList.add(new RowColumnValueTuple(myKey, COLUMN_NAME, myAccumulatedValue));
+                    }
+                    if (myRowColValueList.size() > BATCH_SIZE) {
+                        aKVSClient.batchPut(aParams.outputTable(), myRowColValueList);
+                        myRowColValueList.clear();
+                    }
+                    myKey = myMergedRun.key();
+                    myAccumulatedValue = aParams.zeroElement();
+                }
+                myAccumulatedValue = aTask.lambda().op(myAccumulatedValue, myMergedRun.value());
+            }
+            if (myKey != null && myAccumulatedValue != null) {
+                myRowColValueList.add(new RowColumnValueTuple(myKey, COLUMN_NAME, myAccumulatedValue));
+            }
+
+            if (!myRowColValueList.isEmpty()) {
+                aKVSClient.batchPut(aParams.outputTable(), myRowColValueList);
+            }
+        }
+    }
+
+    private static Run fetchBucket(String aWorker, String aShuffleId, String aFromKey) throws IOException {
+        String myURL = "http://" + aWorker + BUCKET_PATH + "?id=" + URLEncoder.encode(aShuffleId, StandardCharsets.UTF_8);
+        if (aFromKey != null) {
+            myURL += "&fromKey=" + URLEncoder.encode(aFromKey, StandardCharsets.UTF_8);
+        }
+        HttpURLConnection myConnection = (HttpURLConnection) URI.create(myURL).toURL().openConnection();
+        myConnection.setRequestMethod("GET");
+        if (myConnection.getResponseCode() != 200) {
+            myConnection.disconnect();
+            throw new IOException("Failed to fetch shuffle bucket from " + aWorker + ": " + myConnection.getResponseCode());
+        }
+        return new StreamRun(new BufferedInputStream(myConnection.getInputStream(), CHUNK_SIZE));
+    }
+}
@@ -0,0 +1,247 @@
+package cis5550.flame;
+
+import cis5550.tools.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The map outputs of the shuffles this Flame worker has run map tasks for, kept until the coordinator releases the
+ * shuffle. Each map task folds its pairs into in-memory buckets. The buckets of running tasks and the finished buckets
+ * kept for reducers share one memory budget; when it is used up, a running task sorts each of its buckets, writes it
+ * to its own spill file under the worker's shuffle directory and starts over, and a finishing task spills what it
+ * holds instead of keeping it. A bucket is served as the merge of the in-memory remainders and the spill files of
+ * every map task on this worker.
+ */
+public class ShuffleStore {
+    private static final Logger LOGGER = Logger.getLogger(ShuffleStore.class);
+    private static final long DEFAULT_MEMORY_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+    private static final long MAX_MIN_SPILL_BYTES = 1 << 20;
+    // a rough size of a HashMap entry and two String objects, without their characters
+    private static final int ENTRY_OVERHEAD = 120;
+
+    private final File theSpillDirectory;
+    private final long theMemoryBudget;
+    private final long theMinSpillBytes;
+    private final AtomicLong theMemoryBytes = new AtomicLong();
+    private final Map<String, List<MapOutput>> theOutputs = new ConcurrentHashMap<>();
+    private final AtomicInteger theNextSpillId = new AtomicInteger();
+
+    ShuffleStore(File aSpillDirectory) {
+        this(aSpillDirectory, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * A running task only spills once it holds a sixteenth of aMemoryBudget (at most 1 MB), so a budget used up by
+     * finished buckets does not make it spill on every key.
+     */
+    public ShuffleStore(File aSpillDirectory, long aMemoryBudget) {
+        theSpillDirectory = aSpillDirectory;
+        theMemoryBudget = aMemoryBudget;
+        theMinSpillBytes = Math.min(MAX_MIN_SPILL_BYTES, aMemoryBudget / 16);
+    }
+
+    /**
+     * Bucket i of the new map output holds the keys from aSplitKeys[i - 1] up to aSplitKeys[i].
+     */
+    public MapOutput newMapOutput(String aShuffleId, List<String> aSplitKeys, FlamePairRDD.TwoStringsToString aLambda,
+                                  String aZeroElement) {
+        return new MapOutput(aShuffleId, aSplitKeys, aLambda, aZeroElement);
+    }
+
+    /**
+     * The estimated size of the buckets held in memory, by running and finished map tasks.
+     */
+    public long memoryBytes() {
+        return theMemoryBytes.get();
+    }
+
+    /**
+     * Returns the bucket of the partition that starts at aFromKey, merged over all map outputs of the shuffle.
+     */
+    public Shuffle.Run openBucket(String aShuffleId, String aFromKey) throws IOException {
+        List<MapOutput> myOutputs = theOutputs.getOrDefault(aShuffleId, Collections.emptyList());
+        List<Shuffle.Run> myRuns = new ArrayList<>();
+        Shuffle.MergedRun myMergedRun = new Shuffle.MergedRun(myRuns);
+        try {
+            synchronized (myOutputs) {
+                for (MapOutput myOutput : myOutputs) {
+                    myOutput.addRuns(aFromKey == null ? 0 : bucketFor(myOutput.theSplitKeys, aFromKey), myRuns);
+                }
+            }
+        } catch (IOException e) {
+            myMergedRun.close();
+            throw e;
+        }
+        return myMergedRun;
+    }
+
+    public void release(String aShuffleId) {
+        List<MapOutput> myOutputs = theOutputs.remove(aShuffleId);
+        if (myOutputs == null) {
+            return;
+        }
+        synchronized (myOutputs) {
+            for (MapOutput myOutput : myOutputs) {
+                myOutput.discard();
+            }
+        }
+    }
+
+    /**
+     * Receives the pairs of one map task. flush() ends the task and makes its buckets available to reducers; a task
+     * that fails before that must call abort() so its spill files are deleted.
+     */
+    public class MapOutput implements Pipeline.Sink {
+        private final String theShuffleId;
+        private final List<String> theSplitKeys;
+        private final FlamePairRDD.TwoStringsToString theLambda;
+        private final String theZeroElement;
+        private final List<Map<String, String>> theBuckets = new ArrayList<>();
+        private final List<List<File>> theSpills = new ArrayList<>();
+        private final List<List<Map.Entry<String, String>>> theSortedBuckets = new ArrayList<>();
+        private long theBytes = 0;
+        private int theNumKeys = 0;
+        private boolean theIsFlushed = false;
+
+        private MapOutput(String aShuffleId, List<String> aSplitKeys, FlamePairRDD.TwoStringsToString aLambda,
+                          String aZeroElement) {
+            theShuffleId = aShuffleId;
+            theSplitKeys = aSplitKeys;
+            theLambda = aLambda;
+            theZeroElement = aZeroElement;
+            for (int i = 0; i <= aSplitKeys.size(); i++) {
+                theBuckets.add(new HashMap<>());
+                theSpills.add(new ArrayList<>());
+            }
+        }
+
+        @Override
+        public void accept(String aInputKey, Object aElement) throws IOException {
+            FlamePair myPair = (FlamePair) aElement;
+            Map<String, String> myBucket = theBuckets.get(bucketFor(theSplitKeys, myPair._1()));
+            if (myBucket.containsKey(myPair._1())) {
+                String myOldValue = myBucket.get(myPair._1());
+                String myNewValue = theLambda.op(myOldValue, myPair._2());
+                myBucket.put(myPair._1(), myNewValue);
+                addBytes(sizeOf(myNewValue) - sizeOf(myOldValue));
+            } else {
+                String myValue = theLambda.op(theZeroElement, myPair._2());
+                myBucket.put(myPair._1(), myValue);
+                addBytes(ENTRY_OVERHEAD + sizeOf(myPair._1()) + sizeOf(myValue));
+                theNumKeys++;
+            }
+            if (theBytes >= theMinSpillBytes && theMemoryBytes.get() > theMemoryBudget) {
+                spill();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (theMemoryBytes.get() > theMemoryBudget) {
+                spill();
+            }
+            for (Map<String, String> myBucket : theBuckets) {
+                theSortedBuckets.add(sorted(myBucket));
+            }
+            theBuckets.clear();
+            theIsFlushed = true;
+            theOutputs.computeIfAbsent(theShuffleId, k -> Collections.synchronizedList(new ArrayList<>())).add(this);
+        }
+
+        /**
+         * Drops the output of a task that did not reach flush(); after flush() the output belongs to the shuffle and
+         * is dropped when the shuffle is released.
+         */
+        public void abort() {
+            if (!theIsFlushed) {
+                discard();
+            }
+        }
+
+        private void addBytes(long aBytes) {
+            theBytes += aBytes;
+            theMemoryBytes.addAndGet(aBytes);
+        }
+
+        private void spill() throws IOException {
+            if (!theSpillDirectory.exists() && !theSpillDirectory.mkdirs()) {
+                throw new IOException("Failed to create shuffle directory " + theSpillDirectory);
+            }
+            for (int i = 0; i < theBuckets.size(); i++) {
+                List<Map.Entry<String, String>> myEntries = sorted(theBuckets.get(i));
+                if (myEntries.isEmpty()) {
+                    continue;
+                }
+                File mySpill = new File(theSpillDirectory, "spill-" + theNextSpillId.getAndIncrement());
+                try (OutputStream myOutput = new BufferedOutputStream(new FileOutputStream(mySpill))) {
+                    Shuffle.writeRun(new Shuffle.ListRun(myEntries), myOutput::write);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException("Failed to write " + mySpill, e);
+                }
+                theSpills.get(i).add(mySpill);
+                theBuckets.get(i).clear();
+            }
+            LOGGER.debug(() -> "Spilled " + theNumKeys + " keys of shuffle " + theShuffleId);
+            theNumKeys = 0;
+            addBytes(-theBytes);
+        }
+
+        private void addRuns(int aBucket, List<Shuffle.Run> aRuns) throws IOException {
+            aRuns.add(new Shuffle.ListRun(theSortedBuckets.get(aBucket)));
+            for (File mySpill : theSpills.get(aBucket)) {
+                aRuns.add(new Shuffle.StreamRun(new BufferedInputStream(new FileInputStream(mySpill))));
+            }
+        }
+
+        private void discard() {
+            for (List<File> mySpills : theSpills) {
+                for (File mySpill : mySpills) {
+                    if (!mySpill.delete()) {
+                        LOGGER.warn("Failed to delete shuffle spill " + mySpill);
+                    }
+                }
+                mySpills.clear();
+            }
+            theBuckets.forEach(Map::clear);
+            theSortedBuckets.clear();
+            addBytes(-theBytes);
+        }
+    }
+
+    private static int bucketFor(List<String> aSplitKeys, String aKey) {
+        int myIndex = Collections.binarySearch(aSplitKeys, aKey);
+        return myIndex >= 0 ? myIndex + 1 : -myIndex - 1;
+    }
+
+    private static long sizeOf(String aString) {
+        return aString == null ? 0 : 2L * aString.length();
+    }
+
+    // null values are dropped here, like the existing foldByKey drops keys whose value folds to null
+    private static List<Map.Entry<String, String>> sorted(Map<String, String> aBucket) {
+        List<Map.Entry<String, String>> myEntries = new ArrayList<>(aBucket.size());
+        for (Map.Entry<String, String> myEntry : aBucket.entrySet()) {
+            if (myEntry.getValue() != null) {
+                myEntries.add(Map.entry(myEntry.getKey(), myEntry.getValue()));
+            }
+        }
+        myEntries.sort(Map.Entry.comparingByKey());
+        return myEntries;
+    }
+}
@@ -2,6 +2,8 @@ package cis5550.flame;
 
 import java.util.*;
 import java.io.*;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 
 import static cis5550.flame.FlameContextImpl.COLUMN_NAME;
 import static cis5550.utils.HTTPStatus.*;
@@ -17,6 +19,7 @@ class Worker extends cis5550.generic.Worker {
 
     private static final int BATCH_SIZE = 50000;
     private static final String INDEX_TABLE = "pt-index";
+    static final String CROSS_HOST_BYTES_PATH = "/stats/crossHostBytes";
 
     public static Logger LOGGER = Logger.getLogger(Worker.class);
 
@@ -31,110 +34,44 @@ class Worker extends cis5550.generic.Worker {
         int port = Integer.parseInt(args[0]);
         String server = args[1];
         startPingThread(String.valueOf(port), port, server);
-        final File myJAR = new File("__worker" + port + "-current.jar");
+        final JobCache myJobs = new JobCache("__worker" + port + "-");
+        final ShuffleStore myShuffles = new ShuffleStore(new File("__worker" + port + "-shuffle"));
+        final PartitionCache myCache = new PartitionCache(new File("__worker" + port + "-cache"));
+        final BroadcastStore myBroadcasts = new BroadcastStore();
 
         port(port);
 
         post("/useJAR", (request, response) -> {
-            FileOutputStream fos = new FileOutputStream(myJAR);
-            fos.write(request.bodyAsBytes());
-            fos.close();
+            myJobs.useJAR(request.bodyAsBytes());
             return "OK";
         });
 
-        before((req, res) -> {
-            LOGGER.debug("Received request: " + req.requestMethod() + " " + req.url());
+        get(PartitionScheduler.SLOTS_PATH, (request, response) -> {
+            return String.valueOf(Runtime.getRuntime().availableProcessors());
         });
 
-        post(FlameOperation.FLATMAP.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
-
-            LOGGER.debug("Received flatMap request, parsed parameters");
+        get(CROSS_HOST_BYTES_PATH, (request, response) -> {
+            return String.valueOf(KVSClient.crossHostBytes());
+        });
 
-            if (myParams == null) {
+        post(JobCache.END_JOB_PATH, (request, response) -> {
+            String myJAR = request.queryParams(JobCache.JAR_PARAMETER);
+            if (myJAR == null) {
                 setResponseStatus(response, BAD_REQUEST);
                 return "Bad request";
             }
-
-            KVSClient myKVS = new KVSClient(myParams.kvsCoordinator());
-            Iterator<Row> myRows;
-
-            LOGGER.debug("Getting KVS client and scanning rows");
-
-            try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
-            } catch (IOException e) {
-                LOGGER.debug("Failed to scan rows", e);
-                setResponseStatus(response, INTERNAL_SERVER_ERROR);
-                return "Internal error";
-            }
-
-            LOGGER.debug("Scanned rows");
-
-            FlameRDD.StringToIterable myLambda = (FlameRDD.StringToIterable) myParams.lambda();
-
-            int myI = 0;
-            List<RowColumnValueTuple> myRowColValueList = new ArrayList<>();
-            while (myRows.hasNext()) {
-                Row myRow = myRows.next();
-                String myValue = myRow.get(COLUMN_NAME);
-                Iterable<String> myResults = myLambda.op(myValue);
-
-                if (myResults != null) {
-                    for (String myResult : myResults) {
-                        String myRowKey = createUniqueRowKey(myRow.key(), myI);
-                        RowColumnValueTuple myTup = new RowColumnValueTuple(myRowKey, COLUMN_NAME, myResult);
-                        myRowColValueList.add(myTup);
-                        myI++;
-                    }
-                }
-            }
-
-            myKVS.batchPut(myParams.outputTable(), myRowColValueList);
-            setResponseStatus(response, OK);
+            myJobs.endJob(myJAR);
             return "OK";
         });
 
-        post(FlameOperation.MAP_TO_PAIR.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
-
-            if (myParams == null) {
-                setResponseStatus(response, BAD_REQUEST);
-                return "Bad request";
-            }
-
-            KVSClient myKVS = new KVSClient(myParams.kvsCoordinator());
-            Iterator<Row> myRows;
-
-            try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
-            } catch (IOException e) {
-                LOGGER.debug("Failed to scan rows", e);
-                setResponseStatus(response, INTERNAL_SERVER_ERROR);
-                return "Internal error";
-            }
-
-            FlameRDD.StringToPair myLambda = (FlameRDD.StringToPair) myParams.lambda();
-
-            List<RowColumnValueTuple> myRowColValueList = new ArrayList<>();
-            while (myRows.hasNext()) {
-                Row myRow = myRows.next();
-                String myValue = myRow.get(COLUMN_NAME);
-                FlamePair myResult = myLambda.op(myValue);
-
-                if (myResult != null) {
-                    RowColumnValueTuple myTup = new RowColumnValueTuple(myResult._1(), myRow.key(), myResult._2());
-                    myRowColValueList.add(myTup);
-                }
-            }
-
-            myKVS.batchPut(myParams.outputTable(), myRowColValueList);
-            setResponseStatus(response, OK);
-            return "OK";
+        before((req, res) -> {
+            // lambdas of an earlier request on this thread that failed before the after handler ran
+            myJobs.returnLambdas();
+            LOGGER.debug(() -> "Received request: " + req.requestMethod() + " " + req.url());
         });
 
         post(FlameOperation.FOLD_BY_KEY.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
+            OperationParameters myParams = getAndValidateParams(request, myJobs);
 
             if (myParams == null || myParams.zeroElement() == null) {
                 setResponseStatus(response, BAD_REQUEST);
@@ -145,7 +82,7 @@ class Worker extends cis5550.generic.Worker {
             Iterator<Row> myRows;
 
             try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
+                myRows = scanInput(myCache, myKVS, myParams);
             } catch (IOException e) {
                 LOGGER.debug("Failed to scan rows", e);
                 setResponseStatus(response, INTERNAL_SERVER_ERROR);
@@ -181,46 +118,8 @@ class Worker extends cis5550.generic.Worker {
             return "OK";
         });
 
-        post(FlameOperation.GROUP_BY.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
-
-            if (myParams == null) {
-                setResponseStatus(response, BAD_REQUEST);
-                return "Bad request";
-            }
-
-            KVSClient myKVS = new KVSClient(myParams.kvsCoordinator());
-            Iterator<Row> myRows;
-
-            try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
-            } catch (IOException e) {
-                LOGGER.debug("Failed to scan rows", e);
-                setResponseStatus(response, INTERNAL_SERVER_ERROR);
-                return "Internal error";
-            }
-
-            FlameRDD.StringToString myLambda = (FlameRDD.StringToString) myParams.lambda();
-
-            List<RowColumnValueTuple> myRowColValueList = new ArrayList<>();
-            while (myRows.hasNext()) {
-                Row myRow = myRows.next();
-                String myValue = myRow.get(COLUMN_NAME);
-                String myKey = myLambda.op(myValue);
-
-                if (myKey != null) {
-                    RowColumnValueTuple myTup = new RowColumnValueTuple(myKey, myRow.key(), myValue);
-                    myRowColValueList.add(myTup);
-                }
-            }
-
-            myKVS.batchPut(myParams.outputTable(), myRowColValueList);
-            setResponseStatus(response, OK);
-            return "OK";
-        });
-
         post(FlameOperation.SAMPLE.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
+            OperationParameters myParams = getAndValidateParams(request, myJobs);
 
             if (myParams == null) {
                 setResponseStatus(response, BAD_REQUEST);
@@ -232,7 +131,7 @@ class Worker extends cis5550.generic.Worker {
             double myF = (double) myParams.lambda();
 
             try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
+                myRows = scanInput(myCache, myKVS, myParams);
             } catch (IOException e) {
                 LOGGER.debug("Failed to scan rows", e);
                 setResponseStatus(response, INTERNAL_SERVER_ERROR);
@@ -254,7 +153,7 @@ class Worker extends cis5550.generic.Worker {
         });
 
         post(FlameOperation.INTERSECTION.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
+            OperationParameters myParams = getAndValidateParams(request, myJobs);
 
             if (myParams == null) {
                 setResponseStatus(response, BAD_REQUEST);
@@ -266,7 +165,7 @@ class Worker extends cis5550.generic.Worker {
             Iterator<Row> myOtherRows;
 
             try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
+                myRows = scanInput(myCache, myKVS, myParams);
                 myOtherRows = myKVS.scan((String) myParams.lambda(), myParams.fromKey(), myParams.toKeyExclusive());
             } catch (IOException e) {
                 LOGGER.debug("Failed to scan rows", e);
@@ -296,7 +195,7 @@ class Worker extends cis5550.generic.Worker {
         });
 
         post(FlameOperation.DISTINCT.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
+            OperationParameters myParams = getAndValidateParams(request, myJobs);
 
             if (myParams == null) {
                 setResponseStatus(response, BAD_REQUEST);
@@ -307,7 +206,7 @@ class Worker extends cis5550.generic.Worker {
             Iterator<Row> myRows;
 
             try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
+                myRows = scanInput(myCache, myKVS, myParams);
             } catch (IOException e) {
                 LOGGER.debug("Failed to scan rows", e);
                 setResponseStatus(response, INTERNAL_SERVER_ERROR);
@@ -332,7 +231,7 @@ class Worker extends cis5550.generic.Worker {
         });
 
         post(FlameOperation.FROM_TABLE.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
+            OperationParameters myParams = getAndValidateParams(request, myJobs);
 
             if (myParams == null) {
                 setResponseStatus(response, BAD_REQUEST);
@@ -340,10 +239,10 @@ class Worker extends cis5550.generic.Worker {
             }
 
             KVSClient myKVS = new KVSClient(myParams.kvsCoordinator());
-            Iterator<Row> myRows;
+            KVSClient.ParallelKVSIterator myRows;
 
             try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
+                myRows = myKVS.parallelScan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive(), false);
             } catch (IOException e) {
                 LOGGER.debug("Failed to scan rows", e);
                 setResponseStatus(response, INTERNAL_SERVER_ERROR);
@@ -353,14 +252,18 @@ class Worker extends cis5550.generic.Worker {
             FlameContext.RowToString myLambda = (FlameContext.RowToString) myParams.lambda();
 
             List<RowColumnValueTuple> myRowColValueList = new ArrayList<>();
-            while (myRows.hasNext()) {
-                Row myRow = myRows.next();
-                String myRowKey = myRow.key();
-                String myValue = myLambda.op(myRow);
-                if (myValue != null) {
-                    RowColumnValueTuple myTup = new RowColumnValueTuple(myRowKey, COLUMN_NAME, myValue);
-                    myRowColValueList.add(myTup);
+            try {
+                while (myRows.hasNext()) {
+                    Row myRow = myRows.next();
+                    String myRowKey = myRow.key();
+                    String myValue = myLambda.op(myRow);
+                    if (myValue != null) {
+                        RowColumnValueTuple myTup = new RowColumnValueTuple(myRowKey, COLUMN_NAME, myValue);
+                        myRowColValueList.add(myTup);
+                    }
                 }
+            } finally {
+                myRows.close();
             }
 
             myKVS.batchPut(myParams.outputTable(), myRowColValueList);
@@ -369,7 +272,7 @@ class Worker extends cis5550.generic.Worker {
         });
 
         post(FlameOperation.PAIR_FROM_TABLE.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
+            OperationParameters myParams = getAndValidateParams(request, myJobs);
 
             if (myParams == null) {
                 setResponseStatus(response, BAD_REQUEST);
@@ -377,10 +280,10 @@ class Worker extends cis5550.generic.Worker {
             }
 
             KVSClient myKVS = new KVSClient(myParams.kvsCoordinator());
-            Iterator<Row> myRows;
+            KVSClient.ParallelKVSIterator myRows;
 
             try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
+                myRows = myKVS.parallelScan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive(), false);
             } catch (IOException e) {
                 LOGGER.debug("Failed to scan rows", e);
                 setResponseStatus(response, INTERNAL_SERVER_ERROR);
@@ -389,24 +292,27 @@ class Worker extends cis5550.generic.Worker {
 
             FlameContext.RowToPair myLambda = (FlameContext.RowToPair) myParams.lambda();
 
-            while (myRows.hasNext()) {
-                Row myRow = myRows.next();
-                String myRowKey = myRow.key();
-                FlamePair myValue = myLambda.op(myRow);
-                if (myValue != null) {
-                    myKVS.put(myParams.outputTable(), myValue._1(), myRowKey, myValue._2());
+            try {
+                while (myRows.hasNext()) {
+                    Row myRow = myRows.next();
+                    String myRowKey = myRow.key();
+                    FlamePair myValue = myLambda.op(myRow);
+                    if (myValue != null) {
+                        myKVS.put(myParams.outputTable(), myValue._1(), myRowKey, myValue._2());
+                    }
                 }
-
+            } finally {
+                myRows.close();
             }
 
             setResponseStatus(response, OK);
             return "OK";
         });
 
-        post(FlameOperation.FLATMAP_TO_PAIR.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
+        post(FlameOperation.PIPELINE.getPath(), (request, response) -> {
+            OperationParameters myParams = getAndValidateParams(request, myJobs);
 
-            if (myParams == null) {
+            if (myParams == null || !(myParams.lambda() instanceof Pipeline)) {
                 setResponseStatus(response, BAD_REQUEST);
                 return "Bad request";
             }
@@ -415,85 +321,68 @@ class Worker extends cis5550.generic.Worker {
             Iterator<Row> myRows;
 
             try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
+                myRows = scanInput(myCache, myKVS, myParams);
             } catch (IOException e) {
                 LOGGER.debug("Failed to scan rows", e);
                 setResponseStatus(response, INTERNAL_SERVER_ERROR);
                 return "Internal error";
             }
 
-            FlameRDD.StringToPairIterable myLambda = (FlameRDD.StringToPairIterable) myParams.lambda();
+            Pipeline myPipeline = (Pipeline) myParams.lambda();
+            Pipeline.Sink mySink = new Pipeline.TableSink(myKVS, myParams);
 
-            List<RowColumnValueTuple> myRowColValueList = new ArrayList<>();
-            int myI = 0;
             while (myRows.hasNext()) {
-                Row myRow = myRows.next();
-                String myValue = myRow.get(COLUMN_NAME);
-                Iterable<FlamePair> myResults = myLambda.op(myValue);
-
-                if (myResults != null) {
-                    for (FlamePair myResult : myResults) {
-                        RowColumnValueTuple myTup = new RowColumnValueTuple(myResult._1(), createUniqueRowKey(myRow.key(), myI), myResult._2());
-                        myRowColValueList.add(myTup);
-                        myI++;
-                    }
-                }
+                myPipeline.run(myRows.next(), mySink);
             }
 
-            myKVS.batchPut(myParams.outputTable(), myRowColValueList);
+            mySink.flush();
             setResponseStatus(response, OK);
             return "OK";
         });
 
-        post(FlameOperation.PAIR_FLATMAP.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
-
+        post(FlameOperation.CACHE.getPath(), (request, response) -> {
+            OperationParameters myParams = getAndValidateParams(request, myJobs);
 
             if (myParams == null) {
                 setResponseStatus(response, BAD_REQUEST);
                 return "Bad request";
             }
 
-
             KVSClient myKVS = new KVSClient(myParams.kvsCoordinator());
-            Iterator<Row> myRows;
 
             try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
+                myCache.load(
+                        myParams.inputTable(),
+                        myParams.fromKey(),
+                        myParams.toKeyExclusive(),
+                        myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive()));
             } catch (IOException e) {
-                LOGGER.debug("Failed to scan rows", e);
+                LOGGER.error("Failed to cache partition of " + myParams.inputTable(), e);
                 setResponseStatus(response, INTERNAL_SERVER_ERROR);
                 return "Internal error";
             }
 
-            FlamePairRDD.PairToStringIterable myLambda = (FlamePairRDD.PairToStringIterable) myParams.lambda();
-
-            List<RowColumnValueTuple> myRowColValueList = new ArrayList<>();
-            int myI = 0;
-            while (myRows.hasNext()) {
-                Row myRow = myRows.next();
-                for (String myColumn : myRow.columns()) {
-                    FlamePair myPair = new FlamePair(myRow.key(), myRow.get(myColumn));
-                    Iterable<String> myResults = myLambda.op(myPair);
+            setResponseStatus(response, OK);
+            return "OK";
+        });
 
-                    if (myResults != null) {
-                        for (String myResult : myResults) {
-                            RowColumnValueTuple myTup = new RowColumnValueTuple(createUniqueRowKey(myRow.key(), myI), COLUMN_NAME, myResult);
-                            myRowColValueList.add(myTup);
-                            myI++;
-                        }
-                    }
-                }
+        post(PartitionCache.DROP_PATH, (request, response) -> {
+            String myTable = request.queryParams("table");
+            if (myTable == null) {
+                setResponseStatus(response, BAD_REQUEST);
+                return "Bad request";
             }
-            myKVS.batchPut(myParams.outputTable(), myRowColValueList);
+
+            myCache.drop(URLDecoder.decode(myTable, StandardCharsets.UTF_8));
             setResponseStatus(response, OK);
             return "OK";
         });
 
-        post(FlameOperation.PAIR_FLATMAP_TO_PAIR.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
+        post(FlameOperation.SHUFFLE_MAP.getPath(), (request, response) -> {
+            OperationParameters myParams = getAndValidateParams(request, myJobs);
 
-            if (myParams == null) {
+            if (myParams == null || myParams.zeroElement() == null
+                    || !(myParams.lambda() instanceof Shuffle.MapTask)) {
                 setResponseStatus(response, BAD_REQUEST);
                 return "Bad request";
             }
@@ -502,48 +391,81 @@ class Worker extends cis5550.generic.Worker {
             Iterator<Row> myRows;
 
             try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
+                myRows = scanInput(myCache, myKVS, myParams);
             } catch (IOException e) {
                 LOGGER.debug("Failed to scan rows", e);
                 setResponseStatus(response, INTERNAL_SERVER_ERROR);
                 return "Internal error";
             }
 
-            FlamePairRDD.PairToPairIterable myLambda = (FlamePairRDD.PairToPairIterable) myParams.lambda();
+            // the output table names the shuffle; the pairs stay on this worker until it is released
+            Shuffle.MapTask myTask = (Shuffle.MapTask) myParams.lambda();
+            ShuffleStore.MapOutput myOutput = myShuffles.newMapOutput(
+                    myParams.outputTable(), myTask.splitKeys(), myTask.lambda(), myParams.zeroElement());
 
-            List<RowColumnValueTuple> myRowColValueList = new ArrayList<>();
-            int myI = 0;
-            while (myRows.hasNext()) {
-                Row myRow = myRows.next();
-                for (String myColumn : myRow.columns()) {
-                    FlamePair myPair = new FlamePair(myRow.key(), myRow.get(myColumn));
-                    Iterable<FlamePair> myResults = myLambda.op(myPair);
-
-                    if (myResults != null) {
-                        for (FlamePair myResult : myResults) {
-                            RowColumnValueTuple myTup = new RowColumnValueTuple(myResult._1(),
-                                    createUniqueRowKey(myRow.key(), myI),
-                                    myResult._2());
-                            myRowColValueList.add(myTup);
-                            myI++;
-                        }
-                    }
-                    if (myRowColValueList.size() > BATCH_SIZE) {
-                        myKVS.batchPut(myParams.outputTable(), myRowColValueList);
-                        myRowColValueList.clear();
-                    }
+            try {
+                while (myRows.hasNext()) {
+                    myTask.pipeline().run(myRows.next(), myOutput);
                 }
+                myOutput.flush();
+            } finally {
+                myOutput.abort();
             }
+            setResponseStatus(response, OK);
+            return "OK";
+        });
 
-            if (!myRowColValueList.isEmpty()) {
-                myKVS.batchPut(myParams.outputTable(), myRowColValueList);
+        post(FlameOperation.SHUFFLE_REDUCE.getPath(), (request, response) -> {
+            OperationParameters myParams = getAndValidateParams(request, myJobs);
+
+            if (myParams == null || myParams.zeroElement() == null
+                    || !(myParams.lambda() instanceof Shuffle.ReduceTask)) {
+                setResponseStatus(response, BAD_REQUEST);
+                return "Bad request";
+            }
+
+            try {
+                Shuffle.reduce(myParams, (Shuffle.ReduceTask) myParams.lambda(), new KVSClient(myParams.kvsCoordinator()));
+            } catch (IOException e) {
+                LOGGER.error("Failed to reduce shuffle " + myParams.inputTable(), e);
+                setResponseStatus(response, INTERNAL_SERVER_ERROR);
+                return "Internal error";
+            }
+
+            setResponseStatus(response, OK);
+            return "OK";
+        });
+
+        get(Shuffle.BUCKET_PATH, (request, response) -> {
+            String myShuffleId = request.queryParams("id");
+            if (myShuffleId == null) {
+                setResponseStatus(response, BAD_REQUEST);
+                return "Bad request";
+            }
+
+            String myFromKey = request.queryParams("fromKey");
+            try (Shuffle.Run myBucket = myShuffles.openBucket(
+                    URLDecoder.decode(myShuffleId, StandardCharsets.UTF_8),
+                    myFromKey == null ? null : URLDecoder.decode(myFromKey, StandardCharsets.UTF_8))) {
+                Shuffle.writeRun(myBucket, response::write);
+            }
+            return null;
+        });
+
+        post(Shuffle.RELEASE_PATH, (request, response) -> {
+            String myShuffleId = request.queryParams("id");
+            if (myShuffleId == null) {
+                setResponseStatus(response, BAD_REQUEST);
+                return "Bad request";
             }
+
+            myShuffles.release(URLDecoder.decode(myShuffleId, StandardCharsets.UTF_8));
             setResponseStatus(response, OK);
             return "OK";
         });
 
         post(FlameOperation.PAIR_FLATMAP_TO_PAIR_TABLE.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
+            OperationParameters myParams = getAndValidateParams(request, myJobs);
 
             if (myParams == null) {
                 setResponseStatus(response, BAD_REQUEST);
@@ -554,7 +476,7 @@ class Worker extends cis5550.generic.Worker {
             Iterator<Row> myRows;
 
             try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
+                myRows = scanInput(myCache, myKVS, myParams);
             } catch (IOException e) {
                 LOGGER.debug("Failed to scan rows", e);
                 setResponseStatus(response, INTERNAL_SERVER_ERROR);
@@ -595,7 +517,7 @@ class Worker extends cis5550.generic.Worker {
         });
 
         post(FlameOperation.JOIN.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
+            OperationParameters myParams = getAndValidateParams(request, myJobs);
 
             if (myParams == null) {
                 setResponseStatus(response, BAD_REQUEST);
@@ -607,7 +529,7 @@ class Worker extends cis5550.generic.Worker {
             Iterator<Row> myRows;
 
             try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
+                myRows = scanInput(myCache, myKVS, myParams);
             } catch (IOException e) {
                 LOGGER.debug("Failed to scan rows", e);
                 setResponseStatus(response, INTERNAL_SERVER_ERROR);
@@ -617,7 +539,7 @@ class Worker extends cis5550.generic.Worker {
             List<RowColumnValueTuple> myRowColValueList = new ArrayList<>();
             while (myRows.hasNext()) {
                 Row myRow = myRows.next();
-                Row myOtherRow = myKVS.getRow(myOtherTable, myRow.key());
+                Row myOtherRow = getRow(myCache, myKVS, myOtherTable, myRow.key());
 
                 if (myOtherRow != null) {
                     for (String myColumn : myRow.columns()) {
@@ -632,50 +554,99 @@ class Worker extends cis5550.generic.Worker {
                             myRowColValueList.clear();
                         }
                     }
-                    if (!myRowColValueList.isEmpty()) {
-                        myKVS.batchPut(myParams.outputTable(), myRowColValueList);
-                    }
                 }
             }
+            if (!myRowColValueList.isEmpty()) {
+                myKVS.batchPut(myParams.outputTable(), myRowColValueList);
+            }
 
             setResponseStatus(response, OK);
             return "OK";
         });
 
-        post(FlameOperation.FOLD.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateFoldParams(request, myJAR);
+        post(BroadcastStore.PATH, (request, response) -> {
+            String myId = request.queryParams("id");
+            if (myId == null) {
+                setResponseStatus(response, BAD_REQUEST);
+                return "Bad request";
+            }
 
-            if (myParams == null) {
+            myBroadcasts.put(URLDecoder.decode(myId, StandardCharsets.UTF_8), request.bodyAsBytes());
+            setResponseStatus(response, OK);
+            return "OK";
+        });
+
+        post(BroadcastStore.RELEASE_PATH, (request, response) -> {
+            String myId = request.queryParams("id");
+            if (myId == null) {
                 setResponseStatus(response, BAD_REQUEST);
                 return "Bad request";
             }
 
+            myBroadcasts.release(URLDecoder.decode(myId, StandardCharsets.UTF_8));
+            setResponseStatus(response, OK);
+            return "OK";
+        });
+
+        // streams the partition's rows past the broadcast table and writes the same output as JOIN
+        post(FlameOperation.BROADCAST_JOIN.getPath(), (request, response) -> {
+            OperationParameters myParams = getAndValidateParams(request, myJobs);
+
+            if (myParams == null || !(myParams.lambda() instanceof BroadcastStore.JoinTask myTask)) {
+                setResponseStatus(response, BAD_REQUEST);
+                return "Bad request";
+            }
+
+            Map<String, Row> myBroadcast = myBroadcasts.get(myTask.broadcastId());
+            if (myBroadcast == null) {
+                LOGGER.error("Broadcast " + myTask.broadcastId() + " has not been received");
+                setResponseStatus(response, INTERNAL_SERVER_ERROR);
+                return "Internal error";
+            }
+
             KVSClient myKVS = new KVSClient(myParams.kvsCoordinator());
             Iterator<Row> myRows;
 
             try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
+                myRows = scanInput(myCache, myKVS, myParams);
             } catch (IOException e) {
                 LOGGER.debug("Failed to scan rows", e);
                 setResponseStatus(response, INTERNAL_SERVER_ERROR);
                 return "Internal error";
             }
 
-            FlamePairRDD.TwoStringsToString myLambda = (FlamePairRDD.TwoStringsToString) myParams.lambda();
-            String myAccumulatedValue = myParams.zeroElement();
-
+            List<RowColumnValueTuple> myRowColValueList = new ArrayList<>();
             while (myRows.hasNext()) {
                 Row myRow = myRows.next();
-                String myValue = myRow.get(COLUMN_NAME);
-                myAccumulatedValue = myLambda.op(myAccumulatedValue, myValue);
+                Row myBroadcastRow = myBroadcast.get(myRow.key());
+                if (myBroadcastRow == null) {
+                    continue;
+                }
+
+                Row myLeftRow = myTask.broadcastIsLeft() ? myBroadcastRow : myRow;
+                Row myRightRow = myTask.broadcastIsLeft() ? myRow : myBroadcastRow;
+                for (String myColumn : myLeftRow.columns()) {
+                    for (String myOtherColumn : myRightRow.columns()) {
+                        myRowColValueList.add(new RowColumnValueTuple(myRow.key(),
+                                Hasher.hash(myColumn + "!" + myOtherColumn),
+                                myLeftRow.get(myColumn) + "," + myRightRow.get(myOtherColumn)));
+                    }
+                }
+                if (myRowColValueList.size() > BATCH_SIZE) {
+                    myKVS.batchPut(myParams.outputTable(), myRowColValueList);
+                    myRowColValueList.clear();
+                }
+            }
+            if (!myRowColValueList.isEmpty()) {
+                myKVS.batchPut(myParams.outputTable(), myRowColValueList);
             }
 
             setResponseStatus(response, OK);
-            return myAccumulatedValue;
+            return "OK";
         });
 
-        post(FlameOperation.PAIR_FOLD.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateFoldParams(request, myJAR);
+        post(FlameOperation.FOLD.getPath(), (request, response) -> {
+            OperationParameters myParams = getAndValidateFoldParams(request, myJobs);
 
             if (myParams == null) {
                 setResponseStatus(response, BAD_REQUEST);
@@ -686,30 +657,28 @@ class Worker extends cis5550.generic.Worker {
             Iterator<Row> myRows;
 
             try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
+                myRows = scanInput(myCache, myKVS, myParams);
             } catch (IOException e) {
                 LOGGER.debug("Failed to scan rows", e);
                 setResponseStatus(response, INTERNAL_SERVER_ERROR);
                 return "Internal error";
             }
 
-            FlamePairRDD.StringPairToString myLambda = (FlamePairRDD.StringPairToString) myParams.lambda();
+            FlamePairRDD.TwoStringsToString myLambda = (FlamePairRDD.TwoStringsToString) myParams.lambda();
             String myAccumulatedValue = myParams.zeroElement();
 
             while (myRows.hasNext()) {
                 Row myRow = myRows.next();
-                for (String myColumn : myRow.columns()) {
-                    FlamePair myPair = new FlamePair(myRow.key(), myRow.get(myColumn));
-                    myAccumulatedValue = myLambda.op(myAccumulatedValue, myPair);
-                }
+                String myValue = myRow.get(COLUMN_NAME);
+                myAccumulatedValue = myLambda.op(myAccumulatedValue, myValue);
             }
 
             setResponseStatus(response, OK);
             return myAccumulatedValue;
         });
 
-        post(FlameOperation.FILTER.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
+        post(FlameOperation.PAIR_FOLD.getPath(), (request, response) -> {
+            OperationParameters myParams = getAndValidateFoldParams(request, myJobs);
 
             if (myParams == null) {
                 setResponseStatus(response, BAD_REQUEST);
@@ -718,33 +687,32 @@ class Worker extends cis5550.generic.Worker {
 
             KVSClient myKVS = new KVSClient(myParams.kvsCoordinator());
             Iterator<Row> myRows;
-            FlameRDD.StringToBoolean myLambda = (FlameRDD.StringToBoolean) myParams.lambda();
 
             try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
+                myRows = scanInput(myCache, myKVS, myParams);
             } catch (IOException e) {
                 LOGGER.debug("Failed to scan rows", e);
                 setResponseStatus(response, INTERNAL_SERVER_ERROR);
                 return "Internal error";
             }
 
-            List<RowColumnValueTuple> myRowColValueList = new ArrayList<>();
+            FlamePairRDD.StringPairToString myLambda = (FlamePairRDD.StringPairToString) myParams.lambda();
+            String myAccumulatedValue = myParams.zeroElement();
+
             while (myRows.hasNext()) {
                 Row myRow = myRows.next();
-                String myValue = myRow.get(COLUMN_NAME);
-                if (myLambda.op(myValue)) {
-                    RowColumnValueTuple myTup = new RowColumnValueTuple(myRow.key(), COLUMN_NAME, myValue);
-                    myRowColValueList.add(myTup);
+                for (String myColumn : myRow.columns()) {
+                    FlamePair myPair = new FlamePair(myRow.key(), myRow.get(myColumn));
+                    myAccumulatedValue = myLambda.op(myAccumulatedValue, myPair);
                 }
             }
 
-            myKVS.batchPut(myParams.outputTable(), myRowColValueList);
             setResponseStatus(response, OK);
-            return "OK";
+            return myAccumulatedValue;
         });
 
         post(FlameOperation.MAP_PARTITIONS.getPath(), (request, response) -> {
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
+            OperationParameters myParams = getAndValidateParams(request, myJobs);
 
             if (myParams == null) {
                 setResponseStatus(response, BAD_REQUEST);
@@ -756,7 +724,7 @@ class Worker extends cis5550.generic.Worker {
             FlameRDD.IteratorToIterator myLambda = (FlameRDD.IteratorToIterator) myParams.lambda();
 
             try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
+                myRows = scanInput(myCache, myKVS, myParams);
             } catch (IOException e) {
                 LOGGER.debug("Failed to scan rows", e);
                 setResponseStatus(response, INTERNAL_SERVER_ERROR);
@@ -773,20 +741,26 @@ class Worker extends cis5550.generic.Worker {
 
             List<RowColumnValueTuple> myRowColValueList = new ArrayList<>();
             int myI = 0;
-            while (myResults.hasNext()) {
-                RowColumnValueTuple myTup = new RowColumnValueTuple(createUniqueRowKey(myParams.fromKey(), myI), COLUMN_NAME, myResults.next());
+            while (myResults != null && myResults.hasNext()) {
+                RowColumnValueTuple myTup = new RowColumnValueTuple(myParams.uniqueRowKey(myParams.fromKey(), myI), COLUMN_NAME, myResults.next());
                 myRowColValueList.add(myTup);
                 myI++;
+                if (myRowColValueList.size() > BATCH_SIZE) {
+                    myKVS.batchPut(myParams.outputTable(), myRowColValueList);
+                    myRowColValueList.clear();
+                }
             }
 
-            myKVS.batchPut(myParams.outputTable(), myRowColValueList);
+            if (!myRowColValueList.isEmpty()) {
+                myKVS.batchPut(myParams.outputTable(), myRowColValueList);
+            }
             setResponseStatus(response, OK);
             return "OK";
         });
 
         post(FlameOperation.COGROUP.getPath(), (request, response) -> {
             LOGGER.error("Cogroup is NOT fully supported and is prone to bugs.");
-            OperationParameters myParams = getAndValidateParams(request, myJAR);
+            OperationParameters myParams = getAndValidateParams(request, myJobs);
 
             if (myParams == null) {
                 setResponseStatus(response, BAD_REQUEST);
@@ -798,7 +772,7 @@ class Worker extends cis5550.generic.Worker {
             Iterator<Row> myRows;
 
             try {
-                myRows = myKVS.scan(myParams.inputTable(), myParams.fromKey(), myParams.toKeyExclusive());
+                myRows = scanInput(myCache, myKVS, myParams);
             } catch (IOException e) {
                 LOGGER.debug("Failed to scan rows", e);
                 setResponseStatus(response, INTERNAL_SERVER_ERROR);
@@ -808,7 +782,7 @@ class Worker extends cis5550.generic.Worker {
             List<RowColumnValueTuple> myRowColValueList = new ArrayList<>();
             while (myRows.hasNext()) {
                 Row myRow = myRows.next();
-                Row myOtherRow = myKVS.getRow(myOtherTable, myRow.key());
+                Row myOtherRow = getRow(myCache, myKVS, myOtherTable, myRow.key());
 
                 List<String> myRowValues = new LinkedList<>();
                 List<String> myOtherRowValues = new LinkedList<>();
@@ -835,12 +809,24 @@ class Worker extends cis5550.generic.Worker {
         });
 
         after((req, res) -> {
-            LOGGER.debug("Completed request: " + req.requestMethod() + " " + req.url());
+            myJobs.returnLambdas();
+            LOGGER.debug(() -> "Completed request: " + req.requestMethod() + " " + req.url());
         });
     }
 
-    private static OperationParameters getAndValidateParams(Request aRequest, File aJar) {
-        OperationParameters myParams = OperationParameters.fromRequest(aRequest, aJar);
+    // cached partitions are read from this worker's memory, or their spill file, instead of the KVS
+    private static Iterator<Row> scanInput(PartitionCache aCache, KVSClient aKVS, OperationParameters aParams)
+            throws IOException {
+        Iterator<Row> myRows = aCache.scan(aParams.inputTable(), aParams.fromKey(), aParams.toKeyExclusive());
+        return myRows != null ? myRows : aKVS.scan(aParams.inputTable(), aParams.fromKey(), aParams.toKeyExclusive());
+    }
+
+    private static Row getRow(PartitionCache aCache, KVSClient aKVS, String aTable, String aKey) throws IOException {
+        return aCache.holdsKey(aTable, aKey) ? aCache.getRow(aTable, aKey) : aKVS.getRow(aTable, aKey);
+    }
+
+    private static OperationParameters getAndValidateParams(Request aRequest, JobCache aJobs) {
+        OperationParameters myParams = OperationParameters.fromRequest(aRequest, aJobs);
 
         if (myParams.kvsCoordinator() == null) {
             return null;
@@ -853,8 +839,8 @@ class Worker extends cis5550.generic.Worker {
         return myParams;
     }
 
-    private static OperationParameters getAndValidateFoldParams(Request aRequest, File aJar) {
-        OperationParameters myParams = OperationParameters.fromRequest(aRequest, aJar);
+    private static OperationParameters getAndValidateFoldParams(Request aRequest, JobCache aJobs) {
+        OperationParameters myParams = OperationParameters.fromRequest(aRequest, aJobs);
 
         if (myParams.kvsCoordinator() == null) {
             return null;
@@ -3,6 +3,7 @@ package cis5550.jobs;
 import cis5550.flame.FlameContext;
 import cis5550.flame.FlameRDD;
 import cis5550.jobs.datamodels.TableColumns;
+import cis5550.kvs.KVSClient;
 import cis5550.kvs.Row;
 import cis5550.tools.*;
 
@@ -29,13 +30,24 @@ public class NewCrawler {
     private static final String ALL_CRAWLED = "pt-crawled";
 
     private static final int THREAD_SLEEP = 10;
-    private static final int DEFAULT_CRAWL_DELAY = 1000;
     private static final int CONNECT_TIMEOUT = 1000;
     private static final int READ_TIMEOUT = 4000;
 
+    // fetches in flight per Flame worker, across all of its partitions
+    private static final int MAX_FETCHES = 256;
+    private static final int MAX_FETCHES_PER_HOST = 1;
+    private static final int MAX_QUEUED_PER_HOST = 32;
+    private static final long MAX_HOST_WAIT = 30000;
+
     private static final Logger LOGGER = Logger.getLogger(NewCrawler.class);
     private static final Denylist myDenylist = new Denylist();
 
+    // created on first use, so only the Flame workers that fetch start its dispatcher thread, not the coordinator
+    private static class Fetcher {
+        private static final FetchEngine INSTANCE =
+                new FetchEngine(MAX_FETCHES, MAX_FETCHES_PER_HOST, MAX_QUEUED_PER_HOST, MAX_HOST_WAIT);
+    }
+
     public static void run(FlameContext aContext, String[] aArgs) throws Exception {
         aContext.output("OK");
         FlameRDD myUrlQueue;
@@ -45,184 +57,221 @@ public class NewCrawler {
             myUrlQueue = aContext.fromTable(NEXT_FRONTER, row -> row.get(TableColumns.VALUE.value()));
         }
 
+        KVSClient myKVS = aContext.getKVS();
+        if (myKVS.count(SeenUrls.SEEN_TABLE) == 0 && myKVS.count(ALL_CRAWLED) > 0) {
+            rebuildSeenUrls(aContext);
+        }
+
         while (myUrlQueue != null && myUrlQueue.count() != 0) {
             Thread.sleep(THREAD_SLEEP);
+            // all URLs of a host go to the same partition, so only one worker at a time schedules the host
+            FlameRDD myFrontier = myUrlQueue.partitionBy(NewCrawler::hostOf);
+            myUrlQueue.destroy();
             aContext.getKVS().delete(NEXT_FRONTER);
-            myUrlQueue.saveAsTable(NEXT_FRONTER);
-            myUrlQueue = myUrlQueue.flatMap(myURLString -> {
-                LOGGER.debug("Crawling: " + myURLString);
-
-                String[] myUrlParts = cleanupUrl(myURLString);
-                String myCleanedUrl = myUrlParts[0] + "://" + myUrlParts[1] + ":" + myUrlParts[2] + myUrlParts[3];
-
-                if (!alreadyTraversed(aContext, myCleanedUrl)) {
-                    try {
-                        addToTraversed(aContext, myCleanedUrl);
-                    } catch (Exception e) {
-                        LOGGER.error("Adding to traversed failed: " + e.getMessage());
-                        return Collections.emptyList();
-                    }
-                } else {
-                    return Collections.emptyList();
-                }
+            myFrontier.saveAsTable(NEXT_FRONTER);
+            myUrlQueue = myFrontier.mapPartitions(myUrls -> {
+                SeenUrls mySeen = new SeenUrls(aContext.getKVS());
+                return Fetcher.INSTANCE.run(
+                        myUrls, NewCrawler::hostOf, myUrl -> crawl(aContext, mySeen, myUrl), hostLog(aContext, mySeen));
+            });
+        }
+    }
 
-                URI myUri;
-                String myHost;
-                try {
-                    myUri = new URI(myCleanedUrl);
-                    myHost = myUri.getHost();
-                } catch (Exception e) {
-                    LOGGER.error("URI syntax exception: " + e.getMessage());
-                    return Collections.emptyList();
-                }
+    /**
+     * Builds the seen filters of a crawl that was started before they existed from the URLs it has traversed, one
+     * partition per set of hosts like the frontier.
+     */
+    private static void rebuildSeenUrls(FlameContext aContext) throws Exception {
+        LOGGER.info("Rebuilding seen URL filters from " + ALL_CRAWLED);
+        FlameRDD myTraversed = aContext.fromTable(ALL_CRAWLED, row -> row.get(TableColumns.URL.value()));
+        FlameRDD myByHost = myTraversed.partitionBy(NewCrawler::hostOf);
+        myTraversed.destroy();
+        myByHost.mapPartitions(myUrls -> {
+            SeenUrls mySeen = new SeenUrls(aContext.getKVS());
+            while (myUrls.hasNext()) {
+                String myUrl = myUrls.next();
+                mySeen.add(hostOf(myUrl), myUrl);
+            }
+            mySeen.save();
+            return Collections.emptyIterator();
+        }).destroy();
+        myByHost.destroy();
+    }
 
-                String robotsTxt = getRobotsTxt(aContext.getKVS(), myHost);
-                long crawlDelay = DEFAULT_CRAWL_DELAY;
-
-                try {
-                    if (robotsTxt == null) {
-                        LOGGER.debug("Unexpected response code from: " + myCleanedUrl);
-                        return Collections.emptyList();
-                    } else if (!isUrlAllowed(robotsTxt, myCleanedUrl)) {
-                        LOGGER.debug("URL is not allowed by robots.txt: " + myCleanedUrl);
-                        return Collections.emptyList();
-                    } else {
-                        Double robotsDelay = getCrawlDelay(robotsTxt);
-                        if (robotsDelay != null) {
-                            crawlDelay = (long) (DEFAULT_CRAWL_DELAY * robotsDelay);
-                        }
+    private static Iterable<String> crawl(FlameContext aContext, SeenUrls aSeen, String aUrlString) throws Exception {
+        LOGGER.debug("Crawling: " + aUrlString);
+
+        String[] myUrlParts = cleanupUrl(aUrlString);
+        String myCleanedUrl = myUrlParts[0] + "://" + myUrlParts[1] + ":" + myUrlParts[2] + myUrlParts[3];
+
+        // only a possible hit of the seen filter needs the KVS to tell whether the URL was crawled
+        if (aSeen.mightContain(myUrlParts[1], myCleanedUrl) && alreadyTraversed(aContext, myCleanedUrl)) {
+            return Collections.emptyList();
+        }
+        try {
+            aSeen.add(myUrlParts[1], myCleanedUrl);
+            addToTraversed(aContext, myCleanedUrl);
+        } catch (Exception e) {
+            LOGGER.error("Adding to traversed failed: " + e.getMessage());
+            return Collections.emptyList();
+        }
+
+        URI myUri;
+        String myHost;
+        try {
+            myUri = new URI(myCleanedUrl);
+            myHost = myUri.getHost();
+        } catch (Exception e) {
+            LOGGER.error("URI syntax exception: " + e.getMessage());
+            return Collections.emptyList();
+        }
+
+        RobotRuleFollower myRobots = getRules(aContext.getKVS(), myHost);
+        if (myRobots == null) {
+            LOGGER.debug("No robots.txt for: " + myCleanedUrl);
+            return Collections.emptyList();
+        } else if (!myRobots.isAllowed(myUri.getPath())) {
+            LOGGER.debug("URL is not allowed by robots.txt: " + myCleanedUrl);
+            return Collections.emptyList();
+        }
+
+        Fetcher.INSTANCE.markFetched(myUrlParts[1], myRobots.getCrawlDelay());
+
+        URL myUrl = myUri.toURL();
+
+        HttpURLConnection myHeadConnection;
+        myHeadConnection = (HttpURLConnection) myUrl.openConnection();
+        myHeadConnection.setRequestMethod("HEAD");
+        myHeadConnection.setRequestProperty("User-Agent", CRAWLER_NAME);
+        myHeadConnection.setInstanceFollowRedirects(false);
+        myHeadConnection.setConnectTimeout(CONNECT_TIMEOUT);
+        myHeadConnection.setReadTimeout(READ_TIMEOUT);
+
+        int myHeadResponseCode;
+        String myContentType;
+        int myContentLength;
+
+        try {
+            myHeadResponseCode = myHeadConnection.getResponseCode();
+            myContentType = myHeadConnection.getContentType();
+            myContentLength = myHeadConnection.getContentLength();
+        } catch (Exception e) {
+            LOGGER.error("HEAD connection failed: " + e.getMessage());
+            return Collections.emptyList();
+        }
+
+        if (isRedirectCode(myHeadResponseCode)) {
+            try {
+                putPageInTable(
+                        aContext, myCleanedUrl, myHeadResponseCode, myContentType, myContentLength, null);
+                String myLocation = myHeadConnection.getHeaderField("Location");
+                if (myLocation != null) {
+                    String myNormalizedRedirectUrl = normalizeURL(myLocation, myCleanedUrl);
+                    if (myNormalizedRedirectUrl != null && !alreadyTraversed(aContext, myCleanedUrl)) {
+                        return List.of(myNormalizedRedirectUrl);
                     }
-                } catch (Exception e) {
-                    LOGGER.error("Robots exception: " + e.getMessage());
                     return Collections.emptyList();
                 }
-
-                if (hasPassedTime(aContext, crawlDelay, myUrlParts[1])) {
-                    aContext.getKVS()
-                            .put(
-                                    HOSTS_TABLE,
-                                    Hasher.hash(myUrlParts[1]),
-                                    TableColumns.TIMESTAMP.value(),
-                                    String.valueOf(System.currentTimeMillis()));
-                } else {
-                    return List.of(myURLString);
-                }
-
-                URL myUrl = myUri.toURL();
-
-                HttpURLConnection myHeadConnection;
-                myHeadConnection = (HttpURLConnection) myUrl.openConnection();
-                myHeadConnection.setRequestMethod("HEAD");
-                myHeadConnection.setRequestProperty("User-Agent", CRAWLER_NAME);
-                myHeadConnection.setInstanceFollowRedirects(false);
-                myHeadConnection.setConnectTimeout(CONNECT_TIMEOUT);
-                myHeadConnection.setReadTimeout(READ_TIMEOUT);
-
-                int myHeadResponseCode;
-                String myContentType;
-                int myContentLength;
-
-                try {
-                    myHeadResponseCode = myHeadConnection.getResponseCode();
-                    myContentType = myHeadConnection.getContentType();
-                    myContentLength = myHeadConnection.getContentLength();
-                } catch (Exception e) {
-                    LOGGER.error("HEAD connection failed: " + e.getMessage());
+            } catch (Exception e) {
+                LOGGER.error("Redirect failed: " + e.getMessage());
+                return Collections.emptyList();
+            }
+        } else if (myHeadResponseCode == 200) {
+            LOGGER.debug("HTTP GET request");
+            HttpURLConnection myConnection = (HttpURLConnection) myUrl.openConnection();
+            myConnection.setRequestMethod("GET");
+            myConnection.setRequestProperty("User-Agent", CRAWLER_NAME);
+            myConnection.setInstanceFollowRedirects(false);
+            myConnection.setConnectTimeout(CONNECT_TIMEOUT);
+            myConnection.setReadTimeout(READ_TIMEOUT);
+
+            int myResponseCode;
+            try {
+                LOGGER.debug("Getting response");
+                myResponseCode = myConnection.getResponseCode();
+                if (myResponseCode != 200) {
                     return Collections.emptyList();
                 }
+            } catch (Exception e) {
+                LOGGER.error("GET connection failed: " + e.getMessage());
+                return Collections.emptyList();
+            }
 
-                if (isRedirectCode(myHeadResponseCode)) {
-                    try {
-                        putPageInTable(
-                                aContext, myCleanedUrl, myHeadResponseCode, myContentType, myContentLength, null);
-                        String myLocation = myHeadConnection.getHeaderField("Location");
-                        if (myLocation != null) {
-                            String myNormalizedRedirectUrl = normalizeURL(myLocation, myCleanedUrl);
-                            if (myNormalizedRedirectUrl != null && !alreadyTraversed(aContext, myCleanedUrl)) {
-                                return List.of(myNormalizedRedirectUrl);
-                            }
-                            return Collections.emptyList();
-                        }
-                    } catch (Exception e) {
-                        LOGGER.error("Redirect failed: " + e.getMessage());
-                        return Collections.emptyList();
-                    }
-                } else if (myHeadResponseCode == 200) {
-                    LOGGER.debug("HTTP GET request");
-                    HttpURLConnection myConnection = (HttpURLConnection) myUrl.openConnection();
-                    myConnection.setRequestMethod("GET");
-                    myConnection.setRequestProperty("User-Agent", CRAWLER_NAME);
-                    myConnection.setInstanceFollowRedirects(false);
-                    myConnection.setConnectTimeout(CONNECT_TIMEOUT);
-                    myConnection.setReadTimeout(READ_TIMEOUT);
-
-                    int myResponseCode;
-                    try {
-                        LOGGER.debug("Getting response");
-                        myResponseCode = myConnection.getResponseCode();
-                        if (myResponseCode != 200) {
-                            return Collections.emptyList();
-                        }
-                    } catch (Exception e) {
-                        LOGGER.error("GET connection failed: " + e.getMessage());
-                        return Collections.emptyList();
+            byte[] myContent = null;
+            try {
+                LOGGER.debug("Getting content");
+                if (myContentType != null && myContentType.contains("text/html")) {
+                    InputStream is = myConnection.getInputStream();
+                    ByteArrayOutputStream byteBuffer = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[4096];
+                    int bytesRead;
+                    while ((bytesRead = is.read(buffer)) != -1) {
+                        byteBuffer.write(buffer, 0, bytesRead);
                     }
+                    myContent = byteBuffer.toByteArray();
+                    is.close();
+                }
+            } catch (Exception e) {
+                LOGGER.error("Reading byte stream connection failed: " + e.getMessage());
+                return Collections.emptyList();
+            }
 
-                    byte[] myContent = null;
-                    try {
-                        LOGGER.debug("Getting content");
-                        if (myContentType != null && myContentType.contains("text/html")) {
-                            InputStream is = myConnection.getInputStream();
-                            ByteArrayOutputStream byteBuffer = new ByteArrayOutputStream();
-                            byte[] buffer = new byte[4096];
-                            int bytesRead;
-                            while ((bytesRead = is.read(buffer)) != -1) {
-                                byteBuffer.write(buffer, 0, bytesRead);
-                            }
-                            myContent = byteBuffer.toByteArray();
-                            is.close();
+            try {
+                putPageInTable(
+                        aContext, myCleanedUrl, myResponseCode, myContentType, myContentLength, myContent);
+                if (myContent != null) {
+                    Set<String> myUrls = extractUrls(new String(myContent));
+                    List<String> myNormalizedUrls = myUrls.stream()
+                            .map(url -> normalizeURL(myCleanedUrl, url))
+                            .filter(Objects::nonNull)
+                            .toList();
+                    // links to hosts of this partition are checked against its seen filters first; links to other
+                    // hosts, and possible hits, are confirmed against the KVS
+                    List<String> myToConfirm = new ArrayList<>();
+                    for (String myNormalizedUrl : myNormalizedUrls) {
+                        Boolean mySeen = aSeen.mightContainIfLoaded(hostOf(myNormalizedUrl), myNormalizedUrl);
+                        if (mySeen == null || mySeen) {
+                            myToConfirm.add(myNormalizedUrl);
                         }
-                    } catch (Exception e) {
-                        LOGGER.error("Reading byte stream connection failed: " + e.getMessage());
-                        return Collections.emptyList();
                     }
-
-                    try {
-                        putPageInTable(
-                                aContext, myCleanedUrl, myResponseCode, myContentType, myContentLength, myContent);
-                        if (myContent != null) {
-                            Set<String> myUrls = extractUrls(new String(myContent));
-                            List<String> myNormalizedUrls = myUrls.stream()
-                                    .map(url -> normalizeURL(myCleanedUrl, url))
-                                    .filter(Objects::nonNull)
-                                    .toList();
-                            List<Boolean> getTraversedBool = batchAlreadyTraversed(aContext, myNormalizedUrls);
-                            Set<String> myToTraverseUrls = new HashSet<>();
-                            for (int i = 0; i < myNormalizedUrls.size(); i++) {
-                                String myNormalizedUrl = myNormalizedUrls.get(i);
-                                if (myNormalizedUrl != null && probabilisticDomainFilter(myNormalizedUrl)
-                                        && !myDenylist.isBlocked(myCleanedUrl) && !getTraversedBool.get(i)) {
-                                    myToTraverseUrls.add(myNormalizedUrl);
-                                }
-                            }
-                            LOGGER.debug("PUT finished");
-                            return myToTraverseUrls;
+                    List<Boolean> getTraversedBool = batchAlreadyTraversed(aContext, myToConfirm);
+                    Set<String> myTraversedUrls = new HashSet<>();
+                    for (int i = 0; i < myToConfirm.size(); i++) {
+                        if (getTraversedBool.get(i)) {
+                            myTraversedUrls.add(myToConfirm.get(i));
                         }
-                    } catch (Exception e) {
-                        LOGGER.error("Failed while adding page content: " + e.getMessage());
-                        return Collections.emptyList();
                     }
-                } else {
-                    try {
-                        putPageInTable(
-                                aContext, myCleanedUrl, myHeadResponseCode, myContentType, myContentLength, null);
-                    } catch (Exception e) {
-                        LOGGER.error("Failed while adding page content: " + e.getMessage());
+                    Set<String> myToTraverseUrls = new HashSet<>();
+                    for (String myNormalizedUrl : myNormalizedUrls) {
+                        if (probabilisticDomainFilter(myNormalizedUrl) && !myDenylist.isBlocked(myCleanedUrl)
+                                && !myTraversedUrls.contains(myNormalizedUrl)) {
+                            myToTraverseUrls.add(myNormalizedUrl);
+                        }
                     }
-                    return Collections.emptyList();
+                    LOGGER.debug("PUT finished");
+                    return myToTraverseUrls;
                 }
+            } catch (Exception e) {
+                LOGGER.error("Failed while adding page content: " + e.getMessage());
                 return Collections.emptyList();
-            });
+            }
+        } else {
+            try {
+                putPageInTable(
+                        aContext, myCleanedUrl, myHeadResponseCode, myContentType, myContentLength, null);
+            } catch (Exception e) {
+                LOGGER.error("Failed while adding page content: " + e.getMessage());
+            }
+            return Collections.emptyList();
+        }
+        return Collections.emptyList();
+    }
+
+    private static String hostOf(String aUrl) {
+        try {
+            return cleanupUrl(aUrl)[1];
+        } catch (Exception e) {
+            return "";
         }
     }
 
@@ -296,14 +345,32 @@ public class NewCrawler {
         aContext.getKVS().putRow(CRAWL_TABLE, row);
     }
 
-    private static boolean hasPassedTime(FlameContext aContext, long aDelay, String aHost) throws Exception {
-        byte[] myLastAccessedTimeRaw =
-                aContext.getKVS().get(HOSTS_TABLE, Hasher.hash(aHost), TableColumns.TIMESTAMP.value());
-        if (myLastAccessedTimeRaw == null || myLastAccessedTimeRaw.length == 0) {
-            return true;
-        }
-        long myLastAccessedTime = Long.valueOf(new String(myLastAccessedTimeRaw));
-        return System.currentTimeMillis() - myLastAccessedTime > aDelay;
+    // the next allowed fetch time of each host, kept in the hosts table so it survives restarts; the checkpoint at the
+    // end of a partition also saves its seen filters
+    private static FetchEngine.HostLog hostLog(FlameContext aContext, SeenUrls aSeen) {
+        return new FetchEngine.HostLog() {
+            @Override
+            public long nextAllowedTime(String aHost) throws Exception {
+                byte[] myTime = aContext.getKVS().get(HOSTS_TABLE, Hasher.hash(aHost), TableColumns.TIMESTAMP.value());
+                if (myTime == null || myTime.length == 0) {
+                    return 0;
+                }
+                return Long.parseLong(new String(myTime));
+            }
+
+            @Override
+            public void checkpoint(Map<String, Long> aNextAllowedTimes) throws Exception {
+                List<RowColumnValueTuple> myTimes = new ArrayList<>();
+                for (Map.Entry<String, Long> myEntry : aNextAllowedTimes.entrySet()) {
+                    String myRow = Hasher.hash(myEntry.getKey());
+                    String myTime = myEntry.getValue().toString();
+                    myTimes.add(new RowColumnValueTuple(myRow, TableColumns.TIMESTAMP.value(), myTime));
+                }
+                if (!myTimes.isEmpty()) {
+                    aContext.getKVS().batchPut(HOSTS_TABLE, myTimes);
+                }
+                aSeen.save();
+            }
+        };
     }
 }
-
@@ -7,6 +7,8 @@ import cis5550.jobs.datamodels.TableColumns;
 import cis5550.tools.Hasher;
 import cis5550.tools.Logger;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -30,18 +32,22 @@ public class NewPageRank {
 
     public static void run(FlameContext aContext, String[] aArgs) throws Exception {
 
-        FlamePairRDD myPageRankRDD = prepareInitPagerankTable(aContext);
+        // the link structure does not change between iterations, so it is read from the crawl once and kept in
+        // the workers' memory; only the ranks are recomputed
+        FlamePairRDD myLinkRDD = prepareLinkTable(aContext).cache();
+        FlamePairRDD myPageRankRDD = prepareInitPagerankTable(myLinkRDD);
 
         int myIterations = 1;
         while (true) {
             LOGGER.debug("Iteration " + myIterations++);
-            myPageRankRDD = pagerankIterate(myPageRankRDD);
+            myPageRankRDD = pagerankIterate(myPageRankRDD, myLinkRDD);
             if (hasConverged(myPageRankRDD)) {
                 break;
             }
         }
 
         savePagerankTable(aContext, myPageRankRDD);
+        myLinkRDD.destroy();
         LOGGER.debug("Pagerank completed");
         aContext.output("RAHHH");
     }
@@ -65,8 +71,8 @@ public class NewPageRank {
         return myUrls;
     }
 
-    private static FlamePairRDD prepareInitPagerankTable(FlameContext aContext) throws Exception {
-        LOGGER.debug("Preparing Pagerank Table");
+    private static FlamePairRDD prepareLinkTable(FlameContext aContext) throws Exception {
+        LOGGER.debug("Preparing Link Table");
         return aContext.pairFromTable(CRAWL_TABLE, myRow -> {
             try {
                 String myUrl = myRow.get(TableColumns.URL.value());
@@ -82,10 +88,7 @@ public class NewPageRank {
                 Set<String> myUrlHashes = myNormalizedUrls.stream().map(Hasher::hash).collect(Collectors.toSet());
 
                 String myBaseUrlHash = Hasher.hash(myUrl);
-                String myPageRankInit =
-                        INIT_PAGERANK + COMMA + INIT_PAGERANK + COMMA + String.join(COMMA, myUrlHashes);
-
-                return new FlamePair(myBaseUrlHash, myPageRankInit);
+                return new FlamePair(myBaseUrlHash, String.join(COMMA, myUrlHashes));
             } catch (Exception e) {
                 LOGGER.error("Error while reading an element from crawl table. Skipping. ");
                 return null;
@@ -93,8 +96,19 @@ public class NewPageRank {
         });
     }
 
-    private static FlamePairRDD pagerankIterate(FlamePairRDD aPageRankRDD) throws Exception {
-        FlamePairRDD myPageRankCalculations = aPageRankRDD
+    private static FlamePairRDD prepareInitPagerankTable(FlamePairRDD aLinkRDD) throws Exception {
+        LOGGER.debug("Preparing Pagerank Table");
+        return aLinkRDD.flatMapToPair(
+                myPair -> List.of(new FlamePair(myPair._1(), INIT_PAGERANK + COMMA + INIT_PAGERANK)));
+    }
+
+    private static FlamePairRDD pagerankIterate(FlamePairRDD aRankRDD, FlamePairRDD aLinkRDD) throws Exception {
+        // rank, previous rank, then the outlinks; the join reads the links from the cached link table, either
+        // streaming it past the broadcast ranks or looking each page up in it
+        FlamePairRDD myPageRankRDD = aRankRDD.join(aLinkRDD);
+        aRankRDD.destroy();
+
+        FlamePairRDD myPageRankCalculations = myPageRankRDD
                 .flatMapToPair(myPair -> {
                     String myUrlHash = myPair._1();
                     String[] myPageRankParts = myPair._2().split(COMMA);
@@ -102,7 +116,8 @@ public class NewPageRank {
                     List<String> myUrlHashes = List.of(myPageRankParts).subList(2, myPageRankParts.length);
 
                     List<FlamePair> myResults = new LinkedList<>();
-                    myResults.add(new FlamePair(myUrlHash, String.valueOf(0.0)));
+                    // the page's own entry carries its current rank through the fold, so no join is needed after it
+                    myResults.add(new FlamePair(myUrlHash, String.valueOf(0.0) + COMMA + myPageRank));
                     for (String myOtherUrlHash : myUrlHashes) {
                         myResults.add(new FlamePair(
                                 myOtherUrlHash, String.valueOf(DAMPING_FACTOR * myPageRank / myUrlHashes.size())));
@@ -110,38 +125,48 @@ public class NewPageRank {
                     return myResults;
                 });
 
-        FlamePairRDD myTransferTable = myPageRankCalculations
-                .foldByKey("", (a, b) -> {
-                    if (a.isEmpty()) {
-                        return b;
-                    }
-                    double myPageRank = Double.parseDouble(a) + Double.parseDouble(b);
-                    return String.valueOf(myPageRank);
-                });
+        FlamePairRDD myTransferTable = myPageRankCalculations.foldByKey("", NewPageRank::addTransfers);
 
         myPageRankCalculations.destroy();
+        myPageRankRDD.destroy();
 
-        FlamePairRDD myJoinedRDD = aPageRankRDD.join(myTransferTable);
-
-        aPageRankRDD.destroy();
-        myTransferTable.destroy();
-
-        FlamePairRDD myNextPageRankRDD = myJoinedRDD.flatMapToPair(myPair -> {
-            String myUrlHash = myPair._1();
-            List<String> myParts = List.of(myPair._2().split(COMMA));
-            double myPageRank = Double.parseDouble(myParts.getFirst());
-            double myNewPageRank = Double.parseDouble(myParts.getLast()) + RANK_SOURCE;
-            List<String> myOutlinks = myParts.subList(2, myParts.size() - 1);
+        FlamePairRDD myNextPageRankRDD = myTransferTable.flatMapToPair(myPair -> {
+            String[] myParts = myPair._2().split(COMMA);
+            if (myParts.length < 2) {
+                // linked to, but not crawled
+                return List.of();
+            }
+            double myNewPageRank = Double.parseDouble(myParts[0]) + RANK_SOURCE;
+            double myPageRank = Double.parseDouble(myParts[1]);
 
-            return List.of(new FlamePair(
-                    myUrlHash, myNewPageRank + COMMA + myPageRank + COMMA + String.join(COMMA, myOutlinks)));
+            return List.of(new FlamePair(myPair._1(), myNewPageRank + COMMA + myPageRank));
         });
 
-        myJoinedRDD.destroy();
+        myTransferTable.destroy();
 
         return myNextPageRankRDD;
     }
 
+    /**
+     * Adds up the rank transferred to a page. Values are "transfer" or "transfer,current rank"; only the page's own
+     * entry has the rank, which is kept.
+     */
+    private static String addTransfers(String aValue, String aOtherValue) {
+        if (aValue.isEmpty()) {
+            return aOtherValue;
+        }
+        String[] myParts = aValue.split(COMMA);
+        String[] myOtherParts = aOtherValue.split(COMMA);
+        String myTransfer = String.valueOf(Double.parseDouble(myParts[0]) + Double.parseDouble(myOtherParts[0]));
+        if (myParts.length > 1) {
+            return myTransfer + COMMA + myParts[1];
+        }
+        if (myOtherParts.length > 1) {
+            return myTransfer + COMMA + myOtherParts[1];
+        }
+        return myTransfer;
+    }
+
     private static boolean hasConverged(FlamePairRDD aPageRankRDD)
             throws Exception {
 
@@ -187,15 +212,20 @@ public class NewPageRank {
     }
 
     private static void savePagerankTable(FlameContext aContext, FlamePairRDD aPageRankRDD) throws Exception {
+        // fold is an action, so the puts happen here; flatMapToPair output is only computed once it is used
         aPageRankRDD
-                .flatMapToPair(myPair -> {
+                .fold("", (myAccumulated, myPair) -> {
                     String myUrlHash = myPair._1();
                     String[] myParts = myPair._2().split(COMMA);
                     double myPageRank = Double.parseDouble(myParts[0]);
-                    aContext.getKVS()
-                            .put(PAGERANK_TABLE, myUrlHash, TableColumns.RANK.value(), String.valueOf(myPageRank));
-                    return List.of();
-                });
+                    try {
+                        aContext.getKVS()
+                                .put(PAGERANK_TABLE, myUrlHash, TableColumns.RANK.value(), String.valueOf(myPageRank));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return myAccumulated;
+                }, (a, b) -> a);
         aPageRankRDD.destroy();
     }
 }
@@ -0,0 +1,113 @@
+package cis5550.jobs;
+
+import cis5550.kvs.KVSClient;
+import cis5550.tools.Hasher;
+import cis5550.tools.Logger;
+import cis5550.tools.RowColumnValueTuple;
+import cis5550.tools.ScalableBloomFilter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The URLs whose crawl has started, as one growable Bloom filter per host, for the hosts of one crawl partition.
+ * The frontier is sharded by host, so only one partition at a time uses a host's filter: it is loaded from the seen
+ * table when the partition first needs it, and the filters that changed are written back by save() at the end of the
+ * partition. A miss means the URL was definitely not started; a hit may be a false positive and is confirmed against
+ * the KVS. A host whose saved filter cannot be read has every URL confirmed.
+ */
+class SeenUrls {
+    static final String SEEN_TABLE = "pt-seen";
+
+    private static final Logger LOGGER = Logger.getLogger(SeenUrls.class);
+    private static final String FILTER_COLUMN = "filter";
+    private static final int INITIAL_CAPACITY = 256;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final KVSClient theKVS;
+    private final Map<String, HostFilter> theFilters = new ConcurrentHashMap<>();
+
+    SeenUrls(KVSClient aKVS) {
+        theKVS = aKVS;
+    }
+
+    boolean mightContain(String aHost, String aUrl) throws IOException {
+        return filterOf(aHost).mightContain(aUrl);
+    }
+
+    void add(String aHost, String aUrl) throws IOException {
+        HostFilter myFilter = filterOf(aHost);
+        if (myFilter.theFilter != null && myFilter.theFilter.add(aUrl)) {
+            myFilter.theIsDirty = true;
+        }
+    }
+
+    /**
+     * Like mightContain(), but only for hosts of this partition whose filter is already loaded; null otherwise.
+     */
+    Boolean mightContainIfLoaded(String aHost, String aUrl) {
+        HostFilter myFilter = theFilters.get(aHost);
+        return myFilter == null ? null : myFilter.mightContain(aUrl);
+    }
+
+    void save() throws IOException {
+        List<RowColumnValueTuple> myFilters = new ArrayList<>();
+        for (Map.Entry<String, HostFilter> myEntry : theFilters.entrySet()) {
+            HostFilter myFilter = myEntry.getValue();
+            if (!myFilter.theIsDirty) {
+                continue;
+            }
+            myFilter.theIsDirty = false;
+            ByteArrayOutputStream myBytes = new ByteArrayOutputStream();
+            myFilter.theFilter.writeTo(new DataOutputStream(myBytes));
+            String myEncoded = Base64.getEncoder().encodeToString(myBytes.toByteArray());
+            myFilters.add(new RowColumnValueTuple(Hasher.hash(myEntry.getKey()), FILTER_COLUMN, myEncoded));
+        }
+        if (!myFilters.isEmpty()) {
+            theKVS.batchPut(SEEN_TABLE, myFilters);
+        }
+    }
+
+    private HostFilter filterOf(String aHost) throws IOException {
+        HostFilter myFilter = theFilters.get(aHost);
+        if (myFilter != null) {
+            return myFilter;
+        }
+        ScalableBloomFilter myLoaded = new ScalableBloomFilter(INITIAL_CAPACITY, FALSE_POSITIVE_RATE);
+        byte[] myEncoded = theKVS.get(SEEN_TABLE, Hasher.hash(aHost), FILTER_COLUMN);
+        if (myEncoded != null && myEncoded.length > 0) {
+            try {
+                byte[] myBytes = Base64.getDecoder().decode(myEncoded);
+                myLoaded = ScalableBloomFilter.readFrom(
+                        new DataInputStream(new ByteArrayInputStream(myBytes)), FALSE_POSITIVE_RATE);
+            } catch (IllegalArgumentException | IOException e) {
+                LOGGER.error("Failed to read seen filter of " + aHost, e);
+                myLoaded = null;
+            }
+        }
+        HostFilter myNew = new HostFilter(myLoaded);
+        myFilter = theFilters.putIfAbsent(aHost, myNew);
+        return myFilter == null ? myNew : myFilter;
+    }
+
+    private static class HostFilter {
+        private final ScalableBloomFilter theFilter;
+        private volatile boolean theIsDirty = false;
+
+        private HostFilter(ScalableBloomFilter aFilterOrNull) {
+            theFilter = aFilterOrNull;
+        }
+
+        private boolean mightContain(String aUrl) {
+            return theFilter == null || theFilter.mightContain(aUrl);
+        }
+    }
+}
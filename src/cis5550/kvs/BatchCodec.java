@@ -0,0 +1,178 @@
+package cis5550.kvs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Framing used by the KVS batch routes. A batch body is a flat sequence of fields, and each field is an unsigned
+ * LEB128 varint length followed by that many raw bytes:
+ * <ul>
+ *     <li>batch put: row, column, value per entry</li>
+ *     <li>batch append: row, value per entry (the column is part of the URL)</li>
+ *     <li>batch get request: row per entry; response: one optional value per requested row</li>
+ * </ul>
+ * Optional values are written with length + 1 so that 0 can mean "no value". Since lengths are explicit, values may
+ * contain any bytes, and the body is decoded field by field without ever being turned into a string. A length that is
+ * negative or longer than what is left of the body is reported as an IOException before anything is allocated.
+ */
+public class BatchCodec {
+    public static final String CONTENT_TYPE = "application/x-kvs-batch";
+
+    public static class Writer {
+        private final ByteArrayOutputStream theOutput = new ByteArrayOutputStream();
+        private int theEntries = 0;
+
+        public Writer writeString(String aValue) {
+            return writeBytes(aValue.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public Writer writeBytes(byte[] aValue) {
+            writeVarint(theOutput, aValue.length);
+            theOutput.writeBytes(aValue);
+            return this;
+        }
+
+        public Writer writeOptional(byte[] aValueOrNull) {
+            if (aValueOrNull == null) {
+                writeVarint(theOutput, 0);
+            } else {
+                writeVarint(theOutput, aValueOrNull.length + 1);
+                theOutput.writeBytes(aValueOrNull);
+            }
+            return this;
+        }
+
+        public Writer endEntry() {
+            theEntries++;
+            return this;
+        }
+
+        public int entries() {
+            return theEntries;
+        }
+
+        public int size() {
+            return theOutput.size();
+        }
+
+        public byte[] toByteArray() {
+            return theOutput.toByteArray();
+        }
+    }
+
+    public static class Reader {
+        private final InputStream theInput;
+        private final long theLength;
+        private long theRead = 0;
+        private int thePeeked = -2;
+
+        /**
+         * Reads a stream of unknown length, so field lengths are only checked for being negative.
+         */
+        public Reader(InputStream aInput) {
+            this(aInput, Long.MAX_VALUE);
+        }
+
+        public Reader(byte[] aBody) {
+            this(new ByteArrayInputStream(aBody), aBody.length);
+        }
+
+        private Reader(InputStream aInput, long aLength) {
+            theInput = aInput;
+            theLength = aLength;
+        }
+
+        public boolean hasNext() throws IOException {
+            if (thePeeked == -2) {
+                thePeeked = read();
+            }
+            return thePeeked >= 0;
+        }
+
+        public String readString() throws IOException {
+            return new String(readBytes(), StandardCharsets.UTF_8);
+        }
+
+        public byte[] readBytes() throws IOException {
+            return readFully(readVarint());
+        }
+
+        public byte[] readOptional() throws IOException {
+            int myLength = readVarint();
+            return myLength == 0 ? null : readFully(myLength - 1);
+        }
+
+        private int read() throws IOException {
+            int myByte = theInput.read();
+            if (myByte >= 0) {
+                theRead++;
+            }
+            return myByte;
+        }
+
+        private int readVarint() throws IOException {
+            int myResult = 0;
+            for (int myShift = 0; myShift < 32; myShift += 7) {
+                int myByte = nextByte();
+                myResult |= (myByte & 0x7f) << myShift;
+                if ((myByte & 0x80) == 0) {
+                    return myResult;
+                }
+            }
+            throw new IOException("Malformed varint in batch body");
+        }
+
+        private int nextByte() throws IOException {
+            int myByte;
+            if (thePeeked != -2) {
+                myByte = thePeeked;
+                thePeeked = -2;
+            } else {
+                myByte = read();
+            }
+            if (myByte < 0) {
+                throw new EOFException("Truncated batch body");
+            }
+            return myByte;
+        }
+
+        private byte[] readFully(int aLength) throws IOException {
+            long myRemaining = theLength - theRead + (thePeeked >= 0 ? 1 : 0);
+            if (aLength < 0 || aLength > myRemaining) {
+                throw new IOException("Bad field length " + aLength + " in batch body");
+            }
+            byte[] myResult = new byte[aLength];
+            int myOffset = 0;
+            if (aLength > 0 && thePeeked >= 0) {
+                myResult[myOffset++] = (byte) thePeeked;
+                thePeeked = -2;
+            }
+            while (myOffset < aLength) {
+                int myRead = theInput.read(myResult, myOffset, aLength - myOffset);
+                if (myRead < 0) {
+                    throw new EOFException("Truncated batch body");
+                }
+                theRead += myRead;
+                myOffset += myRead;
+            }
+            return myResult;
+        }
+    }
+
+    static void writeVarint(OutputStream aOutput, int aValue) {
+        try {
+            while ((aValue & ~0x7f) != 0) {
+                aOutput.write((aValue & 0x7f) | 0x80);
+                aValue >>>= 7;
+            }
+            aOutput.write(aValue);
+        } catch (IOException e) {
+            throw new RuntimeException("Writing to a byte array should not fail", e);
+        }
+    }
+}
@@ -2,12 +2,20 @@ package cis5550.kvs;
 
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.net.*;
 import java.io.*;
 
 import cis5550.flame.Partitioner;
 import cis5550.tools.HTTP;
 import cis5550.tools.Logger;
+import cis5550.tools.PooledHTTP;
 import cis5550.tools.RowColumnValueTuple;
 
 import static cis5550.kvs.Worker.*;
@@ -16,8 +24,17 @@ public class KVSClient implements KVS {
 
     private static Logger LOGGER = Logger.getLogger(KVSClient.class);
     private static int BATCH_LIMIT = 50000;
+    // rows per batch read; a worker's reads are split in requests of this size and pipelined on one connection
+    private static final int BATCH_GET_LIMIT = 200;
+    private static final PooledHTTP HTTP_CLIENT = PooledHTTP.getDefault();
+    public static final int DEFAULT_REQUEST_TIMEOUT = 120000;
+    public static final int SCAN_QUEUE_CAPACITY = 1000;
+    private static final Row END_OF_RANGE = new Row("");
+    private static final LongAdder CROSS_HOST_BYTES = new LongAdder();
+    private static final Map<String, Boolean> LOCAL_HOSTS = new ConcurrentHashMap<>();
 
     String coordinator;
+    int requestTimeoutMillis = DEFAULT_REQUEST_TIMEOUT;
 
     static class WorkerEntry implements Comparable<WorkerEntry> {
         String address;
@@ -46,6 +63,10 @@ public class KVSClient implements KVS {
         return "v1.4 Aug 5 2023";
     }
 
+    public void setRequestTimeout(int timeoutMillis) {
+        requestTimeoutMillis = timeoutMillis;
+    }
+
     public String getCoordinator() {
         return coordinator;
     }
@@ -79,34 +100,11 @@ public class KVSClient implements KVS {
             endRowExclusive = endRowExclusiveArg;
             tableName = tableNameArg;
             startRow = startRowArg;
-            ranges = new Vector<String>();
-            if ((startRowArg == null) || (startRowArg.compareTo(getWorkerID(0)) < 0)) {
-                String url = getURL(tableNameArg, numWorkers() - 1, startRowArg, ((endRowExclusiveArg != null) && (endRowExclusiveArg.compareTo(getWorkerID(0)) < 0)) ? endRowExclusiveArg : getWorkerID(0));
-                ranges.add(url);
-            }
-            for (int i = 0; i < numWorkers(); i++) {
-                if ((startRowArg == null) || (i == numWorkers() - 1) || (startRowArg.compareTo(getWorkerID(i + 1)) < 0)) {
-                    if ((endRowExclusiveArg == null) || (endRowExclusiveArg.compareTo(getWorkerID(i)) > 0)) {
-                        boolean useActualStartRow = (startRowArg != null) && (startRowArg.compareTo(getWorkerID(i)) > 0);
-                        boolean useActualEndRow = (endRowExclusiveArg != null) && ((i == (numWorkers() - 1)) || (endRowExclusiveArg.compareTo(getWorkerID(i + 1)) < 0));
-                        String url = getURL(tableNameArg, i, useActualStartRow ? startRowArg : getWorkerID(i), useActualEndRow ? endRowExclusiveArg : ((i < numWorkers() - 1) ? getWorkerID(i + 1) : null));
-                        ranges.add(url);
-                    }
-                }
-            }
+            ranges = getRanges(tableNameArg, startRowArg, endRowExclusiveArg);
 
             openConnectionAndFill();
         }
 
-        protected String getURL(String tableNameArg, int workerIndexArg, String startRowArg, String endRowExclusiveArg) throws IOException {
-            String params = "";
-            if (startRowArg != null)
-                params = "startRow=" + startRowArg;
-            if (endRowExclusiveArg != null)
-                params = (params.equals("") ? "" : (params + "&")) + "endRowExclusive=" + endRowExclusiveArg;
-            return "http://" + getWorkerAddress(workerIndexArg) + "/data/" + tableNameArg + (params.equals("") ? "" : "?" + params);
-        }
-
         void openConnectionAndFill() {
             try {
                 if (in != null) {
@@ -128,7 +126,7 @@ public class KVSClient implements KVS {
                         HttpURLConnection con = (HttpURLConnection) url.openConnection();
                         con.setRequestMethod("GET");
                         con.connect();
-                        in = con.getInputStream();
+                        in = countIfCrossHost(con.getInputStream(), url.getHost());
                         Row r = fill();
                         if (r != null) {
                             nextRow = r;
@@ -179,8 +177,159 @@ public class KVSClient implements KVS {
         }
     }
 
+    /**
+     * Reads every range of a scan at the same time, one thread per range, through bounded queues, so a scan runs at
+     * the combined bandwidth of the workers and the rows are fetched while the caller is still processing earlier
+     * ones. If ordered is true, rows come out range by range, in the same order as KVSIterator returns them;
+     * otherwise they come out in whatever order they arrive. Callers must close the iterator, which stops the reader
+     * threads and drops their connections if the scan did not run to the end.
+     */
+    public class ParallelKVSIterator implements Iterator<Row>, AutoCloseable {
+        final List<BlockingQueue<Row>> queues;
+        final List<HttpURLConnection> connections = new CopyOnWriteArrayList<>();
+        final boolean ordered;
+        volatile boolean closed;
+        boolean finished;
+        int currentQueue;
+        int rangesLeft;
+        Row nextRow;
+
+        ParallelKVSIterator(Vector<String> ranges, boolean orderedArg) {
+            ordered = orderedArg;
+            closed = false;
+            currentQueue = 0;
+            rangesLeft = ranges.size();
+            queues = new ArrayList<>();
+
+            BlockingQueue<Row> sharedQueue = new ArrayBlockingQueue<>(SCAN_QUEUE_CAPACITY);
+            if (!ordered)
+                queues.add(sharedQueue);
+            for (String range : ranges) {
+                BlockingQueue<Row> queue = sharedQueue;
+                if (ordered) {
+                    queue = new ArrayBlockingQueue<>(SCAN_QUEUE_CAPACITY);
+                    queues.add(queue);
+                }
+                BlockingQueue<Row> queueForRange = queue;
+                Thread reader = new Thread(() -> readRange(range, queueForRange));
+                reader.setDaemon(true);
+                reader.start();
+            }
+
+            nextRow = take();
+        }
+
+        void readRange(String range, BlockingQueue<Row> queue) {
+            InputStream in = null;
+            try {
+                URL url = new URI(range).toURL();
+                HttpURLConnection con = (HttpURLConnection) url.openConnection();
+                connections.add(con);
+                if (closed)
+                    return;
+                con.setRequestMethod("GET");
+                con.connect();
+                in = countIfCrossHost(con.getInputStream(), url.getHost());
+                while (!closed) {
+                    Row r = Row.readFrom(in);
+                    if (r == null)
+                        break;
+                    offer(queue, r);
+                }
+            } catch (FileNotFoundException fnfe) {
+            } catch (Exception e) {
+                if (!closed)
+                    LOGGER.error("Failed to read scan range " + range, e);
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                    }
+                }
+                offer(queue, END_OF_RANGE);
+            }
+        }
+
+        void offer(BlockingQueue<Row> queue, Row r) {
+            try {
+                while (!closed && !queue.offer(r, 100, TimeUnit.MILLISECONDS)) {
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Row take() {
+            try {
+                while (rangesLeft > 0) {
+                    Row r = queues.get(currentQueue).take();
+                    if (r != END_OF_RANGE)
+                        return r;
+                    rangesLeft--;
+                    if (ordered)
+                        currentQueue++;
+                }
+                finished = !closed;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+            }
+            return null;
+        }
+
+        public Row next() {
+            Row r = nextRow;
+            if (r != null)
+                nextRow = take();
+            return r;
+        }
+
+        public boolean hasNext() {
+            return nextRow != null;
+        }
+
+        public void close() {
+            closed = true;
+            rangesLeft = 0;
+            nextRow = null;
+            if (!finished) {
+                for (HttpURLConnection con : connections)
+                    con.disconnect();
+            }
+        }
+    }
+
+    Vector<String> getRanges(String tableName, String startRow, String endRowExclusive) throws IOException {
+        Vector<String> ranges = new Vector<String>();
+        if ((startRow == null) || (startRow.compareTo(getWorkerID(0)) < 0)) {
+            String url = getURL(tableName, numWorkers() - 1, startRow, ((endRowExclusive != null) && (endRowExclusive.compareTo(getWorkerID(0)) < 0)) ? endRowExclusive : getWorkerID(0));
+            ranges.add(url);
+        }
+        for (int i = 0; i < numWorkers(); i++) {
+            if ((startRow == null) || (i == numWorkers() - 1) || (startRow.compareTo(getWorkerID(i + 1)) < 0)) {
+                if ((endRowExclusive == null) || (endRowExclusive.compareTo(getWorkerID(i)) > 0)) {
+                    boolean useActualStartRow = (startRow != null) && (startRow.compareTo(getWorkerID(i)) > 0);
+                    boolean useActualEndRow = (endRowExclusive != null) && ((i == (numWorkers() - 1)) || (endRowExclusive.compareTo(getWorkerID(i + 1)) < 0));
+                    String url = getURL(tableName, i, useActualStartRow ? startRow : getWorkerID(i), useActualEndRow ? endRowExclusive : ((i < numWorkers() - 1) ? getWorkerID(i + 1) : null));
+                    ranges.add(url);
+                }
+            }
+        }
+        return ranges;
+    }
+
+    protected String getURL(String tableNameArg, int workerIndexArg, String startRowArg, String endRowExclusiveArg) throws IOException {
+        String params = "";
+        if (startRowArg != null)
+            params = "startRow=" + startRowArg;
+        if (endRowExclusiveArg != null)
+            params = (params.equals("") ? "" : (params + "&")) + "endRowExclusive=" + endRowExclusiveArg;
+        return "http://" + getWorkerAddress(workerIndexArg) + "/data/" + tableNameArg + (params.equals("") ? "" : "?" + params);
+    }
+
     synchronized void downloadWorkers() throws IOException {
-        String result = new String(HTTP.doRequest("GET", "http://" + coordinator + "/workers", null).body());
+        String result = new String(HTTP_CLIENT.doRequest("GET", "http://" + coordinator + "/workers", null).body());
         String[] pieces = result.split("\n");
         int numWorkers = Integer.parseInt(pieces[0]);
         if (numWorkers < 1)
@@ -209,6 +358,70 @@ public class KVSClient implements KVS {
         return chosenWorker;
     }
 
+    /**
+     * Sends all calls at once, so a request that touches every worker takes as long as the slowest worker rather
+     * than the sum of all of them. Idempotent calls to the same worker are pipelined on one connection instead of
+     * taking a connection each. The futures are in the order of the calls. A worker that sends nothing for the
+     * request timeout fails its future, and its connection is closed rather than left waiting.
+     */
+    List<CompletableFuture<HTTP.Response>> fanOut(List<PooledHTTP.Call> calls) {
+        List<CompletableFuture<HTTP.Response>> futures = new ArrayList<>(Collections.nCopies(calls.size(), null));
+        Map<String, List<Integer>> idempotentIndexesByWorker = new HashMap<>();
+        for (int i = 0; i < calls.size(); i++) {
+            PooledHTTP.Call call = calls.get(i);
+            if (call.isIdempotent()) {
+                idempotentIndexesByWorker.computeIfAbsent(workerOf(call.url()), k -> new ArrayList<>()).add(i);
+            } else {
+                futures.set(i, send(call));
+            }
+        }
+
+        for (List<Integer> indexes : idempotentIndexesByWorker.values()) {
+            if (indexes.size() == 1) {
+                futures.set(indexes.getFirst(), send(calls.get(indexes.getFirst())));
+                continue;
+            }
+            List<PooledHTTP.Call> pipelined = new ArrayList<>(indexes.size());
+            for (int i : indexes) {
+                pipelined.add(withTimeout(calls.get(i)));
+            }
+            CompletableFuture<List<HTTP.Response>> responses = HTTP_CLIENT.pipeline(pipelined);
+            for (int j = 0; j < indexes.size(); j++) {
+                int position = j;
+                futures.set(indexes.get(j), responses.thenApply(list -> list.get(position)));
+            }
+        }
+        return futures;
+    }
+
+    private CompletableFuture<HTTP.Response> send(PooledHTTP.Call call) {
+        return HTTP_CLIENT.request(withTimeout(call));
+    }
+
+    private PooledHTTP.Call withTimeout(PooledHTTP.Call call) {
+        return new PooledHTTP.Call(call.method(), call.url(), call.body(), requestTimeoutMillis);
+    }
+
+    private static String workerOf(String url) {
+        int start = url.indexOf("://") + 3;
+        int end = url.indexOf('/', start);
+        return end < 0 ? url.substring(start) : url.substring(start, end);
+    }
+
+    List<PooledHTTP.Call> callsToAllWorkers(String method, String path, byte[] body) {
+        List<PooledHTTP.Call> calls = new ArrayList<>(workers.size());
+        for (WorkerEntry w : workers) {
+            calls.add(new PooledHTTP.Call(method, "http://" + w.address + path, body));
+        }
+        return calls;
+    }
+
+    private static void checkOK(HTTP.Response response, String target) {
+        String result = new String(response.body());
+        if (!result.equals("OK"))
+            throw new RuntimeException("PUT returned something other than OK: " + result + "(" + target + ")");
+    }
+
     public KVSClient(String coordinatorArg) {
         coordinator = coordinatorArg;
         workers = new Vector<WorkerEntry>();
@@ -220,10 +433,9 @@ public class KVSClient implements KVS {
             downloadWorkers();
 
         boolean result = true;
-        for (WorkerEntry w : workers) {
+        for (CompletableFuture<HTTP.Response> future : fanOut(callsToAllWorkers("PUT", "/rename/" + URLEncoder.encode(oldTableName, "UTF-8") + "/", newTableName.getBytes()))) {
             try {
-                byte[] response = HTTP.doRequest("PUT", "http://" + w.address + "/rename/" + URLEncoder.encode(oldTableName, "UTF-8") + "/", newTableName.getBytes()).body();
-                String res = new String(response);
+                String res = new String(PooledHTTP.await(future).body());
                 result &= res.equals("OK");
             } catch (Exception e) {
             }
@@ -236,10 +448,9 @@ public class KVSClient implements KVS {
         if (!haveWorkers)
             downloadWorkers();
 
-        for (WorkerEntry w : workers) {
+        for (CompletableFuture<HTTP.Response> future : fanOut(callsToAllWorkers("PUT", "/delete/" + URLEncoder.encode(oldTableName, "UTF-8") + "/", null))) {
             try {
-                byte[] response = HTTP.doRequest("PUT", "http://" + w.address + "/delete/" + URLEncoder.encode(oldTableName, "UTF-8") + "/", null).body();
-                String result = new String(response);
+                PooledHTTP.await(future);
             } catch (Exception e) {
             }
         }
@@ -251,7 +462,7 @@ public class KVSClient implements KVS {
 
         try {
             String target = "http://" + workers.elementAt(workerIndexForKey(row)).address + "/data/" + tableName + "/" + URLEncoder.encode(row, "UTF-8") + "/" + URLEncoder.encode(column, "UTF-8");
-            byte[] response = HTTP.doRequest("PUT", target, value).body();
+            byte[] response = HTTP_CLIENT.doRequest("PUT", target, value).body();
             String result = new String(response);
             if (!result.equals("OK"))
                 throw new RuntimeException("PUT returned something other than OK: " + result + "(" + target + ")");
@@ -264,41 +475,73 @@ public class KVSClient implements KVS {
         put(tableName, row, column, value.getBytes());
     }
 
-    private void batchPutOperation(String tableName, String workerAddress, List<String> batchRowsForWorker) throws IOException {
-        String rowsString = String.join(BATCH_UNIQUE_SEPARATOR, batchRowsForWorker);
-        byte[] body = rowsString.getBytes(StandardCharsets.UTF_8);
-
-        String target = "http://" + workerAddress + "/batch/data/" + tableName + "/";
-
-        byte[] response = HTTP.doRequest("PUT", target, body).body();
-        String result = new String(response);
-        if (!result.equals("OK"))
-            throw new RuntimeException("PUT returned something other than OK: " + result + "(" + target + ")");
-    }
-
     public void batchPut(String tableName, List<RowColumnValueTuple> rowsColsAndValues) throws IOException {
         if (!haveWorkers)
             downloadWorkers();
 
-        Map<String, List<String>> workerToRowsMap = new HashMap<>();
+        Map<String, BatchCodec.Writer> workerToBatchMap = new HashMap<>();
         for (RowColumnValueTuple tup : rowsColsAndValues) {
-            String row = tup.getRow();
-            String column = tup.getColumn();
-            String value = tup.getValue();
-            String workerAddress = workers.elementAt(workerIndexForKey(row)).address;
-            workerToRowsMap.computeIfAbsent(workerAddress, k -> new ArrayList<>()).add(
-                    row + BATCH_ROW_COL_VALUE_SEPARATOR + column + BATCH_ROW_COL_VALUE_SEPARATOR + value
-            );
+            String workerAddress = workers.elementAt(workerIndexForKey(tup.getRow())).address;
+            workerToBatchMap.computeIfAbsent(workerAddress, k -> new BatchCodec.Writer())
+                    .writeString(tup.getRow())
+                    .writeString(tup.getColumn())
+                    .writeString(tup.getValue())
+                    .endEntry();
         }
 
-        try {
-            for (Map.Entry<String, List<String>> entry : workerToRowsMap.entrySet()) {
-                String workerAddress = entry.getKey();
-                List<String> rowsForWorker = entry.getValue();
-                batchPutOperation(tableName, workerAddress, rowsForWorker);
+        List<PooledHTTP.Call> calls = new ArrayList<>();
+        for (Map.Entry<String, BatchCodec.Writer> entry : workerToBatchMap.entrySet()) {
+            byte[] body = entry.getValue().toByteArray();
+            if (isCrossHost(entry.getKey().split(":")[0]))
+                CROSS_HOST_BYTES.add(body.length);
+            calls.add(new PooledHTTP.Call("PUT", "http://" + entry.getKey() + "/batch/data/" + tableName + "/", body));
+        }
+        awaitOK(calls, fanOut(calls));
+    }
+
+    /**
+     * Returns how many bytes this process has read in scans from, or sent in batch puts to, KVS workers on other
+     * hosts. Flame workers report it, so the coordinator can tell how much of a job's data crossed the network.
+     */
+    public static long crossHostBytes() {
+        return CROSS_HOST_BYTES.sum();
+    }
+
+    static boolean isCrossHost(String host) {
+        return !LOCAL_HOSTS.computeIfAbsent(host, h -> {
+            try {
+                InetAddress address = InetAddress.getByName(h);
+                return address.isLoopbackAddress() || address.isAnyLocalAddress()
+                        || NetworkInterface.getByInetAddress(address) != null;
+            } catch (IOException e) {
+                return false;
             }
-        } catch (UnsupportedEncodingException uee) {
-            throw new RuntimeException("UTF-8 encoding not supported?!?");
+        });
+    }
+
+    static InputStream countIfCrossHost(InputStream in, String host) {
+        if (!isCrossHost(host))
+            return in;
+        return new FilterInputStream(in) {
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0)
+                    CROSS_HOST_BYTES.increment();
+                return b;
+            }
+
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int n = super.read(buffer, offset, length);
+                if (n > 0)
+                    CROSS_HOST_BYTES.add(n);
+                return n;
+            }
+        };
+    }
+
+    private static void awaitOK(List<PooledHTTP.Call> calls, List<CompletableFuture<HTTP.Response>> futures) throws IOException {
+        for (int i = 0; i < futures.size(); i++) {
+            checkOK(PooledHTTP.await(futures.get(i)), calls.get(i).url());
         }
     }
 
@@ -306,7 +549,7 @@ public class KVSClient implements KVS {
         if (!haveWorkers)
             downloadWorkers();
 
-        byte[] response = HTTP.doRequest("PUT", "http://" + workers.elementAt(workerIndexForKey(row.key())).address + "/data/" + tableName, row.toByteArray()).body();
+        byte[] response = HTTP_CLIENT.doRequest("PUT", "http://" + workers.elementAt(workerIndexForKey(row.key())).address + "/data/" + tableName, row.toByteArray()).body();
         String result = new String(response);
         if (!result.equals("OK"))
             throw new RuntimeException("PUT returned something other than OK: " + result);
@@ -317,7 +560,7 @@ public class KVSClient implements KVS {
         if (!haveWorkers)
             downloadWorkers();
 
-        byte[] response = HTTP.doRequest("PUT", "http://" + workers.elementAt(workerIndexForKey(row)).address + "/append/" + tableName + "/" + URLEncoder.encode(row, "UTF-8") + "/" + URLEncoder.encode(column, "UTF-8") + "?delimiter=" + URLEncoder.encode(delimiter, "UTF-8"), value).body();
+        byte[] response = HTTP_CLIENT.doRequest("PUT", "http://" + workers.elementAt(workerIndexForKey(row)).address + "/append/" + tableName + "/" + URLEncoder.encode(row, "UTF-8") + "/" + URLEncoder.encode(column, "UTF-8") + "?delimiter=" + URLEncoder.encode(delimiter, "UTF-8"), value).body();
         String result = new String(response);
         if (!result.equals("OK"))
             throw new RuntimeException("PUT returned something other than OK: " + result);
@@ -327,63 +570,47 @@ public class KVSClient implements KVS {
         if (!haveWorkers)
             downloadWorkers();
 
-        Map<String, List<String>> workerToRowsMap = new HashMap<>();
+        // Chunks for one worker go out one after another, so appends to a row keep their order and at most one
+        // chunk per worker is in flight; different workers still proceed in parallel.
+        String path = "/batchAppend/data/" + tableName + "/" + URLEncoder.encode(column, "UTF-8");
+        Map<String, BatchCodec.Writer> workerToBatchMap = new HashMap<>();
+        Map<String, PooledHTTP.Call> inFlightCalls = new HashMap<>();
+        Map<String, CompletableFuture<HTTP.Response>> inFlight = new HashMap<>();
         for (RowColumnValueTuple tup : rowsColsAndValues) {
-            String row = tup.getRow();
-            String col = tup.getColumn();
-            String value = tup.getValue();
-            String workerAddress = workers.elementAt(workerIndexForKey(row)).address;
-            workerToRowsMap.computeIfAbsent(workerAddress, k -> new ArrayList<>()).add(
-                    row + BATCH_ROW_COL_VALUE_SEPARATOR + col + BATCH_ROW_COL_VALUE_SEPARATOR + value
-            );
+            String workerAddress = workers.elementAt(workerIndexForKey(tup.getRow())).address;
+            BatchCodec.Writer batchForWorker = workerToBatchMap.computeIfAbsent(workerAddress, k -> new BatchCodec.Writer());
+            batchForWorker.writeString(tup.getRow()).writeString(tup.getValue()).endEntry();
+            if (batchForWorker.entries() >= BATCH_LIMIT) {
+                PooledHTTP.Call call = new PooledHTTP.Call("PUT", "http://" + workerAddress + path, batchForWorker.toByteArray());
+                sendAfterPrevious(call, workerAddress, inFlightCalls, inFlight);
+                workerToBatchMap.remove(workerAddress);
+            }
         }
 
-        try {
-            for (Map.Entry<String, List<String>> entry : workerToRowsMap.entrySet()) {
-                String workerAddress = entry.getKey();
-                List<String> rowsForWorker = entry.getValue();
-
-                List<String> batchRowsForWorker = new ArrayList<>();
-                for (String row : rowsForWorker) {
-                    batchRowsForWorker.add(row);
-                    if (batchRowsForWorker.size() >= BATCH_LIMIT) {
-                        String rowsString = String.join(BATCH_UNIQUE_SEPARATOR, rowsForWorker);
-                        byte[] body = rowsString.getBytes(StandardCharsets.UTF_8);
-
-                        String target = "http://" + workerAddress + "/batchAppend/data/" + tableName + "/" + URLEncoder.encode(column, "UTF-8");
-
-                        byte[] response = HTTP.doRequest("PUT", target, body).body();
-                        String result = new String(response);
-                        if (!result.equals("OK"))
-                            throw new RuntimeException("PUT returned something other than OK: " + result + "(" + target + ")");
-
-                        batchRowsForWorker = new ArrayList<>();
-                    }
-                }
-                if (batchRowsForWorker.size() > 0) {
-                    String rowsString = String.join(BATCH_UNIQUE_SEPARATOR, rowsForWorker);
-                    byte[] body = rowsString.getBytes(StandardCharsets.UTF_8);
-
-                    String target = "http://" + workerAddress + "/batchAppend/data/" + tableName + "/" + URLEncoder.encode(column, "UTF-8");
-
-                    byte[] response = HTTP.doRequest("PUT", target, body).body();
-                    String result = new String(response);
-                    if (!result.equals("OK"))
-                        System.out.println("PUT returned something other than OK: " + result + "(" + target + ")");
-
-                    batchRowsForWorker = new ArrayList<>();
-                }
-            }
-        } catch (UnsupportedEncodingException uee) {
-            throw new RuntimeException("UTF-8 encoding not supported?!?");
+        for (Map.Entry<String, BatchCodec.Writer> entry : workerToBatchMap.entrySet()) {
+            PooledHTTP.Call call = new PooledHTTP.Call("PUT", "http://" + entry.getKey() + path, entry.getValue().toByteArray());
+            sendAfterPrevious(call, entry.getKey(), inFlightCalls, inFlight);
+        }
+        for (Map.Entry<String, CompletableFuture<HTTP.Response>> entry : inFlight.entrySet()) {
+            checkOK(PooledHTTP.await(entry.getValue()), inFlightCalls.get(entry.getKey()).url());
         }
     }
 
+    private void sendAfterPrevious(PooledHTTP.Call call, String workerAddress,
+                                   Map<String, PooledHTTP.Call> inFlightCalls,
+                                   Map<String, CompletableFuture<HTTP.Response>> inFlight) throws IOException {
+        CompletableFuture<HTTP.Response> previous = inFlight.get(workerAddress);
+        if (previous != null)
+            checkOK(PooledHTTP.await(previous), inFlightCalls.get(workerAddress).url());
+        inFlightCalls.put(workerAddress, call);
+        inFlight.put(workerAddress, send(call));
+    }
+
     public void appendToRow(String tableName, String row, String column, String value, String delimiter) throws FileNotFoundException, IOException {
         if (!haveWorkers)
             downloadWorkers();
 
-        byte[] response = HTTP.doRequest("PUT", "http://" + workers.elementAt(workerIndexForKey(row)).address + "/append/" + tableName + "/" + URLEncoder.encode(row, "UTF-8") + "/" + URLEncoder.encode(column, "UTF-8") + "?delimiter=" + URLEncoder.encode(delimiter, "UTF-8"), value.getBytes()).body();
+        byte[] response = HTTP_CLIENT.doRequest("PUT", "http://" + workers.elementAt(workerIndexForKey(row)).address + "/append/" + tableName + "/" + URLEncoder.encode(row, "UTF-8") + "/" + URLEncoder.encode(column, "UTF-8") + "?delimiter=" + URLEncoder.encode(delimiter, "UTF-8"), value.getBytes()).body();
         String result = new String(response);
         if (!result.equals("OK"))
             throw new RuntimeException("PUT returned something other than OK: " + result);
@@ -393,7 +620,7 @@ public class KVSClient implements KVS {
         if (!haveWorkers)
             downloadWorkers();
 
-        HTTP.Response resp = HTTP.doRequest("GET", "http://" + workers.elementAt(workerIndexForKey(row)).address + "/data/" + tableName + "/" + URLEncoder.encode(row, "UTF-8"), null);
+        HTTP.Response resp = HTTP_CLIENT.doRequest("GET", "http://" + workers.elementAt(workerIndexForKey(row)).address + "/data/" + tableName + "/" + URLEncoder.encode(row, "UTF-8"), null);
         if (resp.statusCode() == 404)
             return null;
 
@@ -409,7 +636,7 @@ public class KVSClient implements KVS {
         if (!haveWorkers)
             downloadWorkers();
 
-        HTTP.Response res = HTTP.doRequest("GET", "http://" + workers.elementAt(workerIndexForKey(row)).address + "/data/" + tableName + "/" + URLEncoder.encode(row, "UTF-8") + "/" + URLEncoder.encode(column, "UTF-8"), null);
+        HTTP.Response res = HTTP_CLIENT.doRequest("GET", "http://" + workers.elementAt(workerIndexForKey(row)).address + "/data/" + tableName + "/" + URLEncoder.encode(row, "UTF-8") + "/" + URLEncoder.encode(column, "UTF-8"), null);
         return ((res != null) && (res.statusCode() == 200)) ? res.body() : null;
     }
 
@@ -418,40 +645,42 @@ public class KVSClient implements KVS {
             downloadWorkers();
         }
 
-        Map<String, List<String>> workerToRowsMap = new HashMap<>();
-        for (String row : rows) {
-            String workerAddress = workers.elementAt(workerIndexForKey(row)).address;
-            workerToRowsMap.computeIfAbsent(workerAddress, k -> new ArrayList<>()).add(row);
+        Map<String, List<Integer>> workerToIndexesMap = new HashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            String workerAddress = workers.elementAt(workerIndexForKey(rows.get(i))).address;
+            workerToIndexesMap.computeIfAbsent(workerAddress, k -> new ArrayList<>()).add(i);
         }
 
         List<String> responseList = new ArrayList<>(Collections.nCopies(rows.size(), NULL_RETURN));
 
-        for (Map.Entry<String, List<String>> entry : workerToRowsMap.entrySet()) {
-            String workerAddress = entry.getKey();
-            List<String> rowsForWorker = entry.getValue();
-
-            String rowsString = String.join(BATCH_UNIQUE_SEPARATOR, rowsForWorker);
+        // the batch only reads, so it goes out as GET and fanOut pipelines the batches for one worker
+        List<List<Integer>> indexesPerCall = new ArrayList<>();
+        List<PooledHTTP.Call> calls = new ArrayList<>();
+        for (Map.Entry<String, List<Integer>> entry : workerToIndexesMap.entrySet()) {
+            String requestUrl = "http://" + entry.getKey() + "/batch/data/" + tableName + "/" + URLEncoder.encode(column, "UTF-8");
+            List<Integer> indexesForWorker = entry.getValue();
+            for (int start = 0; start < indexesForWorker.size(); start += BATCH_GET_LIMIT) {
+                List<Integer> indexesForCall = indexesForWorker.subList(start, Math.min(start + BATCH_GET_LIMIT, indexesForWorker.size()));
+                BatchCodec.Writer batch = new BatchCodec.Writer();
+                for (int rowIndex : indexesForCall) {
+                    batch.writeString(rows.get(rowIndex)).endEntry();
+                }
+                indexesPerCall.add(indexesForCall);
+                calls.add(new PooledHTTP.Call("GET", requestUrl, batch.toByteArray()));
+            }
+        }
+        List<CompletableFuture<HTTP.Response>> futures = fanOut(calls);
 
-            String requestUrl = "http://" + workerAddress + "/batch/data/" + tableName + "/" +
-                    URLEncoder.encode(column, "UTF-8") + "?rows=" + URLEncoder.encode(rowsString, "UTF-8");
-            HTTP.Response res = HTTP.doRequest("GET", requestUrl, null);
+        for (int c = 0; c < calls.size(); c++) {
+            List<Integer> indexesForWorker = indexesPerCall.get(c);
+            HTTP.Response res = PooledHTTP.await(futures.get(c));
 
             if (res != null && res.statusCode() == 200) {
-                String responseBody = new String(res.body(), StandardCharsets.UTF_8);
-                String[] values = responseBody.split(BATCH_UNIQUE_SEPARATOR);
-
-                for (int i = 0; i < rowsForWorker.size(); i++) {
-                    String row = rowsForWorker.get(i);
-                    int rowIndex = rows.indexOf(row);
-                    if (rowIndex != -1) {
-                        responseList.set(rowIndex, values[i]);
-                    }
-                }
-            } else {
-                for (String row : rowsForWorker) {
-                    int rowIndex = rows.indexOf(row);
-                    if (rowIndex != -1) {
-                        responseList.set(rowIndex, NULL_RETURN);
+                BatchCodec.Reader reader = new BatchCodec.Reader(res.body());
+                for (int rowIndex : indexesForWorker) {
+                    byte[] value = reader.readOptional();
+                    if (value != null) {
+                        responseList.set(rowIndex, new String(value, StandardCharsets.UTF_8));
                     }
                 }
             }
@@ -464,7 +693,7 @@ public class KVSClient implements KVS {
         if (!haveWorkers)
             downloadWorkers();
 
-        HTTP.Response r = HTTP.doRequest("GET", "http://" + workers.elementAt(workerIndexForKey(row)).address + "/data/" + tableName + "/" + URLEncoder.encode(row, "UTF-8"), null);
+        HTTP.Response r = HTTP_CLIENT.doRequest("GET", "http://" + workers.elementAt(workerIndexForKey(row)).address + "/data/" + tableName + "/" + URLEncoder.encode(row, "UTF-8"), null);
         return r.statusCode() == 200;
     }
 
@@ -473,8 +702,8 @@ public class KVSClient implements KVS {
             downloadWorkers();
 
         int total = 0;
-        for (WorkerEntry w : workers) {
-            HTTP.Response r = HTTP.doRequest("GET", "http://" + w.address + "/count/" + tableName, null);
+        for (CompletableFuture<HTTP.Response> future : fanOut(callsToAllWorkers("GET", "/count/" + tableName, null))) {
+            HTTP.Response r = PooledHTTP.await(future);
             if ((r != null) && (r.statusCode() == 200)) {
                 String result = new String(r.body());
                 total += Integer.valueOf(result).intValue();
@@ -488,7 +717,7 @@ public class KVSClient implements KVS {
       downloadWorkers();
 
     for (WorkerEntry w : workers) 
-      HTTP.doRequest("PUT", "http://"+w.address+"/persist/"+tableName, null);
+      HTTP_CLIENT.doRequest("PUT", "http://"+w.address+"/persist/"+tableName, null);
   } */
 
     public Iterator<Row> scan(String tableName) throws FileNotFoundException, IOException {
@@ -502,6 +731,17 @@ public class KVSClient implements KVS {
         return new KVSIterator(tableName, startRow, endRowExclusive);
     }
 
+    public ParallelKVSIterator parallelScan(String tableName, boolean ordered) throws IOException {
+        return parallelScan(tableName, null, null, ordered);
+    }
+
+    public ParallelKVSIterator parallelScan(String tableName, String startRow, String endRowExclusive, boolean ordered) throws IOException {
+        if (!haveWorkers)
+            downloadWorkers();
+
+        return new ParallelKVSIterator(getRanges(tableName, startRow, endRowExclusive), ordered);
+    }
+
     public static void main(String args[]) throws Exception {
         if (args.length < 2) {
             System.err.println("Syntax: client <coordinator> get <tableName> <row> <column>");
@@ -1,12 +1,13 @@
 package cis5550.kvs;
 
+import cis5550.kvs.datastore.BloomFilterDatastore;
+import cis5550.kvs.datastore.Datastore;
 import cis5550.kvs.datastore.DatastoreContainer;
 import cis5550.tools.Logger;
 import cis5550.webserver.Request;
 import cis5550.webserver.Route;
 import java.util.*;
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.util.SortedMap;
 import java.util.stream.Stream;
 
@@ -21,14 +22,11 @@ public class Worker extends cis5550.generic.Worker {
     public static final Logger LOGGER = Logger.getLogger(Worker.class);
 
     public static final String ID_FILE = "id";
-    public static final String BATCH_UNIQUE_SEPARATOR = "&#!#&";
-    public static final String BATCH_ROW_COL_VALUE_SEPARATOR = "!&&!##!&&!&&!";
-    public static final String BATCH_ROW_VALUE_SEPARATOR = "!&&!##!&&!&&!";
     public static final String NULL_RETURN = "NULL";
     public static final int ID_LENGTH = 5;
     public static final int PAGE_SIZE = 10;
 
-    private static DatastoreContainer theData;
+    private static Datastore theData;
     private static WorkerReplicationManager theReplicationManager;
 
     public static void main(String[] args) {
@@ -83,15 +81,16 @@ public class Worker extends cis5550.generic.Worker {
             }
         }
 
-        theData = new DatastoreContainer(myDirectory);
+        theData = new BloomFilterDatastore(new DatastoreContainer(myDirectory), myDirectory);
         theReplicationManager = new WorkerReplicationManager(myId, fromString(myCoordinatorIPPort));
 
         port(myPort);
+        nonBlocking(true);
         startPingThread(myId, myPort, myCoordinatorIPPort);
 
         get("/", getTables());
         before((req, res) -> {
-            LOGGER.debug("Received request: " + req.requestMethod() + " " + req.url());
+            LOGGER.debug(() -> "Received request: " + req.requestMethod() + " " + req.url());
         });
         get("/view/:table", getTableRows());
         get("/data/:table/:row", getRow());
@@ -107,7 +106,7 @@ public class Worker extends cis5550.generic.Worker {
         get("/batch/data/:table/:column", batchGetColValue());
         put("/batch/data/:table/", batchPutCell());
         after((req, res) -> {
-            LOGGER.debug("Completed request " + req.requestMethod() + " " + req.url());
+            LOGGER.debug(() -> "Completed request " + req.requestMethod() + " " + req.url());
         });
     }
 
@@ -157,22 +156,18 @@ public class Worker extends cis5550.generic.Worker {
                 return "Bad Request";
             }
 
-            String myRowsColsValuesStr = new String(myRowsColsValuesBytes, StandardCharsets.UTF_8);
-            String[] myRowsColsValuesList = myRowsColsValuesStr.split(BATCH_UNIQUE_SEPARATOR);
-
-            for (String myRowColValue : myRowsColsValuesList) {
-                String[] myValues = myRowColValue.split(BATCH_ROW_COL_VALUE_SEPARATOR);
-                if (myValues.length != 3) {
-                    LOGGER.debug("Bad Request: " + myTable + " " + myRowsColsValuesBytes);
-                    setResponseStatus(res, BAD_REQUEST);
-                    return "Bad Request";
-                } else {
-                    String myRow = myRowColValue.split(BATCH_ROW_COL_VALUE_SEPARATOR)[0];
-                    String myCol = myRowColValue.split(BATCH_ROW_COL_VALUE_SEPARATOR)[1];
-                    String myValue = myRowColValue.split(BATCH_ROW_COL_VALUE_SEPARATOR)[2];
-
-                    theData.put(myTable, myRow, myCol, myValue.getBytes(StandardCharsets.UTF_8));
+            BatchCodec.Reader myReader = new BatchCodec.Reader(myRowsColsValuesBytes);
+            try {
+                while (myReader.hasNext()) {
+                    String myRow = myReader.readString();
+                    String myCol = myReader.readString();
+                    byte[] myValue = myReader.readBytes();
+                    theData.put(myTable, myRow, myCol, myValue);
                 }
+            } catch (IOException e) {
+                LOGGER.debug("Bad Request: malformed batch for " + myTable + ": " + e.getMessage());
+                setResponseStatus(res, BAD_REQUEST);
+                return "Bad Request";
             }
             setResponseStatus(res, OK);
             return "OK";
@@ -256,41 +251,29 @@ public class Worker extends cis5550.generic.Worker {
     private static Route batchGetColValue() {
         return (req, res) -> {
             String myTable = req.params("table");
-            if (myTable == null) {
-                setResponseStatus(res, BAD_REQUEST);
-                return "Bad Request";
-            }
-
-            String myRows = req.queryParams("rows");
-            if (myRows == null || myRows.isEmpty()) {
-                setResponseStatus(res, BAD_REQUEST);
-                return "Bad Request";
-            }
-            String[] myRowsList = myRows.split(BATCH_UNIQUE_SEPARATOR);
             String myColumn = req.params("column");
-            if (myColumn == null) {
+            byte[] myRowsBytes = req.bodyAsBytes();
+            if (myTable == null || myColumn == null || myRowsBytes == null) {
                 setResponseStatus(res, BAD_REQUEST);
                 return "Bad Request";
             }
 
-            StringBuilder responseBuilder = new StringBuilder();
-            for (String myRow : myRowsList) {
-                Row myRowObject = theData.get(myTable, myRow);
-                if (myRowObject != null) {
-                    responseBuilder.append(myRowObject.get(myColumn));
-                } else {
-                    responseBuilder.append(NULL_RETURN);
+            BatchCodec.Reader myReader = new BatchCodec.Reader(myRowsBytes);
+            BatchCodec.Writer myWriter = new BatchCodec.Writer();
+            try {
+                while (myReader.hasNext()) {
+                    Row myRowObject = theData.get(myTable, myReader.readString());
+                    myWriter.writeOptional(myRowObject == null ? null : myRowObject.getBytes(myColumn)).endEntry();
                 }
-                responseBuilder.append(BATCH_UNIQUE_SEPARATOR);
-            }
-
-            if (!responseBuilder.isEmpty()) {
-                responseBuilder.setLength(responseBuilder.length() - BATCH_UNIQUE_SEPARATOR.length());
+            } catch (IOException e) {
+                LOGGER.debug("Bad Request: malformed batch for " + myTable + ": " + e.getMessage());
+                setResponseStatus(res, BAD_REQUEST);
+                return "Bad Request";
             }
 
-            byte[] responseBytes = responseBuilder.toString().getBytes(StandardCharsets.UTF_8);
             setResponseStatus(res, OK);
-            res.bodyAsBytes(responseBytes);
+            res.type(BatchCodec.CONTENT_TYPE);
+            res.bodyAsBytes(myWriter.toByteArray());
             return null;
         };
     }
@@ -311,14 +294,16 @@ public class Worker extends cis5550.generic.Worker {
                 return "Not Found";
             }
             res.type("text/plain");
-            myRowStream.forEach(myRow -> {
-                try {
-                    res.write(myRow.toByteArray());
-                    res.write(new byte[]{'\n'});
-                } catch (Exception e) {
-                    LOGGER.error("Failed to write row to response", e);
-                }
-            });
+            try (myRowStream) {
+                myRowStream.forEach(myRow -> {
+                    try {
+                        res.write(myRow.toByteArray());
+                        res.write(new byte[]{'\n'});
+                    } catch (Exception e) {
+                        LOGGER.error("Failed to write row to response", e);
+                    }
+                });
+            }
             try {
                 res.write(new byte[]{'\n'});
             } catch (Exception e) {
@@ -373,10 +358,10 @@ public class Worker extends cis5550.generic.Worker {
 
     private static Route batchAppendCell() {
         return (req, res) -> {
-            forwardPutRequest(req);;
+            forwardPutRequest(req);
             String myTable = req.params("table");
             String myColumn = req.params("column");
-            String myDelimiter = ",";
+            String myDelimiter = req.queryParams("delimiter") == null ? "," : req.queryParams("delimiter");
             byte[] myRowsAndValuesBytes = req.bodyAsBytes();
 
             if (myTable == null || myColumn == null || myRowsAndValuesBytes == null) {
@@ -385,18 +370,20 @@ public class Worker extends cis5550.generic.Worker {
                 return "Bad Request";
             }
 
-            String myRowsAndValuesStr = new String(myRowsAndValuesBytes, StandardCharsets.UTF_8);
-            String[] myRowsAndValuesList = myRowsAndValuesStr.split(BATCH_UNIQUE_SEPARATOR);
-            // System.out.println(Arrays.toString(myRowsAndValuesList));
+            BatchCodec.Reader myReader = new BatchCodec.Reader(myRowsAndValuesBytes);
             int myVersion = 0;
-            for (String myRowAndValue : myRowsAndValuesList) {
-                String myRow = myRowAndValue.split(BATCH_ROW_VALUE_SEPARATOR)[0];
-                String myValue = myRowAndValue.split(BATCH_ROW_VALUE_SEPARATOR)[2];
-                System.out.println(myRowAndValue);
-                System.out.println("");
-                if (myRow != null && !myRow.equals("") && myRow.length() > 0) {
-                    myVersion = theData.append(myTable, myRow, myColumn, myValue.getBytes(), myDelimiter);
+            try {
+                while (myReader.hasNext()) {
+                    String myRow = myReader.readString();
+                    byte[] myValue = myReader.readBytes();
+                    if (!myRow.isEmpty()) {
+                        myVersion = theData.append(myTable, myRow, myColumn, myValue, myDelimiter);
+                    }
                 }
+            } catch (IOException e) {
+                LOGGER.debug("Bad Request: malformed batch for " + myTable + ": " + e.getMessage());
+                setResponseStatus(res, BAD_REQUEST);
+                return "Bad Request";
             }
             res.header("Version", String.valueOf(myVersion));
             setResponseStatus(res, OK);
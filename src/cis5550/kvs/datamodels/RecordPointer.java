@@ -0,0 +1,4 @@
+package cis5550.kvs.datamodels;
+
+public record RecordPointer(int segment, long offset, int length, long sequence) {
+}
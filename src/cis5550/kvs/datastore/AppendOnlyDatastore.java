@@ -7,6 +7,7 @@ import cis5550.utils.FileIOUtils;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.stream.Stream;
@@ -15,12 +16,13 @@ import static cis5550.kvs.KeyEncoder.encode;
 import static cis5550.utils.FileIOUtils.*;
 
 public class AppendOnlyDatastore implements Datastore {
-    public static final Logger LOGGER = Logger.getLogger(PersistentDatastore.class);
+    public static final Logger LOGGER = Logger.getLogger(AppendOnlyDatastore.class);
     public static final String SUBDIRECTORY_PREFIX = "__";
     public static final int MAX_KEY_LENGTH = 6;
     public static final int KEY_SUBSTRING_LENGTH = 2;
 
     private final String theDataDirectory;
+    private final ConcurrentMap<String, SortedKeyIndex> theKeyIndexes = new ConcurrentHashMap<>();
 
     public AppendOnlyDatastore(String aDirectory) {
         theDataDirectory = aDirectory;
@@ -52,7 +54,11 @@ public class AppendOnlyDatastore implements Datastore {
 
         Row myRow = new Row(aKey);
         myRow.put(aColumn, aValue);
-        return FileIOUtils.writeAppendOnlyRow(myFileName, myRow) ? 0 : -1;
+        if (!FileIOUtils.writeAppendOnlyRow(myFileName, myRow)) {
+            return -1;
+        }
+        getKeyIndex(aTable).add(aKey);
+        return 0;
     }
 
     @Override
@@ -94,7 +100,7 @@ public class AppendOnlyDatastore implements Datastore {
         Map<String, Integer> myResult = new HashMap<>();
 
         for (File myTable : myTables) {
-            if (myTable.isDirectory()) {
+            if (myTable.isDirectory() && DatastoreType.fromName(myTable.getName()) == DatastoreType.APPEND_ONLY) {
                 myResult.put(myTable.getName(), count(myTable.getName()));
             }
         }
@@ -104,43 +110,49 @@ public class AppendOnlyDatastore implements Datastore {
 
     @Override
     public SortedMap<String, Row> getRows(String aTable, String aFromRow, int aNumRows) {
-        File myTableDirectory = new File(getTableDirectory(aTable));
+        SortedKeyIndex myKeyIndex = getKeyIndex(aTable);
 
-        if (!myTableDirectory.exists() || !myTableDirectory.isDirectory()) {
+        if (myKeyIndex == null) {
             return null;
         }
 
-        return recursiveAddRows(myTableDirectory, aFromRow).entrySet().stream()
-                .limit(aNumRows + 1)
-                .collect(
-                        ConcurrentSkipListMap::new,
-                        (aMap, aEntry) -> aMap.put(aEntry.getKey(), aEntry.getValue()),
-                        ConcurrentSkipListMap::putAll);
+        SortedMap<String, Row> myResult = new ConcurrentSkipListMap<>();
+        for (String myKey : myKeyIndex.range(aFromRow, null)) {
+            if (myResult.size() > aNumRows) {
+                break;
+            }
+            Row myRow = get(aTable, myKey);
+            if (myRow != null) {
+                myResult.put(myKey, myRow);
+            }
+        }
+        return myResult;
     }
 
     @Override
     public Stream<Row> getRowDataStream(String aTable, String aStartRow, String aEndRowExclusive) {
-        File myTableDirectory = new File(getTableDirectory(aTable));
+        SortedKeyIndex myKeyIndex = getKeyIndex(aTable);
 
-        if (!myTableDirectory.exists() || !myTableDirectory.isDirectory()) {
+        if (myKeyIndex == null) {
             return null;
         }
 
-        File[] myRowFilesOrSubdirectories = myTableDirectory.listFiles();
-
-        return Arrays.stream(myRowFilesOrSubdirectories)
-                .flatMap(myRowFileOrSubdirectory -> {
-                    if (myRowFileOrSubdirectory.isDirectory()) {
-                        return Arrays.stream(myRowFileOrSubdirectory.listFiles());
-                    } else {
-                        return Stream.of(myRowFileOrSubdirectory);
-                    }
-                })
-                .filter(Objects::nonNull)
-                .map(myFile -> readAppendOnlyRow(myFile.getAbsolutePath()))
+        return myKeyIndex.range(aStartRow, aEndRowExclusive).stream()
+                .map(myKey -> get(aTable, myKey))
                 .filter(Objects::nonNull);
     }
 
+    @Override
+    public Stream<String> getKeyStream(String aTable) {
+        SortedKeyIndex myKeyIndex = getKeyIndex(aTable);
+
+        if (myKeyIndex == null) {
+            return null;
+        }
+
+        return myKeyIndex.range(null, null).stream();
+    }
+
     @Override
     public OpStatus delete(String aTable) {
         File myTableDirectory = new File(getTableDirectory(aTable));
@@ -149,6 +161,7 @@ public class AppendOnlyDatastore implements Datastore {
             return OpStatus.TABLE_NOT_FOUND;
         }
 
+        closeKeyIndex(aTable);
         File[] myRowOrSubdirectories = myTableDirectory.listFiles();
 
         Arrays.stream(myRowOrSubdirectories).forEach(myRowOrSubdirectory -> {
@@ -177,31 +190,20 @@ public class AppendOnlyDatastore implements Datastore {
             return OpStatus.TABLE_ALREADY_EXISTS;
         }
 
+        closeKeyIndex(aTable);
+
         return myTableDirectory.renameTo(myNewTableDirectory) ? OpStatus.SUCCESS : OpStatus.SERVER_ERROR;
     }
 
     @Override
     public int count(String aTable) {
-        File myTableDirectory = new File(getTableDirectory(aTable));
+        SortedKeyIndex myKeyIndex = getKeyIndex(aTable);
 
-        if (!myTableDirectory.exists() || !myTableDirectory.isDirectory()) {
+        if (myKeyIndex == null) {
             return -1;
         }
 
-        int myCount = 0;
-
-        for (File myRowOrSubdirectory : myTableDirectory.listFiles()) {
-            if (myRowOrSubdirectory.isDirectory()) {
-                File[] myRowFiles = myRowOrSubdirectory.listFiles();
-                if (myRowFiles != null) {
-                    myCount += myRowFiles.length;
-                }
-            } else {
-                myCount++;
-            }
-        }
-
-        return myCount;
+        return myKeyIndex.size();
     }
 
     @Override
@@ -225,18 +227,52 @@ public class AppendOnlyDatastore implements Datastore {
             if (!writeAppendOnlyRow(myRowFileName, myEntry.getValue())) {
                 return OpStatus.SERVER_ERROR;
             }
+            getKeyIndex(aTableName).add(myEntry.getKey());
         }
         return OpStatus.SUCCESS;
     }
 
     @Override
     public ConcurrentMap<String, Row> getMap(String aTableName) {
-        SortedMap<String, Row> myRows = recursiveAddRows(new File(getTableDirectory(aTableName)), null);
         ConcurrentMap<String, Row> myResult = new ConcurrentSkipListMap<>();
-        myResult.putAll(myRows);
+        Stream<Row> myRows = getRowDataStream(aTableName, null, null);
+        if (myRows != null) {
+            myRows.forEach(myRow -> myResult.put(myRow.key(), myRow));
+        }
         return myResult;
     }
 
+    private SortedKeyIndex getKeyIndex(String aTable) {
+        SortedKeyIndex myKeyIndex = theKeyIndexes.get(aTable);
+        if (myKeyIndex != null) {
+            return myKeyIndex;
+        }
+
+        File myTableDirectory = new File(getTableDirectory(aTable));
+        if (!myTableDirectory.exists() || !myTableDirectory.isDirectory()) {
+            return null;
+        }
+
+        synchronized (theKeyIndexes) {
+            myKeyIndex = theKeyIndexes.get(aTable);
+            if (myKeyIndex == null) {
+                myKeyIndex = SortedKeyIndex.load(myTableDirectory, this::readKey);
+                if (myKeyIndex == null) {
+                    myKeyIndex = SortedKeyIndex.create(myTableDirectory, recursiveAddKeys(myTableDirectory));
+                }
+                theKeyIndexes.put(aTable, myKeyIndex);
+            }
+            return myKeyIndex;
+        }
+    }
+
+    private void closeKeyIndex(String aTable) {
+        SortedKeyIndex myKeyIndex = theKeyIndexes.remove(aTable);
+        if (myKeyIndex != null) {
+            myKeyIndex.close();
+        }
+    }
+
     private String getRowFileName(String aTable, String aKey) {
         String myEncodedKey = encode(aKey);
         String myFileName;
@@ -261,8 +297,13 @@ public class AppendOnlyDatastore implements Datastore {
         return theDataDirectory + File.separator + aTable;
     }
 
-    private SortedMap<String, Row> recursiveAddRows(File aDirectory, String aFromRow) {
-        SortedMap<String, Row> myResult = new ConcurrentSkipListMap<>();
+    private String readKey(File aRowFile) {
+        Row myRow = readAppendOnlyRow(aRowFile.getAbsolutePath());
+        return myRow == null ? null : myRow.key();
+    }
+
+    private List<String> recursiveAddKeys(File aDirectory) {
+        List<String> myResult = new ArrayList<>();
         File[] myRowFilesOrSubdirectories = aDirectory.listFiles();
 
         if (myRowFilesOrSubdirectories == null) {
@@ -271,16 +312,11 @@ public class AppendOnlyDatastore implements Datastore {
 
         for (File myRowFileOrSubdirectory : myRowFilesOrSubdirectories) {
             if (myRowFileOrSubdirectory.isDirectory()) {
-                myResult.putAll(recursiveAddRows(myRowFileOrSubdirectory, aFromRow));
-            } else {
-                try {
-                    LOGGER.info("Reading from file: " + myRowFileOrSubdirectory.getName());
-                    Row myRow = readAppendOnlyRow(myRowFileOrSubdirectory.getAbsolutePath());
-                    if (myRow != null && (aFromRow == null || myRow.key().compareTo(aFromRow) >= 0)) {
-                        myResult.put(myRow.key(), myRow);
-                    }
-                } catch (Exception e) {
-                    LOGGER.error("Failed to read from file", e);
+                myResult.addAll(recursiveAddKeys(myRowFileOrSubdirectory));
+            } else if (!SortedKeyIndex.isIndexFile(myRowFileOrSubdirectory)) {
+                String myKey = readKey(myRowFileOrSubdirectory);
+                if (myKey != null) {
+                    myResult.add(myKey);
                 }
             }
         }
@@ -0,0 +1,313 @@
+package cis5550.kvs.datastore;
+
+import cis5550.kvs.Row;
+import cis5550.kvs.datamodels.OpStatus;
+import cis5550.tools.Logger;
+import cis5550.tools.ScalableBloomFilter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+/**
+ * Wraps a {@link Datastore} with a Bloom filter per table so that lookups of keys that were never written are
+ * answered without touching the underlying store. Keys are added to the filter before they are written, so a row
+ * that is visible in the store is always in the filter.
+ * <p>
+ * Filters are saved under {@link #FILTER_DIRECTORY} together with the row count of the table at the time of the
+ * save. Tables only ever gain rows, so on startup a saved filter is reused if the count still matches and rebuilt
+ * from the table's keys otherwise. The rebuild runs in the background, and until it has gone through every key the
+ * table answers every lookup from the store.
+ */
+public class BloomFilterDatastore implements Datastore {
+    public static final Logger LOGGER = Logger.getLogger(BloomFilterDatastore.class);
+    public static final String FILTER_DIRECTORY = "__bloom";
+    public static final String FILTER_SUFFIX = ".bloom";
+    public static final int FILTER_MAGIC = 0x424C4F4D;
+    public static final int MIN_CAPACITY = 100000;
+    public static final double FALSE_POSITIVE_RATE = 0.01;
+    public static final int SAVE_INTERVAL = 30000;
+
+    private final Datastore theDatastore;
+    private final File theFilterDirectory;
+    private final ConcurrentMap<String, TableFilter> theFilters = new ConcurrentHashMap<>();
+
+    /**
+     * The growable filter of a table, whether it changed since it was last saved, and whether it holds every key of
+     * the table yet.
+     */
+    private static class TableFilter {
+        private final ScalableBloomFilter theFilter;
+        private volatile boolean theIsDirty = true;
+        private volatile boolean theIsComplete = true;
+
+        TableFilter(int aExpectedKeys) {
+            theFilter = new ScalableBloomFilter(Math.max(aExpectedKeys * 2, MIN_CAPACITY), FALSE_POSITIVE_RATE);
+        }
+
+        TableFilter(ScalableBloomFilter aFilter) {
+            theFilter = aFilter;
+            theIsDirty = false;
+        }
+
+        void add(String aKey) {
+            if (theFilter.add(aKey)) {
+                theIsDirty = true;
+            }
+        }
+
+        boolean mightContain(String aKey) {
+            return !theIsComplete || theFilter.mightContain(aKey);
+        }
+    }
+
+    public BloomFilterDatastore(Datastore aDatastore, String aDirectory) {
+        theDatastore = aDatastore;
+        theFilterDirectory = new File(aDirectory + File.separator + FILTER_DIRECTORY);
+        if (!theFilterDirectory.exists() && !theFilterDirectory.mkdirs()) {
+            LOGGER.error("Failed to create directory " + theFilterDirectory.getAbsolutePath());
+        }
+
+        loadFilters();
+        startSaveThread();
+    }
+
+    private void loadFilters() {
+        for (Map.Entry<String, Integer> myTable : theDatastore.getTables().entrySet()) {
+            TableFilter myFilter = readFilter(myTable.getKey(), myTable.getValue());
+            if (myFilter == null) {
+                myFilter = new TableFilter(myTable.getValue());
+                myFilter.theIsComplete = false;
+            }
+            theFilters.put(myTable.getKey(), myFilter);
+        }
+    }
+
+    /**
+     * Adds every key of the table from its key index. Keys written meanwhile go into the same filter, so once the
+     * index has been read through the filter is complete; if the rebuild fails it is tried again on the next round.
+     */
+    private void rebuildFilter(String aTable, TableFilter aFilter) {
+        if (aFilter.theIsComplete) {
+            return;
+        }
+        LOGGER.info("Rebuilding Bloom filter for table " + aTable);
+        try {
+            Stream<String> myKeys = theDatastore.getKeyStream(aTable);
+            if (myKeys == null) {
+                return;
+            }
+            try (myKeys) {
+                myKeys.forEach(aFilter::add);
+            }
+            aFilter.theIsDirty = true;
+            aFilter.theIsComplete = true;
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to rebuild Bloom filter for table " + aTable, e);
+        }
+    }
+
+    private TableFilter readFilter(String aTable, int aCount) {
+        File myFile = getFilterFile(aTable);
+        if (!myFile.exists()) {
+            return null;
+        }
+
+        try (DataInputStream myInput = new DataInputStream(new BufferedInputStream(new FileInputStream(myFile)))) {
+            if (myInput.readInt() != FILTER_MAGIC) {
+                LOGGER.warn("Ignoring Bloom filter with bad header for table " + aTable);
+                return null;
+            }
+            int mySavedCount = myInput.readInt();
+            if (mySavedCount != aCount) {
+                LOGGER.info("Bloom filter for table " + aTable + " is stale: saved at " + mySavedCount
+                        + " rows, table has " + aCount);
+                return null;
+            }
+            ScalableBloomFilter myFilter = ScalableBloomFilter.readFrom(myInput, FALSE_POSITIVE_RATE);
+            return myFilter == null ? null : new TableFilter(myFilter);
+        } catch (IOException e) {
+            LOGGER.error("Failed to read Bloom filter for table " + aTable, e);
+            return null;
+        }
+    }
+
+    private void startSaveThread() {
+        Thread mySaveThread = new Thread(() -> {
+            while (true) {
+                theFilters.forEach(this::rebuildFilter);
+                try {
+                    Thread.sleep(SAVE_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                theFilters.forEach(this::saveFilter);
+            }
+        });
+        mySaveThread.setDaemon(true);
+        mySaveThread.start();
+    }
+
+    private void saveFilter(String aTable, TableFilter aFilter) {
+        if (!aFilter.theIsDirty || !aFilter.theIsComplete
+                || DatastoreType.fromName(aTable) == DatastoreType.IN_MEMORY) {
+            return;
+        }
+        aFilter.theIsDirty = false;
+
+        // The count is read before the bits, so the saved bits cover at least the rows that were counted.
+        int myCount = theDatastore.count(aTable);
+        if (myCount < 0) {
+            return;
+        }
+
+        File myTemporaryFile = new File(theFilterDirectory, aTable + FILTER_SUFFIX + ".tmp");
+        try (DataOutputStream myOutput = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(myTemporaryFile)))) {
+            myOutput.writeInt(FILTER_MAGIC);
+            myOutput.writeInt(myCount);
+            aFilter.theFilter.writeTo(myOutput);
+        } catch (IOException e) {
+            LOGGER.error("Failed to save Bloom filter for table " + aTable, e);
+            aFilter.theIsDirty = true;
+            return;
+        }
+
+        try {
+            Files.move(myTemporaryFile.toPath(), getFilterFile(aTable).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.error("Failed to replace Bloom filter for table " + aTable, e);
+            aFilter.theIsDirty = true;
+        }
+    }
+
+    private File getFilterFile(String aTable) {
+        return new File(theFilterDirectory, aTable + FILTER_SUFFIX);
+    }
+
+    private TableFilter getOrCreateFilter(String aTable) {
+        return theFilters.computeIfAbsent(aTable, aName -> new TableFilter(0));
+    }
+
+    /**
+     * Returns false only if the key is definitely not in the table.
+     */
+    public boolean mightContain(String aTable, String aKey) {
+        TableFilter myFilter = theFilters.get(aTable);
+        return myFilter != null && myFilter.mightContain(aKey);
+    }
+
+    @Override
+    public int put(String aTable, String aKey, String aColumn, byte[] aValue) {
+        getOrCreateFilter(aTable).add(aKey);
+        return theDatastore.put(aTable, aKey, aColumn, aValue);
+    }
+
+    @Override
+    public int putRow(String aTable, String aKey, Row aRow) {
+        getOrCreateFilter(aTable).add(aKey);
+        return theDatastore.putRow(aTable, aKey, aRow);
+    }
+
+    @Override
+    public int append(String aTable, String aKey, String aColumn, byte[] aValue, String aDelimiter) {
+        getOrCreateFilter(aTable).add(aKey);
+        return theDatastore.append(aTable, aKey, aColumn, aValue, aDelimiter);
+    }
+
+    @Override
+    public Row get(String aTable, String aKey) {
+        if (!mightContain(aTable, aKey)) {
+            return null;
+        }
+        return theDatastore.get(aTable, aKey);
+    }
+
+    @Override
+    public Row get(String aTable, String aKey, int aVersion) {
+        if (!mightContain(aTable, aKey)) {
+            return null;
+        }
+        return theDatastore.get(aTable, aKey, aVersion);
+    }
+
+    @Override
+    public int getVersion(String aTable, String aKey) {
+        return theDatastore.getVersion(aTable, aKey);
+    }
+
+    @Override
+    public Map<String, Integer> getTables() {
+        return theDatastore.getTables();
+    }
+
+    @Override
+    public SortedMap<String, Row> getRows(String aTable, String aFromRow, int aNumRows) {
+        return theDatastore.getRows(aTable, aFromRow, aNumRows);
+    }
+
+    @Override
+    public Stream<Row> getRowDataStream(String aTable, String aStartRow, String aEndRowExclusive) {
+        return theDatastore.getRowDataStream(aTable, aStartRow, aEndRowExclusive);
+    }
+
+    @Override
+    public Stream<String> getKeyStream(String aTable) {
+        return theDatastore.getKeyStream(aTable);
+    }
+
+    @Override
+    public OpStatus delete(String aTable) {
+        OpStatus myResult = theDatastore.delete(aTable);
+        if (myResult == OpStatus.SUCCESS) {
+            theFilters.remove(aTable);
+            getFilterFile(aTable).delete();
+        }
+        return myResult;
+    }
+
+    @Override
+    public OpStatus rename(String aTable, String aNewName) {
+        OpStatus myResult = theDatastore.rename(aTable, aNewName);
+        if (myResult == OpStatus.SUCCESS) {
+            TableFilter myFilter = theFilters.remove(aTable);
+            getFilterFile(aTable).delete();
+            if (myFilter != null) {
+                myFilter.theIsDirty = true;
+                theFilters.put(aNewName, myFilter);
+            }
+        }
+        return myResult;
+    }
+
+    @Override
+    public int count(String aTable) {
+        return theDatastore.count(aTable);
+    }
+
+    @Override
+    public OpStatus fromMap(String aTableName, ConcurrentMap<String, Row> aTable) {
+        TableFilter myFilter = getOrCreateFilter(aTableName);
+        aTable.keySet().forEach(myFilter::add);
+        return theDatastore.fromMap(aTableName, aTable);
+    }
+
+    @Override
+    public ConcurrentMap<String, Row> getMap(String aTableName) {
+        return theDatastore.getMap(aTableName);
+    }
+}
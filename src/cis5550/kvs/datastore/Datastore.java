@@ -18,6 +18,7 @@ public interface Datastore {
     Map<String, Integer> getTables();
     SortedMap<String, Row> getRows(String aTable, String aFromRow, int aNumRows);
     Stream<Row> getRowDataStream(String aTable, String aStartRow, String aEndRowExclusive);
+    Stream<String> getKeyStream(String aTable);
     OpStatus delete(String aTable);
     OpStatus rename(String aTable, String aNewName);
     int count(String aTable);
@@ -18,43 +18,43 @@ public class DatastoreContainer implements Datastore {
 
     public DatastoreContainer(String aDirectory) {
         theDatastores.put(DatastoreType.IN_MEMORY, new InMemoryDatastore());
-        theDatastores.put(DatastoreType.PERSISTENT, new PersistentDatastore(aDirectory));
+        theDatastores.put(DatastoreType.PERSISTENT, new LogStructuredDatastore(aDirectory));
         theDatastores.put(DatastoreType.APPEND_ONLY, new AppendOnlyDatastore(aDirectory));
     }
 
     @Override
     public int put(String aTable, String aKey, String aColumn, byte[] aValue) {
-        LOGGER.debug("Putting into table: " + aTable + " key: " + aKey + " column: " + aColumn);
+        LOGGER.debug(() -> "Putting into table: " + aTable + " key: " + aKey + " column: " + aColumn);
         return theDatastores.get(DatastoreType.fromName(aTable)).put(aTable, aKey, aColumn, aValue);
     }
 
     @Override
     public int putRow(String aTable, String aKey, Row aRow) {
-        LOGGER.debug("Putting row into table: " + aTable + " key: " + aKey);
+        LOGGER.debug(() -> "Putting row into table: " + aTable + " key: " + aKey);
         return theDatastores.get(DatastoreType.fromName(aTable)).putRow(aTable, aKey, aRow);
     }
 
     @Override
     public int append(String aTable, String aKey, String aColumn, byte[] aValue, String aDelimiter) {
-        LOGGER.debug("Appending to table: " + aTable + " key: " + aKey + " column: " + aColumn);
+        LOGGER.debug(() -> "Appending to table: " + aTable + " key: " + aKey + " column: " + aColumn);
         return theDatastores.get(DatastoreType.fromName(aTable)).append(aTable, aKey, aColumn, aValue, aDelimiter);
     }
 
     @Override
     public Row get(String aTable, String aKey) {
-        LOGGER.debug("Getting from table: " + aTable + " key: " + aKey);
+        LOGGER.debug(() -> "Getting from table: " + aTable + " key: " + aKey);
         return theDatastores.get(DatastoreType.fromName(aTable)).get(aTable, aKey);
     }
 
     @Override
     public Row get(String aTable, String aKey, int aVersion) {
-        LOGGER.debug("Getting from table: " + aTable + " key: " + aKey + " version: " + aVersion);
+        LOGGER.debug(() -> "Getting from table: " + aTable + " key: " + aKey + " version: " + aVersion);
         return theDatastores.get(DatastoreType.fromName(aTable)).get(aTable, aKey, aVersion);
     }
 
     @Override
     public int getVersion(String aTable, String aKey) {
-        LOGGER.debug("Getting version from table: " + aTable + " key: " + aKey);
+        LOGGER.debug(() -> "Getting version from table: " + aTable + " key: " + aKey);
         return theDatastores.get(DatastoreType.fromName(aTable)).getVersion(aTable, aKey);
     }
 
@@ -70,25 +70,31 @@ public class DatastoreContainer implements Datastore {
 
     @Override
     public SortedMap<String, Row> getRows(String aTable, String aFromRow, int aNumRows) {
-        LOGGER.debug("Getting rows from table: " + aTable + " from row: " + aFromRow + " num rows: " + aNumRows);
+        LOGGER.debug(() -> "Getting rows from table: " + aTable + " from row: " + aFromRow + " num rows: " + aNumRows);
         return theDatastores.get(DatastoreType.fromName(aTable)).getRows(aTable, aFromRow, aNumRows);
     }
 
     @Override
     public Stream<Row> getRowDataStream(String aTable, String aStartRow, String aEndRowExclusive) {
-        LOGGER.debug("Getting row data stream from table: " + aTable + " start row: " + aStartRow + " end row: " + aEndRowExclusive);
+        LOGGER.debug(() -> "Getting row data stream from table: " + aTable + " start row: " + aStartRow + " end row: " + aEndRowExclusive);
         return theDatastores.get(DatastoreType.fromName(aTable)).getRowDataStream(aTable, aStartRow, aEndRowExclusive);
     }
 
+    @Override
+    public Stream<String> getKeyStream(String aTable) {
+        LOGGER.debug(() -> "Getting key stream from table: " + aTable);
+        return theDatastores.get(DatastoreType.fromName(aTable)).getKeyStream(aTable);
+    }
+
     @Override
     public OpStatus delete(String aTable) {
-        LOGGER.debug("Deleting table: " + aTable);
+        LOGGER.debug(() -> "Deleting table: " + aTable);
         return theDatastores.get(DatastoreType.fromName(aTable)).delete(aTable);
     }
 
     @Override
     public OpStatus rename(String aTable, String aNewName) {
-        LOGGER.debug("Renaming table: " + aTable + " to: " + aNewName);
+        LOGGER.debug(() -> "Renaming table: " + aTable + " to: " + aNewName);
         switch (DatastoreType.fromName(aTable)) {
             case PERSISTENT -> {
                 if (DatastoreType.fromName(aNewName) != DatastoreType.PERSISTENT) {
@@ -117,19 +123,19 @@ public class DatastoreContainer implements Datastore {
 
     @Override
     public int count(String aTable) {
-        LOGGER.debug("Counting table: " + aTable);
+        LOGGER.debug(() -> "Counting table: " + aTable);
         return theDatastores.get(DatastoreType.fromName(aTable)).count(aTable);
     }
 
     @Override
     public OpStatus fromMap(String aTableName, ConcurrentMap<String, Row> aTable) {
-        LOGGER.debug("Loading table: " + aTableName);
+        LOGGER.debug(() -> "Loading table: " + aTableName);
         return theDatastores.get(DatastoreType.fromName(aTableName)).fromMap(aTableName, aTable);
     }
 
     @Override
     public ConcurrentMap<String, Row> getMap(String aTableName) {
-        LOGGER.debug("Getting map for table: " + aTableName);
+        LOGGER.debug(() -> "Getting map for table: " + aTableName);
         return theDatastores.get(DatastoreType.fromName(aTableName)).getMap(aTableName);
     }
 }
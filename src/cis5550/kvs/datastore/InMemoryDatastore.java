@@ -118,6 +118,14 @@ public class InMemoryDatastore implements Datastore {
                 .map(aEntry -> aEntry.getValue());
     }
 
+    @Override
+    public Stream<String> getKeyStream(String aTable) {
+        if (!theMemoryData.containsKey(aTable)) {
+            return null;
+        }
+        return theMemoryData.get(aTable).keySet().stream();
+    }
+
     @Override
     public OpStatus delete(String aTable) {
         if (!theMemoryData.containsKey(aTable)) {
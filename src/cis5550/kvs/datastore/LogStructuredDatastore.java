@@ -0,0 +1,270 @@
+package cis5550.kvs.datastore;
+
+import cis5550.kvs.Row;
+import cis5550.kvs.datamodels.OpStatus;
+import cis5550.tools.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * Persistent datastore that keeps each table as a set of append-only segment files (see {@link SegmentedTable})
+ * instead of one file per row. A background thread periodically compacts segments that are mostly overwritten rows
+ * and checkpoints each table's sorted key index.
+ */
+public class LogStructuredDatastore implements Datastore {
+    public static final Logger LOGGER = Logger.getLogger(LogStructuredDatastore.class);
+    public static final int COMPACTION_INTERVAL = 60000;
+
+    private final String theDataDirectory;
+    private final ConcurrentMap<String, SegmentedTable> theTables = new ConcurrentHashMap<>();
+
+    public LogStructuredDatastore(String aDirectory) {
+        theDataDirectory = aDirectory;
+        loadTables();
+        startCompactionThread();
+    }
+
+    private void loadTables() {
+        File[] myDirectories = new File(theDataDirectory).listFiles();
+        if (myDirectories == null) {
+            return;
+        }
+
+        for (File myDirectory : myDirectories) {
+            if (!myDirectory.isDirectory() || DatastoreType.fromName(myDirectory.getName()) != DatastoreType.PERSISTENT) {
+                continue;
+            }
+            try {
+                theTables.put(myDirectory.getName(), SegmentedTable.open(myDirectory));
+            } catch (IOException e) {
+                LOGGER.error("Failed to open table " + myDirectory.getName(), e);
+            }
+        }
+    }
+
+    private void startCompactionThread() {
+        Thread myCompactionThread = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(COMPACTION_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                theTables.values().forEach(aTable -> {
+                    aTable.compact();
+                    aTable.checkpoint();
+                });
+            }
+        });
+        myCompactionThread.setDaemon(true);
+        myCompactionThread.start();
+    }
+
+    private SegmentedTable getOrCreateTable(String aTable) throws IOException {
+        SegmentedTable myTable = theTables.get(aTable);
+        if (myTable != null) {
+            return myTable;
+        }
+        synchronized (theTables) {
+            myTable = theTables.get(aTable);
+            if (myTable == null) {
+                myTable = SegmentedTable.open(getTableDirectory(aTable));
+                theTables.put(aTable, myTable);
+            }
+            return myTable;
+        }
+    }
+
+    @Override
+    public int put(String aTable, String aKey, String aColumn, byte[] aValue) {
+        try {
+            getOrCreateTable(aTable).put(aKey, aColumn, aValue);
+            return 0;
+        } catch (IOException e) {
+            LOGGER.error("Failed to put into table " + aTable, e);
+            return -1;
+        }
+    }
+
+    @Override
+    public int putRow(String aTable, String aKey, Row aRow) {
+        try {
+            getOrCreateTable(aTable).putRow(aKey, aRow);
+            return 0;
+        } catch (IOException e) {
+            LOGGER.error("Failed to put row into table " + aTable, e);
+            return -1;
+        }
+    }
+
+    @Override
+    public int append(String aTable, String aKey, String aColumn, byte[] aValue, String aDelimiter) {
+        try {
+            getOrCreateTable(aTable).append(aKey, aColumn, aValue, aDelimiter);
+            return 0;
+        } catch (IOException e) {
+            LOGGER.error("Failed to append to table " + aTable, e);
+            return -1;
+        }
+    }
+
+    @Override
+    public Row get(String aTable, String aKey) {
+        SegmentedTable myTable = theTables.get(aTable);
+        if (myTable == null) {
+            return null;
+        }
+
+        try {
+            return myTable.get(aKey);
+        } catch (IOException e) {
+            LOGGER.error("Failed to read from table " + aTable, e);
+            return null;
+        }
+    }
+
+    @Override
+    public Row get(String aTable, String aKey, int aVersion) {
+        return get(aTable, aKey);
+    }
+
+    @Override
+    public int getVersion(String aTable, String aKey) {
+        return 0;
+    }
+
+    @Override
+    public Map<String, Integer> getTables() {
+        Map<String, Integer> myResult = new HashMap<>();
+        theTables.forEach((aName, aTable) -> myResult.put(aName, aTable.count()));
+        return myResult;
+    }
+
+    @Override
+    public SortedMap<String, Row> getRows(String aTable, String aFromRow, int aNumRows) {
+        SegmentedTable myTable = theTables.get(aTable);
+        if (myTable == null) {
+            return null;
+        }
+
+        try {
+            return myTable.getRows(aFromRow, aNumRows);
+        } catch (IOException e) {
+            LOGGER.error("Failed to read rows from table " + aTable, e);
+            return null;
+        }
+    }
+
+    @Override
+    public Stream<Row> getRowDataStream(String aTable, String aStartRow, String aEndRowExclusive) {
+        SegmentedTable myTable = theTables.get(aTable);
+        if (myTable == null) {
+            return null;
+        }
+
+        return myTable.scan(aStartRow, aEndRowExclusive);
+    }
+
+    @Override
+    public Stream<String> getKeyStream(String aTable) {
+        SegmentedTable myTable = theTables.get(aTable);
+        if (myTable == null) {
+            return null;
+        }
+
+        return myTable.keys().keySet().stream();
+    }
+
+    @Override
+    public OpStatus delete(String aTable) {
+        SegmentedTable myTable = theTables.remove(aTable);
+        if (myTable == null) {
+            return OpStatus.TABLE_NOT_FOUND;
+        }
+
+        return myTable.destroy() ? OpStatus.SUCCESS : OpStatus.SERVER_ERROR;
+    }
+
+    @Override
+    public OpStatus rename(String aTable, String aNewName) {
+        synchronized (theTables) {
+            if (!theTables.containsKey(aTable)) {
+                return OpStatus.TABLE_NOT_FOUND;
+            }
+            File myNewTableDirectory = getTableDirectory(aNewName);
+            if (theTables.containsKey(aNewName) || myNewTableDirectory.exists()) {
+                return OpStatus.TABLE_ALREADY_EXISTS;
+            }
+
+            SegmentedTable myTable = theTables.remove(aTable);
+            myTable.close();
+            if (!getTableDirectory(aTable).renameTo(myNewTableDirectory)) {
+                LOGGER.error("Failed to rename table " + aTable + " to " + aNewName);
+                return OpStatus.SERVER_ERROR;
+            }
+
+            try {
+                theTables.put(aNewName, SegmentedTable.open(myNewTableDirectory));
+                return OpStatus.SUCCESS;
+            } catch (IOException e) {
+                LOGGER.error("Failed to reopen renamed table " + aNewName, e);
+                return OpStatus.SERVER_ERROR;
+            }
+        }
+    }
+
+    @Override
+    public int count(String aTable) {
+        SegmentedTable myTable = theTables.get(aTable);
+        if (myTable == null) {
+            return -1;
+        }
+
+        return myTable.count();
+    }
+
+    @Override
+    public OpStatus fromMap(String aTableName, ConcurrentMap<String, Row> aTable) {
+        if (theTables.containsKey(aTableName) || getTableDirectory(aTableName).exists()) {
+            return OpStatus.TABLE_ALREADY_EXISTS;
+        }
+
+        try {
+            SegmentedTable myTable = getOrCreateTable(aTableName);
+            for (Map.Entry<String, Row> myEntry : aTable.entrySet()) {
+                myTable.putRow(myEntry.getKey(), myEntry.getValue());
+            }
+            return OpStatus.SUCCESS;
+        } catch (IOException e) {
+            LOGGER.error("Failed to load table " + aTableName, e);
+            return OpStatus.SERVER_ERROR;
+        }
+    }
+
+    @Override
+    public ConcurrentMap<String, Row> getMap(String aTableName) {
+        ConcurrentMap<String, Row> myResult = new ConcurrentSkipListMap<>();
+        Stream<Row> myRows = getRowDataStream(aTableName, null, null);
+        if (myRows == null) {
+            return myResult;
+        }
+
+        try (myRows) {
+            myRows.forEach(aRow -> myResult.put(aRow.key(), aRow));
+        }
+        return myResult;
+    }
+
+    private File getTableDirectory(String aTable) {
+        return new File(theDataDirectory + File.separator + aTable);
+    }
+}
@@ -0,0 +1,312 @@
+package cis5550.kvs.datastore;
+
+import cis5550.tools.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * A single append-only file of a {@link SegmentedTable}. Every record is laid out as
+ * [sequence:8][keyLength:4][rowLength:4][crc:4][key][row], where the row is {@link cis5550.kvs.Row#toByteArray()} and
+ * the CRC covers every other field of the record, so a damaged header or key is caught as well as a damaged row.
+ * Readers pin a segment with {@link #acquire()} so that compaction can retire it without pulling it out from under them.
+ */
+public class Segment {
+    public static final Logger LOGGER = Logger.getLogger(Segment.class);
+    public static final String PREFIX = "segment-";
+    public static final String SUFFIX = ".log";
+    public static final int HEADER_SIZE = 20;
+    private static final int CRC_OFFSET = 16;
+    public static final int READ_BUFFER_SIZE = 1 << 20;
+
+    private final int theId;
+    private final File theFile;
+    private final FileChannel theChannel;
+    private final AtomicLong theSize;
+    private final AtomicLong theLiveBytes;
+    private final AtomicInteger theReferences;
+    private volatile boolean theIsRetired = false;
+
+    private Segment(int aId, File aFile, FileChannel aChannel) throws IOException {
+        theId = aId;
+        theFile = aFile;
+        theChannel = aChannel;
+        theSize = new AtomicLong(aChannel.size());
+        theLiveBytes = new AtomicLong(0);
+        theReferences = new AtomicInteger(0);
+    }
+
+    public static Segment open(File aDirectory, int aId) throws IOException {
+        File myFile = new File(aDirectory, fileName(aId));
+        FileChannel myChannel = FileChannel.open(
+                myFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(aId, myFile, myChannel);
+    }
+
+    public static String fileName(int aId) {
+        return PREFIX + String.format("%08d", aId) + SUFFIX;
+    }
+
+    public static int idFromFileName(String aFileName) {
+        if (!aFileName.startsWith(PREFIX) || !aFileName.endsWith(SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(aFileName.substring(PREFIX.length(), aFileName.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public static ByteBuffer encode(long aSequence, String aKey, byte[] aRow) {
+        byte[] myKey = aKey.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer myBuffer = ByteBuffer.allocate(HEADER_SIZE + myKey.length + aRow.length);
+        myBuffer.putLong(aSequence);
+        myBuffer.putInt(myKey.length);
+        myBuffer.putInt(aRow.length);
+        myBuffer.putInt(0);
+        myBuffer.put(myKey);
+        myBuffer.put(aRow);
+        myBuffer.putInt(CRC_OFFSET, checksum(myBuffer, 0));
+        myBuffer.flip();
+        return myBuffer;
+    }
+
+    private static int checksum(ByteBuffer aBuffer, int aStart) {
+        int myKeyLength = aBuffer.getInt(aStart + 8);
+        int myRowLength = aBuffer.getInt(aStart + 12);
+        CRC32 myCrc = new CRC32();
+        myCrc.update(aBuffer.slice(aStart, CRC_OFFSET));
+        myCrc.update(aBuffer.slice(aStart + HEADER_SIZE, myKeyLength + myRowLength));
+        return (int) myCrc.getValue();
+    }
+
+    public synchronized long append(ByteBuffer aRecord) throws IOException {
+        long myOffset = theSize.get();
+        long myPosition = myOffset;
+        while (aRecord.hasRemaining()) {
+            myPosition += theChannel.write(aRecord, myPosition);
+        }
+        theSize.set(myPosition);
+        return myOffset;
+    }
+
+    public byte[] readRow(long aOffset, int aLength) throws IOException {
+        ByteBuffer myBuffer = ByteBuffer.allocate(aLength);
+        readFully(myBuffer, aOffset);
+        myBuffer.flip();
+        myBuffer.position(8);
+        int myKeyLength = myBuffer.getInt();
+        int myRowLength = myBuffer.getInt();
+        myBuffer.position(HEADER_SIZE + myKeyLength);
+        byte[] myRow = new byte[myRowLength];
+        myBuffer.get(myRow);
+        return myRow;
+    }
+
+    private void readFully(ByteBuffer aBuffer, long aOffset) throws IOException {
+        long myPosition = aOffset;
+        while (aBuffer.hasRemaining()) {
+            int myRead = theChannel.read(aBuffer, myPosition);
+            if (myRead < 0) {
+                throw new IOException("Unexpected end of segment " + theFile.getName() + " at offset " + myPosition);
+            }
+            myPosition += myRead;
+        }
+    }
+
+    /**
+     * Iterates over the records in file order. Iteration stops at the first torn or corrupt record, whose offset is
+     * then reported by {@link RecordIterator#validLength()} so that recovery can truncate the tail.
+     */
+    public RecordIterator records() {
+        return new RecordIterator(0);
+    }
+
+    public RecordIterator records(long aFromOffset) {
+        return new RecordIterator(aFromOffset);
+    }
+
+    public class RecordIterator implements Iterator<SegmentRecord> {
+        private ByteBuffer theBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private long theBufferStart;
+        private long theNextOffset;
+        private SegmentRecord theNext = null;
+        private boolean theIsDone = false;
+
+        private RecordIterator(long aFromOffset) {
+            theBufferStart = aFromOffset;
+            theNextOffset = aFromOffset;
+            theBuffer.limit(0);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (theNext == null && !theIsDone) {
+                theNext = readNext();
+                theIsDone = theNext == null;
+            }
+            return theNext != null;
+        }
+
+        @Override
+        public SegmentRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SegmentRecord myRecord = theNext;
+            theNext = null;
+            return myRecord;
+        }
+
+        public long validLength() {
+            return theNextOffset;
+        }
+
+        private SegmentRecord readNext() {
+            try {
+                long mySize = theSize.get();
+                if (theNextOffset + HEADER_SIZE > mySize || !ensureBuffered(HEADER_SIZE)) {
+                    return null;
+                }
+                int myStart = (int) (theNextOffset - theBufferStart);
+                long mySequence = theBuffer.getLong(myStart);
+                int myKeyLength = theBuffer.getInt(myStart + 8);
+                int myRowLength = theBuffer.getInt(myStart + 12);
+                long myRemaining = Math.min(mySize - theNextOffset - HEADER_SIZE, Integer.MAX_VALUE - HEADER_SIZE);
+                if (myKeyLength < 0 || myRowLength < 0 || (long) myKeyLength + myRowLength > myRemaining) {
+                    return null;
+                }
+                int myLength = HEADER_SIZE + myKeyLength + myRowLength;
+                if (!ensureBuffered(myLength)) {
+                    return null;
+                }
+
+                myStart = (int) (theNextOffset - theBufferStart);
+                if (checksum(theBuffer, myStart) != theBuffer.getInt(myStart + CRC_OFFSET)) {
+                    LOGGER.warn("Checksum mismatch in " + theFile.getName() + " at offset " + theNextOffset);
+                    return null;
+                }
+                byte[] myKey = new byte[myKeyLength];
+                byte[] myRow = new byte[myRowLength];
+                theBuffer.get(myStart + HEADER_SIZE, myKey);
+                theBuffer.get(myStart + HEADER_SIZE + myKeyLength, myRow);
+
+                SegmentRecord myRecord = new SegmentRecord(
+                        mySequence, new String(myKey, StandardCharsets.UTF_8), myRow, theNextOffset, myLength);
+                theNextOffset += myLength;
+                return myRecord;
+            } catch (IOException e) {
+                LOGGER.error("Failed to read segment " + theFile.getName(), e);
+                return null;
+            }
+        }
+
+        private boolean ensureBuffered(int aLength) throws IOException {
+            long myBufferEnd = theBufferStart + theBuffer.limit();
+            if (theNextOffset >= theBufferStart && theNextOffset + aLength <= myBufferEnd) {
+                return true;
+            }
+
+            if (aLength > theBuffer.capacity()) {
+                theBuffer = ByteBuffer.allocate(aLength);
+            }
+            theBuffer.clear();
+            theBufferStart = theNextOffset;
+            long myPosition = theNextOffset;
+            while (theBuffer.hasRemaining()) {
+                int myRead = theChannel.read(theBuffer, myPosition);
+                if (myRead <= 0) {
+                    break;
+                }
+                myPosition += myRead;
+            }
+            theBuffer.flip();
+            return theBuffer.limit() >= aLength;
+        }
+    }
+
+    public record SegmentRecord(long sequence, String key, byte[] row, long offset, int length) {
+    }
+
+    public boolean acquire() {
+        while (true) {
+            int myReferences = theReferences.get();
+            if (myReferences < 0) {
+                return false;
+            }
+            if (theReferences.compareAndSet(myReferences, myReferences + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        theReferences.decrementAndGet();
+        deleteIfUnused();
+    }
+
+    public void retire() {
+        theIsRetired = true;
+        deleteIfUnused();
+    }
+
+    private void deleteIfUnused() {
+        if (theIsRetired && theReferences.compareAndSet(0, -1)) {
+            destroy();
+        }
+    }
+
+    public void destroy() {
+        close();
+        if (!theFile.delete()) {
+            LOGGER.error("Failed to delete segment " + theFile.getAbsolutePath());
+        }
+    }
+
+    public void force() {
+        try {
+            theChannel.force(false);
+        } catch (IOException e) {
+            LOGGER.error("Failed to flush segment " + theFile.getName(), e);
+        }
+    }
+
+    public void close() {
+        try {
+            theChannel.close();
+        } catch (IOException e) {
+            LOGGER.error("Failed to close segment " + theFile.getName(), e);
+        }
+    }
+
+    public void truncate(long aLength) throws IOException {
+        theChannel.truncate(aLength);
+        theSize.set(aLength);
+    }
+
+    public int id() {
+        return theId;
+    }
+
+    public long size() {
+        return theSize.get();
+    }
+
+    public long liveBytes() {
+        return theLiveBytes.get();
+    }
+
+    public void addLiveBytes(long aDelta) {
+        theLiveBytes.addAndGet(aDelta);
+    }
+}
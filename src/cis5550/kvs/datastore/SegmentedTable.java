@@ -0,0 +1,605 @@
+package cis5550.kvs.datastore;
+
+import cis5550.kvs.Row;
+import cis5550.kvs.datamodels.RecordPointer;
+import cis5550.tools.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import static cis5550.utils.FileIOUtils.readRowFromFile;
+
+/**
+ * One log-structured table: rows are appended to segment files and located through an in-memory key index. Every
+ * record carries a sequence number, so on startup the index is rebuilt by replaying the segments and keeping the
+ * newest version of each key.
+ */
+public class SegmentedTable {
+    public static final Logger LOGGER = Logger.getLogger(SegmentedTable.class);
+    public static final long MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+    public static final double COMPACTION_GARBAGE_RATIO = 0.5;
+    public static final int NUM_KEY_LOCKS = 256;
+    public static final String INDEX_FILE = "index.dat";
+    public static final int INDEX_MAGIC = 0x4B564958;
+    public static final String QUARANTINE_DIRECTORY = "legacy-unreadable";
+
+    private final File theDirectory;
+    private final ConcurrentSkipListMap<String, RecordPointer> theIndex = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Integer, Segment> theSegments = new ConcurrentSkipListMap<>();
+    private final Object[] theKeyLocks = new Object[NUM_KEY_LOCKS];
+    private final AtomicLong theSequence = new AtomicLong(0);
+    private final AtomicInteger theNextSegmentId = new AtomicInteger(0);
+    private final ReentrantReadWriteLock theRollLock = new ReentrantReadWriteLock();
+    private final Object theCompactionLock = new Object();
+    private volatile Segment theActiveSegment;
+    private volatile boolean theIsDirty = false;
+
+    private SegmentedTable(File aDirectory) {
+        theDirectory = aDirectory;
+        for (int i = 0; i < NUM_KEY_LOCKS; i++) {
+            theKeyLocks[i] = new Object();
+        }
+    }
+
+    public static SegmentedTable open(File aDirectory) throws IOException {
+        if (!aDirectory.exists() && !aDirectory.mkdirs()) {
+            throw new IOException("Failed to create directory " + aDirectory.getAbsolutePath());
+        }
+
+        SegmentedTable myTable = new SegmentedTable(aDirectory);
+        myTable.recover();
+        myTable.theActiveSegment = myTable.newSegment();
+        myTable.importLegacyRows();
+        return myTable;
+    }
+
+    private void recover() throws IOException {
+        File[] myFiles = theDirectory.listFiles();
+        if (myFiles == null) {
+            return;
+        }
+
+        List<Integer> myIds = new ArrayList<>();
+        for (File myFile : myFiles) {
+            int myId = Segment.idFromFileName(myFile.getName());
+            if (myId >= 0) {
+                myIds.add(myId);
+            }
+        }
+        myIds.sort(Comparator.naturalOrder());
+
+        for (int myId : myIds) {
+            Segment mySegment = Segment.open(theDirectory, myId);
+            theNextSegmentId.set(Math.max(theNextSegmentId.get(), myId + 1));
+            if (mySegment.size() == 0) {
+                mySegment.destroy();
+                continue;
+            }
+            theSegments.put(myId, mySegment);
+        }
+
+        Checkpoint myCheckpoint = loadCheckpoint();
+        for (Segment mySegment : theSegments.values()) {
+            long myFromOffset = 0;
+            if (myCheckpoint != null) {
+                if (mySegment.id() < myCheckpoint.segment()) {
+                    continue;
+                }
+                if (mySegment.id() == myCheckpoint.segment()) {
+                    myFromOffset = myCheckpoint.offset();
+                }
+            }
+            replay(mySegment, myFromOffset);
+        }
+    }
+
+    private void replay(Segment aSegment, long aFromOffset) throws IOException {
+        Segment.RecordIterator myRecords = aSegment.records(aFromOffset);
+        while (myRecords.hasNext()) {
+            Segment.SegmentRecord myRecord = myRecords.next();
+            RecordPointer myCurrent = theIndex.get(myRecord.key());
+            if (myCurrent == null || myCurrent.sequence() < myRecord.sequence()) {
+                if (myCurrent != null) {
+                    theSegments.get(myCurrent.segment()).addLiveBytes(-myCurrent.length());
+                }
+                theIndex.put(myRecord.key(), new RecordPointer(
+                        aSegment.id(), myRecord.offset(), myRecord.length(), myRecord.sequence()));
+                aSegment.addLiveBytes(myRecord.length());
+            }
+            theSequence.set(Math.max(theSequence.get(), myRecord.sequence()));
+        }
+
+        if (myRecords.validLength() < aSegment.size()) {
+            LOGGER.warn("Truncating torn tail of " + Segment.fileName(aSegment.id()) + " in " + theDirectory.getName()
+                    + " at offset " + myRecords.validLength());
+            aSegment.truncate(myRecords.validLength());
+        }
+    }
+
+    private record Checkpoint(int segment, long offset) {
+    }
+
+    /**
+     * Loads the sorted index written by {@link #checkpoint()}. Only records appended after the checkpoint's watermark
+     * need to be replayed afterwards. Returns null, leaving the index empty, if there is no usable checkpoint.
+     */
+    private Checkpoint loadCheckpoint() {
+        File myFile = new File(theDirectory, INDEX_FILE);
+        if (!myFile.exists()) {
+            return null;
+        }
+
+        try (DataInputStream myInput = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(myFile), Segment.READ_BUFFER_SIZE))) {
+            if (myInput.readInt() != INDEX_MAGIC) {
+                throw new IOException("Bad index file header");
+            }
+            int myWatermarkSegment = myInput.readInt();
+            long myWatermarkOffset = myInput.readLong();
+            long mySequence = myInput.readLong();
+            Segment myWatermark = theSegments.get(myWatermarkSegment);
+            if (myWatermarkOffset > 0 && (myWatermark == null || myWatermark.size() < myWatermarkOffset)) {
+                throw new IOException("Index watermark is past the end of the log");
+            }
+
+            int myKeyLength;
+            while ((myKeyLength = myInput.readInt()) >= 0) {
+                byte[] myKey = new byte[myKeyLength];
+                myInput.readFully(myKey);
+                RecordPointer myPointer = new RecordPointer(
+                        myInput.readInt(), myInput.readLong(), myInput.readInt(), myInput.readLong());
+                Segment mySegment = theSegments.get(myPointer.segment());
+                if (mySegment == null || mySegment.size() < myPointer.offset() + myPointer.length()) {
+                    throw new IOException("Index refers to a missing record in segment " + myPointer.segment());
+                }
+                theIndex.put(new String(myKey, StandardCharsets.UTF_8), myPointer);
+            }
+
+            for (RecordPointer myPointer : theIndex.values()) {
+                theSegments.get(myPointer.segment()).addLiveBytes(myPointer.length());
+            }
+            theSequence.set(mySequence);
+            return new Checkpoint(myWatermarkSegment, myWatermarkOffset);
+        } catch (IOException e) {
+            LOGGER.warn("Ignoring index file of " + theDirectory.getName() + ", replaying the whole log: "
+                    + e.getMessage());
+            theIndex.clear();
+            return null;
+        }
+    }
+
+    /**
+     * Writes the key index, in key order, next to the segments so that a restart only has to replay the tail of the
+     * log. The watermark is the end of the active segment at the time of the checkpoint.
+     */
+    public void checkpoint() {
+        if (!theIsDirty) {
+            return;
+        }
+
+        synchronized (theCompactionLock) {
+            theIsDirty = false;
+            int myWatermarkSegment;
+            long myWatermarkOffset;
+            theRollLock.writeLock().lock();
+            try {
+                theActiveSegment.force();
+                myWatermarkSegment = theActiveSegment.id();
+                myWatermarkOffset = theActiveSegment.size();
+            } finally {
+                theRollLock.writeLock().unlock();
+            }
+
+            File myTemporaryFile = new File(theDirectory, INDEX_FILE + ".tmp");
+            try (FileOutputStream myFileOutput = new FileOutputStream(myTemporaryFile);
+                 DataOutputStream myOutput = new DataOutputStream(
+                         new BufferedOutputStream(myFileOutput, Segment.READ_BUFFER_SIZE))) {
+                myOutput.writeInt(INDEX_MAGIC);
+                myOutput.writeInt(myWatermarkSegment);
+                myOutput.writeLong(myWatermarkOffset);
+                myOutput.writeLong(theSequence.get());
+                for (Map.Entry<String, RecordPointer> myEntry : theIndex.entrySet()) {
+                    byte[] myKey = myEntry.getKey().getBytes(StandardCharsets.UTF_8);
+                    RecordPointer myPointer = myEntry.getValue();
+                    myOutput.writeInt(myKey.length);
+                    myOutput.write(myKey);
+                    myOutput.writeInt(myPointer.segment());
+                    myOutput.writeLong(myPointer.offset());
+                    myOutput.writeInt(myPointer.length());
+                    myOutput.writeLong(myPointer.sequence());
+                }
+                myOutput.writeInt(-1);
+                myOutput.flush();
+                myFileOutput.getFD().sync();
+            } catch (IOException e) {
+                LOGGER.error("Failed to write index file of " + theDirectory.getName(), e);
+                theIsDirty = true;
+                return;
+            }
+
+            try {
+                Files.move(myTemporaryFile.toPath(), new File(theDirectory, INDEX_FILE).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOGGER.error("Failed to replace index file of " + theDirectory.getName(), e);
+                theIsDirty = true;
+            }
+        }
+    }
+
+    /**
+     * Tables written by the old file-per-row datastore are folded into the log on first open, and each row file is
+     * removed once its row is in the log. Row files that cannot be read are moved to {@link #QUARANTINE_DIRECTORY}
+     * instead, so they are neither lost nor retried on every open.
+     */
+    private void importLegacyRows() throws IOException {
+        File[] myFiles = theDirectory.listFiles();
+        if (myFiles == null) {
+            return;
+        }
+
+        List<File> myImported = new ArrayList<>();
+        List<File> myUnreadable = new ArrayList<>();
+        for (File myFile : myFiles) {
+            if (!isLegacyFile(myFile)) {
+                continue;
+            }
+            File[] myRowFiles = myFile.isDirectory() ? myFile.listFiles() : new File[]{myFile};
+            if (myRowFiles == null) {
+                continue;
+            }
+            for (File myRowFile : myRowFiles) {
+                Row myRow = myRowFile.isFile() ? readRowFromFile(myRowFile.getAbsolutePath()) : null;
+                if (myRow == null) {
+                    myUnreadable.add(myRowFile);
+                    continue;
+                }
+                write(myRow.key(), myRow);
+                myImported.add(myRowFile);
+            }
+        }
+
+        if (myImported.isEmpty() && myUnreadable.isEmpty()) {
+            return;
+        }
+        theActiveSegment.force();
+        for (File myRowFile : myImported) {
+            if (!myRowFile.delete()) {
+                LOGGER.warn("Failed to delete imported legacy row file " + myRowFile.getAbsolutePath());
+            }
+        }
+        for (File myRowFile : myUnreadable) {
+            Path myTarget = theDirectory.toPath().resolve(QUARANTINE_DIRECTORY)
+                    .resolve(theDirectory.toPath().relativize(myRowFile.toPath()));
+            Files.createDirectories(myTarget.getParent());
+            Files.move(myRowFile.toPath(), myTarget, StandardCopyOption.REPLACE_EXISTING);
+            LOGGER.warn("Moved unreadable legacy row file " + myRowFile.getAbsolutePath() + " to " + myTarget);
+        }
+        for (File myFile : myFiles) {
+            if (isLegacyFile(myFile) && myFile.isDirectory()) {
+                myFile.delete();
+            }
+        }
+        LOGGER.info("Imported " + myImported.size() + " legacy rows into " + theDirectory.getName()
+                + (myUnreadable.isEmpty() ? "" : ", quarantined " + myUnreadable.size() + " unreadable row files"));
+    }
+
+    private static boolean isLegacyFile(File aFile) {
+        return Segment.idFromFileName(aFile.getName()) < 0 && !aFile.getName().startsWith(INDEX_FILE)
+                && !aFile.getName().equals(QUARANTINE_DIRECTORY);
+    }
+
+    private Segment newSegment() throws IOException {
+        Segment mySegment = Segment.open(theDirectory, theNextSegmentId.getAndIncrement());
+        theSegments.put(mySegment.id(), mySegment);
+        return mySegment;
+    }
+
+    private Object lockFor(String aKey) {
+        return theKeyLocks[(aKey.hashCode() & 0x7fffffff) % NUM_KEY_LOCKS];
+    }
+
+    public Row get(String aKey) throws IOException {
+        while (true) {
+            RecordPointer myPointer = theIndex.get(aKey);
+            if (myPointer == null) {
+                return null;
+            }
+            Row myRow = read(myPointer);
+            if (myRow != null || theIndex.get(aKey) == myPointer) {
+                return myRow;
+            }
+            // The segment was compacted away between the index lookup and the read; the index now has the new location.
+        }
+    }
+
+    private Row read(RecordPointer aPointer) throws IOException {
+        Segment mySegment = theSegments.get(aPointer.segment());
+        if (mySegment == null || !mySegment.acquire()) {
+            return null;
+        }
+        try {
+            return toRow(mySegment.readRow(aPointer.offset(), aPointer.length()));
+        } finally {
+            mySegment.release();
+        }
+    }
+
+    public void put(String aKey, String aColumn, byte[] aValue) throws IOException {
+        synchronized (lockFor(aKey)) {
+            Row myRow = get(aKey);
+            if (myRow == null) {
+                myRow = new Row(aKey);
+            }
+            myRow.put(aColumn, aValue);
+            write(aKey, myRow);
+        }
+    }
+
+    public void putRow(String aKey, Row aRow) throws IOException {
+        synchronized (lockFor(aKey)) {
+            write(aKey, aRow);
+        }
+    }
+
+    public void append(String aKey, String aColumn, byte[] aValue, String aDelimiter) throws IOException {
+        synchronized (lockFor(aKey)) {
+            Row myRow = get(aKey);
+            if (myRow == null) {
+                myRow = new Row(aKey);
+            }
+            if (myRow.get(aColumn) == null) {
+                myRow.put(aColumn, aValue);
+            } else {
+                myRow.put(aColumn, myRow.get(aColumn) + aDelimiter + new String(aValue));
+            }
+            write(aKey, myRow);
+        }
+    }
+
+    private void write(String aKey, Row aRow) throws IOException {
+        Segment mySegment;
+        theRollLock.readLock().lock();
+        try {
+            mySegment = theActiveSegment;
+            long mySequence = theSequence.incrementAndGet();
+            ByteBuffer myRecord = Segment.encode(mySequence, aKey, aRow.toByteArray());
+            int myLength = myRecord.remaining();
+            long myOffset = mySegment.append(myRecord);
+
+            mySegment.addLiveBytes(myLength);
+            theIsDirty = true;
+            RecordPointer myOld = theIndex.put(aKey, new RecordPointer(mySegment.id(), myOffset, myLength, mySequence));
+            if (myOld != null) {
+                Segment myOldSegment = theSegments.get(myOld.segment());
+                if (myOldSegment != null) {
+                    myOldSegment.addLiveBytes(-myOld.length());
+                }
+            }
+        } finally {
+            theRollLock.readLock().unlock();
+        }
+
+        if (mySegment.size() >= MAX_SEGMENT_SIZE) {
+            roll(mySegment);
+        }
+    }
+
+    private void roll(Segment aFullSegment) throws IOException {
+        theRollLock.writeLock().lock();
+        try {
+            if (theActiveSegment != aFullSegment) {
+                return;
+            }
+            aFullSegment.force();
+            theActiveSegment = newSegment();
+        } finally {
+            theRollLock.writeLock().unlock();
+        }
+    }
+
+    public int count() {
+        return theIndex.size();
+    }
+
+    public ConcurrentNavigableMap<String, RecordPointer> keys() {
+        return theIndex;
+    }
+
+    public ConcurrentSkipListMap<String, Row> getRows(String aFromRow, int aNumRows) throws IOException {
+        ConcurrentSkipListMap<String, Row> myResult = new ConcurrentSkipListMap<>();
+        Map<String, RecordPointer> myKeys = aFromRow == null ? theIndex : theIndex.tailMap(aFromRow, true);
+        for (String myKey : myKeys.keySet()) {
+            if (myResult.size() > aNumRows) {
+                break;
+            }
+            Row myRow = get(myKey);
+            if (myRow != null) {
+                myResult.put(myKey, myRow);
+            }
+        }
+        return myResult;
+    }
+
+    /**
+     * Streams the rows of [aStartRow, aEndRowExclusive) in key order by walking the sorted index, so only the rows in
+     * the range are read. Compaction rewrites segments in key order, which keeps these reads mostly sequential.
+     */
+    public Stream<Row> scan(String aStartRow, String aEndRowExclusive) {
+        ConcurrentNavigableMap<String, RecordPointer> myRange = theIndex;
+        if (aStartRow != null) {
+            myRange = myRange.tailMap(aStartRow, true);
+        }
+        if (aEndRowExclusive != null) {
+            myRange = myRange.headMap(aEndRowExclusive, false);
+        }
+
+        return myRange.keySet().stream()
+                .map(aKey -> {
+                    try {
+                        return get(aKey);
+                    } catch (IOException e) {
+                        LOGGER.error("Failed to read row " + aKey + " of " + theDirectory.getName(), e);
+                        return null;
+                    }
+                })
+                .filter(Objects::nonNull);
+    }
+
+    static boolean inRange(String aKey, String aStartRow, String aEndRowExclusive) {
+        return (aStartRow == null || aKey.compareTo(aStartRow) >= 0)
+                && (aEndRowExclusive == null || aKey.compareTo(aEndRowExclusive) < 0);
+    }
+
+    /**
+     * Rewrites the live records of sealed, mostly-dead or undersized segments into fresh segments in key order, then
+     * swaps the index over to the new copies. Writers are never blocked; a key overwritten while compaction runs keeps
+     * its newer pointer because the swap only replaces pointers that still refer to the old record.
+     */
+    public void compact() {
+        synchronized (theCompactionLock) {
+            Segment myActive = theActiveSegment;
+            List<Segment> myVictims = new ArrayList<>();
+            boolean myHasGarbage = false;
+            for (Segment mySegment : theSegments.values()) {
+                if (mySegment == myActive || mySegment.size() == 0) {
+                    continue;
+                }
+                double myGarbageRatio = 1.0 - (double) mySegment.liveBytes() / mySegment.size();
+                if (myGarbageRatio >= COMPACTION_GARBAGE_RATIO) {
+                    myHasGarbage = true;
+                    myVictims.add(mySegment);
+                } else if (mySegment.size() < MAX_SEGMENT_SIZE / 4) {
+                    myVictims.add(mySegment);
+                }
+            }
+            if (!myHasGarbage && myVictims.size() < 2) {
+                return;
+            }
+
+            myVictims.removeIf(mySegment -> !mySegment.acquire());
+            try {
+                compact(myVictims);
+            } catch (IOException e) {
+                LOGGER.error("Failed to compact " + theDirectory.getName(), e);
+            } finally {
+                myVictims.forEach(Segment::release);
+            }
+        }
+    }
+
+    private void compact(List<Segment> aVictims) throws IOException {
+        Set<Integer> myVictimIds = new HashSet<>();
+        long myBytesBefore = 0;
+        for (Segment myVictim : aVictims) {
+            myVictimIds.add(myVictim.id());
+            myBytesBefore += myVictim.size();
+        }
+
+        TreeMap<String, RecordPointer> myLive = new TreeMap<>();
+        for (Map.Entry<String, RecordPointer> myEntry : theIndex.entrySet()) {
+            if (myVictimIds.contains(myEntry.getValue().segment())) {
+                myLive.put(myEntry.getKey(), myEntry.getValue());
+            }
+        }
+
+        List<Segment> myOutputs = new ArrayList<>();
+        Map<String, RecordPointer> myMoved = new TreeMap<>();
+        Segment myOutput = null;
+        for (Map.Entry<String, RecordPointer> myEntry : myLive.entrySet()) {
+            RecordPointer myOld = myEntry.getValue();
+            Segment myVictim = theSegments.get(myOld.segment());
+            byte[] myRow = myVictim.readRow(myOld.offset(), myOld.length());
+
+            if (myOutput == null || myOutput.size() >= MAX_SEGMENT_SIZE) {
+                myOutput = Segment.open(theDirectory, theNextSegmentId.getAndIncrement());
+                myOutputs.add(myOutput);
+            }
+            long myOffset = myOutput.append(Segment.encode(myOld.sequence(), myEntry.getKey(), myRow));
+            myMoved.put(myEntry.getKey(), new RecordPointer(myOutput.id(), myOffset, myOld.length(), myOld.sequence()));
+        }
+        myOutputs.forEach(Segment::force);
+
+        myOutputs.forEach(mySegment -> theSegments.put(mySegment.id(), mySegment));
+        for (Map.Entry<String, RecordPointer> myEntry : myMoved.entrySet()) {
+            RecordPointer myNew = myEntry.getValue();
+            if (theIndex.replace(myEntry.getKey(), myLive.get(myEntry.getKey()), myNew)) {
+                theSegments.get(myNew.segment()).addLiveBytes(myNew.length());
+            }
+        }
+        aVictims.forEach(mySegment -> theSegments.remove(mySegment.id()));
+        theIsDirty = true;
+        aVictims.forEach(Segment::retire);
+
+        long myBytesAfter = myOutputs.stream().mapToLong(Segment::size).sum();
+        LOGGER.info("Compacted " + aVictims.size() + " segments of " + theDirectory.getName() + " from "
+                + myBytesBefore + " to " + myBytesAfter + " bytes");
+    }
+
+    public void close() {
+        checkpoint();
+        theRollLock.writeLock().lock();
+        try {
+            theSegments.values().forEach(mySegment -> {
+                mySegment.force();
+                mySegment.close();
+            });
+        } finally {
+            theRollLock.writeLock().unlock();
+        }
+    }
+
+    public boolean destroy() {
+        close();
+        deleteContents(theDirectory);
+        return theDirectory.delete();
+    }
+
+    private static void deleteContents(File aDirectory) {
+        File[] myFiles = aDirectory.listFiles();
+        if (myFiles == null) {
+            return;
+        }
+        for (File myFile : myFiles) {
+            if (myFile.isDirectory()) {
+                deleteContents(myFile);
+            }
+            myFile.delete();
+        }
+    }
+
+    private static Row toRow(byte[] aBytes) {
+        try {
+            return Row.readFrom(new ByteArrayInputStream(aBytes));
+        } catch (Exception e) {
+            LOGGER.error("Failed to decode row", e);
+            return null;
+        }
+    }
+}
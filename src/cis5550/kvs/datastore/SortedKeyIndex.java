@@ -0,0 +1,219 @@
+package cis5550.kvs.datastore;
+
+import cis5550.tools.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.NavigableSet;
+import java.util.function.Function;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * On-disk sorted set of the row keys of a file-per-row table. New keys go to a journal; once the journal grows past
+ * {@link #MAX_JOURNAL_ENTRIES} it is merged into the sorted key file. Both files are length-prefixed UTF-8 keys, and
+ * their names start with a '.', which {@link cis5550.kvs.KeyEncoder} never produces, so they can't clash with rows.
+ * <p>
+ * The journal is flushed in batches, so a crash can lose its last few keys. When a journal is found on load, the row
+ * files written since the key file are read back to find the keys it lost.
+ */
+public class SortedKeyIndex {
+    public static final Logger LOGGER = Logger.getLogger(SortedKeyIndex.class);
+    public static final String KEYS_FILE = ".keys";
+    public static final String JOURNAL_FILE = ".keys.log";
+    public static final int MAX_JOURNAL_ENTRIES = 100000;
+    public static final int BUFFER_SIZE = 1 << 16;
+    public static final int JOURNAL_FLUSH_ENTRIES = 1000;
+    public static final long JOURNAL_FLUSH_MILLIS = 1000;
+    // a row file written just before a checkpoint may have had its key journaled just after it
+    public static final long CHECKPOINT_SLACK_MILLIS = 60000;
+
+    private final File theDirectory;
+    private final ConcurrentSkipListSet<String> theKeys = new ConcurrentSkipListSet<>();
+    private DataOutputStream theJournal = null;
+    private int theJournalEntries = 0;
+    private int theUnflushedEntries = 0;
+    private long theLastFlush = System.currentTimeMillis();
+
+    private SortedKeyIndex(File aDirectory) {
+        theDirectory = aDirectory;
+    }
+
+    public static boolean isIndexFile(File aFile) {
+        return aFile.getName().startsWith(KEYS_FILE);
+    }
+
+    /**
+     * Loads the index of a table directory. Returns null if the directory has no index yet, in which case the caller
+     * should rebuild it with {@link #create(File, Iterable)}. aReadKey reads the key of a row file, or returns null if
+     * it can't; it is used to recover keys that a crash dropped from the journal.
+     */
+    public static SortedKeyIndex load(File aDirectory, Function<File, String> aReadKey) {
+        File myKeys = new File(aDirectory, KEYS_FILE);
+        File myJournal = new File(aDirectory, JOURNAL_FILE);
+        if (!myKeys.exists() && !myJournal.exists()) {
+            return null;
+        }
+
+        SortedKeyIndex myIndex = new SortedKeyIndex(aDirectory);
+        try {
+            myIndex.readKeys(myKeys);
+            if (myJournal.exists()) {
+                myIndex.readKeys(myJournal);
+                long myCheckpointTime = myKeys.exists() ? myKeys.lastModified() - CHECKPOINT_SLACK_MILLIS : 0;
+                int myRecovered = myIndex.recoverKeys(aDirectory, myCheckpointTime, aReadKey);
+                if (myRecovered > 0) {
+                    LOGGER.warn("Recovered " + myRecovered + " keys missing from the key journal of "
+                            + aDirectory.getName());
+                }
+                myIndex.checkpoint();
+            }
+            return myIndex;
+        } catch (IOException e) {
+            LOGGER.error("Failed to load key index of " + aDirectory.getName(), e);
+            return null;
+        }
+    }
+
+    public static SortedKeyIndex create(File aDirectory, Iterable<String> aKeys) {
+        SortedKeyIndex myIndex = new SortedKeyIndex(aDirectory);
+        aKeys.forEach(myIndex.theKeys::add);
+        myIndex.checkpoint();
+        return myIndex;
+    }
+
+    private void readKeys(File aFile) throws IOException {
+        if (!aFile.exists()) {
+            return;
+        }
+
+        try (DataInputStream myInput = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(aFile), BUFFER_SIZE))) {
+            while (true) {
+                int myLength = myInput.readInt();
+                byte[] myKey = new byte[myLength];
+                myInput.readFully(myKey);
+                theKeys.add(new String(myKey, StandardCharsets.UTF_8));
+            }
+        } catch (EOFException e) {
+            // A torn last entry is recovered from the row files, like the entries that were never flushed.
+        }
+    }
+
+    private int recoverKeys(File aDirectory, long aSince, Function<File, String> aReadKey) {
+        File[] myFiles = aDirectory.listFiles();
+        if (myFiles == null) {
+            return 0;
+        }
+
+        int myRecovered = 0;
+        for (File myFile : myFiles) {
+            if (myFile.isDirectory()) {
+                myRecovered += recoverKeys(myFile, aSince, aReadKey);
+            } else if (!isIndexFile(myFile) && myFile.lastModified() >= aSince) {
+                String myKey = aReadKey.apply(myFile);
+                if (myKey != null && theKeys.add(myKey)) {
+                    myRecovered++;
+                }
+            }
+        }
+        return myRecovered;
+    }
+
+    public void add(String aKey) {
+        if (!theKeys.add(aKey)) {
+            return;
+        }
+
+        synchronized (this) {
+            try {
+                if (theJournal == null) {
+                    theJournal = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(new File(theDirectory, JOURNAL_FILE), true), BUFFER_SIZE));
+                }
+                byte[] myKey = aKey.getBytes(StandardCharsets.UTF_8);
+                theJournal.writeInt(myKey.length);
+                theJournal.write(myKey);
+                theJournalEntries++;
+                theUnflushedEntries++;
+                long myNow = System.currentTimeMillis();
+                if (theUnflushedEntries >= JOURNAL_FLUSH_ENTRIES || myNow - theLastFlush >= JOURNAL_FLUSH_MILLIS) {
+                    theJournal.flush();
+                    theUnflushedEntries = 0;
+                    theLastFlush = myNow;
+                }
+            } catch (IOException e) {
+                LOGGER.error("Failed to journal key " + aKey + " of " + theDirectory.getName(), e);
+            }
+
+            if (theJournalEntries >= MAX_JOURNAL_ENTRIES) {
+                checkpoint();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the sorted key file from memory and empties the journal.
+     */
+    public synchronized void checkpoint() {
+        File myTemporaryFile = new File(theDirectory, KEYS_FILE + ".tmp");
+        try (DataOutputStream myOutput = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(myTemporaryFile), BUFFER_SIZE))) {
+            for (String myKey : theKeys) {
+                byte[] myBytes = myKey.getBytes(StandardCharsets.UTF_8);
+                myOutput.writeInt(myBytes.length);
+                myOutput.write(myBytes);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to write key index of " + theDirectory.getName(), e);
+            return;
+        }
+
+        try {
+            Files.move(myTemporaryFile.toPath(), new File(theDirectory, KEYS_FILE).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            close();
+            new File(theDirectory, JOURNAL_FILE).delete();
+            theJournalEntries = 0;
+            theUnflushedEntries = 0;
+        } catch (IOException e) {
+            LOGGER.error("Failed to replace key index of " + theDirectory.getName(), e);
+        }
+    }
+
+    public synchronized void close() {
+        if (theJournal == null) {
+            return;
+        }
+        try {
+            theJournal.close();
+        } catch (IOException e) {
+            LOGGER.error("Failed to close key journal of " + theDirectory.getName(), e);
+        }
+        theJournal = null;
+    }
+
+    public NavigableSet<String> range(String aStartRow, String aEndRowExclusive) {
+        NavigableSet<String> myRange = theKeys;
+        if (aStartRow != null) {
+            myRange = myRange.tailSet(aStartRow, true);
+        }
+        if (aEndRowExclusive != null) {
+            myRange = myRange.headSet(aEndRowExclusive, false);
+        }
+        return myRange;
+    }
+
+    public int size() {
+        return theKeys.size();
+    }
+}
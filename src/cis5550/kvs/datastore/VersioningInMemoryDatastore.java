@@ -123,6 +123,14 @@ public class VersioningInMemoryDatastore implements Datastore {
                 .map(aEntry -> aEntry.getValue().peekLast());
     }
 
+    @Override
+    public Stream<String> getKeyStream(String aTable) {
+        if (!theMemoryData.containsKey(aTable)) {
+            return null;
+        }
+        return theMemoryData.get(aTable).keySet().stream();
+    }
+
     @Override
     public OpStatus delete(String aTable) {
         if (!theMemoryData.containsKey(aTable)) {
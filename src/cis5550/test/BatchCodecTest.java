@@ -0,0 +1,127 @@
+package cis5550.test;
+
+import cis5550.kvs.BatchCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class BatchCodecTest extends GenericTest {
+    /*
+     * Encoding and decoding of the KVS batch framing, including bodies that a well-behaved client would never send.
+     *
+     * java -cp bin cis5550.test.BatchCodecTest [all | test...]
+     */
+    private static final String[] TESTS = {"roundtrip", "negative", "toolong", "truncated", "stream"};
+
+    void runTests(Set<String> aTests) throws Exception {
+        System.out.printf("\n%-10s%-40sResult\n", "Test", "Description");
+        System.out.println("--------------------------------------------------------");
+
+        if (aTests.contains("roundtrip")) try {
+            startTest("roundtrip", "Decode what the writer encoded", 5);
+            byte[] myAllBytes = new byte[256];
+            for (int i = 0; i < myAllBytes.length; i++) {
+                myAllBytes[i] = (byte) i;
+            }
+            String myLong = "x".repeat(20000);
+            byte[] myBody = new BatchCodec.Writer()
+                    .writeString("row").writeString("").writeBytes(myAllBytes).endEntry()
+                    .writeString(myLong).writeOptional(null).writeOptional(new byte[0]).writeOptional(myAllBytes)
+                    .endEntry()
+                    .toByteArray();
+
+            BatchCodec.Reader myReader = new BatchCodec.Reader(myBody);
+            if (!myReader.hasNext() || !myReader.readString().equals("row") || !myReader.readString().isEmpty()
+                    || !Arrays.equals(myReader.readBytes(), myAllBytes)) {
+                testFailed("The first entry did not decode to what was written");
+            }
+            if (!myReader.hasNext() || !myReader.readString().equals(myLong) || myReader.readOptional() != null
+                    || myReader.readOptional().length != 0 || !Arrays.equals(myReader.readOptional(), myAllBytes)) {
+                testFailed("The second entry did not decode to what was written");
+            }
+            if (myReader.hasNext()) {
+                testFailed("Expected the body to end after the second entry");
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("negative")) try {
+            startTest("negative", "Reject a negative field length", 5);
+            // a five-byte varint of 0xffffffff, which is -1 as an int
+            expectIOException(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f, 'a'}, false);
+            expectIOException(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08, 'a'}, false);
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("toolong")) try {
+            startTest("toolong", "Reject a length past the end of the body", 5);
+            // 0x7fffffff, which would ask for a 2 GB array
+            expectIOException(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07, 'a', 'b'}, false);
+            expectIOException(new byte[]{(byte) 0xe8, 0x07, 'a', 'b', 'c'}, true);
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("truncated")) try {
+            startTest("truncated", "Reject a body that ends inside a field", 5);
+            expectIOException(new byte[]{(byte) 0x80}, false);
+            expectIOException(new byte[]{0x03, 'a'}, true);
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("stream")) try {
+            startTest("stream", "Decode from a stream of unknown length", 5);
+            byte[] myBody = new BatchCodec.Writer().writeString("key").writeString("value").endEntry().toByteArray();
+            BatchCodec.Reader myReader = new BatchCodec.Reader(new ByteArrayInputStream(myBody));
+            if (!myReader.hasNext() || !myReader.readString().equals("key") || !myReader.readString().equals("value")
+                    || myReader.hasNext()) {
+                testFailed("The stream did not decode to what was written");
+            }
+            myReader = new BatchCodec.Reader(new ByteArrayInputStream(
+                    new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f}));
+            try {
+                myReader.readBytes();
+                testFailed("Expected a negative length to be rejected when reading from a stream");
+            } catch (IOException e) {
+                // expected
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        System.out.println("--------------------------------------------------------\n");
+        if (numTestsFailed == 0) {
+            System.out.println("Looks like your solution passed all of the selected tests. Congratulations!");
+        } else {
+            System.out.println(numTestsFailed + " test(s) failed.");
+        }
+    }
+
+    private void expectIOException(byte[] aBody, boolean aAsString) throws Exception {
+        BatchCodec.Reader myReader = new BatchCodec.Reader(aBody);
+        try {
+            Object myResult = aAsString ? myReader.readString() : myReader.readBytes();
+            testFailed("Expected the body " + dump(aBody) + "to be rejected, but it decoded to " + myResult);
+        } catch (IOException e) {
+            // expected; anything else, like a NegativeArraySizeException or an OutOfMemoryError, fails the test
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Set<String> myTests = new TreeSet<>();
+        for (String myArg : args) {
+            if (!myArg.equals("all")) {
+                myTests.add(myArg);
+            }
+        }
+        if (myTests.isEmpty()) {
+            myTests.addAll(Set.of(TESTS));
+        }
+
+        BatchCodecTest myTest = new BatchCodecTest();
+        myTest.setExitUponFailure(false);
+        myTest.runTests(myTests);
+        System.exit(myTest.numTestsFailed == 0 ? 0 : 1);
+    }
+}
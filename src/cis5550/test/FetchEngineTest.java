@@ -0,0 +1,236 @@
+package cis5550.test;
+
+import cis5550.tools.FetchEngine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FetchEngineTest extends GenericTest {
+    /*
+     * Scheduling of the fetch engine, with tasks that sleep instead of fetching. URLs have the form host/path, and
+     * each task returns its URL with an exclamation mark appended.
+     *
+     * java -cp bin cis5550.test.FetchEngineTest [all | test...]
+     */
+    private static final String[] TESTS = {"limits", "overflow", "error", "delay", "hostlog"};
+
+    void runTests(Set<String> aTests) throws Exception {
+        System.out.printf("\n%-10s%-40sResult\n", "Test", "Description");
+        System.out.println("--------------------------------------------------------");
+
+        if (aTests.contains("limits")) try {
+            startTest("limits", "Cap tasks in flight, total and per host", 5);
+            FetchEngine myEngine = new FetchEngine(4, 2, 100, 60000);
+            AtomicInteger myRunning = new AtomicInteger();
+            AtomicInteger myMaxRunning = new AtomicInteger();
+            Map<String, AtomicInteger> myRunningPerHost = new ConcurrentHashMap<>();
+            Map<String, AtomicInteger> myMaxRunningPerHost = new ConcurrentHashMap<>();
+            List<String> myUrls = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                for (String myHost : new String[]{"a", "b", "c", "d"}) {
+                    myUrls.add(myHost + "/" + i);
+                }
+            }
+
+            List<String> myOutput = collect(myEngine.run(myUrls.iterator(), FetchEngineTest::hostOf, myUrl -> {
+                AtomicInteger myHostRunning = myRunningPerHost.computeIfAbsent(hostOf(myUrl), k -> new AtomicInteger());
+                myMaxRunning.accumulateAndGet(myRunning.incrementAndGet(), Math::max);
+                myMaxRunningPerHost.computeIfAbsent(hostOf(myUrl), k -> new AtomicInteger())
+                        .accumulateAndGet(myHostRunning.incrementAndGet(), Math::max);
+                Thread.sleep(20);
+                myHostRunning.decrementAndGet();
+                myRunning.decrementAndGet();
+                return List.of(myUrl + "!");
+            }, new MemoryHostLog()));
+
+            if (myOutput.size() != myUrls.size()) {
+                testFailed("Expected one output per URL, but got " + myOutput.size() + " for " + myUrls.size()
+                        + " URLs: " + myOutput);
+            }
+            if (myMaxRunning.get() > 4) {
+                testFailed("Expected at most 4 tasks at a time, but saw " + myMaxRunning.get());
+            }
+            for (Map.Entry<String, AtomicInteger> myEntry : myMaxRunningPerHost.entrySet()) {
+                if (myEntry.getValue().get() > 2) {
+                    testFailed("Expected at most 2 tasks at a time for host " + myEntry.getKey() + ", but saw "
+                            + myEntry.getValue().get());
+                }
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("overflow")) try {
+            startTest("overflow", "Hand back URLs a busy host cannot take", 5);
+            FetchEngine myEngine = new FetchEngine(16, 1, 3, 60000);
+            List<String> myUrls = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                myUrls.add("a/" + i);
+            }
+            myUrls.add("b/0");
+
+            List<String> myOutput = collect(myEngine.run(myUrls.iterator(), FetchEngineTest::hostOf, myUrl -> {
+                Thread.sleep(100);
+                return List.of(myUrl + "!");
+            }, new MemoryHostLog()));
+
+            // one URL of a runs and three wait; the other six come back unchanged
+            List<String> myFetched = new ArrayList<>();
+            List<String> myHandedBack = new ArrayList<>();
+            for (String myUrl : myOutput) {
+                (myUrl.endsWith("!") ? myFetched : myHandedBack).add(myUrl);
+            }
+            if (myFetched.size() != 5 || !myFetched.contains("b/0!") || myHandedBack.size() != 6) {
+                testFailed("Expected 4 URLs of host a and the URL of host b to be fetched and 6 URLs of host a to "
+                        + "be handed back, but got " + myOutput);
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("error")) try {
+            startTest("error", "Finish a run whose task throws an Error", 5);
+            FetchEngine myEngine = new FetchEngine(4, 1, 100, 60000);
+            Iterator<String> myRun = myEngine.run(List.of("a/0", "a/1", "a/2").iterator(), FetchEngineTest::hostOf,
+                    myUrl -> {
+                        if (myUrl.equals("a/1")) {
+                            throw new AssertionError("task failed");
+                        }
+                        return List.of(myUrl + "!");
+                    }, new MemoryHostLog());
+
+            // the run used to hang here, since the failed task never let the next URL of its host start
+            List<String> myOutput = collect(myRun);
+            if (!myOutput.contains("a/0!") || !myOutput.contains("a/2!") || myOutput.size() != 2) {
+                testFailed("Expected the outputs of a/0 and a/2, but got " + myOutput);
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("delay")) try {
+            startTest("delay", "Space out the URLs of a host", 5);
+            FetchEngine myEngine = new FetchEngine(16, 1, 100, 60000);
+            Map<String, List<Long>> myStarts = new ConcurrentHashMap<>();
+            List<String> myUrls = List.of("a/0", "b/0", "a/1", "b/1", "a/2", "b/2");
+
+            List<String> myOutput = collect(myEngine.run(myUrls.iterator(), FetchEngineTest::hostOf, myUrl -> {
+                myStarts.computeIfAbsent(hostOf(myUrl), k -> new ArrayList<>()).add(System.currentTimeMillis());
+                myEngine.markFetched(hostOf(myUrl), hostOf(myUrl).equals("a") ? 300 : 100);
+                return List.of(myUrl + "!");
+            }, new MemoryHostLog()));
+
+            if (myOutput.size() != myUrls.size()) {
+                testFailed("Expected one output per URL, but got " + myOutput);
+            }
+            expectSpacing(myStarts.get("a"), 300);
+            expectSpacing(myStarts.get("b"), 100);
+            // b's URLs do not wait for a's delay
+            if (myStarts.get("b").get(2) - myStarts.get("a").get(0) >= 500) {
+                testFailed("Expected host b to finish while host a waits, but its last URL started "
+                        + (myStarts.get("b").get(2) - myStarts.get("a").get(0)) + " ms after the first URL of a");
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("hostlog")) try {
+            startTest("hostlog", "Honor and checkpoint the host log", 5);
+            FetchEngine myEngine = new FetchEngine(16, 1, 100, 60000);
+            MemoryHostLog myHostLog = new MemoryHostLog();
+            long myStart = System.currentTimeMillis();
+            myHostLog.checkpoint(Map.of("a", myStart + 400));
+            Map<String, Long> myStarts = new ConcurrentHashMap<>();
+
+            List<String> myOutput = collect(myEngine.run(List.of("a/0", "b/0").iterator(), FetchEngineTest::hostOf,
+                    myUrl -> {
+                        myStarts.put(myUrl, System.currentTimeMillis());
+                        myEngine.markFetched(hostOf(myUrl), 1000);
+                        return List.of(myUrl + "!");
+                    }, myHostLog));
+
+            if (myOutput.size() != 2) {
+                testFailed("Expected one output per URL, but got " + myOutput);
+            }
+            if (myStarts.get("a/0") < myStart + 400) {
+                testFailed("Expected a/0 to wait for the time in the host log, but it started "
+                        + (myStarts.get("a/0") - myStart) + " ms after the run");
+            }
+            if (myStarts.get("b/0") >= myStart + 400) {
+                testFailed("Expected b/0 to start right away, but it started " + (myStarts.get("b/0") - myStart)
+                        + " ms after the run");
+            }
+            for (String myHost : new String[]{"a", "b"}) {
+                long myExpected = myStarts.get(myHost + "/0") + 1000;
+                long myLogged = myHostLog.nextAllowedTime(myHost);
+                if (myLogged < myExpected || myLogged > myExpected + 100) {
+                    testFailed("Expected the host log to be checkpointed with " + myExpected + " for host " + myHost
+                            + ", but it has " + myLogged);
+                }
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        System.out.println("--------------------------------------------------------\n");
+        if (numTestsFailed == 0) {
+            System.out.println("Looks like your solution passed all of the selected tests. Congratulations!");
+        } else {
+            System.out.println(numTestsFailed + " test(s) failed.");
+        }
+    }
+
+    private void expectSpacing(List<Long> aStarts, long aDelayMillis) throws Exception {
+        for (int i = 1; i < aStarts.size(); i++) {
+            if (aStarts.get(i) - aStarts.get(i - 1) < aDelayMillis) {
+                testFailed("Expected URLs of the same host to start at least " + aDelayMillis + " ms apart, but they "
+                        + "started at " + aStarts);
+            }
+        }
+    }
+
+    private static String hostOf(String aUrl) {
+        return aUrl.substring(0, aUrl.indexOf('/'));
+    }
+
+    private static List<String> collect(Iterator<String> aOutput) {
+        List<String> myOutput = new ArrayList<>();
+        aOutput.forEachRemaining(myOutput::add);
+        return myOutput;
+    }
+
+    /**
+     * A host log that starts out empty and remembers what it is given.
+     */
+    private static class MemoryHostLog implements FetchEngine.HostLog {
+        private final Map<String, Long> theTimes = new ConcurrentHashMap<>();
+
+        @Override
+        public long nextAllowedTime(String aHost) {
+            return theTimes.getOrDefault(aHost, 0L);
+        }
+
+        @Override
+        public void checkpoint(Map<String, Long> aNextAllowedTimes) {
+            theTimes.putAll(aNextAllowedTimes);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Set<String> myTests = new TreeSet<>();
+        for (String myArg : args) {
+            if (!myArg.equals("all")) {
+                myTests.add(myArg);
+            }
+        }
+        if (myTests.isEmpty()) {
+            myTests.addAll(Set.of(TESTS));
+        }
+
+        FetchEngineTest myTest = new FetchEngineTest();
+        myTest.setExitUponFailure(false);
+        myTest.runTests(myTests);
+        System.exit(myTest.numTestsFailed == 0 ? 0 : 1);
+    }
+}
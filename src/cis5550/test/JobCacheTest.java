@@ -0,0 +1,195 @@
+package cis5550.test;
+
+import cis5550.flame.FlameContext;
+import cis5550.flame.JobCache;
+import cis5550.tools.Serializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CyclicBarrier;
+import java.util.jar.JarOutputStream;
+
+public class JobCacheTest extends GenericTest {
+    /*
+     * The pools of deserialized lambdas on a Flame worker. Each thread stands for a request: it deserializes the body
+     * of an operation and returns its lambdas when it ends. The job JAR is empty, so the lambdas' classes come from the
+     * class path.
+     *
+     * java -cp bin cis5550.test.JobCacheTest [all | test...]
+     */
+    private static final String[] TESTS = {"reuse", "slots", "jars", "endjob"};
+
+    private File theDirectory;
+    private byte[] theJAR;
+    private byte[] theOtherJAR;
+    private byte[] theBody;
+
+    void runSetup() throws IOException {
+        theDirectory = Files.createTempDirectory("job-cache-test").toFile();
+        theJAR = emptyJAR("a");
+        theOtherJAR = emptyJAR("b");
+        // a capturing lambda, since every deserialization of a non-capturing one yields the same instance
+        String mySuffix = "!";
+        theBody = Serializer.objectToByteArray((FlameContext.RowToString) aRow -> aRow.key() + mySuffix);
+    }
+
+    void cleanup() {
+        File[] myFiles = theDirectory.listFiles();
+        if (myFiles != null) {
+            for (File myFile : myFiles) {
+                myFile.delete();
+            }
+        }
+        theDirectory.delete();
+    }
+
+    void runTests(Set<String> aTests) throws Exception {
+        System.out.printf("\n%-10s%-40sResult\n", "Test", "Description");
+        System.out.println("--------------------------------------------------------");
+
+        if (aTests.contains("reuse")) try {
+            startTest("reuse", "Reuse a lambda between operations", 5);
+            JobCache myJobs = newJobCache("reuse");
+            myJobs.useJAR(theJAR);
+            String myHash = JobCache.hashOf(theJAR);
+
+            Object myFirst = myJobs.deserialize(myHash, theBody);
+            myJobs.returnLambdas();
+            Object mySecond = myJobs.deserialize(myHash, theBody);
+            myJobs.returnLambdas();
+            if (myFirst == null || myFirst != mySecond) {
+                testFailed("Expected the second operation to get the lambda of the first one back, but got "
+                        + myFirst + " and " + mySecond);
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("slots")) try {
+            startTest("slots", "Deserialize once per concurrent task", 5);
+            JobCache myJobs = newJobCache("slots");
+            myJobs.useJAR(theJAR);
+            String myHash = JobCache.hashOf(theJAR);
+
+            // two rounds of two operations with the same lambda; within a round, both hold their lambda at once
+            Set<Object> myInstances = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+            for (int myRound = 0; myRound < 2; myRound++) {
+                Set<Object> myRoundInstances = runConcurrently(myJobs, myHash, 2);
+                if (myRoundInstances.size() != 2) {
+                    testFailed("Expected the two operations of round " + myRound + " to get an instance each, but "
+                            + "they got " + myRoundInstances.size());
+                }
+                myInstances.addAll(myRoundInstances);
+            }
+            if (myInstances.size() != 2) {
+                testFailed("Expected the lambda to be deserialized twice, once per concurrent operation, but "
+                        + myInstances.size() + " instances were made");
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("jars")) try {
+            startTest("jars", "Keep separate pools per job JAR", 5);
+            JobCache myJobs = newJobCache("jars");
+            myJobs.useJAR(theJAR);
+            myJobs.useJAR(theOtherJAR);
+
+            Object myFirst = myJobs.deserialize(JobCache.hashOf(theJAR), theBody);
+            myJobs.returnLambdas();
+            Object mySecond = myJobs.deserialize(JobCache.hashOf(theOtherJAR), theBody);
+            myJobs.returnLambdas();
+            if (myFirst == null || mySecond == null || myFirst == mySecond) {
+                testFailed("Expected each job JAR to get its own instance of the lambda");
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("endjob")) try {
+            startTest("endjob", "Drop the lambdas when the job ends", 5);
+            JobCache myJobs = newJobCache("endjob");
+            String myHash = JobCache.hashOf(theJAR);
+            myJobs.useJAR(theJAR);
+            Object myFirst = myJobs.deserialize(myHash, theBody);
+            myJobs.returnLambdas();
+            myJobs.endJob(myHash);
+
+            myJobs.useJAR(theJAR);
+            Object mySecond = myJobs.deserialize(myHash, theBody);
+            myJobs.returnLambdas();
+            if (mySecond == null || myFirst == mySecond) {
+                testFailed("Expected a new instance of the lambda after the job ended and its JAR was loaded again");
+            }
+            myJobs.endJob(myHash);
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        System.out.println("--------------------------------------------------------\n");
+        if (numTestsFailed == 0) {
+            System.out.println("Looks like your solution passed all of the selected tests. Congratulations!");
+        } else {
+            System.out.println(numTestsFailed + " test(s) failed.");
+        }
+    }
+
+    private JobCache newJobCache(String aName) {
+        return new JobCache(new File(theDirectory, aName).getPath() + "-");
+    }
+
+    /**
+     * Runs aNumOperations operations on threads of their own, which all hold their lambda until every one has it.
+     */
+    private Set<Object> runConcurrently(JobCache aJobs, String aHash, int aNumOperations) throws Exception {
+        Set<Object> myInstances = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        CyclicBarrier myBarrier = new CyclicBarrier(aNumOperations);
+        Thread[] myThreads = new Thread[aNumOperations];
+        for (int i = 0; i < aNumOperations; i++) {
+            myThreads[i] = new Thread(() -> {
+                try {
+                    myInstances.add(aJobs.deserialize(aHash, theBody.clone()));
+                    myBarrier.await();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    aJobs.returnLambdas();
+                }
+            });
+            myThreads[i].start();
+        }
+        for (Thread myThread : myThreads) {
+            myThread.join();
+        }
+        return myInstances;
+    }
+
+    private static byte[] emptyJAR(String aComment) throws IOException {
+        ByteArrayOutputStream myBytes = new ByteArrayOutputStream();
+        try (JarOutputStream myJAR = new JarOutputStream(myBytes)) {
+            myJAR.setComment(aComment);
+        }
+        return myBytes.toByteArray();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Set<String> myTests = new TreeSet<>();
+        for (String myArg : args) {
+            if (!myArg.equals("all")) {
+                myTests.add(myArg);
+            }
+        }
+        if (myTests.isEmpty()) {
+            myTests.addAll(Set.of(TESTS));
+        }
+
+        JobCacheTest myTest = new JobCacheTest();
+        myTest.setExitUponFailure(false);
+        myTest.runSetup();
+        myTest.runTests(myTests);
+        myTest.cleanup();
+        System.exit(myTest.numTestsFailed == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,198 @@
+package cis5550.test;
+
+import cis5550.webserver.RequestImpl;
+import cis5550.webserver.parsers.HTTPRequestParser;
+import cis5550.webserver.parsers.RequestBuffer;
+import cis5550.webserver.sessions.SessionsContainer;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ParserBenchmark {
+    /*
+     * Compares the buffered HTTPRequestParser with the byte-at-a-time reading it replaced. A client thread writes a
+     * stream of pipelined requests (a mix of GETs and PUTs with bodies) over a loopback socket, and the server side
+     * parses them one after another, the same way ServerConnection does. The old strategy is reproduced in
+     * LegacyParser below, since it no longer exists in the webserver.
+     *
+     * Each parser gets a number of warmup rounds that are not timed, then the timed rounds are averaged.
+     *
+     * javac --source-path src -d bin src/cis5550/test/ParserBenchmark.java
+     * java -cp bin cis5550.test.ParserBenchmark [requests per round] [rounds]
+     */
+    private static final int WARMUP_ROUNDS = 3;
+    private static final byte[] GET_REQUEST = ("GET /data/pt-crawl/abcdefghijklmnop/page HTTP/1.1\r\n"
+            + "Host: localhost:8001\r\n"
+            + "User-Agent: cis5550-crawler\r\n"
+            + "Accept: */*\r\n"
+            + "Connection: keep-alive\r\n\r\n").getBytes();
+    private static final byte[] PUT_REQUEST;
+
+    static {
+        byte[] body = new byte[2048];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) ('a' + (i % 26));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(("PUT /data/pt-crawl/abcdefghijklmnop/page HTTP/1.1\r\n"
+                + "Host: localhost:8001\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Length: " + body.length + "\r\n\r\n").getBytes());
+        out.writeBytes(body);
+        PUT_REQUEST = out.toByteArray();
+    }
+
+    interface Parser {
+        /** Parses the next request from the connection and returns the body length, or -1 at end of stream. */
+        int next() throws IOException;
+    }
+
+    interface ParserFactory {
+        Parser open(InputStream in);
+    }
+
+    /*
+     * The previous parser: one read() call per header byte, then the header bytes are decoded a second time through
+     * a BufferedReader, and the body is copied in through a 1 KB scratch buffer.
+     */
+    static class LegacyParser implements Parser {
+        final InputStream in;
+
+        LegacyParser(InputStream in) {
+            this.in = in;
+        }
+
+        public int next() throws IOException {
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            byte[] end = new byte[]{13, 10, 13, 10};
+            int matched = 0;
+            int b;
+            while ((b = in.read()) >= 0) {
+                headerBytes.write(b);
+                if (b == end[matched]) {
+                    if (++matched == end.length)
+                        break;
+                } else {
+                    matched = (b == end[0]) ? 1 : 0;
+                }
+            }
+            if (b < 0)
+                return -1;
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(headerBytes.toByteArray())));
+            String firstLine = reader.readLine();
+            if (firstLine == null)
+                return -1;
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                int colon = line.indexOf(": ");
+                if (colon != -1)
+                    headers.put(line.substring(0, colon).toLowerCase(), line.substring(colon + 2));
+            }
+
+            String contentLength = headers.get("content-length");
+            if (contentLength == null)
+                return 0;
+            int length = Integer.parseInt(contentLength);
+            byte[] body = new byte[length];
+            byte[] scratch = new byte[1024];
+            int total = 0;
+            while (total < length) {
+                int n = in.read(scratch, 0, Math.min(scratch.length, length - total));
+                if (n < 0)
+                    throw new IOException("End of stream reached prematurely");
+                System.arraycopy(scratch, 0, body, total, n);
+                total += n;
+            }
+            return body.length;
+        }
+    }
+
+    static class BufferedParser implements Parser {
+        static final HTTPRequestParser parser = new HTTPRequestParser(false);
+        static final SessionsContainer sessions = new SessionsContainer();
+        static final InetSocketAddress address = new InetSocketAddress("localhost", 0);
+        final RequestBuffer buffer;
+
+        BufferedParser(InputStream in) {
+            buffer = new RequestBuffer(in);
+        }
+
+        public int next() throws IOException {
+            RequestImpl request = parser.parseRequest(buffer, address, sessions);
+            return request == null ? -1 : request.bodyAsBytes().length;
+        }
+    }
+
+    /*
+     * Sends numRequests pipelined requests over a fresh loopback connection and returns the time it took the server
+     * side to parse all of them, in nanoseconds.
+     */
+    static long runRound(ParserFactory factory, int numRequests) throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread client = new Thread(() -> {
+                try (Socket socket = new Socket("localhost", serverSocket.getLocalPort())) {
+                    OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                    for (int i = 0; i < numRequests; i++)
+                        out.write((i % 4 == 0) ? PUT_REQUEST : GET_REQUEST);
+                    out.flush();
+                    socket.shutdownOutput();
+                    socket.getInputStream().read();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            client.start();
+
+            try (Socket socket = serverSocket.accept()) {
+                Parser parser = factory.open(socket.getInputStream());
+                long startTime = System.nanoTime();
+                int parsed = 0;
+                while (parser.next() >= 0)
+                    parsed++;
+                long totalTime = System.nanoTime() - startTime;
+                if (parsed != numRequests)
+                    throw new IllegalStateException("Parsed " + parsed + " of " + numRequests + " requests");
+                return totalTime;
+            } finally {
+                client.join();
+            }
+        }
+    }
+
+    static double benchmark(String name, ParserFactory factory, int numRequests, int rounds) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++)
+            runRound(factory, numRequests);
+
+        long totalTime = 0;
+        for (int i = 0; i < rounds; i++)
+            totalTime += runRound(factory, numRequests);
+
+        double nanosPerRequest = totalTime / (double) rounds / numRequests;
+        System.out.printf("%-10s %10.0f ns/request %12.0f requests/s\n", name, nanosPerRequest, 1e9 / nanosPerRequest);
+        return nanosPerRequest;
+    }
+
+    public static void main(String args[]) throws Exception {
+        int numRequests = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+        System.out.println("Parsing " + numRequests + " pipelined requests per round, " + rounds + " rounds");
+        double legacy = benchmark("legacy", LegacyParser::new, numRequests, rounds);
+        double buffered = benchmark("buffered", BufferedParser::new, numRequests, rounds);
+        System.out.printf("Speedup: %.2fx\n", legacy / buffered);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,155 @@
+package cis5550.test;
+
+import cis5550.tools.RobotRuleFollower;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+public class RobotRuleFollowerTest extends GenericTest {
+    /*
+     * Which robots.txt rules apply to the crawler, and in which order.
+     *
+     * java -cp bin cis5550.test.RobotRuleFollowerTest [all | test...]
+     */
+    private static final String[] TESTS = {"agent", "first", "empty", "delay", "missing"};
+    private static final String CRAWLER = "cis5550-crawler";
+
+    void runTests(Set<String> aTests) throws Exception {
+        System.out.printf("\n%-10s%-40sResult\n", "Test", "Description");
+        System.out.println("--------------------------------------------------------");
+
+        if (aTests.contains("agent")) try {
+            startTest("agent", "Prefer the crawler's own group over *", 5);
+            RobotRuleFollower myRules = RobotRuleFollower.fromRobotsTxt("""
+                    User-agent: *
+                    Disallow: /private
+                    Disallow: /shared
+
+                    User-agent: cis5550-crawler
+                    Disallow: /shared
+
+                    User-agent: other-crawler
+                    Disallow: /
+                    """, CRAWLER);
+            expect(myRules, "/shared/page", false);
+            expect(myRules, "/private/page", true);
+            expect(myRules, "/", true);
+
+            // a group for the crawler without rules leaves the rules of * in place
+            myRules = RobotRuleFollower.fromRobotsTxt("""
+                    User-agent: cis5550-crawler
+                    Crawl-delay: 2
+
+                    User-agent: *
+                    Disallow: /private
+                    """, CRAWLER);
+            expect(myRules, "/private/page", false);
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("first")) try {
+            startTest("first", "Let the first matching rule decide", 5);
+            RobotRuleFollower myRules = RobotRuleFollower.fromRobotsTxt("""
+                    User-agent: *
+                    Allow: /docs/public
+                    Disallow: /docs
+                    Disallow: /docs/public/secret
+                    Allow: /
+                    """, CRAWLER);
+            expect(myRules, "/docs/public/secret", true);
+            expect(myRules, "/docs/public", true);
+            expect(myRules, "/docs/internal", false);
+            expect(myRules, "/docs", false);
+            expect(myRules, "/doc", true);
+
+            // the same path twice: the earlier rule wins
+            myRules = RobotRuleFollower.fromRobotsTxt("""
+                    User-agent: *
+                    Disallow: /a
+                    Allow: /a
+                    """, CRAWLER);
+            expect(myRules, "/a/b", false);
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("empty")) try {
+            startTest("empty", "Ignore rules with an empty path", 5);
+            RobotRuleFollower myRules = RobotRuleFollower.fromRobotsTxt("""
+                    User-agent: *
+                    Disallow:
+                    Disallow: /tmp
+                    """, CRAWLER);
+            expect(myRules, "/index.html", true);
+            expect(myRules, "/tmp/file", false);
+
+            // an own group whose only rule is empty has no rules, so * applies
+            myRules = RobotRuleFollower.fromRobotsTxt("""
+                    User-agent: cis5550-crawler
+                    Disallow:
+
+                    User-agent: *
+                    Disallow: /
+                    """, CRAWLER);
+            expect(myRules, "/index.html", false);
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("delay")) try {
+            startTest("delay", "Read the crawl delay in milliseconds", 5);
+            expectDelay("User-agent: *\nCrawl-delay: 2.5\n", 2500);
+            expectDelay("User-agent: *\nCrawl-delay: 5\nUser-agent: " + CRAWLER + "\nCrawl-delay: 0.2\n", 200);
+            expectDelay("User-agent: *\nCrawl-delay: 3\nUser-agent: other-crawler\nCrawl-delay: 9\n", 3000);
+            expectDelay("User-agent: *\nCrawl-delay: soon\nDisallow: /x\n", 1000);
+            expectDelay("User-agent: *\nDisallow: /x\n", 1000);
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("missing")) try {
+            startTest("missing", "Allow everything without a robots.txt", 5);
+            RobotRuleFollower myRules = RobotRuleFollower.fromRobotsTxt(null, CRAWLER);
+            expect(myRules, "/anything", true);
+            expect(myRules, null, true);
+            if (myRules.getCrawlDelay() != 1000) {
+                testFailed("Expected the default crawl delay of 1000 ms, but got " + myRules.getCrawlDelay());
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        System.out.println("--------------------------------------------------------\n");
+        if (numTestsFailed == 0) {
+            System.out.println("Looks like your solution passed all of the selected tests. Congratulations!");
+        } else {
+            System.out.println(numTestsFailed + " test(s) failed.");
+        }
+    }
+
+    private void expect(RobotRuleFollower aRules, String aPath, boolean aAllowed) throws Exception {
+        if (aRules.isAllowed(aPath) != aAllowed) {
+            testFailed("Expected " + aPath + " to be " + (aAllowed ? "allowed" : "disallowed") + ", but it is not");
+        }
+    }
+
+    private void expectDelay(String aRobotsTxt, int aExpected) throws Exception {
+        int myDelay = RobotRuleFollower.fromRobotsTxt(aRobotsTxt, CRAWLER).getCrawlDelay();
+        if (myDelay != aExpected) {
+            testFailed("Expected a crawl delay of " + aExpected + " ms for\n\n" + aRobotsTxt + "\nbut got " + myDelay);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Set<String> myTests = new TreeSet<>();
+        for (String myArg : args) {
+            if (!myArg.equals("all")) {
+                myTests.add(myArg);
+            }
+        }
+        if (myTests.isEmpty()) {
+            myTests.addAll(Set.of(TESTS));
+        }
+
+        RobotRuleFollowerTest myTest = new RobotRuleFollowerTest();
+        myTest.setExitUponFailure(false);
+        myTest.runTests(myTests);
+        System.exit(myTest.numTestsFailed == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,192 @@
+package cis5550.test;
+
+import cis5550.tools.ScalableBloomFilter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class ScalableBloomFilterTest extends GenericTest {
+    /*
+     * Growth and serialization of the scalable Bloom filter. The parts of a filter are read back from its serialized
+     * form, which starts with the number of parts, followed by the capacity, number of hashes, number of insertions
+     * and bits of each part.
+     *
+     * java -cp bin cis5550.test.ScalableBloomFilterTest [all | test...]
+     */
+    private static final String[] TESTS = {"growth", "falsepos", "roundtrip", "empty"};
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    void runTests(Set<String> aTests) throws Exception {
+        System.out.printf("\n%-10s%-40sResult\n", "Test", "Description");
+        System.out.println("--------------------------------------------------------");
+
+        if (aTests.contains("growth")) try {
+            startTest("growth", "Start a part twice the size when full", 5);
+            ScalableBloomFilter myFilter = new ScalableBloomFilter(100, FALSE_POSITIVE_RATE);
+            for (int i = 0; i < 1000; i++) {
+                myFilter.add("key" + i);
+            }
+            for (int i = 0; i < 1000; i++) {
+                if (!myFilter.mightContain("key" + i)) {
+                    testFailed("Expected key" + i + " to be found after growing, but it was not");
+                }
+            }
+
+            List<int[]> myParts = parts(serialize(myFilter));
+            int myInsertions = 0;
+            for (int i = 0; i < myParts.size(); i++) {
+                int myCapacity = myParts.get(i)[0];
+                if (myCapacity != 100 << i) {
+                    testFailed("Expected part " + i + " to have capacity " + (100 << i) + ", but it has " + myCapacity);
+                }
+                if (i < myParts.size() - 1 && myParts.get(i)[1] < myCapacity) {
+                    testFailed("Expected part " + i + " to be full before the next one started, but it has "
+                            + myParts.get(i)[1] + " insertions");
+                }
+                myInsertions += myParts.get(i)[1];
+            }
+            // 100 + 200 + 400 keys fill three parts, and the rest go to a fourth of 800
+            if (myParts.size() != 4 || myParts.getLast()[1] > myParts.getLast()[0]) {
+                testFailed("Expected 4 parts for 1000 keys, but got " + myParts.size());
+            }
+            if (myInsertions > 1000) {
+                testFailed("Expected at most 1000 insertions over all parts, but counted " + myInsertions);
+            }
+            if (myFilter.add("key999")) {
+                testFailed("Expected adding a key of the newest part again to leave the filter unchanged");
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("falsepos")) try {
+            startTest("falsepos", "Keep false positives low while growing", 5);
+            ScalableBloomFilter myFilter = new ScalableBloomFilter(100, FALSE_POSITIVE_RATE);
+            for (int i = 0; i < 10000; i++) {
+                myFilter.add("key" + i);
+            }
+            int myFalsePositives = 0;
+            for (int i = 0; i < 10000; i++) {
+                if (myFilter.mightContain("absent" + i)) {
+                    myFalsePositives++;
+                }
+            }
+            // each of the 7 parts can answer yes on its own, so the rate may add up to a few times that of one part
+            if (myFalsePositives > 10000 * FALSE_POSITIVE_RATE * 7) {
+                testFailed("Expected few false positives, but " + myFalsePositives + " of 10000 absent keys were "
+                        + "reported as present");
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("roundtrip")) try {
+            startTest("roundtrip", "Read back what writeTo() wrote", 5);
+            ScalableBloomFilter myFilter = new ScalableBloomFilter(50, FALSE_POSITIVE_RATE);
+            for (int i = 0; i < 300; i++) {
+                myFilter.add("key" + i);
+            }
+            byte[] myBytes = serialize(myFilter);
+            ScalableBloomFilter myRead = ScalableBloomFilter.readFrom(
+                    new DataInputStream(new ByteArrayInputStream(myBytes)), FALSE_POSITIVE_RATE);
+
+            if (myRead == null) {
+                testFailed("Expected the filter to be read back, but got null");
+            }
+            if (!Arrays.equals(serialize(myRead), myBytes)) {
+                testFailed("Expected the filter that was read back to serialize to the same bytes");
+            }
+            for (int i = 0; i < 1000; i++) {
+                String myKey = (i < 300 ? "key" : "absent") + i;
+                if (myRead.mightContain(myKey) != myFilter.mightContain(myKey)) {
+                    testFailed("Expected the filter that was read back to give the same answer for " + myKey);
+                }
+            }
+
+            // the filter that was read back keeps growing from its newest part
+            for (int i = 300; i < 1000; i++) {
+                myRead.add("key" + i);
+            }
+            List<int[]> myParts = parts(serialize(myRead));
+            for (int i = 0; i < myParts.size(); i++) {
+                if (myParts.get(i)[0] != 50 << i) {
+                    testFailed("Expected part " + i + " to have capacity " + (50 << i) + " after growing, but it has "
+                            + myParts.get(i)[0]);
+                }
+            }
+            for (int i = 0; i < 1000; i++) {
+                if (!myRead.mightContain("key" + i)) {
+                    testFailed("Expected key" + i + " to be found, but it was not");
+                }
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("empty")) try {
+            startTest("empty", "Read a filter without parts as null", 5);
+            byte[] myNoParts = {0, 0, 0, 0};
+            DataInputStream myInput = new DataInputStream(new ByteArrayInputStream(myNoParts));
+            if (ScalableBloomFilter.readFrom(myInput, FALSE_POSITIVE_RATE) != null) {
+                testFailed("Expected a filter without parts to be read as null");
+            }
+            ScalableBloomFilter myNew = new ScalableBloomFilter(10, FALSE_POSITIVE_RATE);
+            if (parts(serialize(myNew)).size() != 1 || myNew.mightContain("key")) {
+                testFailed("Expected a new filter to have one empty part");
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        System.out.println("--------------------------------------------------------\n");
+        if (numTestsFailed == 0) {
+            System.out.println("Looks like your solution passed all of the selected tests. Congratulations!");
+        } else {
+            System.out.println(numTestsFailed + " test(s) failed.");
+        }
+    }
+
+    private static byte[] serialize(ScalableBloomFilter aFilter) throws IOException {
+        ByteArrayOutputStream myBytes = new ByteArrayOutputStream();
+        aFilter.writeTo(new DataOutputStream(myBytes));
+        return myBytes.toByteArray();
+    }
+
+    /**
+     * Returns the capacity and number of insertions of each part of a serialized filter.
+     */
+    private static List<int[]> parts(byte[] aBytes) throws IOException {
+        DataInputStream myInput = new DataInputStream(new ByteArrayInputStream(aBytes));
+        List<int[]> myParts = new ArrayList<>();
+        int myNumParts = myInput.readInt();
+        for (int i = 0; i < myNumParts; i++) {
+            int myCapacity = myInput.readInt();
+            myInput.readInt();
+            int myInsertions = myInput.readInt();
+            myInput.skipNBytes((long) myInput.readInt() * Long.BYTES);
+            myParts.add(new int[]{myCapacity, myInsertions});
+        }
+        return myParts;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Set<String> myTests = new TreeSet<>();
+        for (String myArg : args) {
+            if (!myArg.equals("all")) {
+                myTests.add(myArg);
+            }
+        }
+        if (myTests.isEmpty()) {
+            myTests.addAll(Set.of(TESTS));
+        }
+
+        ScalableBloomFilterTest myTest = new ScalableBloomFilterTest();
+        myTest.setExitUponFailure(false);
+        myTest.runTests(myTests);
+        System.exit(myTest.numTestsFailed == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,231 @@
+package cis5550.test;
+
+import cis5550.kvs.Row;
+import cis5550.kvs.datastore.Segment;
+import cis5550.kvs.datastore.SegmentedTable;
+import cis5550.utils.FileIOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class SegmentedTableTest extends GenericTest {
+    /*
+     * Recovery and legacy import of the log-structured table. Each test works in its own directory under a temporary
+     * directory, which is removed afterwards.
+     *
+     * java -cp bin cis5550.test.SegmentedTableTest [all | test...]
+     */
+    private static final String[] TESTS = {"replay", "torntail", "corruptkey", "corruptlength", "legacy"};
+
+    private File theDirectory;
+
+    void runSetup() throws IOException {
+        theDirectory = Files.createTempDirectory("segmented-table-test").toFile();
+    }
+
+    void cleanup() {
+        deleteRecursively(theDirectory);
+    }
+
+    void runTests(Set<String> aTests) throws Exception {
+        System.out.printf("\n%-10s%-40sResult\n", "Test", "Description");
+        System.out.println("--------------------------------------------------------");
+
+        if (aTests.contains("replay")) try {
+            startTest("replay", "Replay the log after the checkpoint", 5);
+            File myDirectory = new File(theDirectory, "replay");
+            SegmentedTable myTable = SegmentedTable.open(myDirectory);
+            for (int i = 0; i < 100; i++) {
+                myTable.putRow("key" + i, row("key" + i, "v" + i));
+            }
+            myTable.checkpoint();
+            for (int i = 90; i < 150; i++) {
+                myTable.putRow("key" + i, row("key" + i, "w" + i));
+            }
+
+            // the first table is never closed, as if the worker had died after its last write
+            SegmentedTable myRecovered = SegmentedTable.open(myDirectory);
+            if (myRecovered.count() != 150) {
+                testFailed("Expected 150 rows after recovery, but found " + myRecovered.count());
+            }
+            for (int i = 0; i < 150; i++) {
+                String myExpected = (i < 90 ? "v" : "w") + i;
+                Row myRow = myRecovered.get("key" + i);
+                if (myRow == null || !myExpected.equals(myRow.get("value"))) {
+                    testFailed("Expected key" + i + " to have value " + myExpected + ", but got " + myRow);
+                }
+            }
+            myRecovered.close();
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("torntail")) try {
+            startTest("torntail", "Truncate a torn record at the tail", 5);
+            File myDirectory = new File(theDirectory, "torntail");
+            writeRows(myDirectory, 20);
+            File mySegment = lastSegment(myDirectory);
+            long myLength = mySegment.length();
+            try (RandomAccessFile myFile = new RandomAccessFile(mySegment, "rw")) {
+                myFile.seek(myLength);
+                myFile.write(new byte[]{0, 0, 0, 0, 0, 0, 0, 42, 0, 0});
+            }
+
+            SegmentedTable myTable = SegmentedTable.open(myDirectory);
+            if (myTable.count() != 20) {
+                testFailed("Expected 20 rows after recovery, but found " + myTable.count());
+            }
+            if (mySegment.length() != myLength) {
+                testFailed("Expected the torn tail to be truncated to " + myLength + " bytes, but the segment has "
+                        + mySegment.length());
+            }
+            myTable.close();
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("corruptkey")) try {
+            startTest("corruptkey", "Detect a corrupt key with the checksum", 5);
+            File myDirectory = new File(theDirectory, "corruptkey");
+            writeRows(myDirectory, 20);
+            new File(myDirectory, SegmentedTable.INDEX_FILE).delete();
+            File mySegment = lastSegment(myDirectory);
+            long myOffset = mySegment.length() - lastRecordLength(19);
+            try (RandomAccessFile myFile = new RandomAccessFile(mySegment, "rw")) {
+                myFile.seek(myOffset + Segment.HEADER_SIZE);
+                myFile.write('X');
+            }
+
+            SegmentedTable myTable = SegmentedTable.open(myDirectory);
+            if (myTable.count() != 19 || myTable.get("key19") != null || myTable.get("Xey19") != null) {
+                testFailed("Expected the record with the corrupt key to be dropped, but the table has "
+                        + myTable.keys().keySet());
+            }
+            myTable.close();
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("corruptlength")) try {
+            startTest("corruptlength", "Reject a corrupt record length", 5);
+            File myDirectory = new File(theDirectory, "corruptlength");
+            writeRows(myDirectory, 20);
+            new File(myDirectory, SegmentedTable.INDEX_FILE).delete();
+            File mySegment = lastSegment(myDirectory);
+            long myOffset = mySegment.length() - lastRecordLength(19);
+            try (RandomAccessFile myFile = new RandomAccessFile(mySegment, "rw")) {
+                myFile.seek(myOffset + 8);
+                myFile.writeInt(Integer.MAX_VALUE);
+                myFile.writeInt(Integer.MAX_VALUE);
+            }
+
+            SegmentedTable myTable = SegmentedTable.open(myDirectory);
+            if (myTable.count() != 19 || myTable.get("key19") != null) {
+                testFailed("Expected the record with the corrupt lengths to be dropped, but the table has "
+                        + myTable.count() + " rows");
+            }
+            myTable.close();
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("legacy")) try {
+            startTest("legacy", "Import legacy row files", 5);
+            File myDirectory = new File(theDirectory, "legacy");
+            File mySubdirectory = new File(myDirectory, "__ab");
+            mySubdirectory.mkdirs();
+            FileIOUtils.writeRowToFile(new File(myDirectory, "alpha").getPath(), row("alpha", "1"));
+            FileIOUtils.writeRowToFile(new File(myDirectory, "beta").getPath(), row("beta", "2"));
+            FileIOUtils.writeRowToFile(new File(mySubdirectory, "abcdef").getPath(), row("abcdef", "3"));
+            Files.writeString(new File(myDirectory, "broken").toPath(), "broken value notanumber x");
+
+            SegmentedTable myTable = SegmentedTable.open(myDirectory);
+            myTable.close();
+            myTable = SegmentedTable.open(myDirectory);
+            for (String myKey : new String[]{"alpha", "beta", "abcdef"}) {
+                if (myTable.get(myKey) == null) {
+                    testFailed("Expected legacy row " + myKey + " to be imported, but it is missing");
+                }
+            }
+            if (myTable.count() != 3) {
+                testFailed("Expected 3 imported rows, but found " + myTable.count());
+            }
+            if (new File(myDirectory, "alpha").exists() || mySubdirectory.exists()) {
+                testFailed("Expected the imported legacy files to be removed");
+            }
+            if (new File(myDirectory, "broken").exists()
+                    || !new File(new File(myDirectory, SegmentedTable.QUARANTINE_DIRECTORY), "broken").exists()) {
+                testFailed("Expected the unreadable legacy file to be moved to "
+                        + SegmentedTable.QUARANTINE_DIRECTORY);
+            }
+            myTable.close();
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        System.out.println("--------------------------------------------------------\n");
+        if (numTestsFailed == 0) {
+            System.out.println("Looks like your solution passed all of the selected tests. Congratulations!");
+        } else {
+            System.out.println(numTestsFailed + " test(s) failed.");
+        }
+    }
+
+    private static Row row(String aKey, String aValue) {
+        Row myRow = new Row(aKey);
+        myRow.put("value", aValue);
+        return myRow;
+    }
+
+    private static void writeRows(File aDirectory, int aNumRows) throws IOException {
+        SegmentedTable myTable = SegmentedTable.open(aDirectory);
+        for (int i = 0; i < aNumRows; i++) {
+            myTable.putRow("key" + i, row("key" + i, "v" + i));
+        }
+        myTable.close();
+    }
+
+    private static int lastRecordLength(int aIndex) {
+        return Segment.encode(0, "key" + aIndex, row("key" + aIndex, "v" + aIndex).toByteArray()).remaining();
+    }
+
+    private static File lastSegment(File aDirectory) {
+        File myLast = null;
+        for (File myFile : aDirectory.listFiles()) {
+            int myId = Segment.idFromFileName(myFile.getName());
+            if (myId >= 0 && myFile.length() > 0
+                    && (myLast == null || myId > Segment.idFromFileName(myLast.getName()))) {
+                myLast = myFile;
+            }
+        }
+        return myLast;
+    }
+
+    private static void deleteRecursively(File aFile) {
+        File[] myFiles = aFile.listFiles();
+        if (myFiles != null) {
+            for (File myFile : myFiles) {
+                deleteRecursively(myFile);
+            }
+        }
+        aFile.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Set<String> myTests = new TreeSet<>();
+        for (String myArg : args) {
+            if (!myArg.equals("all")) {
+                myTests.add(myArg);
+            }
+        }
+        if (myTests.isEmpty()) {
+            myTests.addAll(Set.of(TESTS));
+        }
+
+        SegmentedTableTest myTest = new SegmentedTableTest();
+        myTest.setExitUponFailure(false);
+        myTest.runSetup();
+        myTest.runTests(myTests);
+        myTest.cleanup();
+        System.exit(myTest.numTestsFailed == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,215 @@
+package cis5550.test;
+
+import cis5550.flame.FlamePair;
+import cis5550.flame.FlamePairRDD;
+import cis5550.flame.Shuffle;
+import cis5550.flame.ShuffleStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class ShuffleStoreTest extends GenericTest {
+    /*
+     * The map side of the worker-to-worker shuffle: folding into buckets, spilling under a small memory budget,
+     * serving merged buckets, and dropping map outputs when a task fails or the shuffle is released. Each test uses
+     * its own spill directory under a temporary directory, which is removed afterwards.
+     *
+     * java -cp bin cis5550.test.ShuffleStoreTest [all | test...]
+     */
+    private static final String[] TESTS = {"fold", "spill", "abort", "release"};
+    private static final List<String> SPLIT_KEYS = List.of("k1", "k2");
+    private static final FlamePairRDD.TwoStringsToString SUM =
+            (a, b) -> "" + (Integer.parseInt(a) + Integer.parseInt(b));
+
+    private File theDirectory;
+
+    void runSetup() throws IOException {
+        theDirectory = Files.createTempDirectory("shuffle-store-test").toFile();
+    }
+
+    void cleanup() {
+        deleteRecursively(theDirectory);
+    }
+
+    void runTests(Set<String> aTests) throws Exception {
+        System.out.printf("\n%-10s%-40sResult\n", "Test", "Description");
+        System.out.println("--------------------------------------------------------");
+
+        if (aTests.contains("fold")) try {
+            startTest("fold", "Fold pairs into per-partition buckets", 5);
+            ShuffleStore myStore = new ShuffleStore(new File(theDirectory, "fold"), 1 << 30);
+            ShuffleStore.MapOutput myOutput = myStore.newMapOutput("s", SPLIT_KEYS, SUM, "0");
+            for (String myKey : new String[]{"a", "k1", "k15", "k2", "z", "a", "k15", "z", "z"}) {
+                myOutput.accept("input", new FlamePair(myKey, "1"));
+            }
+            myOutput.flush();
+
+            expectBucket(myStore, "s", null, "{a=[2]}");
+            expectBucket(myStore, "s", "k1", "{k1=[1], k15=[2]}");
+            expectBucket(myStore, "s", "k2", "{k2=[1], z=[3]}");
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("spill")) try {
+            startTest("spill", "Spill buckets that outgrow the budget", 5);
+            File myDirectory = new File(theDirectory, "spill");
+            long myBudget = 64 * 1024;
+            ShuffleStore myStore = new ShuffleStore(myDirectory, myBudget);
+            for (int myTask = 0; myTask < 2; myTask++) {
+                ShuffleStore.MapOutput myOutput = myStore.newMapOutput("s", SPLIT_KEYS, SUM, "0");
+                for (int i = 0; i < 5000; i++) {
+                    myOutput.accept("input", new FlamePair("k1" + (i % 2000), "1"));
+                }
+                myOutput.flush();
+                if (myStore.memoryBytes() > myBudget) {
+                    testFailed("Expected at most " + myBudget + " bytes in memory after a task, but the store holds "
+                            + myStore.memoryBytes());
+                }
+            }
+            if (numFiles(myDirectory) == 0) {
+                testFailed("Expected the map outputs to be spilled, but " + myDirectory + " is empty");
+            }
+
+            // each task saw k1<i> three times for i < 1000 and twice otherwise, possibly split across spills
+            int myNumKeys = 0;
+            try (Shuffle.Run myBucket = myStore.openBucket("s", "k1")) {
+                TreeMap<String, Integer> mySums = new TreeMap<>();
+                String myPreviousKey = "";
+                while (myBucket.next()) {
+                    if (myBucket.key().compareTo(myPreviousKey) < 0) {
+                        testFailed("Expected the bucket in key order, but " + myBucket.key() + " came after "
+                                + myPreviousKey);
+                    }
+                    myPreviousKey = myBucket.key();
+                    mySums.merge(myBucket.key(), Integer.parseInt(myBucket.value()), Integer::sum);
+                }
+                for (int i = 0; i < 2000; i++) {
+                    Integer mySum = mySums.get("k1" + i);
+                    int myExpected = i < 1000 ? 6 : 4;
+                    if (mySum == null || mySum != myExpected) {
+                        testFailed("Expected k1" + i + " to fold to " + myExpected + ", but got " + mySum);
+                    }
+                    myNumKeys++;
+                }
+                if (mySums.size() != myNumKeys) {
+                    testFailed("Expected " + myNumKeys + " keys in the bucket, but found " + mySums.size());
+                }
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("abort")) try {
+            startTest("abort", "Drop the output of a failed map task", 5);
+            File myDirectory = new File(theDirectory, "abort");
+            ShuffleStore myStore = new ShuffleStore(myDirectory, 16 * 1024);
+            ShuffleStore.MapOutput myOutput = myStore.newMapOutput("s", SPLIT_KEYS, SUM, "0");
+            for (int i = 0; i < 3000; i++) {
+                myOutput.accept("input", new FlamePair("a" + i, "1"));
+            }
+            if (numFiles(myDirectory) == 0) {
+                testFailed("Expected the task to spill before it failed, but " + myDirectory + " is empty");
+            }
+            myOutput.abort();
+
+            if (numFiles(myDirectory) != 0) {
+                testFailed("Expected the spill files of the failed task to be deleted, but " + numFiles(myDirectory)
+                        + " are left");
+            }
+            if (myStore.memoryBytes() != 0) {
+                testFailed("Expected no memory in use after the abort, but the store holds " + myStore.memoryBytes());
+            }
+            expectBucket(myStore, "s", null, "{}");
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        if (aTests.contains("release")) try {
+            startTest("release", "Release a shuffle's spills and memory", 5);
+            File myDirectory = new File(theDirectory, "release");
+            ShuffleStore myStore = new ShuffleStore(myDirectory, 16 * 1024);
+            for (String myShuffleId : new String[]{"s", "t"}) {
+                ShuffleStore.MapOutput myOutput = myStore.newMapOutput(myShuffleId, SPLIT_KEYS, SUM, "0");
+                for (int i = 0; i < 3000; i++) {
+                    myOutput.accept("input", new FlamePair("z" + i, "1"));
+                }
+                myOutput.accept("input", new FlamePair("a", "1"));
+                myOutput.flush();
+            }
+            int mySpillsOfBoth = numFiles(myDirectory);
+            myStore.release("s");
+
+            expectBucket(myStore, "s", null, "{}");
+            expectBucket(myStore, "t", null, "{a=[1]}");
+            if (numFiles(myDirectory) == 0 || numFiles(myDirectory) >= mySpillsOfBoth) {
+                testFailed("Expected only the spills of the released shuffle to be deleted, but "
+                        + numFiles(myDirectory) + " of " + mySpillsOfBoth + " are left");
+            }
+            myStore.release("t");
+            if (numFiles(myDirectory) != 0 || myStore.memoryBytes() != 0) {
+                testFailed("Expected no spills and no memory in use after both releases, but found "
+                        + numFiles(myDirectory) + " spills and " + myStore.memoryBytes() + " bytes");
+            }
+            testSucceeded();
+        } catch (Exception e) { testFailed("An exception occurred: " + e, false); e.printStackTrace(); }
+
+        System.out.println("--------------------------------------------------------\n");
+        if (numTestsFailed == 0) {
+            System.out.println("Looks like your solution passed all of the selected tests. Congratulations!");
+        } else {
+            System.out.println(numTestsFailed + " test(s) failed.");
+        }
+    }
+
+    private void expectBucket(ShuffleStore aStore, String aShuffleId, String aFromKey, String aExpected)
+            throws Exception {
+        TreeMap<String, List<String>> myPartials = new TreeMap<>();
+        try (Shuffle.Run myBucket = aStore.openBucket(aShuffleId, aFromKey)) {
+            while (myBucket.next()) {
+                myPartials.computeIfAbsent(myBucket.key(), k -> new ArrayList<>()).add(myBucket.value());
+            }
+        }
+        if (!myPartials.toString().equals(aExpected)) {
+            testFailed("Expected the bucket from " + aFromKey + " of shuffle " + aShuffleId + " to be " + aExpected
+                    + ", but got " + myPartials);
+        }
+    }
+
+    private static int numFiles(File aDirectory) {
+        File[] myFiles = aDirectory.listFiles();
+        return myFiles == null ? 0 : myFiles.length;
+    }
+
+    private static void deleteRecursively(File aFile) {
+        File[] myFiles = aFile.listFiles();
+        if (myFiles != null) {
+            for (File myFile : myFiles) {
+                deleteRecursively(myFile);
+            }
+        }
+        aFile.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Set<String> myTests = new TreeSet<>();
+        for (String myArg : args) {
+            if (!myArg.equals("all")) {
+                myTests.add(myArg);
+            }
+        }
+        if (myTests.isEmpty()) {
+            myTests.addAll(Set.of(TESTS));
+        }
+
+        ShuffleStoreTest myTest = new ShuffleStoreTest();
+        myTest.setExitUponFailure(false);
+        myTest.runSetup();
+        myTest.runTests(myTests);
+        myTest.cleanup();
+        System.exit(myTest.numTestsFailed == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,131 @@
+package cis5550.tools;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, thread-safe Bloom filter over strings. It is sized for an expected number of insertions and a target
+ * false positive rate; callers that outgrow {@link #capacity()} should start a new filter rather than keep adding.
+ */
+public class BloomFilter {
+    private final AtomicLongArray theBits;
+    private final long theNumBits;
+    private final int theNumHashes;
+    private final int theCapacity;
+    private final AtomicInteger theInsertions;
+
+    private BloomFilter(long[] aBits, int aNumHashes, int aCapacity, int aInsertions) {
+        theBits = new AtomicLongArray(aBits);
+        theNumBits = (long) aBits.length * Long.SIZE;
+        theNumHashes = aNumHashes;
+        theCapacity = aCapacity;
+        theInsertions = new AtomicInteger(aInsertions);
+    }
+
+    public BloomFilter(int aCapacity, double aFalsePositiveRate) {
+        this(new long[numLongs(aCapacity, aFalsePositiveRate)],
+                numHashes(aCapacity, aFalsePositiveRate), aCapacity, 0);
+    }
+
+    private static int numLongs(int aCapacity, double aFalsePositiveRate) {
+        double myBits = -Math.max(aCapacity, 1) * Math.log(aFalsePositiveRate) / (Math.log(2) * Math.log(2));
+        return (int) Math.max(1, Math.ceil(myBits / Long.SIZE));
+    }
+
+    private static int numHashes(int aCapacity, double aFalsePositiveRate) {
+        double myBits = (double) numLongs(aCapacity, aFalsePositiveRate) * Long.SIZE;
+        return Math.max(1, (int) Math.round(myBits / Math.max(aCapacity, 1) * Math.log(2)));
+    }
+
+    /**
+     * Adds the key and returns true if it was definitely not in the filter before.
+     */
+    public boolean add(String aKey) {
+        long myHash = hash(aKey);
+        int myHash1 = (int) myHash;
+        int myHash2 = (int) (myHash >>> 32);
+        boolean myChanged = false;
+
+        for (int i = 1; i <= theNumHashes; i++) {
+            long myBit = Math.floorMod(myHash1 + (long) i * myHash2, theNumBits);
+            int myIndex = (int) (myBit >>> 6);
+            long myMask = 1L << (myBit & 63);
+            if ((theBits.get(myIndex) & myMask) == 0) {
+                theBits.getAndUpdate(myIndex, aWord -> aWord | myMask);
+                myChanged = true;
+            }
+        }
+        if (myChanged) {
+            theInsertions.incrementAndGet();
+        }
+        return myChanged;
+    }
+
+    public boolean mightContain(String aKey) {
+        long myHash = hash(aKey);
+        int myHash1 = (int) myHash;
+        int myHash2 = (int) (myHash >>> 32);
+
+        for (int i = 1; i <= theNumHashes; i++) {
+            long myBit = Math.floorMod(myHash1 + (long) i * myHash2, theNumBits);
+            if ((theBits.get((int) (myBit >>> 6)) & (1L << (myBit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int capacity() {
+        return theCapacity;
+    }
+
+    public int size() {
+        return theInsertions.get();
+    }
+
+    public boolean isFull() {
+        return theInsertions.get() >= theCapacity;
+    }
+
+    public void writeTo(DataOutput aOutput) throws IOException {
+        aOutput.writeInt(theCapacity);
+        aOutput.writeInt(theNumHashes);
+        aOutput.writeInt(theInsertions.get());
+        aOutput.writeInt(theBits.length());
+        for (int i = 0; i < theBits.length(); i++) {
+            aOutput.writeLong(theBits.get(i));
+        }
+    }
+
+    public static BloomFilter readFrom(DataInput aInput) throws IOException {
+        int myCapacity = aInput.readInt();
+        int myNumHashes = aInput.readInt();
+        int myInsertions = aInput.readInt();
+        long[] myBits = new long[aInput.readInt()];
+        for (int i = 0; i < myBits.length; i++) {
+            myBits[i] = aInput.readLong();
+        }
+        return new BloomFilter(myBits, myNumHashes, myCapacity, myInsertions);
+    }
+
+    /**
+     * 64-bit FNV-1a followed by the MurmurHash3 finalizer; the two halves seed the double hashing above.
+     */
+    static long hash(String aKey) {
+        long myHash = 0xcbf29ce484222325L;
+        for (byte myByte : aKey.getBytes(StandardCharsets.UTF_8)) {
+            myHash ^= myByte;
+            myHash *= 0x100000001b3L;
+        }
+        myHash ^= myHash >>> 33;
+        myHash *= 0xff51afd7ed558ccdL;
+        myHash ^= myHash >>> 33;
+        myHash *= 0xc4ceb9fe1a85ec53L;
+        myHash ^= myHash >>> 33;
+        return myHash;
+    }
+}
@@ -36,20 +36,24 @@ public class Denylist {
         if (aTableName == null) {
             return new Denylist(List.of());
         }
-        Iterator<Row> myBlockedPatternRows;
+        KVSClient.ParallelKVSIterator myBlockedPatternRows;
         try {
-            myBlockedPatternRows = aKVSClient.scan(aTableName);
+            myBlockedPatternRows = aKVSClient.parallelScan(aTableName, false);
         } catch (Exception e) {
             return new Denylist(List.of());
         }
         List<Pattern> myPatterns = new LinkedList<>();
-        while (myBlockedPatternRows.hasNext()) {
-            Row myRow = myBlockedPatternRows.next();
-            if (myRow.get(COLUMN_NAME) != null) {
-                Pattern myPattern =
-                        Pattern.compile(myRow.get(COLUMN_NAME).replace("*", ".*"), Pattern.CASE_INSENSITIVE);
-                myPatterns.add(myPattern);
+        try {
+            while (myBlockedPatternRows.hasNext()) {
+                Row myRow = myBlockedPatternRows.next();
+                if (myRow.get(COLUMN_NAME) != null) {
+                    Pattern myPattern =
+                            Pattern.compile(myRow.get(COLUMN_NAME).replace("*", ".*"), Pattern.CASE_INSENSITIVE);
+                    myPatterns.add(myPattern);
+                }
             }
+        } finally {
+            myBlockedPatternRows.close();
         }
         return new Denylist(myPatterns);
     }
@@ -0,0 +1,362 @@
+package cis5550.tools;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs fetch tasks for many URLs at once, each on its own virtual thread, so a slow host only holds up its own URLs.
+ * At most a fixed number of tasks run at a time across all callers, and a smaller number per host; further URLs for a
+ * busy host wait in that host's queue. Once that queue is full, or would take the host longer than a fixed wait to work
+ * through at its crawl delay, URLs for the host are handed back unchanged as output. A very hot host thus only gets
+ * the share of a run that its crawl delay allows, and the caller can retry the rest later.
+ * <p>
+ * The engine is also the politeness scheduler of its process. Each host has a time before which none of its URLs are
+ * started, which a task moves forward with {@link #markFetched} when it contacts the host. Hosts that wait for that
+ * time sit in a queue ordered by it, and a dispatcher thread starts their next URL when it arrives. A {@link HostLog}
+ * provides the time of hosts the engine does not know yet and receives the times of the hosts fetched since, so the
+ * shared store is read once per host and written in batches.
+ * <p>
+ * Outputs come back through the iterator returned by {@link #run}, one batch per finished task, in completion order.
+ */
+public class FetchEngine {
+    private static final Logger LOGGER = Logger.getLogger(FetchEngine.class);
+
+    public interface Task {
+        Iterable<String> fetch(String aUrl) throws Exception;
+    }
+
+    /**
+     * Keeps the times before which hosts must not be contacted again, between runs and across processes.
+     */
+    public interface HostLog {
+        long nextAllowedTime(String aHost) throws Exception;
+
+        void checkpoint(Map<String, Long> aNextAllowedTimes) throws Exception;
+    }
+
+    private final int theMaxPerHost;
+    private final int theMaxQueuedPerHost;
+    private final long theMaxWaitMillis;
+    private final Semaphore theInFlight;
+    private final ConcurrentMap<String, HostState> theHosts = new ConcurrentHashMap<>();
+    private final DelayQueue<Wakeup> theWakeups = new DelayQueue<>();
+    private final Map<String, Long> theUncheckpointed = new HashMap<>();
+    private final ExecutorService theExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public FetchEngine(int aMaxInFlight, int aMaxPerHost, int aMaxQueuedPerHost, long aMaxWaitMillis) {
+        theMaxPerHost = aMaxPerHost;
+        theMaxQueuedPerHost = aMaxQueuedPerHost;
+        theMaxWaitMillis = aMaxWaitMillis;
+        theInFlight = new Semaphore(aMaxInFlight);
+        Thread.ofVirtual().name("fetch-dispatcher").start(this::dispatch);
+    }
+
+    /**
+     * Starts aTask for every URL of aUrls once its host allows, and returns the concatenation of their outputs. aUrls
+     * is read on a separate thread as fast as tasks can be started or queued. aHostLog is checkpointed, with the times
+     * of the hosts fetched since the last checkpoint, before the returned iterator ends.
+     */
+    public Iterator<String> run(
+            Iterator<String> aUrls, Function<String, String> aHostOf, Task aTask, HostLog aHostLog) {
+        Run myRun = new Run(aTask, aHostLog);
+        Thread.ofVirtual().name("fetch-feeder").start(() -> {
+            try {
+                while (aUrls.hasNext()) {
+                    String myUrl = aUrls.next();
+                    submit(myRun, myUrl, hostOf(aHostOf, myUrl));
+                }
+            } catch (Exception e) {
+                LOGGER.error("Failed to read URLs to fetch", e);
+            } finally {
+                myRun.theFeederDone = true;
+                finishIfDone(myRun);
+            }
+        });
+        return myRun;
+    }
+
+    /**
+     * Records that a task has just contacted aHost, so that its next URL is not started until aDelayMillis from now.
+     */
+    public void markFetched(String aHost, long aDelayMillis) {
+        HostState myHost = theHosts.get(aHost);
+        if (myHost == null) {
+            return;
+        }
+        long myNextAllowed;
+        synchronized (myHost) {
+            myHost.theDelay = aDelayMillis;
+            myHost.theNextAllowed = Math.max(myHost.theNextAllowed, System.currentTimeMillis() + aDelayMillis);
+            myNextAllowed = myHost.theNextAllowed;
+        }
+        synchronized (theUncheckpointed) {
+            theUncheckpointed.put(aHost, myNextAllowed);
+        }
+    }
+
+    private static String hostOf(Function<String, String> aHostOf, String aUrl) {
+        try {
+            String myHost = aHostOf.apply(aUrl);
+            return myHost == null ? "" : myHost;
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    private HostState hostState(String aHost, HostLog aHostLog) {
+        HostState myHost = theHosts.get(aHost);
+        if (myHost != null) {
+            return myHost;
+        }
+        long myNextAllowed = 0;
+        try {
+            myNextAllowed = aHostLog.nextAllowedTime(aHost);
+        } catch (Exception e) {
+            LOGGER.error("Failed to read the next allowed time of " + aHost, e);
+        }
+        HostState myNew = new HostState(aHost, myNextAllowed);
+        myHost = theHosts.putIfAbsent(aHost, myNew);
+        return myHost == null ? myNew : myHost;
+    }
+
+    private void submit(Run aRun, String aUrl, String aHost) throws InterruptedException {
+        Pending myPending = new Pending(aRun, aUrl);
+        HostState myHost;
+        while (true) {
+            myHost = hostState(aHost, aRun.theHostLog);
+            synchronized (myHost) {
+                // the dispatcher may have just forgotten the host; look it up again
+                if (myHost.theRemoved) {
+                    continue;
+                }
+                if (myHost.theQueue.isEmpty() && myHost.theRunning < theMaxPerHost && myHost.isAllowed()) {
+                    myHost.theRunning++;
+                    break;
+                }
+                if (myHost.theQueue.size() >= theMaxQueuedPerHost
+                        || (myHost.theQueue.size() + 1) * myHost.theDelay > theMaxWaitMillis) {
+                    aRun.theResults.add(List.of(aUrl));
+                    return;
+                }
+                aRun.theOutstanding.incrementAndGet();
+                myHost.theQueue.add(myPending);
+                if (myHost.theRunning == 0) {
+                    wakeAt(myHost);
+                }
+                return;
+            }
+        }
+        aRun.theOutstanding.incrementAndGet();
+        start(myHost, myPending);
+    }
+
+    private void start(HostState aHost, Pending aPending) throws InterruptedException {
+        theInFlight.acquire();
+        theExecutor.execute(() -> {
+            List<String> myOutput = new ArrayList<>();
+            try {
+                Iterable<String> myResults = aPending.theRun.theTask.fetch(aPending.theUrl);
+                if (myResults != null) {
+                    myResults.forEach(myOutput::add);
+                }
+            } catch (Exception e) {
+                LOGGER.error("Failed to fetch " + aPending.theUrl, e);
+            } finally {
+                // also after an Error, or the host would stay busy and the run would never end
+                theInFlight.release();
+                aPending.theRun.theResults.add(myOutput);
+                finished(aHost, aPending.theRun);
+            }
+        });
+    }
+
+    private void finished(HostState aHost, Run aRun) {
+        Pending myNext;
+        synchronized (aHost) {
+            aHost.theRunning--;
+            myNext = next(aHost);
+        }
+        startNext(aHost, myNext);
+        aRun.theOutstanding.decrementAndGet();
+        finishIfDone(aRun);
+    }
+
+    private void dispatch() {
+        while (true) {
+            HostState myHost;
+            try {
+                myHost = theWakeups.take().theHost();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Pending myNext;
+            synchronized (myHost) {
+                myHost.theWakeupPending = false;
+                myNext = next(myHost);
+            }
+            startNext(myHost, myNext);
+        }
+    }
+
+    /**
+     * Takes the next URL of aHost if it may start now. Otherwise makes sure the dispatcher looks at the host again
+     * once it may, or forgets the host if it is idle and its time has passed. Called while holding aHost.
+     */
+    private Pending next(HostState aHost) {
+        if (!aHost.theQueue.isEmpty() && aHost.theRunning < theMaxPerHost && aHost.isAllowed()) {
+            aHost.theRunning++;
+            return aHost.theQueue.poll();
+        }
+        if (aHost.theRunning == 0) {
+            if (aHost.theQueue.isEmpty() && aHost.isAllowed()) {
+                aHost.theRemoved = true;
+                theHosts.remove(aHost.theName, aHost);
+            } else {
+                wakeAt(aHost);
+            }
+        }
+        return null;
+    }
+
+    private void wakeAt(HostState aHost) {
+        if (!aHost.theWakeupPending) {
+            aHost.theWakeupPending = true;
+            theWakeups.add(new Wakeup(aHost.theNextAllowed, aHost));
+        }
+    }
+
+    private void startNext(HostState aHost, Pending aNext) {
+        if (aNext == null) {
+            return;
+        }
+        try {
+            start(aHost, aNext);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            synchronized (aHost) {
+                aHost.theRunning--;
+            }
+            aNext.theRun.theResults.add(List.of(aNext.theUrl));
+            aNext.theRun.theOutstanding.decrementAndGet();
+            finishIfDone(aNext.theRun);
+        }
+    }
+
+    private void finishIfDone(Run aRun) {
+        if (!aRun.theFeederDone || aRun.theOutstanding.get() != 0 || !aRun.theFinished.compareAndSet(false, true)) {
+            return;
+        }
+        Map<String, Long> myTimes;
+        synchronized (theUncheckpointed) {
+            myTimes = new HashMap<>(theUncheckpointed);
+            theUncheckpointed.clear();
+        }
+        try {
+            aRun.theHostLog.checkpoint(myTimes);
+        } catch (Exception e) {
+            LOGGER.error("Failed to checkpoint the next allowed times of " + myTimes.size() + " hosts", e);
+        }
+        aRun.theResults.add(Run.END);
+    }
+
+    private static class HostState {
+        private final String theName;
+        private final Deque<Pending> theQueue = new ArrayDeque<>();
+        private int theRunning = 0;
+        private long theNextAllowed;
+        private long theDelay = 0;
+        private boolean theWakeupPending = false;
+        private boolean theRemoved = false;
+
+        private HostState(String aName, long aNextAllowed) {
+            theName = aName;
+            theNextAllowed = aNextAllowed;
+        }
+
+        private boolean isAllowed() {
+            return System.currentTimeMillis() >= theNextAllowed;
+        }
+    }
+
+    private record Pending(Run theRun, String theUrl) {
+    }
+
+    private record Wakeup(long theTime, HostState theHost) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit aUnit) {
+            return aUnit.convert(theTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed aOther) {
+            return Long.compare(theTime, ((Wakeup) aOther).theTime);
+        }
+    }
+
+    /**
+     * The tasks started by one call to run(), and the iterator over their outputs.
+     */
+    private static class Run implements Iterator<String> {
+        private static final List<String> END = Collections.emptyList();
+
+        private final Task theTask;
+        private final HostLog theHostLog;
+        private final BlockingQueue<List<String>> theResults = new LinkedBlockingQueue<>();
+        private final AtomicInteger theOutstanding = new AtomicInteger();
+        private final AtomicBoolean theFinished = new AtomicBoolean();
+        private volatile boolean theFeederDone = false;
+        private Iterator<String> theBatch = Collections.emptyIterator();
+        private boolean theAtEnd = false;
+
+        private Run(Task aTask, HostLog aHostLog) {
+            theTask = aTask;
+            theHostLog = aHostLog;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!theBatch.hasNext() && !theAtEnd) {
+                try {
+                    List<String> myBatch = theResults.take();
+                    if (myBatch == END) {
+                        theAtEnd = true;
+                    } else {
+                        theBatch = myBatch.iterator();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    theAtEnd = true;
+                }
+            }
+            return theBatch.hasNext();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return theBatch.next();
+        }
+    }
+}
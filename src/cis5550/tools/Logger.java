@@ -2,14 +2,19 @@ package cis5550.tools;
 
 import java.util.*;
 import java.io.*;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 public class Logger {
 
   protected static HashMap<String,Logger> prefixToLogger = null;
   protected static PrintWriter logfile = null;
   protected static Logger defaultLogger = null;
-  protected static SimpleDateFormat dateFormat = null;
 
   protected static final int ALL = 6;
   protected static final int DEBUG = 5;
@@ -25,43 +30,166 @@ public class Logger {
   	upToLevel = upToLevelArg;
   }
 
+  /* Log lines are handed to a single writer thread through a fixed ring of reusable entries, so a caller only
+     copies a few references under a short lock instead of formatting and doing file I/O while holding a global
+     monitor. When the ring is full, callers wait for the writer rather than drop lines. */
+
+  protected static final int RING_SIZE = 8192;
+  protected static final int SHUTDOWN_FLUSH_MILLIS = 2000;
+
+  protected static class Entry {
+    long time;
+    String threadName;
+    int level;
+    String message;
+    Throwable throwable;
+  }
+
+  protected static Entry[] ring = null;
+  protected static int ringHead = 0;
+  protected static int ringCount = 0;
+  protected static final ReentrantLock ringLock = new ReentrantLock();
+  protected static final Condition ringNotEmpty = ringLock.newCondition();
+  protected static final Condition ringNotFull = ringLock.newCondition();
+  protected static DateTimeFormatter dateFormat = null;
+
+  protected boolean isEnabled(int level) {
+    return (upToLevel != OFF) && (level <= upToLevel);
+  }
+
+  public boolean isDebugEnabled() {
+    return isEnabled(DEBUG);
+  }
+
+  public boolean isInfoEnabled() {
+    return isEnabled(INFO);
+  }
+
   protected void write(int level, String line, Throwable t) {
-    if ((upToLevel == OFF) || (level > upToLevel))
+    if (!isEnabled(level))
     	return;
 
+    long now = System.currentTimeMillis();
+    String threadName = Thread.currentThread().getName();
+    ringLock.lock();
+    try {
+      while (ringCount == ring.length)
+        ringNotFull.awaitUninterruptibly();
+      Entry e = ring[(ringHead + ringCount) % ring.length];
+      e.time = now;
+      e.threadName = threadName;
+      e.level = level;
+      e.message = line;
+      e.throwable = t;
+      ringCount ++;
+      if (ringCount == 1)
+        ringNotEmpty.signal();
+    } finally {
+      ringLock.unlock();
+    }
+  }
+
+  protected void write(int level, Supplier<String> message, Throwable t) {
+    if (isEnabled(level))
+      write(level, message.get(), t);
+  }
+
+  protected static void runWriter() {
+    StringBuilder sb = new StringBuilder();
+    while (true) {
+      int head, count;
+      ringLock.lock();
+      try {
+        while (ringCount == 0)
+          ringNotEmpty.awaitUninterruptibly();
+        head = ringHead;
+        count = ringCount;
+      } finally {
+        ringLock.unlock();
+      }
+
+      /* Entries between head and head+count are not touched by callers until we release them below. An entry that
+         cannot be written is reported and dropped; if it stopped the writer, every caller would block on a full ring. */
+      for (int i=0; i<count; i++) {
+        Entry e = ring[(head + i) % ring.length];
+        try {
+          writeEntry(e, sb);
+        } catch (Throwable t) {
+          System.err.println("Logger: failed to write a log entry from thread " + e.threadName + ": " + t);
+        } finally {
+          e.threadName = null;
+          e.message = null;
+          e.throwable = null;
+        }
+      }
+      if (logfile != null)
+        logfile.flush();
+      System.err.flush();
+
+      ringLock.lock();
+      try {
+        ringHead = (head + count) % ring.length;
+        ringCount -= count;
+        ringNotFull.signalAll();
+      } finally {
+        ringLock.unlock();
+      }
+    }
+  }
+
+  protected static void writeEntry(Entry e, StringBuilder sb) {
+    sb.setLength(0);
+    dateFormat.formatTo(Instant.ofEpochMilli(e.time), sb);
+    sb.append(' ').append(e.threadName);
+    while (sb.length() < 30)
+      sb.append(' ');
+    if (e.level == WARN)
+    	sb.append("WARNING: ");
+    else if (e.level == ERROR)
+    	sb.append("ERROR: ");
+    else if (e.level == FATAL)
+    	sb.append("FATAL: ");
+    else if (e.level == DEBUG)
+    	sb.append("  ");
+    sb.append(e.message);
+
     String stackTrace = null;
-    if (t != null) {
+    if (e.throwable != null) {
     	StringWriter sw = new StringWriter();
       PrintWriter pw = new PrintWriter(sw);
-      t.printStackTrace(pw);
+      e.throwable.printStackTrace(pw);
       stackTrace = sw.toString();
     }
 
-    String logFilePrefix = dateFormat.format(new Date())+" "+Thread.currentThread().getName();
-    while (logFilePrefix.length() < 30)
-      logFilePrefix = logFilePrefix + " ";
-    if (level == WARN)
-    	logFilePrefix = logFilePrefix + "WARNING: ";
-    else if (level == ERROR)
-    	logFilePrefix = logFilePrefix + "ERROR: ";
-    else if (level == FATAL)
-    	logFilePrefix = logFilePrefix + "FATAL: ";
-    else if (level == DEBUG)
-    	logFilePrefix = logFilePrefix + "  ";
-
-    synchronized(defaultLogger) {
-      if (logfile != null) {
-   	    logfile.println(logFilePrefix + line);
-   	    if (stackTrace != null) {
-   	    	logfile.print(stackTrace);
-   	    	logfile.flush();
-   	    }
-      }
-      if ((logfile == null) || (level <= ERROR)) {
-        System.err.println(logFilePrefix + line);
-        if (stackTrace != null)
-        	System.err.print(stackTrace);
+    if (logfile != null) {
+      logfile.println(sb);
+      if (stackTrace != null)
+        logfile.print(stackTrace);
+    }
+    if ((logfile == null) || (e.level <= ERROR)) {
+      System.err.println(sb);
+      if (stackTrace != null)
+        System.err.print(stackTrace);
+    }
+  }
+
+  /* Waits (briefly) for the writer to catch up, so lines logged right before the JVM exits are not lost */
+  protected static void awaitFlushed(long timeoutMillis) {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    ringLock.lock();
+    try {
+      while (ringCount > 0) {
+        long left = deadline - System.currentTimeMillis();
+        if (left <= 0)
+          break;
+        try {
+          ringNotFull.await(left, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+          break;
+        }
       }
+    } finally {
+      ringLock.unlock();
     }
   }
 
@@ -105,6 +233,36 @@ public class Logger {
   	write(DEBUG, message, null);
   }
 
+  /* The Supplier variants only build the message if the level is enabled */
+
+  public void error(Supplier<String> message) {
+    write(ERROR, message, null);
+  }
+
+  public void warn(Supplier<String> message, Throwable t) {
+    write(WARN, message, t);
+  }
+
+  public void warn(Supplier<String> message) {
+    write(WARN, message, null);
+  }
+
+  public void info(Supplier<String> message, Throwable t) {
+    write(INFO, message, t);
+  }
+
+  public void info(Supplier<String> message) {
+    write(INFO, message, null);
+  }
+
+  public void debug(Supplier<String> message, Throwable t) {
+    write(DEBUG, message, t);
+  }
+
+  public void debug(Supplier<String> message) {
+    write(DEBUG, message, null);
+  }
+
   protected static String getMainClassName()
   {
     StackTraceElement trace[] = Thread.currentThread().getStackTrace();
@@ -114,12 +272,19 @@ public class Logger {
     return "Unknown";
   } 
 
-  public static Logger getLogger(Class c) {
+  public static synchronized Logger getLogger(Class c) {
     if (prefixToLogger == null) {
     	defaultLogger = new Logger(ERROR);
       logfile = null;
     	prefixToLogger = new HashMap<String,Logger>();
-    	dateFormat = new SimpleDateFormat("YYYY-MM-dd HH:mm:ss.SSS");
+    	dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    	ring = new Entry[RING_SIZE];
+    	for (int i=0; i<ring.length; i++)
+    	  ring[i] = new Entry();
+    	Thread writer = new Thread(Logger::runWriter, "logger");
+    	writer.setDaemon(true);
+    	writer.start();
+    	Runtime.getRuntime().addShutdownHook(new Thread(() -> awaitFlushed(SHUTDOWN_FLUSH_MILLIS)));
     	try {
     	  BufferedReader r = new BufferedReader(new FileReader("log.properties"));
     	  while (true) {
@@ -137,7 +302,7 @@ public class Logger {
           if (pcs[0].equals("log")) {
             String logfileName = pcs[1].replaceAll("\\$MAINCLASS", getMainClassName()).replaceAll("\\$PID", ""+ProcessHandle.current().pid());
           	try {
-              logfile = new PrintWriter(new FileWriter(logfileName, true), true);
+              logfile = new PrintWriter(new BufferedWriter(new FileWriter(logfileName, true)));
             } catch (Exception e) {
             	System.err.println("Cannot create log file: '"+logfileName+"'");
             	System.exit(1);
@@ -0,0 +1,501 @@
+package cis5550.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe HTTP/1.1 client with a keep-alive connection pool per host. Unlike {@link HTTP}, one instance can be
+ * shared by any number of threads: each host gets at most {@link #theMaxConnectionsPerHost} sockets, and callers
+ * beyond that wait for a connection to come back to the pool. {@link #doRequest} runs on the calling thread;
+ * {@link #request} runs on a shared executor and returns a {@link CompletableFuture}, so requests to different hosts
+ * can proceed concurrently. {@link #pipeline} sends several idempotent requests to one host back to back on a single
+ * connection before reading the responses.
+ */
+public class PooledHTTP {
+    public static final Logger LOGGER = Logger.getLogger(PooledHTTP.class);
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 64;
+    public static final int BUFFER_SIZE = 64 * 1024;
+    public static final int IDLE_TIMEOUT = 30000;
+    public static final int STALE_CHECK_AFTER = 1000;
+    public static final int MAX_PIPELINE_DEPTH = 16;
+    // The server answers each request before it reads the next, so the requests written ahead of the responses must
+    // fit in the socket buffers; otherwise both sides block on a write.
+    public static final int MAX_PIPELINE_BYTES = 64 * 1024;
+
+    private static final PooledHTTP theDefault = new PooledHTTP(DEFAULT_MAX_CONNECTIONS_PER_HOST);
+
+    private final int theMaxConnectionsPerHost;
+    private final ConcurrentMap<String, HostPool> theHostPools = new ConcurrentHashMap<>();
+    private final ExecutorService theExecutor;
+
+    /**
+     * One request. A positive timeoutMillis bounds each read of the response; 0 waits as long as it takes.
+     */
+    public record Call(String method, String url, byte[] body, int timeoutMillis) {
+        public Call(String method, String url, byte[] body) {
+            this(method, url, body, 0);
+        }
+
+        /**
+         * Returns whether the call may be sent twice, so it can be resent after a failure or pipelined.
+         */
+        public boolean isIdempotent() {
+            return method.equals("GET") || method.equals("HEAD");
+        }
+    }
+
+    private record Target(String protocol, String host, int port, String path) {
+        String hostId() {
+            return protocol + "-" + host + "-" + port;
+        }
+
+        static Target parse(String aUrl) throws IOException {
+            String myProtocol = "http";
+            int myPos = aUrl.indexOf("://");
+            if (myPos >= 0) {
+                myProtocol = aUrl.substring(0, myPos);
+                aUrl = aUrl.substring(myPos + 3);
+            }
+            myPos = aUrl.indexOf('/');
+            if (myPos < 0) {
+                throw new IOException("URL has no path: " + aUrl);
+            }
+
+            String myHost = aUrl.substring(0, myPos);
+            String myPath = aUrl.substring(myPos);
+            int myPort = myProtocol.equals("https") ? 443 : 80;
+            myPos = myHost.indexOf(':');
+            if (myPos > 0) {
+                try {
+                    myPort = Integer.parseInt(myHost.substring(myPos + 1));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad port in URL: " + aUrl);
+                }
+                myHost = myHost.substring(0, myPos);
+            }
+            return new Target(myProtocol, myHost, myPort, myPath);
+        }
+    }
+
+    private static class Connection {
+        private final Socket theSocket;
+        private final BufferedInputStream theInput;
+        private final BufferedOutputStream theOutput;
+        private boolean theIsReused = false;
+        private long theLastUsed = System.currentTimeMillis();
+
+        Connection(Socket aSocket) throws IOException {
+            theSocket = aSocket;
+            theInput = new BufferedInputStream(aSocket.getInputStream(), BUFFER_SIZE);
+            theOutput = new BufferedOutputStream(aSocket.getOutputStream(), BUFFER_SIZE);
+        }
+
+        /**
+         * Returns true if the server closed the connection, or sent something unasked, while it sat in the pool.
+         */
+        boolean isStale() {
+            try {
+                if (theInput.available() > 0) {
+                    return true;
+                }
+                theSocket.setSoTimeout(1);
+                try {
+                    theInput.read();
+                    return true;
+                } catch (SocketTimeoutException e) {
+                    return false;
+                } finally {
+                    theSocket.setSoTimeout(0);
+                }
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
+        void close() {
+            try {
+                theSocket.close();
+            } catch (IOException e) {
+                LOGGER.debug("Failed to close pooled connection", e);
+            }
+        }
+    }
+
+    private class HostPool {
+        private final Target theTarget;
+        private final Semaphore thePermits = new Semaphore(theMaxConnectionsPerHost, true);
+        private final ConcurrentLinkedDeque<Connection> theIdle = new ConcurrentLinkedDeque<>();
+
+        HostPool(Target aTarget) {
+            theTarget = aTarget;
+        }
+
+        Connection borrow(boolean aFresh) throws IOException {
+            try {
+                thePermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a connection to " + theTarget.host());
+            }
+
+            Connection myConnection;
+            while (!aFresh && (myConnection = theIdle.pollFirst()) != null) {
+                if (System.currentTimeMillis() - myConnection.theLastUsed > STALE_CHECK_AFTER
+                        && myConnection.isStale()) {
+                    myConnection.close();
+                    continue;
+                }
+                myConnection.theIsReused = true;
+                return myConnection;
+            }
+            Socket mySocket = HTTP.openSocket(theTarget.protocol(), theTarget.host(), theTarget.port());
+            if (mySocket == null) {
+                thePermits.release();
+                throw new IOException("Cannot connect to server " + theTarget.host() + ":" + theTarget.port());
+            }
+            mySocket.setTcpNoDelay(true);
+            return new Connection(mySocket);
+        }
+
+        void giveBack(Connection aConnection, boolean aIsReusable) {
+            if (aIsReusable) {
+                aConnection.theLastUsed = System.currentTimeMillis();
+                theIdle.offerFirst(aConnection);
+            } else {
+                aConnection.close();
+            }
+            thePermits.release();
+        }
+
+        /**
+         * Closes connections that sat in the pool for longer than {@link #IDLE_TIMEOUT}. Idle connections are
+         * returned to the front of the deque, so the oldest ones are at the back.
+         */
+        void closeIdle() {
+            long myCutoff = System.currentTimeMillis() - IDLE_TIMEOUT;
+            Connection myConnection;
+            while ((myConnection = theIdle.peekLast()) != null && myConnection.theLastUsed < myCutoff) {
+                if (theIdle.removeLastOccurrence(myConnection)) {
+                    myConnection.close();
+                }
+            }
+        }
+    }
+
+    public PooledHTTP(int aMaxConnectionsPerHost) {
+        theMaxConnectionsPerHost = aMaxConnectionsPerHost;
+        AtomicInteger myThreadCount = new AtomicInteger(0);
+        theExecutor = Executors.newCachedThreadPool(aRunnable -> {
+            Thread myThread = new Thread(aRunnable, "pooled-http-" + myThreadCount.incrementAndGet());
+            myThread.setDaemon(true);
+            return myThread;
+        });
+        startIdleThread();
+    }
+
+    // The webserver keeps a worker thread on every open connection, so idle sockets must not be held forever.
+    private void startIdleThread() {
+        Thread myIdleThread = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(IDLE_TIMEOUT);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                theHostPools.values().forEach(HostPool::closeIdle);
+            }
+        });
+        myIdleThread.setDaemon(true);
+        myIdleThread.start();
+    }
+
+    public static PooledHTTP getDefault() {
+        return theDefault;
+    }
+
+    public HTTP.Response doRequest(String aMethod, String aUrl, byte[] aBodyOrNull) throws IOException {
+        return send(new Call(aMethod, aUrl, aBodyOrNull));
+    }
+
+    public CompletableFuture<HTTP.Response> request(String aMethod, String aUrl, byte[] aBodyOrNull) {
+        return request(new Call(aMethod, aUrl, aBodyOrNull));
+    }
+
+    /**
+     * Sends the call on the shared executor. If the call has a timeout and the server goes quiet for that long, the
+     * connection is closed and the future fails, so a stuck server does not keep the connection or its pool slot.
+     */
+    public CompletableFuture<HTTP.Response> request(Call aCall) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return send(aCall);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, theExecutor);
+    }
+
+    /**
+     * Sends idempotent calls to one host on the shared executor, pipelined on one connection in windows of at most
+     * {@link #MAX_PIPELINE_DEPTH} calls. The responses are in the order of the calls.
+     */
+    public CompletableFuture<List<HTTP.Response>> pipeline(List<Call> aCalls) {
+        Target myTarget;
+        try {
+            myTarget = Target.parse(aCalls.getFirst().url());
+            for (Call myCall : aCalls) {
+                if (!myCall.isIdempotent() || !Target.parse(myCall.url()).hostId().equals(myTarget.hostId())) {
+                    throw new IllegalArgumentException("Only idempotent calls to one host can be pipelined: "
+                            + myCall.method() + " " + myCall.url());
+                }
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return sendPipelined(myTarget, aCalls);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, theExecutor);
+    }
+
+    public static <T> T await(CompletableFuture<T> aFuture) throws IOException {
+        try {
+            return aFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for HTTP response", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException myIOException) {
+                throw myIOException;
+            }
+            if (e.getCause() instanceof TimeoutException) {
+                throw new IOException("Timed out waiting for HTTP response", e.getCause());
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private HTTP.Response send(Call aCall) throws IOException {
+        Target myTarget = Target.parse(aCall.url());
+        HostPool myPool = theHostPools.computeIfAbsent(myTarget.hostId(), aId -> new HostPool(myTarget));
+        boolean myFresh = false;
+
+        while (true) {
+            Connection myConnection = myPool.borrow(myFresh);
+            boolean myIsSent = false;
+            try {
+                myConnection.theSocket.setSoTimeout(aCall.timeoutMillis());
+                writeRequest(myConnection, myTarget, myTarget.path(), aCall);
+                myConnection.theOutput.flush();
+                myIsSent = true;
+                List<HTTP.Response> myResponses = new ArrayList<>(1);
+                boolean myIsReusable = readResponse(myConnection, aCall.method().equals("HEAD"), myResponses);
+                myPool.giveBack(myConnection, myIsReusable);
+                return myResponses.getFirst();
+            } catch (IOException e) {
+                myPool.giveBack(myConnection, false);
+                // The server may have closed the pooled connection just as it was reused. Only a request that never
+                // got out, or one that may run twice, is tried again: the server may have applied it and then failed.
+                if (myConnection.theIsReused && !(e instanceof SocketTimeoutException)
+                        && (!myIsSent || aCall.isIdempotent())) {
+                    myFresh = true;
+                    continue;
+                }
+                throw new IOException("Connection to " + myTarget.host() + ":" + myTarget.port() + " failed ("
+                        + e.getMessage() + ")", e);
+            }
+        }
+    }
+
+    private List<HTTP.Response> sendPipelined(Target aTarget, List<Call> aCalls) throws IOException {
+        HostPool myPool = theHostPools.computeIfAbsent(aTarget.hostId(), aId -> new HostPool(aTarget));
+        List<HTTP.Response> myResponses = new ArrayList<>(aCalls.size());
+        boolean myFresh = false;
+
+        while (myResponses.size() < aCalls.size()) {
+            List<Call> myWindow = nextWindow(aCalls, myResponses.size());
+            Connection myConnection = myPool.borrow(myFresh);
+            try {
+                myConnection.theSocket.setSoTimeout(timeoutOf(myWindow));
+                for (Call myCall : myWindow) {
+                    writeRequest(myConnection, aTarget, Target.parse(myCall.url()).path(), myCall);
+                }
+                myConnection.theOutput.flush();
+                // a response that closes the connection ends the window; the calls after it go out again
+                boolean myIsReusable = true;
+                for (int i = 0; i < myWindow.size() && myIsReusable; i++) {
+                    myIsReusable = readResponse(myConnection, myWindow.get(i).method().equals("HEAD"), myResponses);
+                }
+                myPool.giveBack(myConnection, myIsReusable);
+                myFresh = false;
+            } catch (IOException e) {
+                myPool.giveBack(myConnection, false);
+                // Every call is idempotent, so the unanswered ones can be resent if a pooled connection was closed.
+                if (myConnection.theIsReused && !(e instanceof SocketTimeoutException)) {
+                    myFresh = true;
+                    continue;
+                }
+                throw new IOException("Connection to " + aTarget.host() + ":" + aTarget.port() + " failed ("
+                        + e.getMessage() + ")", e);
+            }
+        }
+        return myResponses;
+    }
+
+    private static List<Call> nextWindow(List<Call> aCalls, int aStart) {
+        int myEnd = aStart + 1;
+        long myBytes = bodyLength(aCalls.get(aStart));
+        while (myEnd < aCalls.size() && myEnd - aStart < MAX_PIPELINE_DEPTH
+                && myBytes + bodyLength(aCalls.get(myEnd)) <= MAX_PIPELINE_BYTES) {
+            myBytes += bodyLength(aCalls.get(myEnd));
+            myEnd++;
+        }
+        return aCalls.subList(aStart, myEnd);
+    }
+
+    private static long bodyLength(Call aCall) {
+        return aCall.body() == null ? 0 : aCall.body().length;
+    }
+
+    // The longest timeout of the window, since a read waits behind the responses of the calls before it.
+    private static int timeoutOf(List<Call> aWindow) {
+        int myTimeout = 0;
+        for (Call myCall : aWindow) {
+            if (myCall.timeoutMillis() <= 0) {
+                return 0;
+            }
+            myTimeout = Math.max(myTimeout, myCall.timeoutMillis());
+        }
+        return myTimeout;
+    }
+
+    private static void writeRequest(Connection aConnection, Target aTarget, String aPath, Call aCall)
+            throws IOException {
+        StringBuilder myHead = new StringBuilder();
+        myHead.append(aCall.method()).append(' ').append(aPath).append(" HTTP/1.1\r\n");
+        myHead.append("Host: ").append(aTarget.host()).append("\r\n");
+        if (aCall.body() != null) {
+            myHead.append("Content-Length: ").append(aCall.body().length).append("\r\n");
+        }
+        myHead.append("Connection: keep-alive\r\n\r\n");
+        aConnection.theOutput.write(myHead.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (aCall.body() != null) {
+            aConnection.theOutput.write(aCall.body());
+        }
+    }
+
+    /**
+     * Reads one response and adds it to aResponses. Returns whether the connection can carry another request.
+     */
+    private static boolean readResponse(Connection aConnection, boolean aIsHead, List<HTTP.Response> aResponses)
+            throws IOException {
+        InputStream myInput = aConnection.theInput;
+        String myStatusLine = readLine(myInput);
+        if (myStatusLine == null) {
+            throw new EOFException("Connection closed before response");
+        }
+        String[] myStatusParts = myStatusLine.split(" ");
+        if (myStatusParts.length < 2) {
+            throw new IOException("Malformed status line: " + myStatusLine);
+        }
+        int myStatusCode;
+        try {
+            myStatusCode = Integer.parseInt(myStatusParts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status line: " + myStatusLine);
+        }
+
+        Map<String, String> myHeaders = new HashMap<>();
+        String myLine;
+        while ((myLine = readLine(myInput)) != null && !myLine.isEmpty()) {
+            String[] myParts = myLine.split(":", 2);
+            if (myParts.length == 2) {
+                myHeaders.put(myParts[0].trim().toLowerCase(), myParts[1].trim());
+            }
+        }
+
+        boolean myIsReusable = !"close".equalsIgnoreCase(myHeaders.get("connection"));
+        byte[] myBody;
+        if (aIsHead) {
+            myBody = new byte[0];
+        } else if (myHeaders.containsKey("content-length")) {
+            int myContentLength = Integer.parseInt(myHeaders.get("content-length"));
+            myBody = myInput.readNBytes(myContentLength);
+            if (myBody.length < myContentLength) {
+                throw new EOFException("Connection closed after " + myBody.length + " of " + myContentLength + " bytes");
+            }
+        } else if ("chunked".equalsIgnoreCase(myHeaders.get("transfer-encoding"))) {
+            myBody = readChunked(myInput);
+        } else {
+            myBody = myInput.readAllBytes();
+            myIsReusable = false;
+        }
+
+        aResponses.add(new HTTP.Response(myBody, myHeaders, myStatusCode));
+        return myIsReusable;
+    }
+
+    private static byte[] readChunked(InputStream aInput) throws IOException {
+        ByteArrayOutputStream myBody = new ByteArrayOutputStream();
+        while (true) {
+            String mySizeLine = readLine(aInput);
+            if (mySizeLine == null) {
+                throw new EOFException("Truncated chunked body");
+            }
+            int mySize = Integer.parseInt(mySizeLine.split(";", 2)[0].trim(), 16);
+            if (mySize == 0) {
+                while (true) {
+                    String myTrailer = readLine(aInput);
+                    if (myTrailer == null || myTrailer.isEmpty()) {
+                        return myBody.toByteArray();
+                    }
+                }
+            }
+            myBody.write(aInput.readNBytes(mySize));
+            readLine(aInput);
+        }
+    }
+
+    private static String readLine(InputStream aInput) throws IOException {
+        ByteArrayOutputStream myLine = new ByteArrayOutputStream();
+        int myByte;
+        while ((myByte = aInput.read()) >= 0) {
+            if (myByte == '\n') {
+                int myLength = myLine.size();
+                byte[] myBytes = myLine.toByteArray();
+                if (myLength > 0 && myBytes[myLength - 1] == '\r') {
+                    myLength--;
+                }
+                return new String(myBytes, 0, myLength, StandardCharsets.ISO_8859_1);
+            }
+            myLine.write(myByte);
+        }
+        return myLine.size() == 0 ? null : myLine.toString(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -1,53 +1,74 @@
 package cis5550.tools;
 
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * The parsed rules of one robots.txt for one crawler. The group for the crawler's own name applies if it has any
+ * rules, otherwise the group for "*"; the same goes for the crawl delay. Within a group the first rule whose path is
+ * a prefix of the requested path decides. The rule paths are compiled into a trie, so a check walks the requested
+ * path once instead of trying every rule.
+ */
 public class RobotRuleFollower {
     private static final int DEFAULT_DELAY = 1000;
 
-    private final LinkedHashMap<String, Boolean> theRules;
+    private final RuleNode theRules;
     private final int theCrawlDelay;
 
-    private RobotRuleFollower(LinkedHashMap<String, Boolean> aRules, int aCrawlDelay) {
+    private RobotRuleFollower(RuleNode aRules, int aCrawlDelay) {
         theRules = aRules;
         theCrawlDelay = aCrawlDelay;
     }
 
     public static RobotRuleFollower fromRobotsTxt(String aRobotsTxt, String aCrawlerName) {
         if (aRobotsTxt == null) {
-            return new RobotRuleFollower(new LinkedHashMap<>(), DEFAULT_DELAY);
+            return new RobotRuleFollower(new RuleNode(), DEFAULT_DELAY);
         }
 
-        String[] myLines = aRobotsTxt.split("\n");
+        List<String> myOwnRules = new ArrayList<>();
+        List<String> myAnyRules = new ArrayList<>();
+        Double myOwnDelay = null;
+        Double myAnyDelay = null;
 
-        LinkedHashMap<String, Boolean> myRules = new LinkedHashMap<>();
-        int myCrawlDelay = DEFAULT_DELAY;
-
-        int i = 0;
-
-        while (i < myLines.length) {
-            if (myLines[i].startsWith("User-agent:")) {
-                String myUserAgent = myLines[i].split(":")[1].trim();
-                if (myUserAgent.equals("*") || myUserAgent.equals(aCrawlerName)) {
-                    i++;
-                    while (i < myLines.length && !myLines[i].startsWith("User-agent:")) {
-                        if (myLines[i].startsWith("Disallow:")) {
-                            myRules.put(myLines[i].split(":")[1].trim(), false);
-                        } else if (myLines[i].startsWith("Allow:")) {
-                            myRules.put(myLines[i].split(":")[1].trim(), true);
-                        } else if (myLines[i].startsWith("Crawl-delay")) {
-                            myCrawlDelay = (int) (1000 * Double.parseDouble(myLines[i].split(":")[1].trim()));
-                        }
-                        i++;
+        String myUserAgent = null;
+        for (String myLine : aRobotsTxt.split("\n")) {
+            myLine = myLine.trim();
+            if (myLine.startsWith("User-agent:")) {
+                myUserAgent = myLine.substring(11).trim();
+                continue;
+            }
+            boolean myIsOwn = aCrawlerName.equals(myUserAgent);
+            if (!myIsOwn && !"*".equals(myUserAgent)) {
+                continue;
+            }
+            if (myLine.startsWith("Disallow:") || myLine.startsWith("Allow:")) {
+                String myPath = myLine.substring(myLine.indexOf(':') + 1).trim();
+                if (!myPath.isEmpty()) {
+                    (myIsOwn ? myOwnRules : myAnyRules).add((myLine.startsWith("Allow:") ? "A" : "D") + myPath);
+                }
+            } else if (myLine.startsWith("Crawl-delay:")) {
+                try {
+                    double myDelay = Double.parseDouble(myLine.substring(12).trim());
+                    if (myIsOwn) {
+                        myOwnDelay = myDelay;
+                    } else {
+                        myAnyDelay = myDelay;
                     }
+                } catch (NumberFormatException e) {
+                    // an unreadable delay is ignored, like an unknown directive
                 }
-                i++;
-            } else {
-                i++;
             }
         }
 
-        return new RobotRuleFollower(myRules, myCrawlDelay);
+        RuleNode myRoot = new RuleNode();
+        List<String> myRules = myOwnRules.isEmpty() ? myAnyRules : myOwnRules;
+        for (int i = 0; i < myRules.size(); i++) {
+            myRoot.add(myRules.get(i).substring(1), i, myRules.get(i).charAt(0) == 'A');
+        }
+        Double myDelay = myOwnDelay != null ? myOwnDelay : myAnyDelay;
+        return new RobotRuleFollower(myRoot, myDelay == null ? DEFAULT_DELAY : (int) (1000 * myDelay));
     }
 
     public int getCrawlDelay() {
@@ -55,12 +76,38 @@ public class RobotRuleFollower {
     }
 
     public boolean isAllowed(String aPath) {
-        for (String myRule : theRules.keySet()) {
-            if (aPath.startsWith(myRule)) {
-                return theRules.get(myRule);
+        if (aPath == null) {
+            aPath = "";
+        }
+        RuleNode myNode = theRules;
+        int myFirstRule = Integer.MAX_VALUE;
+        boolean myAllowed = true;
+        for (int i = 0; myNode != null; i++) {
+            if (myNode.theRule >= 0 && myNode.theRule < myFirstRule) {
+                myFirstRule = myNode.theRule;
+                myAllowed = myNode.theAllow;
+            }
+            myNode = i < aPath.length() ? myNode.theChildren.get(aPath.charAt(i)) : null;
+        }
+        return myAllowed;
+    }
+
+    private static class RuleNode {
+        private final Map<Character, RuleNode> theChildren = new HashMap<>(4);
+        private int theRule = -1;
+        private boolean theAllow;
+
+        // an earlier rule for the same path wins, since it would have matched first
+        private void add(String aPath, int aRule, boolean aAllow) {
+            RuleNode myNode = this;
+            for (int i = 0; i < aPath.length(); i++) {
+                myNode = myNode.theChildren.computeIfAbsent(aPath.charAt(i), k -> new RuleNode());
+            }
+            if (myNode.theRule < 0) {
+                myNode.theRule = aRule;
+                myNode.theAllow = aAllow;
             }
         }
-        return true;
     }
 
     public static void main(String[] args) {
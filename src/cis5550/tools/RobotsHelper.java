@@ -6,25 +6,67 @@ import cis5550.kvs.Row;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class RobotsHelper {
 
     private static final Logger LOGGER = Logger.getLogger(RobotsHelper.class);
     private static final String USER_AGENT = "cis5550-crawler";
+    private static final String FETCHED_AT = "fetchedAt";
+
+    private static final int MAX_CACHED_HOSTS = 10000;
+    private static final long RULES_TTL = 24 * 60 * 60 * 1000L;
+    private static final long FAILURE_TTL = 10 * 60 * 1000L;
+
+    // parsed rules per host in least recently used order; null rules mean that robots.txt could not be fetched
+    private static final Map<String, CachedRules> RULES = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedRules> eldest) {
+                    return size() > MAX_CACHED_HOSTS;
+                }
+            });
+
+    private record CachedRules(RobotRuleFollower rules, long expiresAt) {
+    }
+
+    /**
+     * Returns the parsed robots.txt of host for this crawler, or null if it could not be fetched. Both are kept in
+     * memory, rules for RULES_TTL and failures for FAILURE_TTL, so most checks need neither the KVS nor a parse.
+     * After that, the copy in the hosts table is used if it is younger than RULES_TTL, and the file is fetched again
+     * otherwise.
+     */
+    public static RobotRuleFollower getRules(KVSClient client, String host) throws IOException {
+        long now = System.currentTimeMillis();
+        CachedRules cached = RULES.get(host);
+        if (cached != null && cached.expiresAt() > now) {
+            return cached.rules();
+        }
+
+        String robotsTxt = getRobotsTxt(client, host, now - RULES_TTL);
+        RobotRuleFollower rules = robotsTxt == null ? null : RobotRuleFollower.fromRobotsTxt(robotsTxt, USER_AGENT);
+        RULES.put(host, new CachedRules(rules, now + (rules == null ? FAILURE_TTL : RULES_TTL)));
+        return rules;
+    }
 
     public static String getRobotsTxt(KVSClient client, String host) throws IOException {
+        return getRobotsTxt(client, host, 0);
+    }
+
+    // copies stored before fetchedAt existed count as fresh
+    private static String getRobotsTxt(KVSClient client, String host, long notFetchedBefore) throws IOException {
         String robotsKey = Hasher.hash(host + "/robots.txt");
         Row robotsRow = client.getRow("hosts", robotsKey);
 
         if (robotsRow != null) {
-            return robotsRow.get("robotsTxt");
+            String fetchedAt = robotsRow.get(FETCHED_AT);
+            if (fetchedAt == null || Long.parseLong(fetchedAt) >= notFetchedBefore) {
+                return robotsRow.get("robotsTxt");
+            }
         }
 
         try {
@@ -54,6 +96,7 @@ public class RobotsHelper {
 
                 Row robotsRowToSave = new Row(robotsKey);
                 robotsRowToSave.put("robotsTxt", contentBytes);
+                robotsRowToSave.put(FETCHED_AT, String.valueOf(System.currentTimeMillis()));
                 client.putRow("hosts", robotsRowToSave);
 
                 return new String(contentBytes, StandardCharsets.UTF_8);
@@ -102,6 +145,7 @@ public class RobotsHelper {
 
                 Row robotsRowToSave = new Row(robotsKey);
                 robotsRowToSave.put("robotsTxt", contentBytes);
+                robotsRowToSave.put(FETCHED_AT, String.valueOf(System.currentTimeMillis()));
                 client.putRow("hosts", robotsRowToSave);
 
                 return new String(contentBytes, StandardCharsets.UTF_8);
@@ -114,82 +158,4 @@ public class RobotsHelper {
             return null;
         }
     }
-
-    public static boolean isUrlAllowed(String robotsTxt, String url) {
-        if (robotsTxt == null || robotsTxt.isEmpty()) {
-            return true;
-        }
-
-        String urlPath;
-        try {
-            URI uri = new URI(url);
-            urlPath = uri.getPath();
-        } catch (URISyntaxException e) {
-            LOGGER.error(e.getMessage());
-            return false;
-        }
-
-        Map<String, List<String>> agentRules = new HashMap<>();
-        agentRules.put("cis5550-crawler", new ArrayList<>());
-        agentRules.put("*", new ArrayList<>());
-
-        String currentUserAgent = null;
-        String[] rules = robotsTxt.split("\n");
-
-        for (String line : rules) {
-            line = line.trim();
-            if (line.startsWith("User-agent:")) {
-                currentUserAgent = line.substring(11).trim();
-            } else if (line.startsWith("Disallow:") || line.startsWith("Allow:")) {
-                if (currentUserAgent != null && (currentUserAgent.equals("cis5550-crawler") || currentUserAgent.equals("*"))) {
-                    String ruleType = line.startsWith("Disallow:") ? "D" : "A";
-                    String rulePath = line.substring(line.indexOf(":") + 1).trim();
-                    if (!rulePath.isEmpty()) {
-                        agentRules.get(currentUserAgent).add(ruleType + " " + rulePath);
-                    }
-                }
-            }
-        }
-
-        List<String> applicableRules = agentRules.get("cis5550-crawler").isEmpty()
-                ? agentRules.get("*") : agentRules.get("cis5550-crawler");
-
-        for (String rule : applicableRules) {
-            String ruleType = rule.substring(0, 1);
-            String rulePath = rule.substring(2);
-
-            if (urlPath.startsWith(rulePath)) {
-                return ruleType.equals("A");
-            }
-        }
-
-        return true;
-    }
-
-    public static Double getCrawlDelay(String robotsTxt) {
-        if (robotsTxt == null || robotsTxt.isEmpty()) {
-            return null;
-        }
-
-        Map<String, Double> agentDelays = new HashMap<>();
-
-        String currentUserAgent = null;
-        String[] rules = robotsTxt.split("\n");
-
-        for (String line : rules) {
-            line = line.trim();
-            if (line.startsWith("User-agent:")) {
-                currentUserAgent = line.substring(11).trim();
-            } else if (line.startsWith("Crawl-delay:")) {
-                if (currentUserAgent != null && (currentUserAgent.equals("cis5550-crawler") || currentUserAgent.equals("*"))) {
-                    String delay = line.substring(line.indexOf(":") + 1).trim();
-                    if (!delay.isEmpty()) {
-                        agentDelays.put(currentUserAgent, Double.valueOf(delay));
-                    }
-                }
-            }
-        }
-
-        return agentDelays.get("cis5550-crawler") == null ? agentDelays.get("*") : agentDelays.get("cis5550-crawler");
-    }
 }
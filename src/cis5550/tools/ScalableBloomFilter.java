@@ -0,0 +1,72 @@
+package cis5550.tools;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A growable, thread-safe set of {@link BloomFilter}s: once the newest filter reaches its capacity another one twice
+ * the size is started, and a key might be present if any of them says so.
+ */
+public class ScalableBloomFilter {
+    private final List<BloomFilter> theParts = new CopyOnWriteArrayList<>();
+    private final double theFalsePositiveRate;
+
+    public ScalableBloomFilter(int aInitialCapacity, double aFalsePositiveRate) {
+        theFalsePositiveRate = aFalsePositiveRate;
+        theParts.add(new BloomFilter(aInitialCapacity, aFalsePositiveRate));
+    }
+
+    private ScalableBloomFilter(List<BloomFilter> aParts, double aFalsePositiveRate) {
+        theFalsePositiveRate = aFalsePositiveRate;
+        theParts.addAll(aParts);
+    }
+
+    /**
+     * Adds the key and returns true if the newest filter changed, that is, if the filter needs saving again.
+     */
+    public boolean add(String aKey) {
+        BloomFilter myCurrent = theParts.getLast();
+        if (myCurrent.isFull()) {
+            synchronized (this) {
+                myCurrent = theParts.getLast();
+                if (myCurrent.isFull()) {
+                    myCurrent = new BloomFilter(myCurrent.capacity() * 2, theFalsePositiveRate);
+                    theParts.add(myCurrent);
+                }
+            }
+        }
+        return myCurrent.add(aKey);
+    }
+
+    public boolean mightContain(String aKey) {
+        for (BloomFilter myPart : theParts) {
+            if (myPart.mightContain(aKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void writeTo(DataOutput aOutput) throws IOException {
+        List<BloomFilter> myParts = List.copyOf(theParts);
+        aOutput.writeInt(myParts.size());
+        for (BloomFilter myPart : myParts) {
+            myPart.writeTo(aOutput);
+        }
+    }
+
+    /**
+     * Reads a filter written by writeTo(); returns null if it has no parts.
+     */
+    public static ScalableBloomFilter readFrom(DataInput aInput, double aFalsePositiveRate) throws IOException {
+        int myNumParts = aInput.readInt();
+        List<BloomFilter> myParts = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < myNumParts; i++) {
+            myParts.add(BloomFilter.readFrom(aInput));
+        }
+        return myParts.isEmpty() ? null : new ScalableBloomFilter(myParts, aFalsePositiveRate);
+    }
+}
@@ -19,19 +19,29 @@ public class Serializer {
   }
 
   public static Object byteArrayToObject(byte b[], File jarFileToLoadClassesFrom) {
-  	Object result = null;
     try {
-      ByteArrayInputStream bais = new ByteArrayInputStream(b);
       ClassLoader oldCL = Thread.currentThread().getContextClassLoader();
       URLClassLoader newCL = (jarFileToLoadClassesFrom != null) ? new URLClassLoader (new URL[] {jarFileToLoadClassesFrom.toURI().toURL()}, oldCL) : null;
+      return byteArrayToObject(b, newCL);
+    } catch (Exception e) {
+     	e.printStackTrace();
+    }
+    return null;
+  }
+
+  // Same as above, but with a class loader the caller keeps (e.g., one per job JAR), so classes are loaded only once
+  public static Object byteArrayToObject(byte b[], ClassLoader classLoaderOrNull) {
+  	Object result = null;
+    try {
+      ByteArrayInputStream bais = new ByteArrayInputStream(b);
       ObjectInputStream ois = new ObjectInputStream(bais) {
         protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
           try {
             Class<?> x = Class.forName(desc.getName(), false, null);
             return x;
           } catch (ClassNotFoundException cnfe) {
-            if (newCL != null) 
-              return newCL.loadClass(desc.getName());
+            if (classLoaderOrNull != null) 
+              return classLoaderOrNull.loadClass(desc.getName());
           }
           return null;
         }
@@ -4,6 +4,7 @@ import cis5550.webserver.Response;
 
 public enum HTTPStatus {
     OK(200, "OK"),
+    PARTIAL_CONTENT(206, "Partial Content"),
     NOT_MODIFIED(304, "Not Modified"),
     MOVED_PERMANENTLY(301, "Moved Permanently"),
     FOUND(302, "Found"),
@@ -16,7 +17,9 @@ public enum HTTPStatus {
     NOT_ALLOWED(405, "Method Not Allowed"),
     CONFLICT(409, "Conflict"),
     PRECONDITION_FAILED(412, "Precondition Failed"),
+    PAYLOAD_TOO_LARGE(413, "Payload Too Large"),
     INVALID_RANGE(416, "Requested Range Not Satisfiable"),
+    HEADER_FIELDS_TOO_LARGE(431, "Request Header Fields Too Large"),
     INTERNAL_SERVER_ERROR(500, "Internal Server Error"),
     NOT_IMPLEMENTED(501, "Not Implemented"),
     VERSION_NOT_SUPPORTED(505, "HTTP Version Not Supported"),
@@ -42,6 +45,7 @@ public enum HTTPStatus {
     public static HTTPStatus fromCode(int aCode) {
         return switch (aCode) {
             case 200 -> OK;
+            case 206 -> PARTIAL_CONTENT;
             case 304 -> NOT_MODIFIED;
             case 301 -> MOVED_PERMANENTLY;
             case 302 -> FOUND;
@@ -52,7 +56,9 @@ public enum HTTPStatus {
             case 403 -> FORBIDDEN;
             case 404 -> NOT_FOUND;
             case 405 -> NOT_ALLOWED;
+            case 413 -> PAYLOAD_TOO_LARGE;
             case 416 -> INVALID_RANGE;
+            case 431 -> HEADER_FIELDS_TOO_LARGE;
             case 500 -> INTERNAL_SERVER_ERROR;
             case 501 -> NOT_IMPLEMENTED;
             case 505 -> VERSION_NOT_SUPPORTED;
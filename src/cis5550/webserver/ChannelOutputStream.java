@@ -0,0 +1,117 @@
+package cis5550.webserver;
+
+import cis5550.tools.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Buffered output stream over a socket channel in either blocking or non-blocking mode. On a non-blocking channel a
+ * full socket buffer is waited out on a private selector, so callers can treat it like any blocking stream. Files are
+ * sent with {@link #transferFrom} straight from their FileChannel to the socket, without passing through the heap.
+ */
+public class ChannelOutputStream extends OutputStream {
+    private static final Logger LOGGER = Logger.getLogger(ChannelOutputStream.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int WRITE_TIMEOUT = 30000;
+
+    private final SocketChannel theChannel;
+    private final ByteBuffer theBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private Selector theWriteSelector = null;
+
+    public ChannelOutputStream(SocketChannel aChannel) {
+        theChannel = aChannel;
+    }
+
+    @Override
+    public void write(int aByte) throws IOException {
+        if (!theBuffer.hasRemaining()) {
+            flush();
+        }
+        theBuffer.put((byte) aByte);
+    }
+
+    @Override
+    public void write(byte[] aBytes, int aOffset, int aLength) throws IOException {
+        if (aLength > theBuffer.remaining()) {
+            flush();
+        }
+        if (aLength >= theBuffer.capacity()) {
+            writeFully(ByteBuffer.wrap(aBytes, aOffset, aLength));
+        } else {
+            theBuffer.put(aBytes, aOffset, aLength);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        theBuffer.flip();
+        try {
+            writeFully(theBuffer);
+        } finally {
+            theBuffer.clear();
+        }
+    }
+
+    /**
+     * Flushes anything buffered, then sends aCount bytes of aFile starting at aPosition with FileChannel.transferTo.
+     */
+    public void transferFrom(FileChannel aFile, long aPosition, long aCount) throws IOException {
+        flush();
+        while (aCount > 0) {
+            long myTransferred = aFile.transferTo(aPosition, aCount, theChannel);
+            if (myTransferred == 0) {
+                if (aPosition >= aFile.size()) {
+                    throw new EOFException("File ended before " + aCount + " remaining bytes were sent");
+                }
+                awaitWritable();
+            }
+            aPosition += myTransferred;
+            aCount -= myTransferred;
+        }
+    }
+
+    private void writeFully(ByteBuffer aBuffer) throws IOException {
+        while (aBuffer.hasRemaining()) {
+            if (theChannel.write(aBuffer) == 0) {
+                awaitWritable();
+            }
+        }
+    }
+
+    private void awaitWritable() throws IOException {
+        if (theChannel.isBlocking()) {
+            return;
+        }
+        if (theWriteSelector == null) {
+            theWriteSelector = Selector.open();
+            theChannel.register(theWriteSelector, SelectionKey.OP_WRITE);
+        }
+        if (theWriteSelector.select(WRITE_TIMEOUT) == 0) {
+            throw new IOException("Timed out writing to " + theChannel.getRemoteAddress());
+        }
+        theWriteSelector.selectedKeys().clear();
+    }
+
+    /**
+     * Releases the write selector. The channel itself stays open; it belongs to the connection.
+     */
+    @Override
+    public void close() {
+        if (theWriteSelector == null) {
+            return;
+        }
+        try {
+            theWriteSelector.close();
+        } catch (IOException e) {
+            LOGGER.error("Failed to close write selector", e);
+        }
+        theWriteSelector = null;
+    }
+}
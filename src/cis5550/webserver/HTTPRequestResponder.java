@@ -6,14 +6,16 @@ import cis5550.webserver.datamodels.*;
 import cis5550.webserver.parsers.DateParser;
 import cis5550.webserver.parsers.RangeParser;
 import cis5550.webserver.routing.BeforeAfterRoute;
-import cis5550.webserver.utils.FileReader;
-import cis5550.webserver.utils.RangeSplicer;
 import cis5550.webserver.routing.RoutesContainer;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Date;
 import java.util.Objects;
 
@@ -25,10 +27,10 @@ public class HTTPRequestResponder {
     private static final String SERVER_NAME = "CIS5550-WebServer";
 
     public static boolean generateAndSendResponse(
-            RequestImpl aRequest, RoutesContainer aRoutesContainer, StaticFiles aStaticFiles, Socket aSocket) throws IOException {
+            RequestImpl aRequest, RoutesContainer aRoutesContainer, StaticFiles aStaticFiles, OutputStream aOutputStream) throws IOException {
         boolean myKeepAlive = true;
 
-        ResponseImpl myResponse = new ResponseImpl(aSocket);
+        ResponseImpl myResponse = new ResponseImpl(aOutputStream);
         aRequest.setResponse(myResponse);
         myResponse.header(Header.SERVER.getHeaderString(), SERVER_NAME);
         myResponse.header(Header.DATE.getHeaderString(), DateParser.formatDate(new Date().getTime()));
@@ -36,20 +38,20 @@ public class HTTPRequestResponder {
         if (!aRequest.isValid()) {
             LOGGER.debug("Request is invalid");
             myResponse.errorStatus(HTTPStatus.BAD_REQUEST);
-            sendResponse(myResponse, aSocket);
+            sendResponse(myResponse, aOutputStream);
         } else if (Objects.isNull(aRequest.requestMethod())
                 || (RequestType.fromString(aRequest.requestMethod()) == RequestType.INVALID)) {
             LOGGER.debug("Request method is invalid or null");
             myResponse.errorStatus(HTTPStatus.NOT_IMPLEMENTED);
-            sendResponse(myResponse, aSocket);
+            sendResponse(myResponse, aOutputStream);
         } else if (Objects.isNull(aRequest.protocol()) || (aRequest.protocol().compareTo(HTTP_VERSION) != 0)) {
             LOGGER.debug("Protocol is invalid or null");
             myResponse.errorStatus(HTTPStatus.VERSION_NOT_SUPPORTED);
-            sendResponse(myResponse, aSocket);
+            sendResponse(myResponse, aOutputStream);
         } else if (Objects.isNull(aRequest.headers(Header.HOST.getHeaderString()))) {
             LOGGER.debug("Host header is null");
             myResponse.errorStatus(HTTPStatus.BAD_REQUEST);
-            sendResponse(myResponse, aSocket);
+            sendResponse(myResponse, aOutputStream);
         } else {
             BeforeAfterRoute myBeforeAfterRoute = aRoutesContainer.getRouteAndBuildParams(aRequest, aRequest.url());
             boolean myNotHalted = true;
@@ -66,7 +68,7 @@ public class HTTPRequestResponder {
             if (myBeforeAfterRoute.hasRoute()) {
                 try {
                     if (!myNotHalted) {
-                        sendResponse(myResponse, aSocket);
+                        sendResponse(myResponse, aOutputStream);
                         return myKeepAlive;
                     }
 
@@ -97,7 +99,7 @@ public class HTTPRequestResponder {
                     myResponse.clearBody();
                 } finally {
                     if (!myResponse.hasWritten() && !myResponse.hasRedirected()) {
-                        sendResponse(myResponse, aSocket);
+                        sendResponse(myResponse, aOutputStream);
                     } else if (!myResponse.hasRedirected()) {
                         myKeepAlive = false;
                     }
@@ -107,13 +109,13 @@ public class HTTPRequestResponder {
                     && aStaticFiles.isActive(aRequest.getHost())) {
 
                 myResponse = generateResponseForFile(
-                        aStaticFiles.getFilePath(aRequest.getHost(), aRequest.url()), aRequest, aSocket);
+                        aStaticFiles.getFilePath(aRequest.getHost(), aRequest.url()), aRequest);
                 try {
                     myBeforeAfterRoute.handleAfters(aRequest, myResponse);
                 } catch (Exception e) {
                     LOGGER.error("Error while handling request afters", e);
                 }
-                sendResponse(myResponse, aSocket);
+                sendResponse(myResponse, aOutputStream);
             } else {
                 try {
                     myBeforeAfterRoute.handleAfters(aRequest, myResponse);
@@ -121,83 +123,161 @@ public class HTTPRequestResponder {
                     LOGGER.info("Error while handling request afters", e);
                 }
                 myResponse.errorStatus(HTTPStatus.NOT_FOUND);
-                sendResponse(myResponse, aSocket);
+                sendResponse(myResponse, aOutputStream);
             }
         }
         return myKeepAlive;
     }
 
-    public static ResponseImpl generateResponseForFile(String aPath, Request aRequest, Socket aSocket)
+    public static ResponseImpl generateResponseForFile(String aPath, Request aRequest)
             throws IOException {
         ResponseImpl myResponse = new ResponseImpl();
         File myFile = new File(aPath);
         if (aPath.contains("..")) {
             LOGGER.debug("Path contains .., is forbidden");
             myResponse.errorStatus(HTTPStatus.FORBIDDEN);
+            return myResponse;
         } else if (!myFile.exists() || myFile.isDirectory()) {
             LOGGER.debug("File does not exist or is a directory");
             myResponse.errorStatus(HTTPStatus.NOT_FOUND);
-        } else if (!Objects.isNull(aRequest.headers(Header.IF_MODIFIED_SINCE.getHeaderString()))
-                && myFile.lastModified()
-                        <= DateParser.parseDate(aRequest.headers(Header.IF_MODIFIED_SINCE.getHeaderString()))) {
+            return myResponse;
+        } else if (!myFile.canRead()) {
+            LOGGER.debug("File is not readable, is forbidden");
+            myResponse.errorStatus(HTTPStatus.FORBIDDEN);
+            return myResponse;
+        }
+
+        long myFileLength = myFile.length();
+        long myLastModified = myFile.lastModified();
+        String myETag = "\"" + Long.toHexString(myLastModified) + "-" + Long.toHexString(myFileLength) + "\"";
+        String myLastModifiedString = DateParser.formatDate(myLastModified);
+
+        if (isNotModified(aRequest, myETag, myLastModified)) {
             LOGGER.debug("File has not been modified since last request");
             myResponse.errorStatus(HTTPStatus.NOT_MODIFIED);
-        } else {
-            String aExtension = aPath.substring(aPath.lastIndexOf(".") + 1);
+            myResponse.header(Header.ETAG.getHeaderString(), myETag);
+            return myResponse;
+        }
+
+        // a Range is only honored on GET, and only if If-Range (when sent) still names the current version
+        boolean myIsGet = aRequest.requestMethod().compareTo(RequestType.GET.toString()) == 0;
+        String myIfRange = aRequest.headers(Header.IF_RANGE.getHeaderString());
+        Range myRange = null;
+        if (myIsGet && (Objects.isNull(myIfRange) || myIfRange.equals(myETag) || myIfRange.equals(myLastModifiedString))) {
+            myRange = RangeParser.parseRange(aRequest.headers(Header.RANGE.getHeaderString()));
+        }
 
+        if (!Objects.isNull(myRange)) {
+            myRange = RangeParser.resolveRange(myRange, myFileLength);
+            if (Objects.isNull(myRange)) {
+                myResponse.errorStatus(HTTPStatus.INVALID_RANGE);
+                myResponse.header(Header.CONTENT_RANGE.getHeaderString(), "bytes */" + myFileLength);
+                return myResponse;
+            }
+            setResponseStatus(myResponse, HTTPStatus.PARTIAL_CONTENT);
+            myResponse.header(
+                    Header.CONTENT_RANGE.getHeaderString(),
+                    "bytes " + myRange.getStart() + "-" + myRange.getEnd() + "/" + myFileLength);
+        } else {
             setResponseStatus(myResponse, HTTPStatus.OK);
-            byte[] myBody = FileReader.readFile(aPath);
-            if (!Objects.isNull(myBody) && aRequest.requestMethod().compareTo(RequestType.GET.toString()) == 0) {
-                Range myRange = RangeParser.parseRange(aRequest.headers(Header.RANGE.getHeaderString()));
-
-                if (!Objects.isNull(myRange) && !RangeParser.isValidRange(myRange, myBody.length)) {
-                    myResponse.errorStatus(HTTPStatus.INVALID_RANGE);
-                } else {
-                    myBody = RangeSplicer.getRange(myRange, myBody);
-                    myResponse.header(Header.CONTENT_LENGTH.getHeaderString(), String.valueOf(myBody.length));
-                    myResponse.header(
-                            Header.CONTENT_TYPE.getHeaderString(),
-                            ContentType.fromExtension(aExtension).getTypeString());
-                    myResponse.bodyAsBytes(myBody);
+            myRange = new Range(0, myFileLength - 1);
+        }
+
+        String aExtension = aPath.substring(aPath.lastIndexOf(".") + 1);
+        long myContentLength = myRange.getEnd() - myRange.getStart() + 1;
+        myResponse.header(Header.CONTENT_LENGTH.getHeaderString(), String.valueOf(myContentLength));
+        myResponse.header(Header.CONTENT_TYPE.getHeaderString(), ContentType.fromExtension(aExtension).getTypeString());
+        myResponse.header(Header.LAST_MODIFIED.getHeaderString(), myLastModifiedString);
+        myResponse.header(Header.ETAG.getHeaderString(), myETag);
+        myResponse.header(Header.ACCEPT_RANGES.getHeaderString(), "bytes");
+        if (myIsGet) {
+            myResponse.bodyAsFile(myFile, myRange.getStart(), myContentLength);
+        }
+        return myResponse;
+    }
+
+    /**
+     * If-None-Match takes precedence over If-Modified-Since, as in RFC 7232. Dates only have second precision, so
+     * modification times are compared in seconds.
+     */
+    private static boolean isNotModified(Request aRequest, String aETag, long aLastModified) {
+        String myIfNoneMatch = aRequest.headers(Header.IF_NONE_MATCH.getHeaderString());
+        if (!Objects.isNull(myIfNoneMatch)) {
+            for (String myTag : myIfNoneMatch.split(",")) {
+                myTag = myTag.trim();
+                if (myTag.startsWith("W/")) {
+                    myTag = myTag.substring(2);
+                }
+                if (myTag.equals("*") || myTag.equals(aETag)) {
+                    return true;
                 }
-            } else if (Objects.isNull(myBody)) {
-                LOGGER.debug("File is null or forbidden");
-                myResponse.errorStatus(HTTPStatus.FORBIDDEN);
-            } else if (aRequest.requestMethod().compareTo(RequestType.HEAD.toString()) == 0) {
-                myResponse.header(Header.CONTENT_LENGTH.getHeaderString(), String.valueOf(myBody.length));
-                myResponse.header(
-                        Header.CONTENT_TYPE.getHeaderString(),
-                        ContentType.fromExtension(aExtension).getTypeString());
             }
+            return false;
         }
-        return myResponse;
+
+        String myIfModifiedSince = aRequest.headers(Header.IF_MODIFIED_SINCE.getHeaderString());
+        if (Objects.isNull(myIfModifiedSince)) {
+            return false;
+        }
+        long mySince = DateParser.parseDate(myIfModifiedSince);
+        return mySince >= 0 && aLastModified / 1000 <= mySince / 1000;
     }
 
-    public static void sendResponse(ResponseImpl aResponse, Socket aSocket) throws IOException {
-        LOGGER.info("Sending response " + aResponse.debugString());
-        OutputStream myOutputStream = aSocket.getOutputStream();
-        sendHeaders(aResponse, aSocket);
+    public static void sendResponse(ResponseImpl aResponse, OutputStream aOutputStream) throws IOException {
+        LOGGER.info(() -> "Sending response " + aResponse.debugString());
+        writeHeaders(aResponse, aOutputStream);
         if (aResponse.getBody() != null) {
-            myOutputStream.write(aResponse.getBody());
+            aOutputStream.write(aResponse.getBody());
+        } else if (aResponse.getFile() != null) {
+            sendFile(aResponse, aOutputStream);
+        }
+        aOutputStream.flush();
+    }
+
+    /**
+     * Streams the response's file region to the connection. On a socket channel this is a transferTo, so the kernel
+     * copies the file without it entering the heap; on other streams (TLS) it goes through transferTo's small buffer.
+     * Either way memory use doesn't depend on the file size.
+     */
+    private static void sendFile(ResponseImpl aResponse, OutputStream aOutputStream) throws IOException {
+        try (FileChannel myFile = FileChannel.open(aResponse.getFile().toPath(), StandardOpenOption.READ)) {
+            long myPosition = aResponse.getFileOffset();
+            long myRemaining = aResponse.getFileLength();
+            if (aOutputStream instanceof ChannelOutputStream myChannelOutput) {
+                myChannelOutput.transferFrom(myFile, myPosition, myRemaining);
+                return;
+            }
+
+            WritableByteChannel myTarget = Channels.newChannel(aOutputStream);
+            while (myRemaining > 0) {
+                long myTransferred = myFile.transferTo(myPosition, myRemaining, myTarget);
+                if (myTransferred <= 0) {
+                    throw new EOFException("File ended before " + myRemaining + " remaining bytes were sent");
+                }
+                myPosition += myTransferred;
+                myRemaining -= myTransferred;
+            }
         }
-        myOutputStream.flush();
     }
 
-    public static void sendHeaders(ResponseImpl aResponse, Socket aSocket) throws IOException {
-        if (aSocket == null) {
-            throw new IOException("Socket is null");
+    public static void sendHeaders(ResponseImpl aResponse, OutputStream aOutputStream) throws IOException {
+        writeHeaders(aResponse, aOutputStream);
+        aOutputStream.flush();
+    }
+
+    private static void writeHeaders(ResponseImpl aResponse, OutputStream aOutputStream) throws IOException {
+        if (aOutputStream == null) {
+            throw new IOException("Output stream is null");
         }
-        LOGGER.debug("Sending headers for response " + aResponse.toString());
-        OutputStream myOutputStream = aSocket.getOutputStream();
-        myOutputStream.write(
+        LOGGER.debug(() -> "Sending headers for response " + aResponse.toString());
+        aOutputStream.write(
                 (HTTP_VERSION + " " + aResponse.getStatusCode() + " " + aResponse.getReasonPhrase() + "\r\n")
                         .getBytes());
         for (String myKey : aResponse.getHeaders().keySet()) {
             for (String myValue : aResponse.getHeader(myKey)) {
-                myOutputStream.write((myKey + ": " + myValue + "\r\n").getBytes());
+                aOutputStream.write((myKey + ": " + myValue + "\r\n").getBytes());
             }
         }
-        myOutputStream.write("\r\n".getBytes());
-        myOutputStream.flush();
+        aOutputStream.write("\r\n".getBytes());
     }
 }
@@ -3,9 +3,9 @@ package cis5550.webserver;
 import cis5550.utils.HTTPStatus;
 import cis5550.webserver.datamodels.Header;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 
@@ -13,8 +13,11 @@ public class ResponseImpl implements Response {
     private int theStatusCode;
     private String theReasonPhrase;
     private byte[] theBody;
+    private File theFile;
+    private long theFileOffset;
+    private long theFileLength;
     private final Map<String, List<String>> theHeaders;
-    private final Socket theSocket;
+    private final OutputStream theOutputStream;
 
     private boolean theHasWritten = false;
     private boolean theHasRedirected = false;
@@ -22,26 +25,40 @@ public class ResponseImpl implements Response {
 
     public ResponseImpl() {
         theHeaders = new HashMap<>();
-        theSocket = null;
+        theOutputStream = null;
     }
 
-    public ResponseImpl(Socket aSocket) {
+    public ResponseImpl(OutputStream aOutputStream) {
         theHeaders = new HashMap<>();
-        theSocket = aSocket;
+        theOutputStream = aOutputStream;
     }
 
     @Override
     public void body(String body) {
         theBody = body.getBytes();
+        theFile = null;
     }
 
     public void clearBody() {
         theBody = null;
+        theFile = null;
+    }
+
+    /**
+     * Uses aLength bytes of aFile starting at aOffset as the body. The file is only opened when the response is sent,
+     * and its contents are streamed to the connection rather than loaded into memory.
+     */
+    public void bodyAsFile(File aFile, long aOffset, long aLength) {
+        theBody = null;
+        theFile = aFile;
+        theFileOffset = aOffset;
+        theFileLength = aLength;
     }
 
     @Override
     public void bodyAsBytes(byte[] bodyArg) {
         theBody = bodyArg;
+        theFile = null;
     }
 
     @Override
@@ -73,18 +90,17 @@ public class ResponseImpl implements Response {
 
     @Override
     public void write(byte[] b) throws Exception {
-        if (theSocket == null) {
-            throw new Exception("Socket is null");
+        if (theOutputStream == null) {
+            throw new Exception("Output stream is null");
         }
-        OutputStream myOutputStream = theSocket.getOutputStream();
 
         if (!theHasWritten) {
             theHasWritten = true;
             header(Header.CONNECTION.getHeaderString(), "close");
-            HTTPRequestResponder.sendHeaders(this, theSocket);
+            HTTPRequestResponder.sendHeaders(this, theOutputStream);
         }
-        myOutputStream.write(b);
-        myOutputStream.flush();
+        theOutputStream.write(b);
+        theOutputStream.flush();
     }
 
     @Override
@@ -98,7 +114,7 @@ public class ResponseImpl implements Response {
         header(Header.LOCATION.getHeaderString(), url);
         header(Header.CONTENT_LENGTH.getHeaderString(), "0");
         try {
-            HTTPRequestResponder.sendHeaders(this, theSocket);
+            HTTPRequestResponder.sendHeaders(this, theOutputStream);
         } catch (IOException e) {
         }
     }
@@ -127,6 +143,18 @@ public class ResponseImpl implements Response {
         return theBody;
     }
 
+    public File getFile() {
+        return theFile;
+    }
+
+    public long getFileOffset() {
+        return theFileOffset;
+    }
+
+    public long getFileLength() {
+        return theFileLength;
+    }
+
     public Map<String, List<String>> getHeaders() {
         return theHeaders;
     }
@@ -0,0 +1,318 @@
+package cis5550.webserver;
+
+import cis5550.tools.Logger;
+import cis5550.utils.HTTPStatus;
+import cis5550.webserver.datamodels.Header;
+import cis5550.webserver.parsers.HTTPRequestParser;
+import cis5550.webserver.parsers.RequestBuffer;
+import cis5550.webserver.routing.RoutesContainer;
+import cis5550.webserver.sessions.SessionsContainer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking front-end for plain HTTP. A single selector thread accepts connections and reads from every open
+ * channel; only once a complete request (headers and Content-Length body) has been buffered is the connection handed
+ * to the {@link ServerExecutor}, which parses it and runs the usual route handling. While a worker owns a connection
+ * its read interest is switched off, and afterwards the connection goes back to the selector, so idle keep-alive
+ * connections don't hold a thread.
+ */
+public class SelectorServerImpl implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(SelectorServerImpl.class);
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final byte[] END_SEQUENCE = new byte[]{13, 10, 13, 10};
+
+    private final int thePort;
+    private final StaticFiles theStaticFiles;
+    private final RoutesContainer theRoutesContainer;
+    private final SessionsContainer theSessionsContainer;
+    private final HTTPRequestParser theHTTPRequestParser = new HTTPRequestParser(false);
+    private final ServerExecutor theExecutor;
+    private final Queue<Runnable> thePendingActions = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer theReadBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private Selector theSelector;
+    private ServerSocketChannel theServerChannel;
+    private volatile boolean theIsStopped = false;
+
+    public SelectorServerImpl(
+            int aPort,
+            StaticFiles aStaticFiles,
+            RoutesContainer aRoutesContainer,
+            SessionsContainer aSessionsContainer,
+            ServerExecutor aExecutor) {
+        thePort = aPort;
+        theStaticFiles = aStaticFiles;
+        theRoutesContainer = aRoutesContainer;
+        theSessionsContainer = aSessionsContainer;
+        theExecutor = aExecutor;
+
+        try {
+            LOGGER.info("Starting non-blocking HTTP server on port " + thePort);
+            theSelector = Selector.open();
+            theServerChannel = ServerSocketChannel.open();
+            theServerChannel.bind(new InetSocketAddress("0.0.0.0", thePort));
+            theServerChannel.configureBlocking(false);
+            theServerChannel.register(theSelector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            LOGGER.error("Failed to create server channel", e);
+        }
+    }
+
+    @Override
+    public void run() {
+        theExecutor.start();
+
+        while (!theIsStopped) {
+            try {
+                theSelector.select();
+
+                Runnable myAction;
+                while ((myAction = thePendingActions.poll()) != null) {
+                    myAction.run();
+                }
+
+                Iterator<SelectionKey> myKeys = theSelector.selectedKeys().iterator();
+                while (myKeys.hasNext()) {
+                    SelectionKey myKey = myKeys.next();
+                    myKeys.remove();
+                    if (!myKey.isValid()) {
+                        continue;
+                    }
+                    if (myKey.isAcceptable()) {
+                        accept();
+                    } else if (myKey.isReadable()) {
+                        ((Connection) myKey.attachment()).onReadable();
+                    }
+                }
+            } catch (Exception e) {
+                LOGGER.error("Failed to process selected keys", e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel myChannel = theServerChannel.accept();
+        if (myChannel == null) {
+            return;
+        }
+        myChannel.configureBlocking(false);
+        myChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection myConnection = new Connection(myChannel);
+        LOGGER.info(() -> "Accepted connection from " + myConnection.theRemoteAddress);
+        myConnection.theKey = myChannel.register(theSelector, SelectionKey.OP_READ, myConnection);
+    }
+
+    public synchronized void stopServer() {
+        theIsStopped = true;
+        theSelector.wakeup();
+        theExecutor.stop();
+    }
+
+    /**
+     * Buffers the bytes of one connection until a whole request has arrived. The buffer is only touched by the
+     * selector thread while read interest is on, and only by a worker thread while it is off.
+     */
+    private class Connection implements Runnable {
+        private final SocketChannel theChannel;
+        private final InetSocketAddress theRemoteAddress;
+        private SelectionKey theKey;
+        private byte[] theBuffer = new byte[READ_BUFFER_SIZE];
+        private int theLength = 0;
+        private int theScanned = 0;
+        private int theRequestLength = -1;
+        private boolean theIsAtEnd = false;
+
+        Connection(SocketChannel aChannel) throws IOException {
+            theChannel = aChannel;
+            theRemoteAddress = (InetSocketAddress) aChannel.getRemoteAddress();
+        }
+
+        void onReadable() {
+            int myRead;
+            try {
+                while ((myRead = theChannel.read(theReadBuffer)) > 0) {
+                    theReadBuffer.flip();
+                    if (theLength + myRead > theBuffer.length) {
+                        theBuffer = Arrays.copyOf(theBuffer, Math.max(theBuffer.length * 2, theLength + myRead));
+                    }
+                    theReadBuffer.get(theBuffer, theLength, myRead);
+                    theLength += myRead;
+                    theReadBuffer.clear();
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Failed to read from " + theRemoteAddress, e);
+                close();
+                return;
+            }
+
+            theIsAtEnd = myRead < 0;
+            try {
+                if (hasCompleteRequest()) {
+                    theKey.interestOps(0);
+                    theExecutor.execute(this);
+                } else if (theIsAtEnd) {
+                    close();
+                }
+            } catch (RejectedRequestException e) {
+                reject(e.theStatus);
+            }
+        }
+
+        /**
+         * Returns whether a whole request is buffered. Throws if the request cannot be served, before its body is
+         * buffered.
+         */
+        private boolean hasCompleteRequest() throws RejectedRequestException {
+            if (theRequestLength < 0) {
+                int myHeaderLength = findHeaderLength();
+                if (myHeaderLength < 0) {
+                    return false;
+                }
+                theRequestLength = myHeaderLength + parseContentLength(myHeaderLength);
+            }
+            return theLength >= theRequestLength;
+        }
+
+        private int findHeaderLength() throws RejectedRequestException {
+            int myEnd = Math.min(theLength, RequestBuffer.MAX_HEADER_SIZE);
+            for (int i = Math.max(0, theScanned - END_SEQUENCE.length + 1); i + END_SEQUENCE.length <= myEnd; i++) {
+                if (theBuffer[i] == END_SEQUENCE[0] && theBuffer[i + 1] == END_SEQUENCE[1]
+                        && theBuffer[i + 2] == END_SEQUENCE[2] && theBuffer[i + 3] == END_SEQUENCE[3]) {
+                    return i + END_SEQUENCE.length;
+                }
+            }
+            if (theLength >= RequestBuffer.MAX_HEADER_SIZE) {
+                throw new RejectedRequestException(HTTPStatus.HEADER_FIELDS_TOO_LARGE);
+            }
+            theScanned = theLength;
+            return -1;
+        }
+
+        private int parseContentLength(int aHeaderLength) throws RejectedRequestException {
+            String myHead = new String(theBuffer, 0, aHeaderLength, StandardCharsets.ISO_8859_1);
+            for (String myLine : myHead.split("\r\n")) {
+                int myColonIndex = myLine.indexOf(':');
+                if (myColonIndex > 0 && myLine.substring(0, myColonIndex).trim()
+                        .equalsIgnoreCase(Header.CONTENT_LENGTH.getHeaderString())) {
+                    long myContentLength;
+                    try {
+                        myContentLength = Long.parseLong(myLine.substring(myColonIndex + 1).trim());
+                    } catch (NumberFormatException e) {
+                        throw new RejectedRequestException(HTTPStatus.BAD_REQUEST);
+                    }
+                    if (myContentLength < 0) {
+                        throw new RejectedRequestException(HTTPStatus.BAD_REQUEST);
+                    }
+                    if (myContentLength > RequestBuffer.MAX_BODY_SIZE) {
+                        throw new RejectedRequestException(HTTPStatus.PAYLOAD_TOO_LARGE);
+                    }
+                    return (int) myContentLength;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Answers a request that cannot be served with aStatus and closes the connection, since the rest of what the
+         * client sent cannot be told apart from the next request.
+         */
+        private void reject(HTTPStatus aStatus) {
+            LOGGER.debug(() -> "Rejecting request from " + theRemoteAddress + ": " + aStatus.getMessage());
+            String myResponse = "HTTP/1.1 " + aStatus.getCode() + " " + aStatus.getMessage()
+                    + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+            try {
+                // a best effort: the channel is non-blocking, but a response this short fits in the send buffer
+                theChannel.write(ByteBuffer.wrap(myResponse.getBytes(StandardCharsets.ISO_8859_1)));
+            } catch (IOException e) {
+                LOGGER.debug("Failed to reject request from " + theRemoteAddress, e);
+            }
+            close();
+        }
+
+        @Override
+        public void run() {
+            ChannelOutputStream myChannelOutput = new ChannelOutputStream(theChannel);
+            boolean myKeepAlive;
+            try {
+                RequestImpl myRequest = theHTTPRequestParser.parseRequest(
+                        RequestBuffer.wrap(theBuffer, 0, theRequestLength), theRemoteAddress, theSessionsContainer);
+                consumeRequest();
+
+                if (Objects.isNull(myRequest)) {
+                    close();
+                    return;
+                }
+                LOGGER.info(() -> "Received request " + myRequest.debugString());
+
+                myKeepAlive = HTTPRequestResponder.generateAndSendResponse(
+                        myRequest, theRoutesContainer, theStaticFiles, myChannelOutput);
+                myChannelOutput.flush();
+            } catch (Exception e) {
+                LOGGER.debug("Failed to process request", e);
+                close();
+                return;
+            } finally {
+                myChannelOutput.close();
+            }
+
+            boolean myHasNext;
+            try {
+                myHasNext = hasCompleteRequest();
+            } catch (RejectedRequestException e) {
+                reject(e.theStatus);
+                return;
+            }
+            if (!myKeepAlive || (theIsAtEnd && !myHasNext)) {
+                LOGGER.debug(() -> "Closing connection " + theRemoteAddress);
+                close();
+            } else if (myHasNext) {
+                theExecutor.execute(this);
+            } else {
+                thePendingActions.add(() -> {
+                    if (theKey.isValid()) {
+                        theKey.interestOps(SelectionKey.OP_READ);
+                    }
+                });
+                theSelector.wakeup();
+            }
+        }
+
+        private void consumeRequest() {
+            theLength -= theRequestLength;
+            System.arraycopy(theBuffer, theRequestLength, theBuffer, 0, theLength);
+            theRequestLength = -1;
+            theScanned = 0;
+        }
+
+        private void close() {
+            theKey.cancel();
+            try {
+                theChannel.close();
+            } catch (IOException e) {
+                LOGGER.error("Failed to close channel", e);
+            }
+        }
+    }
+
+    private static class RejectedRequestException extends Exception {
+        private final HTTPStatus theStatus;
+
+        RejectedRequestException(HTTPStatus aStatus) {
+            super(aStatus.getMessage());
+            theStatus = aStatus;
+        }
+    }
+}
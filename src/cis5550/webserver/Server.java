@@ -13,10 +13,16 @@ public class Server {
     private static final SessionsContainer theSessionsContainer = new SessionsContainer();
     private static HostsContainer theHostsContainer;
 
-    private static final int NUM_THREADS = 100;
+    public static final String THREADS_PROPERTY = "cis5550.webserver.threads";
+    public static final String VIRTUAL_THREADS_PROPERTY = "cis5550.webserver.virtualThreads";
+    private static final int DEFAULT_NUM_THREADS = 100;
+    // Defaults can be set per process on the command line, e.g. -Dcis5550.webserver.virtualThreads=true
+    private static int theNumThreads = Integer.getInteger(THREADS_PROPERTY, DEFAULT_NUM_THREADS);
+    private static boolean theUsesVirtualThreads = Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY);
     private static int thePort = 80;
     private static int theSecurePort = Integer.MIN_VALUE;
-    private static ServerImpl theServer = null;
+    private static boolean theIsNonBlocking = false;
+    private static Runnable theServer = null;
     private static ServerImpl theSecureServer = null;
     private static String theHost = null;
 
@@ -39,6 +45,29 @@ public class Server {
         thePort = aPort;
     }
 
+    /**
+     * Serves plain HTTP from a selector thread instead of giving each connection its own worker thread. Must be
+     * called before the first route is added.
+     */
+    public static void nonBlocking(boolean aNonBlocking) {
+        theIsNonBlocking = aNonBlocking;
+    }
+
+    /**
+     * Size of the worker thread pool of each server. Ignored when running on virtual threads.
+     */
+    public static void threads(int aNumThreads) {
+        theNumThreads = aNumThreads;
+    }
+
+    /**
+     * Runs every connection (or, in non-blocking mode, every request) on its own virtual thread instead of a fixed
+     * pool of worker threads. Must be called before the first route is added.
+     */
+    public static void virtualThreads(boolean aUseVirtualThreads) {
+        theUsesVirtualThreads = aUseVirtualThreads;
+    }
+
     public static void securePort(int aPort) {
         theSecurePort = aPort;
         theHostsContainer = new HostsContainer(aPort);
@@ -76,14 +105,22 @@ public class Server {
             new Thread(theSessionsContainer).start();
         }
         if (theServer == null) {
-            theServer =
-                    new ServerImpl(thePort, theStaticFiles, theRoutesContainer, theSessionsContainer, theHostsContainer, NUM_THREADS, false);
+            if (theIsNonBlocking) {
+                theServer = new SelectorServerImpl(thePort, theStaticFiles, theRoutesContainer, theSessionsContainer, newExecutor());
+            } else {
+                theServer =
+                        new ServerImpl(thePort, theStaticFiles, theRoutesContainer, theSessionsContainer, theHostsContainer, newExecutor(), false);
+            }
             new Thread(theServer).start();
         }
         if (theSecurePort != Integer.MIN_VALUE && theSecureServer == null) {
             theSecureServer = new ServerImpl(
-                    theSecurePort, theStaticFiles, theRoutesContainer, theSessionsContainer, theHostsContainer ,NUM_THREADS, true);
+                    theSecurePort, theStaticFiles, theRoutesContainer, theSessionsContainer, theHostsContainer, newExecutor(), true);
             new Thread(theSecureServer).start();
         }
     }
+
+    private static ServerExecutor newExecutor() {
+        return new ServerExecutor(theNumThreads, theUsesVirtualThreads);
+    }
 }
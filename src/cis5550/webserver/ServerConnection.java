@@ -2,10 +2,13 @@ package cis5550.webserver;
 
 import cis5550.tools.Logger;
 import cis5550.webserver.parsers.HTTPRequestParser;
+import cis5550.webserver.parsers.RequestBuffer;
 import cis5550.webserver.routing.RoutesContainer;
 import cis5550.webserver.sessions.SessionsContainer;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.Objects;
 
@@ -29,24 +32,34 @@ public class ServerConnection implements Runnable {
         theRoutesContainer = aRoutesContainer;
         theSessionsContainer = aSessionsContainer;
         theServer = aServer;
-        theHTTPRequestParser = new HTTPRequestParser(aServer);
+        theHTTPRequestParser = new HTTPRequestParser(aServer.isSecure());
     }
 
     @Override
     public void run() {
-        LOGGER.info("Accepted connection from " + theSocket.getInetAddress());
+        LOGGER.info(() -> "Accepted connection from " + theSocket.getInetAddress());
+        InetSocketAddress myRemoteAddress = (InetSocketAddress) theSocket.getRemoteSocketAddress();
+        RequestBuffer myRequestBuffer = null;
+        OutputStream myOutput = null;
         while (true) {
             try {
-                RequestImpl myRequest = theHTTPRequestParser.parseRequest(theSocket, theSessionsContainer);
+                if (myRequestBuffer == null) {
+                    myRequestBuffer = new RequestBuffer(theSocket.getInputStream());
+                    myOutput = theSocket.getChannel() != null
+                            ? new ChannelOutputStream(theSocket.getChannel())
+                            : theSocket.getOutputStream();
+                }
+                RequestImpl myRequest =
+                        theHTTPRequestParser.parseRequest(myRequestBuffer, myRemoteAddress, theSessionsContainer);
 
                 if (Objects.isNull(myRequest)) {
-                    LOGGER.info("Closing connection " + theSocket.getInetAddress());
+                    LOGGER.info(() -> "Closing connection " + theSocket.getInetAddress());
                     break;
                 }
 
-                LOGGER.info("Received request " + myRequest.debugString());
+                LOGGER.info(() -> "Received request " + myRequest.debugString());
 
-                if (!HTTPRequestResponder.generateAndSendResponse(myRequest, theRoutesContainer, theStaticFiles, theSocket)) {
+                if (!HTTPRequestResponder.generateAndSendResponse(myRequest, theRoutesContainer, theStaticFiles, myOutput)) {
                     LOGGER.debug("Used write(): closing connection " + theSocket.getInetAddress());
                     break;
                 }
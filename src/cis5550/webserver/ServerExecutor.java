@@ -0,0 +1,58 @@
+package cis5550.webserver;
+
+import cis5550.tools.Logger;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs connection and request tasks for a server, either on a fixed pool of {@link ServerWorkerThread}s fed from a
+ * queue or on a new virtual thread per task. With virtual threads a task that blocks on a socket or on a KVS call
+ * doesn't occupy a platform thread, so the number of concurrent connections is not bounded by the pool size.
+ */
+public class ServerExecutor {
+    private static final Logger LOGGER = Logger.getLogger(ServerExecutor.class);
+
+    private final BlockingQueue<Runnable> theTaskQueue = new LinkedBlockingQueue<>();
+    private final ServerWorkerThread[] theWorkerThreads;
+    private final ExecutorService theVirtualExecutor;
+
+    public ServerExecutor(int aNumThreads, boolean aUseVirtualThreads) {
+        if (aUseVirtualThreads) {
+            LOGGER.info("Running server tasks on virtual threads");
+            theWorkerThreads = new ServerWorkerThread[0];
+            theVirtualExecutor =
+                    Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("server-task-", 0).factory());
+        } else {
+            LOGGER.info("Running server tasks on " + aNumThreads + " worker threads");
+            theWorkerThreads = new ServerWorkerThread[aNumThreads];
+            theVirtualExecutor = null;
+        }
+    }
+
+    public void start() {
+        for (int i = 0; i < theWorkerThreads.length; i++) {
+            theWorkerThreads[i] = new ServerWorkerThread(theTaskQueue);
+            theWorkerThreads[i].start();
+        }
+    }
+
+    public void execute(Runnable aTask) {
+        if (theVirtualExecutor != null) {
+            theVirtualExecutor.execute(aTask);
+        } else {
+            theTaskQueue.add(aTask);
+        }
+    }
+
+    public void stop() {
+        for (ServerWorkerThread myWorkerThread : theWorkerThreads) {
+            myWorkerThread.stopThread();
+        }
+        if (theVirtualExecutor != null) {
+            theVirtualExecutor.shutdown();
+        }
+    }
+}
@@ -6,10 +6,10 @@ import cis5550.webserver.sessions.SessionsContainer;
 import cis5550.webserver.utils.HostsContainer;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.channels.ServerSocketChannel;
 
 public class ServerImpl implements Runnable {
     private static final Logger LOGGER = Logger.getLogger(ServerImpl.class);
@@ -23,8 +23,7 @@ public class ServerImpl implements Runnable {
     private final RoutesContainer theRoutesContainer;
     private final SessionsContainer theSessionsContainer;
     private final HostsContainer theHostsContainer;
-    private final BlockingQueue<Runnable> theTaskQueue;
-    private final ServerWorkerThread[] theWorkerThreads;
+    private final ServerExecutor theExecutor;
     private final boolean theSecure;
     private volatile boolean theIsStopped = false;
 
@@ -34,7 +33,7 @@ public class ServerImpl implements Runnable {
             RoutesContainer aRoutesContainer,
             SessionsContainer aSessionsContainer,
             HostsContainer aHostsContainer,
-            int aNumThreads,
+            ServerExecutor aExecutor,
             boolean aSecure) {
         thePort = aPort;
         theStaticFiles = aStaticFiles;
@@ -44,12 +43,16 @@ public class ServerImpl implements Runnable {
 
         theHostsContainer = aHostsContainer;
 
-        theTaskQueue = new LinkedBlockingQueue<>();
-        theWorkerThreads = new ServerWorkerThread[aNumThreads];
+        theExecutor = aExecutor;
 
         try {
             LOGGER.info("Starting " + (theSecure ? "HTTPS" : "HTTP") + " server on port " + thePort);
-            theSocket = new ServerSocket(thePort, 0, InetAddress.getByName("0.0.0.0"));
+            if (theSecure) {
+                theSocket = new ServerSocket(thePort, 0, InetAddress.getByName("0.0.0.0"));
+            } else {
+                // accepted sockets get a SocketChannel, which lets static files go out with transferTo
+                theSocket = ServerSocketChannel.open().bind(new InetSocketAddress("0.0.0.0", thePort)).socket();
+            }
         } catch (Exception e) {
             LOGGER.error("Failed to create server socket", e);
         }
@@ -57,16 +60,13 @@ public class ServerImpl implements Runnable {
 
     @Override
     public void run() {
-        for (int i = 0; i < theWorkerThreads.length; i++) {
-            theWorkerThreads[i] = new ServerWorkerThread(theTaskQueue);
-            theWorkerThreads[i].start();
-        }
+        theExecutor.start();
 
         while (true) {
             try {
                 Socket mySocket = theSecure ? theHostsContainer.getHostSocket(theSocket.accept()) : theSocket.accept();
 
-                theTaskQueue.put(new ServerConnection(
+                theExecutor.execute(new ServerConnection(
                         mySocket, theRoutesContainer, theStaticFiles, theSessionsContainer, this));
             } catch (Exception e) {
                 LOGGER.error("Failed to accept connection", e);
@@ -76,9 +76,7 @@ public class ServerImpl implements Runnable {
 
     public synchronized void stopServer() {
         theIsStopped = true;
-        for (ServerWorkerThread myWorkerThread : theWorkerThreads) {
-            myWorkerThread.stopThread();
-        }
+        theExecutor.stop();
     }
 
     public boolean isSecure() {
@@ -13,6 +13,12 @@ public enum Header {
     COOKIE("Cookie"),
     SET_COOKIE("Set-Cookie"),
     SESSION_ID("SessionID"),
+    ETAG("ETag"),
+    LAST_MODIFIED("Last-Modified"),
+    IF_NONE_MATCH("If-None-Match"),
+    IF_RANGE("If-Range"),
+    ACCEPT_RANGES("Accept-Ranges"),
+    CONTENT_RANGE("Content-Range"),
     ;
 
     private final String theHeaderString;
@@ -35,6 +41,12 @@ public enum Header {
             case "Range" -> RANGE;
             case "Server" -> SERVER;
             case "Date" -> DATE;
+            case "ETag" -> ETAG;
+            case "Last-Modified" -> LAST_MODIFIED;
+            case "If-None-Match" -> IF_NONE_MATCH;
+            case "If-Range" -> IF_RANGE;
+            case "Accept-Ranges" -> ACCEPT_RANGES;
+            case "Content-Range" -> CONTENT_RANGE;
             default -> null;
         };
     }
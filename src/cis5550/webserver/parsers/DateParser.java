@@ -2,19 +2,25 @@ package cis5550.webserver.parsers;
 
 import java.text.SimpleDateFormat;
 import java.util.Locale;
+import java.util.TimeZone;
 
 public class DateParser {
-    private static final SimpleDateFormat rfc1123Format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+    // SimpleDateFormat is not thread-safe, and this is called from every server thread
+    private static final ThreadLocal<SimpleDateFormat> rfc1123Format = ThreadLocal.withInitial(() -> {
+        SimpleDateFormat myFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+        myFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return myFormat;
+    });
 
     public static long parseDate(String aDateString) {
         try {
-            return rfc1123Format.parse(aDateString).getTime();
+            return rfc1123Format.get().parse(aDateString).getTime();
         } catch (Exception e) {
             return -1;
         }
     }
 
     public static String formatDate(long aDate) {
-        return rfc1123Format.format(aDate);
+        return rfc1123Format.get().format(aDate);
     }
 }
@@ -1,17 +1,16 @@
 package cis5550.webserver.parsers;
 
 import cis5550.tools.Logger;
-import cis5550.webserver.ServerImpl;
 import cis5550.webserver.datamodels.ContentType;
 import cis5550.webserver.datamodels.Header;
 import cis5550.webserver.RequestImpl;
 import cis5550.webserver.datamodels.RequestType;
 import cis5550.webserver.sessions.SessionsContainer;
 
-import java.io.*;
+import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -19,59 +18,30 @@ import java.util.Objects;
 public class HTTPRequestParser {
     private static final Logger LOGGER = Logger.getLogger(HTTPRequestParser.class);
     private static final String ENCODING = "UTF-8";
-    private static final byte[] END_SEQUENCE = new byte[]{13, 10, 13, 10};
 
-    private final ServerImpl theServer;
+    private final boolean theSecure;
 
-    public HTTPRequestParser(ServerImpl aServer) {
-        theServer = aServer;
+    public HTTPRequestParser(boolean aSecure) {
+        theSecure = aSecure;
     }
 
-    public RequestImpl parseRequest(Socket aSocket, SessionsContainer aSessionsContainer) throws IOException {
-        byte[] myRequestBytes = readBytes(aSocket.getInputStream());
-        if (Objects.isNull(myRequestBytes)) {
+    public RequestImpl parseRequest(
+            RequestBuffer aRequestBuffer, InetSocketAddress aRemoteAddress, SessionsContainer aSessionsContainer)
+            throws IOException {
+        int myHeaderEnd = aRequestBuffer.fillHeaders();
+        if (myHeaderEnd < 0) {
             LOGGER.debug("Request is null");
             return null;
         }
 
-        BufferedReader myBufferedReader =
-                new BufferedReader(new InputStreamReader(new ByteArrayInputStream(myRequestBytes)));
-
-        return buildRequestObject(myBufferedReader, aSocket, aSessionsContainer);
-    }
-
-    private byte[] readBytes(InputStream aInputStream) throws IOException {
-        long myStartTime = System.nanoTime();
-        ByteArrayOutputStream myByteArrayOutputStream = new ByteArrayOutputStream();
-
-        byte myByte;
-        int myEndSequenceCounter = 0;
-
-        while ((myByte = (byte) aInputStream.read()) >= 0) {
-            myByteArrayOutputStream.write(myByte);
-            if (myByte == END_SEQUENCE[myEndSequenceCounter]) {
-                myEndSequenceCounter++;
-                if (myEndSequenceCounter == END_SEQUENCE.length) {
-                    long myEndTime = System.nanoTime();
-                    LOGGER.info("Time taken to read bytes: " + (myEndTime - myStartTime) + "ns");
-                    return myByteArrayOutputStream.toByteArray();
-                }
-            } else {
-                myEndSequenceCounter = (myByte == END_SEQUENCE[0]) ? 1 : 0;
-            }
-        }
-        return null;
-    }
-
-    private RequestImpl buildRequestObject(
-            BufferedReader aRequestReader, Socket aSocket, SessionsContainer aSessionsContainer) throws IOException {
-        InputStream myInputStream = aSocket.getInputStream();
-        String myFirstLine = aRequestReader.readLine();
+        byte[] myBytes = aRequestBuffer.array();
+        int myLineStart = aRequestBuffer.position();
+        int myLineEnd = lineEnd(myBytes, myLineStart, myHeaderEnd);
+        String myFirstLine = decodeLine(myBytes, myLineStart, myLineEnd);
 
         boolean myIsValid = true;
         RequestType myMethod = RequestType.INVALID;
         String myVersion = "";
-        InetSocketAddress myRemoteAddress = (InetSocketAddress) aSocket.getRemoteSocketAddress();
         String myUrl = "";
         Map<String, String> myHeaders = new HashMap<>();
         Map<String, String> myQueryParams = new HashMap<>();
@@ -112,34 +82,35 @@ public class HTTPRequestParser {
             myIsValid = false;
         }
 
-        String myCurrLine;
-        while ((myCurrLine = aRequestReader.readLine()) != null && !myCurrLine.isEmpty()) {
-            int myColonIndex = myCurrLine.indexOf(": ");
+        while (true) {
+            myLineStart = myLineEnd + 1;
+            myLineEnd = lineEnd(myBytes, myLineStart, myHeaderEnd);
+            int myContentEnd = contentEnd(myBytes, myLineStart, myLineEnd);
+            if (myLineStart >= myHeaderEnd || myContentEnd == myLineStart) {
+                break;
+            }
+
+            int myColonIndex = indexOfSeparator(myBytes, myLineStart, myContentEnd);
             if (myColonIndex != -1) {
-                String myKey = myCurrLine.substring(0, myColonIndex);
-                String myValue = myCurrLine.substring(myColonIndex + 2);
+                String myKey = new String(myBytes, myLineStart, myColonIndex - myLineStart, StandardCharsets.UTF_8)
+                        .toLowerCase();
+                String myValue = new String(myBytes, myColonIndex + 2, myContentEnd - myColonIndex - 2, StandardCharsets.UTF_8);
                 if (myHeaders.containsKey(myKey)) {
-                    myHeaders.put(myKey.toLowerCase(), myHeaders.get(myKey.toLowerCase()) + ", " + myValue);
+                    myHeaders.put(myKey, myHeaders.get(myKey) + ", " + myValue);
                 } else {
-                    myHeaders.put(myKey.toLowerCase(), myValue);
+                    myHeaders.put(myKey, myValue);
                 }
             } else {
                 LOGGER.error("Failed to parse header");
                 myIsValid = false;
             }
         }
+        aRequestBuffer.position(myHeaderEnd);
 
         String myContentLength =
                 myHeaders.get(Header.CONTENT_LENGTH.getHeaderString().toLowerCase());
         if (Objects.nonNull(myContentLength)) {
-            int myContentLengthInt = Integer.parseInt(myContentLength);
-            myBody = new byte[myContentLengthInt];
-            int totalBytesRead = readInputStream(myInputStream, myContentLengthInt, myBody);
-            if (totalBytesRead != myContentLengthInt) {
-                LOGGER.debug("Failed to read body with content length " + myContentLength + " and read length " + totalBytesRead + "." + "Read content is " + new String(myBody));
-                LOGGER.error("Failed to read body");
-                myIsValid = false;
-            }
+            myBody = aRequestBuffer.readBody(Integer.parseInt(myContentLength));
         }
 
         String myContentType =
@@ -159,10 +130,10 @@ public class HTTPRequestParser {
                 myHeaders,
                 myQueryParams,
                 myParams,
-                myRemoteAddress,
+                aRemoteAddress,
                 myBody,
                 aSessionsContainer,
-                theServer.isSecure());
+                theSecure);
 
         if (myResultRequest.headers(Header.COOKIE.getHeaderString()) != null) {
             String myCookieHeader = myResultRequest.headers(Header.COOKIE.getHeaderString());
@@ -197,21 +168,32 @@ public class HTTPRequestParser {
         return true;
     }
 
-    private int readInputStream(InputStream aInputStream, int aContentLength, byte[] aDest) throws IOException {
-        byte[] myResBuffer = new byte[1024];
-        int myTotalBytesRead = 0;
-        while (myTotalBytesRead < aContentLength) {
-            int myBytesRead = aInputStream.read(myResBuffer, 0, Math.min(myResBuffer.length, aContentLength - myTotalBytesRead));
-            if (myBytesRead == -1) {
-                throw new IOException("End of stream reached prematurely");
+    /**
+     * Index of the '\n' that ends the line starting at aStart, or aEnd if there is none.
+     */
+    private static int lineEnd(byte[] aBytes, int aStart, int aEnd) {
+        for (int i = aStart; i < aEnd; i++) {
+            if (aBytes[i] == '\n') {
+                return i;
             }
-            System.arraycopy(myResBuffer, 0, aDest, myTotalBytesRead, myBytesRead);
-            myTotalBytesRead += myBytesRead;
-            if (myBytesRead == 0) {
-                LOGGER.error("Failed to read bytes");
-                return myTotalBytesRead;
+        }
+        return aEnd;
+    }
+
+    private static int contentEnd(byte[] aBytes, int aStart, int aLineEnd) {
+        return (aLineEnd > aStart && aBytes[aLineEnd - 1] == '\r') ? aLineEnd - 1 : aLineEnd;
+    }
+
+    private static String decodeLine(byte[] aBytes, int aStart, int aLineEnd) {
+        return new String(aBytes, aStart, contentEnd(aBytes, aStart, aLineEnd) - aStart, StandardCharsets.UTF_8);
+    }
+
+    private static int indexOfSeparator(byte[] aBytes, int aStart, int aEnd) {
+        for (int i = aStart; i + 1 < aEnd; i++) {
+            if (aBytes[i] == ':' && aBytes[i + 1] == ' ') {
+                return i;
             }
         }
-        return myTotalBytesRead;
+        return -1;
     }
 }
@@ -5,26 +5,33 @@ import cis5550.webserver.datamodels.Range;
 import java.util.Objects;
 
 public class RangeParser {
-    public static boolean isValidRange(Range aRange, long aFileSize) {
-        if (aRange == null) {
-            return false;
+    /**
+     * Turns a parsed range into concrete first and last byte offsets within a file of the given size, or returns null
+     * if the range cannot be satisfied. A suffix range ("-N") selects the last N bytes, and an end past the last byte
+     * is clamped to it.
+     */
+    public static Range resolveRange(Range aRange, long aFileSize) {
+        if (aRange == null || aFileSize <= 0) {
+            return null;
         }
 
         long myStart = aRange.getStart();
         long myEnd = aRange.getEnd();
         if (myStart == Range.DISABLED_START && myEnd == Range.DISABLED_END) {
-            return false;
+            return null;
         }
 
         if (myStart == Range.DISABLED_START) {
-            return myEnd >= 0 && myEnd < aFileSize;
+            if (myEnd <= 0) {
+                return null;
+            }
+            return new Range(Math.max(0, aFileSize - myEnd), aFileSize - 1);
         }
 
-        if (myEnd == Range.DISABLED_END) {
-            return myStart >= 0 && myStart < aFileSize;
+        if (myStart < 0 || myStart >= aFileSize || myEnd < myStart) {
+            return null;
         }
-
-        return myStart >= 0 && myEnd >= 0 && myStart < aFileSize && myEnd < aFileSize && myStart <= myEnd;
+        return new Range(myStart, Math.min(myEnd, aFileSize - 1));
     }
 
     public static Range parseRange(String aRange) {
@@ -0,0 +1,120 @@
+package cis5550.webserver.parsers;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Read buffer for one connection. Bytes are read from the stream in blocks and stay in the buffer until they are
+ * consumed, so whatever arrives after a request's header block is kept for its body or for the next pipelined
+ * request. The parser works directly on {@link #array()} between {@link #position()} and the end of the headers.
+ */
+public class RequestBuffer {
+    public static final int DEFAULT_SIZE = 8 * 1024;
+    public static final int MAX_HEADER_SIZE = 1024 * 1024;
+    public static final int MAX_BODY_SIZE = 1024 * 1024 * 1024;
+    private static final byte[] END_SEQUENCE = new byte[]{13, 10, 13, 10};
+
+    private final InputStream theInput;
+    private byte[] theBuffer;
+    private int thePosition;
+    private int theLimit;
+
+    public RequestBuffer(InputStream aInput) {
+        theInput = aInput;
+        theBuffer = new byte[DEFAULT_SIZE];
+        thePosition = 0;
+        theLimit = 0;
+    }
+
+    private RequestBuffer(byte[] aBytes, int aOffset, int aLength) {
+        theInput = null;
+        theBuffer = aBytes;
+        thePosition = aOffset;
+        theLimit = aOffset + aLength;
+    }
+
+    /**
+     * Wraps bytes that have already been read, without copying them.
+     */
+    public static RequestBuffer wrap(byte[] aBytes, int aOffset, int aLength) {
+        return new RequestBuffer(aBytes, aOffset, aLength);
+    }
+
+    public byte[] array() {
+        return theBuffer;
+    }
+
+    public int position() {
+        return thePosition;
+    }
+
+    public void position(int aPosition) {
+        thePosition = aPosition;
+    }
+
+    /**
+     * Reads until the buffer holds a whole header block starting at {@link #position()} and returns the index just
+     * past its blank line, or -1 if the stream ends first.
+     */
+    public int fillHeaders() throws IOException {
+        int myScanned = 0;
+        while (true) {
+            for (int i = thePosition + Math.max(0, myScanned - END_SEQUENCE.length + 1); i + END_SEQUENCE.length <= theLimit; i++) {
+                if (theBuffer[i] == END_SEQUENCE[0] && theBuffer[i + 1] == END_SEQUENCE[1]
+                        && theBuffer[i + 2] == END_SEQUENCE[2] && theBuffer[i + 3] == END_SEQUENCE[3]) {
+                    return i + END_SEQUENCE.length;
+                }
+            }
+            myScanned = theLimit - thePosition;
+            if (myScanned > MAX_HEADER_SIZE) {
+                throw new IOException("Request header is larger than " + MAX_HEADER_SIZE + " bytes");
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Returns the next aLength bytes, taking what is already buffered first and reading the rest straight from the
+     * stream into the result.
+     */
+    public byte[] readBody(int aLength) throws IOException {
+        byte[] myBody = new byte[aLength];
+        int myBuffered = Math.min(aLength, theLimit - thePosition);
+        System.arraycopy(theBuffer, thePosition, myBody, 0, myBuffered);
+        thePosition += myBuffered;
+
+        int myRead = myBuffered;
+        while (myRead < aLength) {
+            int myBytesRead = theInput == null ? -1 : theInput.read(myBody, myRead, aLength - myRead);
+            if (myBytesRead < 0) {
+                throw new EOFException("End of stream reached prematurely");
+            }
+            myRead += myBytesRead;
+        }
+        return myBody;
+    }
+
+    private boolean fill() throws IOException {
+        if (theInput == null) {
+            return false;
+        }
+        if (thePosition > 0) {
+            System.arraycopy(theBuffer, thePosition, theBuffer, 0, theLimit - thePosition);
+            theLimit -= thePosition;
+            thePosition = 0;
+        }
+        if (theLimit == theBuffer.length) {
+            theBuffer = Arrays.copyOf(theBuffer, theBuffer.length * 2);
+        }
+        int myBytesRead = theInput.read(theBuffer, theLimit, theBuffer.length - theLimit);
+        if (myBytesRead < 0) {
+            return false;
+        }
+        theLimit += myBytesRead;
+        return true;
+    }
+}